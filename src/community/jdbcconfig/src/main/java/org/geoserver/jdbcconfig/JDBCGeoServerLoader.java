@@ -56,6 +56,7 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
 
         URL initScript = config.isInitDb() ? config.getInitScript() : null;
         configDatabase.initDb(initScript);
+        configDatabase.setChangeLogPollInterval(config.getChangeLogPollInterval());
 
         config.setInitDb(false);
         config.save();
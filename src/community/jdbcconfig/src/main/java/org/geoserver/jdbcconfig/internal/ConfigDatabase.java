@@ -15,17 +15,32 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +56,7 @@ import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.impl.ClassMappings;
 import org.geoserver.catalog.impl.ModificationProxy;
@@ -49,9 +65,12 @@ import org.geoserver.catalog.impl.StoreInfoImpl;
 import org.geoserver.catalog.impl.StyleInfoImpl;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.catalog.util.CloseableIteratorAdapter;
+import org.geoserver.config.ConfigurationListener;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.LoggingInfo;
 import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
 import org.geoserver.config.impl.CoverageAccessInfoImpl;
 import org.geoserver.config.impl.GeoServerImpl;
 import org.geoserver.config.impl.GeoServerInfoImpl;
@@ -67,6 +86,8 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -90,12 +111,40 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 /**
- * 
+ * Stores the catalog and configuration objects in a database, caching the deserialized objects.
+ * <p>
+ * Query results are fetched in batches: the ids of a page of results that are not cached yet are
+ * loaded with a single query.
+ * </p>
+ * <p>
+ * When the <code>object_change</code> table exists every add, save and remove is recorded in it,
+ * and {@link #setChangeLogPollInterval(long) polling} it allows several GeoServer instances
+ * sharing the same database to invalidate the objects changed by the others, and hence to keep
+ * their caches warm without serving stale objects. The changes made by other instances are also
+ * notified to the local catalog and configuration listeners, as modify or remove events, so that
+ * the caches built on top of the catalog drop what they derived from the changed objects.
+ * </p>
  */
 public class ConfigDatabase {
 
     public static final Logger LOGGER = Logging.getLogger(ConfigDatabase.class);
 
+    /**
+     * Default number of objects fetched with a single query
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /**
+     * How far back (in change log sequence numbers) each poll looks, to catch changes committed
+     * out of sequence order
+     */
+    static final int CHANGE_LOG_LOOKBACK = 100;
+
+    /**
+     * How long change log entries are kept, in milliseconds
+     */
+    static final long CHANGE_LOG_RETENTION = 60 * 60 * 1000;
+
     private DbMappings dbMappings;
 
     private CatalogImpl catalog;
@@ -112,6 +161,46 @@ public class ConfigDatabase {
 
     private InfoRowMapper<Info> configRowMapper;
 
+    private DataSource dataSource;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * incremented before each cache invalidation, so that batch fetches can tell whether what
+     * they loaded might be stale already
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * whether the object_change table is available
+     */
+    private volatile boolean changeLogEnabled;
+
+    /**
+     * the statement recording a change, Oracle has no identity columns and takes the change
+     * sequence number from seq_OBJECT_CHANGE
+     */
+    private String changeLogInsert = "insert into object_change (id, change_time) "
+            + "values (:id, :change_time)";
+
+    /**
+     * the change log sequence numbers processed so far (only the latest ones are kept), guarded
+     * by itself
+     */
+    private final TreeSet<Long> changesSeen = new TreeSet<Long>();
+
+    /**
+     * the ids changed by this instance and not yet found in the change log, with the time of the
+     * change, so that polling does not notify them again
+     */
+    private final ConcurrentMap<String, Long> localChanges = new ConcurrentHashMap<String, Long>();
+
+    private long lastChange = -1;
+
+    private long lastPrune;
+
+    private ScheduledExecutorService changeLogPoller;
+
     /**
      * Protected default constructor needed by spring-jdbc instrumentation
      */
@@ -127,6 +216,7 @@ public class ConfigDatabase {
             CacheProvider cacheProvider) {
 
         this.binding = binding;
+        this.dataSource = dataSource;
         this.template = new NamedParameterJdbcTemplate(dataSource);
 
         this.dbMappings = new DbMappings();
@@ -146,6 +236,53 @@ public class ConfigDatabase {
             runInitScript(initScript);
         }
         dbMappings.initDb(template);
+        changeLogEnabled = hasChangeLog();
+    }
+
+    /**
+     * Checks whether the object_change table exists, through metadata so that the current
+     * transaction is not affected
+     */
+    private boolean hasChangeLog() {
+        try {
+            Connection cx = dataSource.getConnection();
+            try {
+                DatabaseMetaData metaData = cx.getMetaData();
+                if (metaData.getDatabaseProductName().toLowerCase().contains("oracle")) {
+                    changeLogInsert = "insert into object_change (seq, id, change_time) "
+                            + "values (seq_OBJECT_CHANGE.nextval, :id, :change_time)";
+                }
+                for (String name : new String[] { "object_change", "OBJECT_CHANGE" }) {
+                    ResultSet tables = metaData.getTables(null, null, name, null);
+                    try {
+                        if (tables.next()) {
+                            return true;
+                        }
+                    } finally {
+                        tables.close();
+                    }
+                }
+            } finally {
+                cx.close();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Error looking up the object_change table", e);
+        }
+        LOGGER.info("No object_change table found, changes won't be visible to other "
+                + "instances sharing the catalog database");
+        return false;
+    }
+
+    /**
+     * Sets the number of objects fetched with a single query
+     */
+    public void setFetchSize(int fetchSize) {
+        checkArgument(fetchSize > 0);
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
     }
 
     private void runInitScript(URL initScript) throws IOException {
@@ -265,20 +402,13 @@ public class ConfigDatabase {
                     sw.toString()));
         }
 
-        List<T> lazyTransformed = Lists.transform(ids, new Function<String, T>() {
-            @Override
-            public T apply(String id) {
-                return getById(id, of);
-            }
-        });
-
         CloseableIterator<T> result;
 
         if (fullySupported) {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = fetch(ids, of);
             result = new CloseableIteratorAdapter<T>(iterator);
         } else {
-            Iterator<T> iterator = lazyTransformed.iterator();
+            Iterator<T> iterator = fetch(ids, of);
             if (offset != null) {
                 Iterators.skip(iterator, offset.intValue());
             }
@@ -291,6 +421,85 @@ public class ConfigDatabase {
         return result;
     }
 
+    /**
+     * Returns the objects with the specified ids, loading the ones that are not cached a batch at
+     * a time
+     */
+    private <T extends Info> Iterator<T> fetch(final List<String> ids, final Class<T> of) {
+        Iterator<List<String>> batches = Lists.partition(ids, fetchSize).iterator();
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<String>, Iterator<T>>() {
+                    @Override
+                    public Iterator<T> apply(List<String> batch) {
+                        return fetchBatch(batch, of).iterator();
+                    }
+                }));
+    }
+
+    private <T extends Info> List<T> fetchBatch(final List<String> batch, final Class<T> of) {
+        // keeps the loaded objects strongly reachable while the batch is being returned, the
+        // cache might be holding them through weak references
+        final Map<String, Info> loaded = preload(batch, of);
+        List<T> infos = new ArrayList<T>(batch.size());
+        for (String id : batch) {
+            infos.add(getById(id, of));
+        }
+        loaded.clear();
+        return infos;
+    }
+
+    /**
+     * Loads the objects that are not cached yet with a single query, and caches them. Only
+     * catalog objects are loaded this way, configuration objects need further processing and are
+     * loaded one by one.
+     */
+    private Map<String, Info> preload(final List<String> ids, final Class<?> of) {
+        final Map<String, Info> loaded = new HashMap<String, Info>();
+        if (!CatalogInfo.class.isAssignableFrom(of)) {
+            return loaded;
+        }
+        List<String> missing = new ArrayList<String>();
+        for (String id : ids) {
+            if (cache.getIfPresent(id) == null) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() < 2) {
+            // not worth it, let getById load it
+            return loaded;
+        }
+
+        final long version = invalidations.get();
+        final InfoRowMapper<CatalogInfo> mapper = new InfoRowMapper<CatalogInfo>(
+                CatalogInfo.class, binding, 2);
+        String sql = "select id, blob from object where id in ( :ids )";
+        Map<String, ?> params = params("ids", missing);
+        logStatement(sql, params);
+
+        Stopwatch sw = new Stopwatch().start();
+        template.query(sql, params, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                String id = rs.getString(1);
+                CatalogInfo info = mapper.mapRow(rs, loaded.size());
+                if (info != null) {
+                    loaded.put(id, info);
+                    cache.put(id, info);
+                    if (version != invalidations.get()) {
+                        // changed while loading, might be stale
+                        cache.invalidate(id);
+                    }
+                }
+            }
+        });
+        sw.stop();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(Joiner.on("").join("fetched ", loaded.size(), " objects in ",
+                    sw.toString()));
+        }
+        return loaded;
+    }
+
     public <T extends Info> List<T> queryAsList(final Class<T> of, final Filter filter,
             Integer offset, Integer count, SortBy sortOrder) {
 
@@ -344,6 +553,7 @@ public class ConfigDatabase {
             key = keyHolder.getKey();
         }
         addAttributes(info, key);
+        logChange(id);
 
         cache.put(id, info);
         return getById(id, interf);
@@ -541,7 +751,7 @@ public class ConfigDatabase {
         if (oid == null) {
             return;
         }
-        cache.invalidate(info.getId());
+        invalidate(info.getId());
 
         String deleteObject = "delete from object where id = :id";
         String deleteRelatedProperties = "delete from object_property where related_oid = :oid";
@@ -553,8 +763,9 @@ public class ConfigDatabase {
         }
         final int relatedPropCount = template.update(deleteRelatedProperties, params("oid", oid));
         LOGGER.fine("Removed " + relatedPropCount + " related properties of " + info.getId());
+        logChange(info.getId());
 
-        cache.invalidate(info.getId());
+        invalidate(info.getId());
     }
 
     /**
@@ -574,7 +785,7 @@ public class ConfigDatabase {
 
         final Info oldObject = (Info) modificationProxy.getProxyObject();
 
-        cache.invalidate(id);
+        invalidate(id);
 
         // get changed properties before h.commit()s
         final Iterable<Property> changedProperties = dbMappings.changedProperties(oldObject, info);
@@ -602,8 +813,9 @@ public class ConfigDatabase {
         template.update(updateStatement, params);
 
         updateQueryableProperties(oldObject, objectId, changedProperties);
+        logChange(id);
 
-        cache.invalidate(id);
+        invalidate(id);
         Class<T> clazz = ClassMappings.fromImpl(oldObject.getClass()).getInterface();
 
         // / <HACK>
@@ -815,14 +1027,32 @@ public class ConfigDatabase {
 
         final String sql = "select id from object where type_id in ( :types ) order by id";
 
-        List<String> ids = template.queryForList(sql, params, String.class);
+        final List<String> ids = template.queryForList(sql, params, String.class);
+
+        // loads a batch of objects the first time one of them is accessed
+        List<T> transformed = new AbstractList<T>() {
+            final boolean[] fetched = new boolean[(ids.size() + fetchSize - 1) / fetchSize];
+
+            final int batchSize = fetchSize;
 
-        List<T> transformed = Lists.transform(ids, new Function<String, T>() {
             @Override
-            public T apply(String input) {
-                return getById(input, clazz);
+            public T get(int index) {
+                int batch = index / batchSize;
+                if (!fetched[batch]) {
+                    fetched[batch] = true;
+                    int from = batch * batchSize;
+                    List<String> batchIds = ids.subList(from,
+                            Math.min(ids.size(), from + batchSize));
+                    return fetchBatch(batchIds, clazz).get(index - from);
+                }
+                return getById(ids.get(index), clazz);
             }
-        });
+
+            @Override
+            public int size() {
+                return ids.size();
+            }
+        };
         return Collections.unmodifiableList(transformed);
     }
 
@@ -852,10 +1082,258 @@ public class ConfigDatabase {
     }
 
     public void dispose() {
+        setChangeLogPollInterval(0);
+        invalidations.incrementAndGet();
         cache.invalidateAll();
         cache.cleanUp();
     }
 
+    private void invalidate(String id) {
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    /**
+     * Records a change in the change log, as part of the current transaction
+     */
+    private void logChange(String id) {
+        if (!changeLogEnabled) {
+            return;
+        }
+        String sql = changeLogInsert;
+        long now = System.currentTimeMillis();
+        Map<String, ?> params = params("id", id, "change_time", new Timestamp(now));
+        logStatement(sql, params);
+        template.update(sql, params);
+        localChanges.put(id, Long.valueOf(now));
+    }
+
+    /**
+     * Starts (or stops, if <code>interval</code> is zero or negative) polling the change log to
+     * invalidate the objects changed by other instances sharing the same database.
+     * 
+     * @param interval poll interval in milliseconds
+     */
+    public synchronized void setChangeLogPollInterval(long interval) {
+        if (changeLogPoller != null) {
+            changeLogPoller.shutdownNow();
+            changeLogPoller = null;
+        }
+        if (interval <= 0) {
+            return;
+        }
+        if (!changeLogEnabled) {
+            LOGGER.warning("Change log polling requested but the object_change table is missing");
+            return;
+        }
+        changeLogPoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jdbcconfig change log poller");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        changeLogPoller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollChangeLog();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Error polling the catalog change log", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Invalidates the cached objects that have been changed since the last poll, by this or
+     * other instances sharing the database, and notifies the listeners of the changes made by
+     * the other instances.
+     * <p>
+     * The first call only records the current position in the change log. If the log has been
+     * pruned past the last position seen the whole cache is invalidated, and the listeners are
+     * told the catalog has been reloaded.
+     * </p>
+     * 
+     * @return the number of changes found
+     */
+    public int pollChangeLog() {
+        if (!changeLogEnabled) {
+            return 0;
+        }
+        final Map<String, Info> remoteChanges = new LinkedHashMap<String, Info>();
+        final int[] changes = new int[1];
+        synchronized (changesSeen) {
+            final Map<String, ?> noParams = Collections.emptyMap();
+            if (lastChange < 0) {
+                lastChange = template.queryForLong(
+                        "select coalesce(max(seq), 0) from object_change", noParams);
+                changesSeen.addAll(template.queryForList(
+                        "select seq from object_change where seq > :seq",
+                        params("seq", Long.valueOf(lastChange - CHANGE_LOG_LOOKBACK)), Long.class));
+                localChanges.clear();
+                return 0;
+            }
+
+            long oldest = template.queryForLong("select coalesce(min(seq), 0) from object_change",
+                    noParams);
+            if (oldest > lastChange + 1) {
+                LOGGER.info("Catalog change log pruned past the last change seen, "
+                        + "invalidating the whole cache");
+                invalidations.incrementAndGet();
+                cache.invalidateAll();
+                changesSeen.clear();
+                localChanges.clear();
+                lastChange = template.queryForLong(
+                        "select coalesce(max(seq), 0) from object_change", noParams);
+                fireReloaded();
+                return 0;
+            }
+
+            // look back a bit as transactions do not necessarily commit in sequence order
+            final long from = Math.max(0, lastChange - CHANGE_LOG_LOOKBACK);
+            String sql = "select seq, id from object_change where seq > :seq order by seq";
+            Map<String, ?> params = params("seq", Long.valueOf(from));
+            logStatement(sql, params);
+
+            template.query(sql, params, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    Long seq = Long.valueOf(rs.getLong(1));
+                    if (changesSeen.add(seq)) {
+                        String id = rs.getString(2);
+                        Info old = cache.getIfPresent(id);
+                        invalidate(id);
+                        if (localChanges.remove(id) == null) {
+                            remoteChanges.put(id, old);
+                        }
+                        changes[0]++;
+                        lastChange = Math.max(lastChange, seq.longValue());
+                    }
+                }
+            });
+            changesSeen.headSet(Long.valueOf(from)).clear();
+
+            if (System.currentTimeMillis() - lastPrune > CHANGE_LOG_RETENTION / 10) {
+                pruneChangeLog();
+            }
+            if (changes[0] > 0 && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Invalidated " + changes[0] + " objects changed in the catalog");
+            }
+        }
+
+        // notify out of the lock, listeners are likely to call back into the database
+        for (Map.Entry<String, Info> change : remoteChanges.entrySet()) {
+            try {
+                fireRemoteChange(change.getKey(), change.getValue());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error notifying the change of " + change.getKey(), e);
+            }
+        }
+        return changes[0];
+    }
+
+    /**
+     * Notifies the listeners of a change made by another instance, as a modification if the
+     * object still exists, or as a removal otherwise
+     * 
+     * @param old the object as cached before the change, if it was
+     */
+    @SuppressWarnings("unchecked")
+    private void fireRemoteChange(String id, @Nullable Info old) {
+        final List<Object> none = Collections.emptyList();
+        final List<String> noProperties = Collections.emptyList();
+        Info info = null;
+        final Map<String, ?> params = params("id", id);
+        List<Integer> typeIds = template.queryForList(
+                "select type_id from object where id = :id", params, Integer.class);
+        if (!typeIds.isEmpty()) {
+            Class<?> type = dbMappings.getType(typeIds.get(0));
+            info = getById(id, type == null ? Info.class : (Class<Info>) type);
+        }
+
+        if (info instanceof CatalogInfo) {
+            if (catalog != null) {
+                catalog.fireModified((CatalogInfo) info, noProperties, none, none);
+                catalog.firePostModified((CatalogInfo) info);
+            }
+        } else if (info != null) {
+            if (geoServer == null) {
+                return;
+            }
+            for (ConfigurationListener l : geoServer.getListeners()) {
+                if (info instanceof ServiceInfo) {
+                    l.handleServiceChange((ServiceInfo) info, noProperties, none, none);
+                    l.handlePostServiceChange((ServiceInfo) info);
+                } else if (info instanceof SettingsInfo) {
+                    l.handleSettingsModified((SettingsInfo) info, noProperties, none, none);
+                    l.handleSettingsPostModified((SettingsInfo) info);
+                } else if (info instanceof GeoServerInfo) {
+                    l.handleGlobalChange((GeoServerInfo) info, noProperties, none, none);
+                    l.handlePostGlobalChange((GeoServerInfo) info);
+                } else if (info instanceof LoggingInfo) {
+                    l.handleLoggingChange((LoggingInfo) info, noProperties, none, none);
+                    l.handlePostLoggingChange((LoggingInfo) info);
+                }
+            }
+        } else if (old instanceof CatalogInfo && catalog != null) {
+            catalog.fireRemoved((CatalogInfo) old);
+        } else if (old instanceof ServiceInfo && geoServer != null) {
+            for (ConfigurationListener l : geoServer.getListeners()) {
+                l.handleServiceRemove((ServiceInfo) old);
+            }
+        } else if (old instanceof SettingsInfo && geoServer != null) {
+            for (ConfigurationListener l : geoServer.getListeners()) {
+                l.handleSettingsRemoved((SettingsInfo) old);
+            }
+        } else {
+            // removed and not known to this instance, whatever depended on it has to go
+            fireReloaded();
+        }
+    }
+
+    /**
+     * Tells the listeners the catalog and configuration may have changed altogether
+     */
+    private void fireReloaded() {
+        if (catalog != null) {
+            for (Object l : catalog.getListeners()) {
+                try {
+                    ((CatalogListener) l).reloaded();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error notifying the catalog reload", e);
+                }
+            }
+        }
+        if (geoServer != null) {
+            for (ConfigurationListener l : geoServer.getListeners()) {
+                try {
+                    l.reloaded();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error notifying the configuration reload", e);
+                }
+            }
+        }
+    }
+
+    private void pruneChangeLog() {
+        lastPrune = System.currentTimeMillis();
+        String sql = "delete from object_change where change_time < :cutoff";
+        Map<String, ?> params = params("cutoff", new Timestamp(lastPrune - CHANGE_LOG_RETENTION));
+        // local changes never found in the log have been rolled back
+        for (Iterator<Long> it = localChanges.values().iterator(); it.hasNext();) {
+            if (it.next().longValue() < lastPrune - CHANGE_LOG_RETENTION) {
+                it.remove();
+            }
+        }
+        try {
+            template.update(sql, params);
+        } catch (DataAccessException e) {
+            LOGGER.log(Level.FINE, "Error pruning the catalog change log", e);
+        }
+    }
+
     private final class CatalogLoader implements Callable<CatalogInfo> {
 
         private final String id;
@@ -75,6 +75,18 @@ public class JDBCConfigProperties extends Properties {
         setProperty("import", String.valueOf(imprt));
     }
 
+    /**
+     * How often (in milliseconds) the catalog change log is polled to pick up the changes made by
+     * other instances sharing the database, zero or negative to disable polling.
+     */
+    public long getChangeLogPollInterval() {
+        return Long.parseLong(getProperty("changeLogPollInterval", "0").trim());
+    }
+
+    public void setChangeLogPollInterval(long interval) {
+        setProperty("changeLogPollInterval", String.valueOf(interval));
+    }
+
     public void save() throws IOException {
         factory.saveConfig(this);
     }
@@ -26,3 +26,4 @@ DROP TABLE object_property CASCADE;
 DROP TABLE type CASCADE;
 DROP TABLE property_type CASCADE;
 DROP TABLE default_object CASCADE;
+DROP TABLE object_change CASCADE;
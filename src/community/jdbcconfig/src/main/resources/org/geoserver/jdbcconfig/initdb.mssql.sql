@@ -27,3 +27,5 @@ CREATE INDEX PROPERTY_TYPE_NAME ON PROPERTY_TYPE (NAME);
 CREATE INDEX PROPERTY_TYPE_COLLECTION ON PROPERTY_TYPE (COLLECTION);
 CREATE UNIQUE INDEX DEFAULT_OBJECT_DEF_KEY ON DEFAULT_OBJECT (DEF_KEY);
 CREATE INDEX DEFAULT_OBJECT_ID ON DEFAULT_OBJECT (ID);
+CREATE TABLE OBJECT_CHANGE (SEQ bigint IDENTITY NOT NULL, ID varchar(255) NOT NULL, CHANGE_TIME datetime NOT NULL, PRIMARY KEY (SEQ));
+CREATE INDEX OBJECT_CHANGE_CHANGE_TIME ON OBJECT_CHANGE (CHANGE_TIME);
@@ -31,3 +31,6 @@ CREATE INDEX PROPERTY_TYPE_NAME ON PROPERTY_TYPE (NAME);
 CREATE INDEX PROPERTY_TYPE_COLLECTION ON PROPERTY_TYPE (COLLECTION);
 CREATE UNIQUE INDEX DEFAULT_OBJECT_DEF_KEY ON DEFAULT_OBJECT (DEF_KEY);
 CREATE INDEX DEFAULT_OBJECT_ID ON DEFAULT_OBJECT (ID);
+CREATE SEQUENCE seq_OBJECT_CHANGE;
+CREATE TABLE OBJECT_CHANGE (SEQ number(19) NOT NULL, ID varchar2(255) NOT NULL, CHANGE_TIME timestamp NOT NULL, PRIMARY KEY (SEQ));
+CREATE INDEX OBJECT_CHANGE_CHANGE_TIME ON OBJECT_CHANGE (CHANGE_TIME);
@@ -82,6 +82,16 @@ CREATE INDEX property_type_collection_idx ON property_type (collection);
 CREATE INDEX default_object_def_key_idx ON default_object (def_key);
 CREATE INDEX default_object_id_idx ON default_object (id);
 
+-- change log, polled by the cluster members to invalidate their caches
+CREATE TABLE object_change (
+  seq bigserial NOT NULL, 
+  id varchar(255) NOT NULL, 
+  change_time timestamp NOT NULL, 
+  PRIMARY KEY (seq)
+);
+
+CREATE INDEX object_change_change_time_idx ON object_change (change_time);
+
 -- views
 -- workspace view 
 CREATE OR REPLACE VIEW workspace AS
@@ -17,6 +17,10 @@
 package org.geoserver.jdbcconfig.internal;
 
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -24,9 +28,19 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.Info;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.opengis.filter.Filter;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.google.common.collect.ImmutableMap;
 
 /**
  * @author groldan
@@ -114,4 +128,93 @@ public class ConfigDatabaseTest extends TestCase {
         }
         assertEquals(info, saved);
     }
+
+    public void testBatchedFetch() throws Exception {
+        database.setFetchSize(3);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+            ws.setId("ws" + i);
+            ws.setName("ws" + i);
+            database.add(ws);
+            names.add(ws.getName());
+        }
+        database.dispose();
+
+        List<String> queried = new ArrayList<String>();
+        CloseableIterator<WorkspaceInfo> it = database.query(WorkspaceInfo.class,
+                Filter.INCLUDE, null, null, null);
+        try {
+            while (it.hasNext()) {
+                queried.add(it.next().getName());
+            }
+        } finally {
+            it.close();
+        }
+        assertEquals(names.size(), queried.size());
+        assertTrue(queried.containsAll(names));
+
+        database.dispose();
+        List<WorkspaceInfo> all = database.getAll(WorkspaceInfo.class);
+        assertEquals(names.size(), all.size());
+        for (int i = all.size() - 1; i >= 0; i--) {
+            assertEquals(all.get(i), database.getById(all.get(i).getId(), WorkspaceInfo.class));
+        }
+    }
+
+    public void testChangeLog() throws Exception {
+        final List<String> modified = new ArrayList<String>();
+        testSupport.getCatalog().addListener(new CatalogListener() {
+            public void handleAddEvent(CatalogAddEvent event) {
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) {
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) {
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+                modified.add(event.getSource().getId());
+            }
+
+            public void reloaded() {
+            }
+        });
+
+        WorkspaceInfo ws = addWorkspace();
+        // first poll just records the current position
+        database.pollChangeLog();
+        assertEquals("ws1", database.getById(ws.getId(), WorkspaceInfo.class).getName());
+
+        // simulate another instance changing the workspace
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(
+                testSupport.getDataSource());
+        Map<String, ?> params = ImmutableMap.of("id", ws.getId());
+        String blob = template.queryForObject("select blob from object where id = :id", params,
+                String.class);
+        template.update("update object set blob = :blob where id = :id", ImmutableMap.of("id",
+                ws.getId(), "blob", blob.replace("ws1", "remoteName")));
+        template.update("insert into object_change (id, change_time) "
+                + "values (:id, current_timestamp)", params);
+
+        // still cached
+        assertEquals("ws1", database.getById(ws.getId(), WorkspaceInfo.class).getName());
+
+        assertEquals(1, database.pollChangeLog());
+        assertEquals("remoteName", database.getById(ws.getId(), WorkspaceInfo.class).getName());
+        // listeners are told about the remote change
+        assertEquals(Collections.singletonList(ws.getId()), modified);
+
+        // already seen
+        assertEquals(0, database.pollChangeLog());
+
+        // local changes have been notified already
+        modified.clear();
+        WorkspaceInfo local = database.getById(ws.getId(), WorkspaceInfo.class);
+        local.setName("localName");
+        database.save(local);
+        assertEquals(1, database.pollChangeLog());
+        assertTrue(modified.isEmpty());
+    }
 }
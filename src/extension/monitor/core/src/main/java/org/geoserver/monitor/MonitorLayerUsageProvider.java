@@ -0,0 +1,63 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.LayerUsageProvider;
+
+/**
+ * Provides the number of requests each layer received during the last week, as recorded by the
+ * monitor.
+ * <p>
+ * The counts are computed with a query grouping the requests by resource, so that storages
+ * supporting aggregates (the database one) count them instead of loading every request of the
+ * week. Storages that do not support aggregates (the in memory one, which only holds the most
+ * recent requests) visit the requests instead, and each of them is counted once.
+ * </p>
+ */
+public class MonitorLayerUsageProvider implements LayerUsageProvider {
+
+    static final long PERIOD = 7 * 24 * 60 * 60 * 1000l;
+
+    Monitor monitor;
+
+    public MonitorLayerUsageProvider(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public Map<String, Long> getRequestCounts() {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        if (!monitor.isEnabled()) {
+            return counts;
+        }
+
+        Date now = new Date();
+        Query q = new Query().properties("resource").aggregate("count()").group("resource")
+                .between(new Date(now.getTime() - PERIOD), now);
+        monitor.query(q, new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                long requests = 1;
+                if (aggregates != null && aggregates.length > 0
+                        && aggregates[0] instanceof Number) {
+                    requests = ((Number) aggregates[0]).longValue();
+                }
+                List<String> resources = data.getResources();
+                if (resources != null) {
+                    for (String resource : resources) {
+                        if (resource != null) {
+                            Long count = counts.get(resource);
+                            counts.put(resource, count == null ? requests : count + requests);
+                        }
+                    }
+                }
+            }
+        });
+        return counts;
+    }
+}
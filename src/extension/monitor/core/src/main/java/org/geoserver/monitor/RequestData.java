@@ -7,7 +7,9 @@ package org.geoserver.monitor;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.geoserver.platform.ServiceException;
@@ -183,6 +185,12 @@ public class RequestData implements Serializable {
      */
     private List<String> resources = new ArrayList<String>(1);
 
+    /**
+     * The time spent processing each requested resource in milliseconds, when the operation
+     * tracks it
+     */
+    private Map<String, Long> resourceTimes = new LinkedHashMap<String, Long>();
+
     /**
      * The HTTP response length, in bytes
      */
@@ -457,6 +465,14 @@ public class RequestData implements Serializable {
         this.resources = resources;
     }
     
+    public Map<String, Long> getResourceTimes() {
+        return resourceTimes;
+    }
+
+    public void setResourceTimes(Map<String, Long> resourceTimes) {
+        this.resourceTimes = resourceTimes;
+    }
+
     public long getResponseLength() {
         return responseLength;
     }
@@ -510,6 +526,7 @@ public class RequestData implements Serializable {
         clone.setSubOperation(subOperation);
         clone.setOwsVersion(owsVersion);
         clone.setResources(new ArrayList(resources));
+        clone.setResourceTimes(new LinkedHashMap<String, Long>(resourceTimes));
         clone.setResponseLength(responseLength);
         clone.setResponseContentType(responseContentType);
         clone.setErrorMessage(errorMessage);
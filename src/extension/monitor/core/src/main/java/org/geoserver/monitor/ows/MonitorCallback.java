@@ -102,7 +102,20 @@ public class MonitorCallback implements DispatcherCallback {
     }
     
     public Object operationExecuted(Request request, Operation operation, Object result) {
-        return null;
+        RequestData data = monitor.current();
+        if (data == null || operation.getParameters().length == 0) {
+            return result;
+        }
+
+        Object reqObj = operation.getParameters()[0];
+        for (RequestObjectHandler h : handlers) {
+            if (h.canHandle(reqObj)) {
+                h.handleExecuted(reqObj, data);
+                monitor.update();
+                break;
+            }
+        }
+        return result;
     }
     
     public void finished(Request request) {
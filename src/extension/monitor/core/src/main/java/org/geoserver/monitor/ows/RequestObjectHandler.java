@@ -45,6 +45,13 @@ public abstract class RequestObjectHandler {
         }
     }
     
+    /**
+     * Extracts the information only available once the operation has been executed, does
+     * nothing by default.
+     */
+    public void handleExecuted(Object request, RequestData data) {
+    }
+
     protected abstract List<String> getLayers(Object request);
     
     /**
@@ -6,10 +6,12 @@ package org.geoserver.monitor.ows.wms;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.ows.RequestObjectHandler;
 import org.geoserver.ows.util.OwsUtils;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -45,6 +47,15 @@ public class GetFeatureInfoHandler extends RequestObjectHandler {
         return layers;
     }
     
+    @SuppressWarnings("unchecked")
+    @Override
+    public void handleExecuted(Object request, RequestData data) {
+        Map<String, Long> layerTimes = (Map<String, Long>) OwsUtils.get(request, "layerTimes");
+        if (layerTimes != null) {
+            data.getResourceTimes().putAll(layerTimes);
+        }
+    }
+
     @Override
     protected BoundingBox getBBox(Object request) {
     	Object gmr = OwsUtils.get(request, "getMapRequest");
@@ -291,6 +291,21 @@ public class MonitorCallbackTest {
         BBoxAsserts.assertEqualsBbox(new ReferencedEnvelope(48.62,48.62,-123.15,-123.15,logCrs),data.getBbox(), 0.01);
     }
     
+    @Test
+    public void testWMSGetFeatureInfoLayerTimes() throws Exception {
+        GetFeatureInfoRequest gfi = new GetFeatureInfoRequest();
+        gfi.setQueryLayers(Arrays.asList(createMapLayer("foo", "acme"), createMapLayer("bar", "acme")));
+        gfi.getLayerTimes().put("acme:foo", 12l);
+        gfi.getLayerTimes().put("acme:bar", 34l);
+
+        Operation op = op("GetFeatureInfo", "WMS", "1.1.1", gfi);
+        Object result = new Object();
+        assertEquals(result, callback.operationExecuted(new Request(), op, result));
+
+        assertEquals(Long.valueOf(12), data.getResourceTimes().get("acme:foo"));
+        assertEquals(Long.valueOf(34), data.getResourceTimes().get("acme:bar"));
+    }
+
     @Test
     public void testWMSGetLegendGraphic() throws Exception {
         WMS wms = new WMS(createMock(GeoServer.class));
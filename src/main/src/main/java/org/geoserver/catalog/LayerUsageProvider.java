@@ -0,0 +1,21 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.Map;
+
+/**
+ * Extension point providing historical usage information about layers, used to decide which
+ * resources are worth preparing ahead of time (see {@link ResourcePoolWarmer}).
+ * 
+ */
+public interface LayerUsageProvider {
+
+    /**
+     * Returns the number of requests each layer received in the recent past, keyed by layer name
+     * (either prefixed or not). Layers that were not requested can be omitted.
+     */
+    Map<String, Long> getRequestCounts();
+}
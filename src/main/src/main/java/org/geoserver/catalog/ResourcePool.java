@@ -25,9 +25,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.logging.Level;
@@ -44,6 +47,7 @@ import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.catalog.util.KeyedLoader;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
@@ -160,6 +164,17 @@ public class ResourcePool {
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
+    
+    KeyedLoader<String, CoordinateReferenceSystem> crsLoader = 
+        new KeyedLoader<String, CoordinateReferenceSystem>("crs");
+    KeyedLoader<String, DataAccess> dataStoreLoader = 
+        new KeyedLoader<String, DataAccess>("dataStore");
+    KeyedLoader<String, FeatureType> featureTypeLoader = 
+        new KeyedLoader<String, FeatureType>("featureType");
+    KeyedLoader<String, List<AttributeTypeInfo>> attributeLoader = 
+        new KeyedLoader<String, List<AttributeTypeInfo>>("featureTypeAttribute");
+    KeyedLoader<Object, GridCoverageReader> coverageReaderLoader = 
+        new KeyedLoader<Object, GridCoverageReader>("coverageReader");
 
     /**
      * Creates a new instance of the resource pool.
@@ -236,7 +251,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new ConcurrentHashMap<String, CoordinateReferenceSystem>();
     }
 
     /**
@@ -360,9 +375,9 @@ public class ResourcePool {
      */
     public void setFeatureTypeCacheSize(int featureTypeCacheSize) {
         synchronized (this) {
-            featureTypeCache.clear();
+            featureTypeLoader.invalidate(featureTypeCache);
             featureTypeCache = createFeatureTypeCache(featureTypeCacheSize);
-            featureTypeAttributeCache.clear();
+            attributeLoader.invalidate(featureTypeAttributeCache);
             featureTypeAttributeCache = createFeatureTypeAttributeCache(featureTypeCacheSize);
         }
     }
@@ -410,29 +425,34 @@ public class ResourcePool {
      * @throws IOException In the event the srsName can not be parsed or leads 
      * to an exception in the underlying call to CRS.decode.
      */
-    public CoordinateReferenceSystem getCRS( String srsName )
+    public CoordinateReferenceSystem getCRS( final String srsName )
         throws IOException {
         
         if(srsName == null)
             return null;
         
         CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
+        if ( crs != null ) {
+            crsLoader.hit();
+            return crs;
+        }
+        
+        final long generation = crsLoader.getGeneration();
+        return crsLoader.load(srsName, new Callable<CoordinateReferenceSystem>() {
+            public CoordinateReferenceSystem call() throws Exception {
+                CoordinateReferenceSystem crs = crsCache.get( srsName );
                 if ( crs == null ) {
                     try {
                         crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
+                        crsLoader.store( crsCache, srsName, crs, generation );
                     }
                     catch( Exception e) {
                         throw (IOException) new IOException().initCause(e);
                     }
                 }
+                return crs;
             }
-        }
-        
-        return crs;
+        });
     }
     
     /**
@@ -472,97 +492,112 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
+        final String id = info.getId();
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = 
+            id != null ? (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id) : null;
+        if ( dataStore != null ) {
+            dataStoreLoader.hit();
+            return dataStore;
+        }
+        
+        // load it, concurrent requests for the same store will wait for this load to complete
+        final long generation = dataStoreLoader.getGeneration();
+        return dataStoreLoader.load(id, new Callable<DataAccess>() {
+            public DataAccess call() throws Exception {
+                DataAccess dataStore = id != null ? dataStoreCache.get(id) : null;
+                if ( dataStore == null ) {
+                    dataStore = createDataStore(info);
+                    
+                    // cache only if the id is not null, no need to cache the stores
+                    // returned from un-saved DataStoreInfo objects (it would be actually
+                    // harmful, NPE when trying to dispose of them)
+                    if(id != null) {
+                        dataStoreLoader.store( dataStoreCache, id, dataStore, generation );
+                    }
+                }
+                return dataStore;
+            }
+        });
+    }
+    
+    /**
+     * Connects to the underlying resource of a datastore.
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
         try {
-            String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
+            //create data store
+            Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+            
+            //call this methdo to execute the hack which recognizes 
+            // urls which are relative to the data directory
+            // TODO: find a better way to do this
+            connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+            
+            // obtain the factory
+            DataAccessFactory factory = null;
+            try {
+                factory = getDataStoreFactory(info);
+            } catch(IOException e) {
+                throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                        + ", did you forget to install the store extension jar?");
+            }
+            Param[] params = factory.getParametersInfo();
+            
+            //ensure that the namespace parameter is set for the datastore
+            if (!connectionParameters.containsKey( "namespace") && params != null) {
+                //if we grabbed the factory, check that the factory actually supports
+                // a namespace parameter, if we could not get the factory, assume that
+                // it does
+                boolean supportsNamespace = true;
+                supportsNamespace = false;
+                
+                for ( Param p : params ) {
+                    if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                        supportsNamespace = true;
+                        break;
                     }
-                } 
+                }
+                
+                if ( supportsNamespace ) {
+                    WorkspaceInfo ws = info.getWorkspace();
+                    NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                    if ( ns == null ) {
+                        ns = info.getCatalog().getDefaultNamespace();
+                    }
+                    if ( ns != null ) {
+                        connectionParameters.put( "namespace", ns.getURI() );
+                    }    
+                }
+            }
+            
+            // see if the store has a repository param, if so, pass the one wrapping
+            // the store
+            if(params != null) {
+                for ( Param p : params ) {
+                    if(Repository.class.equals(p.getType())) {
+                        connectionParameters.put(p.getName(), repository);
+                    }
+                }
             }
             
+            dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+            if (dataStore == null) {
+                /*
+                 * Preserve DataStore retyping behaviour by calling
+                 * DataAccessFinder.getDataStore after the call to
+                 * DataStoreUtils.getDataStore above.
+                 * 
+                 * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                 * supported for DataAccess, we can use a single mechanism.
+                 */
+                dataStore = DataAccessFinder.getDataStore(connectionParameters);
+            }
+            
+            if ( dataStore == null ) {
+                throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+            }
             return dataStore;
         } catch (Exception e) {
             // if anything goes wrong we have to clean up the store anyways
@@ -630,7 +665,7 @@ public class ResourcePool {
         dataStoreCache.remove( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -643,10 +678,19 @@ public class ResourcePool {
         }
         
         //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
+        final String id = info.getId();
+        List<AttributeTypeInfo> atts = id != null ? 
+            (List<AttributeTypeInfo>) featureTypeAttributeCache.get(id) : null;
+        if (atts != null) {
+            attributeLoader.hit();
+            return atts;
+        }
+        
+        final long generation = attributeLoader.getGeneration();
+        return attributeLoader.load(id, new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                List<AttributeTypeInfo> atts = id != null ? 
+                    (List<AttributeTypeInfo>) featureTypeAttributeCache.get(id) : null;
                 if (atts == null) {
                     //load from feature type
                     atts = loadAttributes(info);
@@ -661,14 +705,13 @@ public class ResourcePool {
                     }
                     
                     // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
+                    if(id != null) {
+                        attributeLoader.store(featureTypeAttributeCache, id, atts, generation);
                     }
                 }
+                return atts;
             }
-        }
-        
-        return atts;
+        });
     }
     
     public List<AttributeTypeInfo> loadAttributes(FeatureTypeInfo info) throws IOException {
@@ -799,100 +842,122 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
-        boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
+        final boolean cacheable = isCacheable(info) && handleProjectionPolicy;
+        final String id = cacheable ? info.getId() : null;
+        if ( cacheable ) {
+            FeatureType ft = (FeatureType) featureTypeCache.get( id );
+            if ( ft != null ) {
+                featureTypeLoader.hit();
+                return ft;
+            }
+        }
+        
+        // load it, concurrent requests for the same feature type will wait for this load 
+        // to complete, non cacheable ones are always loaded
+        final long generation = featureTypeLoader.getGeneration();
+        return featureTypeLoader.load(id, new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                FeatureType ft = cacheable ? (FeatureType) featureTypeCache.get( id ) : null;
+                if ( ft == null ) {
+                    ft = loadFeatureType(info, handleProjectionPolicy, cacheable);
+                    if ( cacheable ) {
+                        featureTypeLoader.store( featureTypeCache, id, ft, generation );
+                    }
+                }
+                return ft;
+            }
+        });
+    }
     
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+    /**
+     * Loads the feature type from the underlying store, without caching it.
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, 
+        boolean cacheable ) throws IOException {
+        FeatureType ft;
+        
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+    
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -1155,7 +1220,7 @@ public class ResourcePool {
      * @throws IOException Any errors that occur loading the reader.
      */
     @SuppressWarnings("deprecation")
-    public GridCoverageReader getGridCoverageReader( CoverageStoreInfo info, Hints hints ) 
+    public GridCoverageReader getGridCoverageReader( final CoverageStoreInfo info, Hints hints ) 
         throws IOException {
         
         final AbstractGridFormat gridFormat = info.getFormat();
@@ -1164,7 +1229,7 @@ public class ResourcePool {
         }
         
         GridCoverageReader reader = null;
-        Object key;
+        final Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
             final String formatName = gridFormat.getName();
@@ -1188,38 +1253,45 @@ public class ResourcePool {
         }
         
         if (reader != null) {
+            coverageReaderLoader.hit();
             return reader;
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-            if (key != null) {
-                if (hints != null) {
-                    reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                } else {
-                    reader = (GridCoverageReader) coverageReaderCache.get(key);
-                }
-            }
-            if (reader == null) {
-                /////////////////////////////////////////////////////////
-                //
-                // Getting coverage reader using the format and the real path.
-                //
-                // /////////////////////////////////////////////////////////
-                final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
-    
-                reader = gridFormat.getReader(obj,hints);
-                if(key != null) {
-                    if(hints != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
+        // load it, concurrent requests for the same reader will wait for this load to complete
+        final Hints readerHints = hints;
+        final long generation = coverageReaderLoader.getGeneration();
+        return coverageReaderLoader.load(key, new Callable<GridCoverageReader>() {
+            public GridCoverageReader call() throws Exception {
+                GridCoverageReader reader = null;
+                if (key != null) {
+                    if (readerHints != null) {
+                        reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
                     } else {
-                        coverageReaderCache.put((String) key, reader);
+                        reader = (GridCoverageReader) coverageReaderCache.get(key);
                     }
                 }
-            }
-        }
+                if (reader == null) {
+                    /////////////////////////////////////////////////////////
+                    //
+                    // Getting coverage reader using the format and the real path.
+                    //
+                    // /////////////////////////////////////////////////////////
+                    final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
         
-        return reader;
-            
+                    reader = gridFormat.getReader(obj,readerHints);
+                    if(key != null) {
+                        if(readerHints != null) {
+                            coverageReaderLoader.store(hintCoverageReaderCache,
+                                    (CoverageHintReaderKey) key, reader, generation);
+                        } else {
+                            coverageReaderLoader.store(coverageReaderCache, (String) key, reader,
+                                    generation);
+                        }
+                    }
+                }
+                return reader;
+            }
+        });
     }
     
     /**
@@ -1602,17 +1674,30 @@ public class ResourcePool {
         return new GeoServerDataDirectory(catalog.getResourceLoader());
     }
 
+    /**
+     * Returns the loading statistics (hits, misses, load times, waiting threads) of the 
+     * resource caches, keyed by cache name.
+     */
+    public Map<String, KeyedLoader<?, ?>> getLoaderStatistics() {
+        Map<String, KeyedLoader<?, ?>> stats = new LinkedHashMap<String, KeyedLoader<?, ?>>();
+        for (KeyedLoader<?, ?> loader : new KeyedLoader<?, ?>[] { crsLoader, dataStoreLoader, 
+                featureTypeLoader, attributeLoader, coverageReaderLoader }) {
+            stats.put(loader.getName(), loader);
+        }
+        return stats;
+    }
+    
     /**
      * Disposes all cached resources.
      *
      */
     public void dispose() {
-        crsCache.clear();
-        dataStoreCache.clear();
-        featureTypeCache.clear();
-        featureTypeAttributeCache.clear();
-        coverageReaderCache.clear();
-        hintCoverageReaderCache.clear();
+        // loads still running will not put their values back in the cleared caches
+        crsLoader.invalidate(crsCache);
+        dataStoreLoader.invalidate(dataStoreCache);
+        featureTypeLoader.invalidate(featureTypeCache);
+        attributeLoader.invalidate(featureTypeAttributeCache);
+        coverageReaderLoader.invalidate(coverageReaderCache, hintCoverageReaderCache);
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
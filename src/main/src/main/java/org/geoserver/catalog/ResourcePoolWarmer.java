@@ -0,0 +1,339 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInitializer;
+import org.geoserver.platform.ExtensionPriority;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Prepares the {@link ResourcePool} in the background once the configuration has been loaded, so
+ * that the first requests after a restart do not pay for opening stores, introspecting feature
+ * types, creating coverage readers and parsing styles.
+ * <p>
+ * Layers are warmed up in priority order: first the ones explicitly listed, then the ones most
+ * requested according to the available {@link LayerUsageProvider} extensions, then all the others.
+ * The warm-up runs on its own bounded thread pool and never delays the startup, requests for
+ * layers not warmed up yet just load their resources as usual. It is controlled by the following
+ * variables:
+ * <ul>
+ * <li>RESOURCE_POOL_WARMUP_THREADS: number of threads used, the warm-up is disabled when not set
+ * or zero</li>
+ * <li>RESOURCE_POOL_WARMUP_LAYERS: comma separated list of the layers to warm up first</li>
+ * <li>RESOURCE_POOL_WARMUP_LIMIT: maximum number of layers warmed up, all of them when not set</li>
+ * </ul>
+ * </p>
+ */
+public class ResourcePoolWarmer implements GeoServerInitializer, ExtensionPriority,
+        DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolWarmer.class);
+
+    final int threads;
+
+    final List<String> layerNames;
+
+    final int limit;
+
+    volatile ThreadPoolExecutor executor;
+
+    final AtomicInteger total = new AtomicInteger();
+
+    final AtomicInteger completed = new AtomicInteger();
+
+    final AtomicInteger failed = new AtomicInteger();
+
+    volatile long startTime;
+
+    /**
+     * whether the layers to warm up have been determined
+     */
+    volatile boolean prioritized;
+
+    /**
+     * Builds a warmer configured from the RESOURCE_POOL_WARMUP_* variables
+     */
+    public ResourcePoolWarmer() {
+        this(intProperty("RESOURCE_POOL_WARMUP_THREADS", 0),
+                listProperty("RESOURCE_POOL_WARMUP_LAYERS"),
+                intProperty("RESOURCE_POOL_WARMUP_LIMIT", Integer.MAX_VALUE));
+    }
+
+    /**
+     * Builds a warmer
+     *
+     * @param threads Number of threads, zero or negative to disable the warm-up
+     * @param layerNames The layers to warm up first, in order
+     * @param limit The maximum number of layers warmed up
+     */
+    public ResourcePoolWarmer(int threads, List<String> layerNames, int limit) {
+        this.threads = threads;
+        this.layerNames = layerNames;
+        this.limit = limit;
+    }
+
+    static int intProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + name + " value " + value + ", using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    static List<String> listProperty(String name) {
+        List<String> values = new ArrayList<String>();
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            for (String v : value.split("\\s*,\\s*")) {
+                if (v.trim().length() > 0) {
+                    values.add(v.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    public int getPriority() {
+        // run after the initializers setting up the resource pool and coverage access
+        return ExtensionPriority.LOWEST;
+    }
+
+    public void initialize(final GeoServer geoServer) throws Exception {
+        if (threads <= 0) {
+            return;
+        }
+        start(geoServer.getCatalog());
+    }
+
+    /**
+     * Starts warming up the resource pool of the specified catalog, returns immediately
+     */
+    public synchronized void start(final Catalog catalog) {
+        stop();
+        total.set(0);
+        completed.set(0);
+        failed.set(0);
+        prioritized = false;
+        startTime = System.currentTimeMillis();
+
+        executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ResourcePool warm-up " + count.incrementAndGet());
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        // the usage statistics might take a while to gather, don't do it in the caller's thread
+        final ThreadPoolExecutor executor = this.executor;
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    List<LayerInfo> layers = prioritize(catalog);
+                    total.set(layers.size());
+                    LOGGER.info("Warming up the resources of " + layers.size() + " layers");
+                    for (LayerInfo layer : layers) {
+                        executor.execute(new WarmupTask(catalog.getResourcePool(), layer));
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Resource pool warm-up failed", e);
+                } finally {
+                    prioritized = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Sorts the enabled layers by warm-up priority, and applies the limit
+     */
+    List<LayerInfo> prioritize(Catalog catalog) {
+        Map<String, LayerInfo> byName = new HashMap<String, LayerInfo>();
+        List<LayerInfo> others = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : catalog.getLayers()) {
+            if (layer.enabled()) {
+                byName.put(layer.prefixedName(), layer);
+                if (!byName.containsKey(layer.getName())) {
+                    byName.put(layer.getName(), layer);
+                }
+                others.add(layer);
+            }
+        }
+
+        Set<LayerInfo> ordered = new LinkedHashSet<LayerInfo>();
+        for (String name : layerNames) {
+            LayerInfo layer = byName.get(name);
+            if (layer != null) {
+                ordered.add(layer);
+            } else {
+                LOGGER.fine("Layer " + name + " listed for warm-up not found");
+            }
+        }
+
+        final Map<LayerInfo, Long> counts = new HashMap<LayerInfo, Long>();
+        for (LayerUsageProvider provider : GeoServerExtensions.extensions(LayerUsageProvider.class)) {
+            try {
+                for (Map.Entry<String, Long> e : provider.getRequestCounts().entrySet()) {
+                    LayerInfo layer = byName.get(e.getKey());
+                    if (layer != null && e.getValue() != null) {
+                        Long count = counts.get(layer);
+                        counts.put(layer, (count == null ? 0 : count) + e.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to gather layer usage statistics from "
+                        + provider, e);
+            }
+        }
+        List<LayerInfo> used = new ArrayList<LayerInfo>(counts.keySet());
+        Collections.sort(used, new Comparator<LayerInfo>() {
+            public int compare(LayerInfo l1, LayerInfo l2) {
+                return counts.get(l2).compareTo(counts.get(l1));
+            }
+        });
+        ordered.addAll(used);
+        ordered.addAll(others);
+
+        List<LayerInfo> result = new ArrayList<LayerInfo>(ordered);
+        return result.size() > limit ? result.subList(0, Math.max(0, limit)) : result;
+    }
+
+    /**
+     * Loads the resources needed by a single layer
+     */
+    class WarmupTask implements Runnable {
+        ResourcePool pool;
+
+        LayerInfo layer;
+
+        WarmupTask(ResourcePool pool, LayerInfo layer) {
+            this.pool = pool;
+            this.layer = layer;
+        }
+
+        public void run() {
+            try {
+                ResourceInfo resource = layer.getResource();
+                if (resource instanceof FeatureTypeInfo) {
+                    FeatureTypeInfo ft = (FeatureTypeInfo) resource;
+                    pool.getDataStore(ft.getStore());
+                    pool.getFeatureType(ft);
+                } else if (resource instanceof CoverageInfo) {
+                    pool.getGridCoverageReader(((CoverageInfo) resource).getStore(), null);
+                } else if (resource instanceof WMSLayerInfo) {
+                    pool.getWMSLayer((WMSLayerInfo) resource);
+                }
+                if (layer.getDefaultStyle() != null) {
+                    pool.getStyle(layer.getDefaultStyle());
+                }
+                for (StyleInfo style : layer.getStyles()) {
+                    pool.getStyle(style);
+                }
+            } catch (Throwable t) {
+                failed.incrementAndGet();
+                LOGGER.log(Level.FINE, "Failed to warm up layer " + layer.prefixedName(), t);
+            } finally {
+                progress();
+            }
+        }
+    }
+
+    void progress() {
+        int done = completed.incrementAndGet();
+        int total = this.total.get();
+        if (done == total) {
+            LOGGER.info("Warmed up the resources of " + total + " layers in "
+                    + (System.currentTimeMillis() - startTime) + "ms, " + failed.get()
+                    + " failures");
+        } else if (total >= 10 && done % (total / 10) == 0) {
+            LOGGER.info("Warmed up " + done + " of " + total + " layers");
+        }
+    }
+
+    /**
+     * Number of layers to be warmed up, zero until the priorities have been computed
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Number of layers processed so far, including the failed ones
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Number of layers whose resources could not be loaded
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Waits for the warm-up to complete
+     *
+     * @return true if the warm-up completed, false if the timeout expired first
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (executor != null && (!prioritized || completed.get() < total.get())) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the warm-up, if running
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public void destroy() throws Exception {
+        stop();
+    }
+
+    @Override
+    public String toString() {
+        return "ResourcePoolWarmer[completed=" + getCompleted() + ", total=" + getTotal()
+                + ", failed=" + getFailed() + "]";
+    }
+}
@@ -0,0 +1,306 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.event;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Wraps a {@link CatalogListener} so that it receives events asynchronously, on a dedicated
+ * thread, instead of in the thread modifying the catalog.
+ * <p>
+ * Events are queued and delivered in batches. While queued, the events concerning the same
+ * catalog object are coalesced: any number of modify events is delivered as a single modify event
+ * (listing each changed property once, with the oldest old value and the newest new value), and
+ * the same goes for post modify events. Events for the same object are delivered in add, modify,
+ * post modify, remove order, while objects are processed in the order they were first seen in
+ * the batch.
+ * </p>
+ * <p>
+ * Asynchronous listeners cannot veto catalog changes, any {@link CatalogException} they throw is
+ * logged and ignored, and they should be ready to find event sources that have been changed
+ * further since the event was fired.
+ * </p>
+ * <p>
+ * The catalog wraps the listeners whose class name (simple or fully qualified) is listed in the
+ * comma separated CATALOG_ASYNC_LISTENERS variable, see {@link #isAsync(CatalogListener)}. Use
+ * {@link #await(Catalog, long, TimeUnit)} to wait for all the queued events to be delivered.
+ * </p>
+ */
+public class AsyncCatalogListener implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncCatalogListener.class);
+
+    static volatile Set<String> asyncListeners;
+
+    /**
+     * Returns true if the listener has been configured to receive events asynchronously.
+     */
+    public static boolean isAsync(CatalogListener listener) {
+        if (listener instanceof AsyncCatalogListener) {
+            return false;
+        }
+
+        Set<String> names = asyncListeners;
+        if (names == null) {
+            names = new HashSet<String>();
+            String property = GeoServerExtensions.getProperty("CATALOG_ASYNC_LISTENERS");
+            if (property != null) {
+                for (String name : property.split("\\s*,\\s*")) {
+                    if (name.trim().length() > 0) {
+                        names.add(name.trim());
+                    }
+                }
+            }
+            asyncListeners = names;
+        }
+        Class<?> clazz = listener.getClass();
+        return names.contains(clazz.getName()) || names.contains(clazz.getSimpleName());
+    }
+
+    /**
+     * Waits for all the asynchronous listeners of the catalog to be done with the events queued
+     * so far.
+     *
+     * @return true if all the events have been delivered, false if the timeout expired first
+     */
+    public static boolean await(Catalog catalog, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Object listener : new ArrayList<Object>(catalog.getListeners())) {
+            if (listener instanceof AsyncCatalogListener) {
+                long left = deadline - System.nanoTime();
+                if (!((AsyncCatalogListener) listener).await(left, TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The events pending for a single catalog object
+     */
+    static class Pending {
+        CatalogAddEvent add;
+
+        CatalogModifyEventImpl modify;
+
+        CatalogPostModifyEvent postModify;
+
+        CatalogRemoveEvent remove;
+    }
+
+    CatalogListener delegate;
+
+    ThreadPoolExecutor executor;
+
+    /**
+     * Events queued for dispatch, guarded by this
+     */
+    Map<Object, Pending> queue = new LinkedHashMap<Object, Pending>();
+
+    /**
+     * Whether a dispatch task is scheduled or running, guarded by this
+     */
+    boolean dispatching;
+
+    public AsyncCatalogListener(CatalogListener delegate) {
+        this.delegate = delegate;
+
+        final String name = "Catalog events " + delegate.getClass().getSimpleName();
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The wrapped listener
+     */
+    public CatalogListener getDelegate() {
+        return delegate;
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        synchronized (this) {
+            pending(event.getSource()).add = event;
+            schedule();
+        }
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        synchronized (this) {
+            pending(event.getSource()).remove = event;
+            schedule();
+        }
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        synchronized (this) {
+            Pending p = pending(event.getSource());
+            if (p.modify == null) {
+                p.modify = new CatalogModifyEventImpl();
+                p.modify.setPropertyNames(new ArrayList(event.getPropertyNames()));
+                p.modify.setOldValues(new ArrayList(event.getOldValues()));
+                p.modify.setNewValues(new ArrayList(event.getNewValues()));
+            } else {
+                List names = p.modify.getPropertyNames();
+                for (int i = 0; i < event.getPropertyNames().size(); i++) {
+                    Object name = event.getPropertyNames().get(i);
+                    Object newValue = event.getNewValues().get(i);
+                    int idx = names.indexOf(name);
+                    if (idx >= 0) {
+                        p.modify.getNewValues().set(idx, newValue);
+                    } else {
+                        names.add(name);
+                        p.modify.getOldValues().add(event.getOldValues().get(i));
+                        p.modify.getNewValues().add(newValue);
+                    }
+                }
+            }
+            p.modify.setSource(event.getSource());
+            schedule();
+        }
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        synchronized (this) {
+            pending(event.getSource()).postModify = event;
+            schedule();
+        }
+    }
+
+    /**
+     * Delivers the queued events and then forwards the reload notification.
+     */
+    public void reloaded() {
+        try {
+            await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.reloaded();
+    }
+
+    /**
+     * Waits for the events queued so far to be delivered.
+     *
+     * @return true if all the events have been delivered, false if the timeout expired first
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (dispatching) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pending events for the specified object, must be called while holding the lock
+     */
+    Pending pending(CatalogInfo source) {
+        String id = source != null ? source.getId() : null;
+        if (id == null) {
+            // cannot tell which object this is, no coalescing
+            Pending p = new Pending();
+            queue.put(new Object(), p);
+            return p;
+        }
+
+        // once an object has been removed, whatever follows concerns a new incarnation of it,
+        // queue it after everything else
+        String key = id;
+        Pending p = queue.get(key);
+        for (int i = 1; p != null && p.remove != null; i++) {
+            key = id + "#" + i;
+            p = queue.get(key);
+        }
+        if (p == null) {
+            p = new Pending();
+            queue.put(key, p);
+        }
+        return p;
+    }
+
+    /**
+     * Schedules a dispatch, must be called while holding the lock
+     */
+    void schedule() {
+        if (!dispatching) {
+            dispatching = true;
+            executor.execute(new Runnable() {
+                public void run() {
+                    dispatch();
+                }
+            });
+        }
+    }
+
+    void dispatch() {
+        while (true) {
+            Map<Object, Pending> batch;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    dispatching = false;
+                    notifyAll();
+                    return;
+                }
+                batch = queue;
+                queue = new LinkedHashMap<Object, Pending>();
+            }
+
+            for (Pending p : batch.values()) {
+                try {
+                    if (p.add != null) {
+                        delegate.handleAddEvent(p.add);
+                    }
+                    if (p.modify != null) {
+                        delegate.handleModifyEvent(p.modify);
+                    }
+                    if (p.postModify != null) {
+                        delegate.handlePostModifyEvent(p.postModify);
+                    }
+                    if (p.remove != null) {
+                        delegate.handleRemoveEvent(p.remove);
+                    }
+                } catch (Throwable t) {
+                    LOGGER.log(Level.WARNING, "Catalog listener threw exception handling event.", t);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncCatalogListener[" + delegate + "]";
+    }
+}
@@ -41,6 +41,7 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.AsyncCatalogListener;
 import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogEvent;
 import org.geoserver.catalog.event.CatalogListener;
@@ -1335,18 +1336,31 @@ public class CatalogImpl implements Catalog {
     }
 
     public void addListener(CatalogListener listener) {
+        if (AsyncCatalogListener.isAsync(listener)) {
+            listener = new AsyncCatalogListener(listener);
+        }
         listeners.add(listener);
 
     }
 
     public void removeListener(CatalogListener listener) {
-        listeners.remove(listener);
+        for (Iterator it = listeners.iterator(); it.hasNext();) {
+            Object l = it.next();
+            if (l == listener || (l instanceof AsyncCatalogListener 
+                    && ((AsyncCatalogListener) l).getDelegate() == listener)) {
+                it.remove();
+                return;
+            }
+        }
     }
     
     @Override
     public void removeListeners(Class listenerClass) {
         for (Iterator it = listeners.iterator(); it.hasNext();) {
             CatalogListener listener = (CatalogListener) it.next();
+            if (listener instanceof AsyncCatalogListener && !listenerClass.isInstance(listener)) {
+                listener = ((AsyncCatalogListener) listener).getDelegate();
+            }
             if(listenerClass.isInstance(listener)) {
                 it.remove();
             }
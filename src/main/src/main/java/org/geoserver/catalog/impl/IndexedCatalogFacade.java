@@ -0,0 +1,1729 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
+import org.geoserver.ows.util.OwsUtils;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+
+/**
+ * In memory catalog facade that keeps hash indexes on the most commonly looked up properties of
+ * the catalog objects.
+ * <p>
+ * Unlike {@link DefaultCatalogFacade} lookups never take a lock and never scan the whole catalog:
+ * objects are indexed by id, by name and by the id of the object they are contained in (workspace,
+ * namespace, store, resource, style). Each index bucket is an immutable list that gets replaced
+ * (copied on write) when an object is added, removed or saved, so readers always see a consistent
+ * snapshot of the bucket. Writers are serialized among each other.
+ * </p>
+ * <p>
+ * Queries ({@link #list} and {@link #count}) use the same indexes: equality on the indexed
+ * properties (and prefix matches on the name) narrow down the candidates before the rest of the
+ * filter is evaluated, and only the objects actually returned are wrapped in a
+ * {@link ModificationProxy}.
+ * </p>
+ * <p>
+ * The facade is a drop in replacement for the default one, to use it call
+ * {@link CatalogImpl#setFacade(CatalogFacade)} or set the <code>facade</code> property of the
+ * catalog bean in the application context.
+ * </p>
+ */
+public class IndexedCatalogFacade extends AbstractCatalogFacade implements CatalogFacade {
+
+    /**
+     * key used to index objects that are not part of any workspace
+     */
+    static final String NO_KEY = "";
+
+    /**
+     * workspaces, indexed by name
+     */
+    protected volatile InfoIndex<WorkspaceInfo> workspaces = new InfoIndex<WorkspaceInfo>(
+            new IndexAttribute<WorkspaceInfo>() {
+                Collection<String> values(WorkspaceInfo ws) {
+                    return single(ws.getName());
+                }
+            });
+
+    /**
+     * namespaces, indexed by prefix and uri
+     */
+    protected volatile InfoIndex<NamespaceInfo> namespaces = new InfoIndex<NamespaceInfo>(
+            new IndexAttribute<NamespaceInfo>() {
+                Collection<String> values(NamespaceInfo ns) {
+                    return single(ns.getPrefix());
+                }
+            }, new IndexAttribute<NamespaceInfo>() {
+                Collection<String> values(NamespaceInfo ns) {
+                    return single(ns.getURI());
+                }
+            });
+
+    /**
+     * stores, indexed by name and workspace
+     */
+    protected volatile InfoIndex<StoreInfo> stores = new InfoIndex<StoreInfo>(
+            new IndexAttribute<StoreInfo>() {
+                Collection<String> values(StoreInfo store) {
+                    return single(store.getName());
+                }
+            }, new IndexAttribute<StoreInfo>() {
+                Collection<String> values(StoreInfo store) {
+                    return single(id(store.getWorkspace()));
+                }
+            });
+
+    /**
+     * resources, indexed by name, namespace and store
+     */
+    protected volatile InfoIndex<ResourceInfo> resources = new InfoIndex<ResourceInfo>(
+            new IndexAttribute<ResourceInfo>() {
+                Collection<String> values(ResourceInfo resource) {
+                    return single(resource.getName());
+                }
+            }, new IndexAttribute<ResourceInfo>() {
+                Collection<String> values(ResourceInfo resource) {
+                    String ns = id(resource.getNamespace());
+                    return single(ns != null ? ns : NO_KEY);
+                }
+            }, new IndexAttribute<ResourceInfo>() {
+                Collection<String> values(ResourceInfo resource) {
+                    return single(id(resource.getStore()));
+                }
+            });
+
+    /**
+     * layers, indexed by name, resource and style (both default and alternate ones)
+     */
+    protected volatile InfoIndex<LayerInfo> layers = new InfoIndex<LayerInfo>(
+            new IndexAttribute<LayerInfo>() {
+                Collection<String> values(LayerInfo layer) {
+                    return layer.getResource() != null ? single(layer.getName()) : NONE;
+                }
+            }, new IndexAttribute<LayerInfo>() {
+                Collection<String> values(LayerInfo layer) {
+                    return single(id(layer.getResource()));
+                }
+            }, new IndexAttribute<LayerInfo>() {
+                Collection<String> values(LayerInfo layer) {
+                    Set<String> ids = new LinkedHashSet<String>();
+                    if (id(layer.getDefaultStyle()) != null) {
+                        ids.add(id(layer.getDefaultStyle()));
+                    }
+                    for (StyleInfo s : layer.getStyles()) {
+                        if (id(s) != null) {
+                            ids.add(id(s));
+                        }
+                    }
+                    return ids;
+                }
+            });
+
+    /**
+     * layer groups, indexed by name and workspace
+     */
+    protected volatile InfoIndex<LayerGroupInfo> layerGroups = new InfoIndex<LayerGroupInfo>(
+            new IndexAttribute<LayerGroupInfo>() {
+                Collection<String> values(LayerGroupInfo layerGroup) {
+                    return single(layerGroup.getName());
+                }
+            }, new IndexAttribute<LayerGroupInfo>() {
+                Collection<String> values(LayerGroupInfo layerGroup) {
+                    String ws = id(layerGroup.getWorkspace());
+                    return single(ws != null ? ws : NO_KEY);
+                }
+            });
+
+    /**
+     * styles, indexed by name and workspace
+     */
+    protected volatile InfoIndex<StyleInfo> styles = new InfoIndex<StyleInfo>(
+            new IndexAttribute<StyleInfo>() {
+                Collection<String> values(StyleInfo style) {
+                    return single(style.getName());
+                }
+            }, new IndexAttribute<StyleInfo>() {
+                Collection<String> values(StyleInfo style) {
+                    String ws = id(style.getWorkspace());
+                    return single(ws != null ? ws : NO_KEY);
+                }
+            });
+
+    /**
+     * maps, indexed by name
+     */
+    protected volatile InfoIndex<MapInfo> maps = new InfoIndex<MapInfo>(
+            new IndexAttribute<MapInfo>() {
+                Collection<String> values(MapInfo map) {
+                    return single(map.getName());
+                }
+            });
+
+    /**
+     * default workspace and namespace
+     */
+    protected volatile WorkspaceInfo defaultWorkspace;
+
+    protected volatile NamespaceInfo defaultNamespace;
+
+    /**
+     * The default store keyed by workspace id
+     */
+    protected volatile ConcurrentMap<String, DataStoreInfo> defaultStores = 
+        new ConcurrentHashMap<String, DataStoreInfo>();
+
+    /**
+     * serializes writers, readers never acquire it
+     */
+    protected final Object writeLock = new Object();
+
+    /**
+     * the catalog
+     */
+    private CatalogImpl catalog;
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        setCatalog(catalog);
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = (CatalogImpl) catalog;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    //
+    // Stores
+    //
+    public StoreInfo add(StoreInfo store) {
+        resolve(store);
+        synchronized (writeLock) {
+            stores.add(store);
+        }
+        return ModificationProxy.create(store, StoreInfo.class);
+    }
+
+    public void remove(StoreInfo store) {
+        synchronized (writeLock) {
+            stores.remove(unwrap(store));
+        }
+    }
+
+    public void save(StoreInfo store) {
+        beforeSaved(store);
+        synchronized (writeLock) {
+            stores.reindex(commitProxy(store));
+        }
+        afterSaved(store);
+    }
+
+    public <T extends StoreInfo> T detach(T store) {
+        return store;
+    }
+
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        StoreInfo store = stores.get(id);
+        if (clazz.isInstance(store)) {
+            return ModificationProxy.create(clazz.cast(store), clazz);
+        }
+        return null;
+    }
+
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+
+        List<StoreInfo> candidates = stores.lookup(0, name);
+        if (workspace == ANY_WORKSPACE) {
+            T match = null;
+            for (StoreInfo store : candidates) {
+                if (clazz.isInstance(store) && name.equals(store.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = clazz.cast(store);
+                }
+            }
+            return match != null ? ModificationProxy.create(match, clazz) : null;
+        }
+
+        for (StoreInfo store : candidates) {
+            if (clazz.isInstance(store) && name.equals(store.getName())
+                    && store.getWorkspace().equals(workspace)) {
+                return ModificationProxy.create(clazz.cast(store), clazz);
+            }
+        }
+        return null;
+    }
+
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == null) {
+            return Collections.emptyList();
+        }
+
+        List<T> matches = new ArrayList<T>();
+        for (StoreInfo store : stores.lookup(1, workspace.getId())) {
+            if (clazz.isInstance(store) && workspace.equals(store.getWorkspace())) {
+                matches.add(clazz.cast(store));
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    public <T extends StoreInfo> List<T> getStores(Class<T> clazz) {
+        return ModificationProxy.createList(filter(stores.values(), clazz), clazz);
+    }
+
+    public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
+        DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        return defaultStore != null ? ModificationProxy.create(defaultStore, DataStoreInfo.class)
+                : null;
+    }
+
+    public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
+        DataStoreInfo old;
+        synchronized (writeLock) {
+            if (store != null) {
+                old = defaultStores.put(workspace.getId(), unwrap(store));
+            } else {
+                old = defaultStores.remove(workspace.getId());
+            }
+        }
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultDataStore"), Arrays.asList(old),
+                Arrays.asList(store));
+    }
+
+    //
+    // Resources
+    //
+    public ResourceInfo add(ResourceInfo resource) {
+        resolve(resource);
+        synchronized (writeLock) {
+            resources.add(resource);
+        }
+        return ModificationProxy.create(resource, ResourceInfo.class);
+    }
+
+    public void remove(ResourceInfo resource) {
+        synchronized (writeLock) {
+            resources.remove(unwrap(resource));
+        }
+    }
+
+    public void save(ResourceInfo resource) {
+        beforeSaved(resource);
+        synchronized (writeLock) {
+            ResourceInfo real = commitProxy(resource);
+            resources.reindex(real);
+
+            // layer names are derived from the resource name
+            for (LayerInfo layer : layers.lookup(1, real.getId())) {
+                layers.reindex(layer);
+            }
+        }
+        afterSaved(resource);
+    }
+
+    public <T extends ResourceInfo> T detach(T resource) {
+        return resource;
+    }
+
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        ResourceInfo resource = resources.get(id);
+        if (clazz.isInstance(resource)) {
+            return ModificationProxy.create(clazz.cast(resource), clazz);
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+
+        List<ResourceInfo> candidates = resources.lookup(0, name);
+        if (namespace == ANY_NAMESPACE) {
+            T match = null;
+            for (ResourceInfo resource : candidates) {
+                if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = clazz.cast(resource);
+                }
+            }
+            return match != null ? ModificationProxy.create(match, clazz) : null;
+        }
+
+        for (ResourceInfo resource : candidates) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())) {
+                NamespaceInfo namespace1 = resource.getNamespace();
+                if (namespace1 != null && namespace1.equals(namespace)) {
+                    return ModificationProxy.create(clazz.cast(resource), clazz);
+                }
+            }
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> List<T> getResources(Class<T> clazz) {
+        return ModificationProxy.createList(filter(resources.values(), clazz), clazz);
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace,
+            Class<T> clazz) {
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+
+        List<T> matches = new ArrayList<T>();
+        if (namespace != null) {
+            for (ResourceInfo resource : resources.lookup(1, namespace.getId())) {
+                if (clazz.isInstance(resource) && namespace.equals(resource.getNamespace())) {
+                    matches.add(clazz.cast(resource));
+                }
+            }
+        } else {
+            for (ResourceInfo resource : resources.lookup(1, NO_KEY)) {
+                if (clazz.isInstance(resource) && resource.getNamespace() == null) {
+                    matches.add(clazz.cast(resource));
+                }
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        for (ResourceInfo resource : resources.lookup(2, store.getId())) {
+            if (clazz.isInstance(resource) && name.equals(resource.getName())
+                    && store.equals(resource.getStore())) {
+                return ModificationProxy.create(clazz.cast(resource), clazz);
+            }
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        List<T> matches = new ArrayList<T>();
+        for (ResourceInfo resource : resources.lookup(2, store.getId())) {
+            if (clazz.isInstance(resource) && store.equals(resource.getStore())) {
+                matches.add(clazz.cast(resource));
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    //
+    // Layers
+    //
+    public LayerInfo add(LayerInfo layer) {
+        resolve(layer);
+        synchronized (writeLock) {
+            layers.add(layer);
+        }
+        return ModificationProxy.create(layer, LayerInfo.class);
+    }
+
+    public void remove(LayerInfo layer) {
+        synchronized (writeLock) {
+            layers.remove(unwrap(layer));
+        }
+    }
+
+    public void save(LayerInfo layer) {
+        beforeSaved(layer);
+        synchronized (writeLock) {
+            layers.reindex(commitProxy(layer));
+        }
+        afterSaved(layer);
+    }
+
+    public LayerInfo detach(LayerInfo layer) {
+        return layer;
+    }
+
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = layers.get(id);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    public LayerInfo getLayerByName(String name) {
+        for (LayerInfo layer : layers.lookup(0, name)) {
+            if (name.equals(layer.getName())) {
+                return ModificationProxy.create(layer, LayerInfo.class);
+            }
+        }
+        return null;
+    }
+
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layers.lookup(1, resource.getId())) {
+            if (resource.equals(layer.getResource())) {
+                matches.add(layer);
+            }
+        }
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (LayerInfo layer : layers.lookup(2, style.getId())) {
+            if (style.equals(layer.getDefaultStyle()) || layer.getStyles().contains(style)) {
+                matches.add(layer);
+            }
+        }
+        return ModificationProxy.createList(matches, LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers() {
+        return ModificationProxy.createList(new ArrayList<LayerInfo>(layers.values()),
+                LayerInfo.class);
+    }
+
+    //
+    // Maps
+    //
+    public MapInfo add(MapInfo map) {
+        resolve(map);
+        synchronized (writeLock) {
+            maps.add(map);
+        }
+        return ModificationProxy.create(map, MapInfo.class);
+    }
+
+    public void remove(MapInfo map) {
+        synchronized (writeLock) {
+            maps.remove(unwrap(map));
+        }
+    }
+
+    public void save(MapInfo map) {
+        beforeSaved(map);
+        synchronized (writeLock) {
+            maps.reindex(commitProxy(map));
+        }
+        afterSaved(map);
+    }
+
+    public MapInfo detach(MapInfo map) {
+        return map;
+    }
+
+    public MapInfo getMap(String id) {
+        MapInfo map = maps.get(id);
+        return map != null ? ModificationProxy.create(map, MapInfo.class) : null;
+    }
+
+    public MapInfo getMapByName(String name) {
+        for (MapInfo map : maps.lookup(0, name)) {
+            if (name.equals(map.getName())) {
+                return ModificationProxy.create(map, MapInfo.class);
+            }
+        }
+        return null;
+    }
+
+    public List<MapInfo> getMaps() {
+        return ModificationProxy.createList(new ArrayList<MapInfo>(maps.values()), MapInfo.class);
+    }
+
+    //
+    // Layer groups
+    //
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        resolve(layerGroup);
+        synchronized (writeLock) {
+            layerGroups.add(layerGroup);
+        }
+        return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
+    }
+
+    public void remove(LayerGroupInfo layerGroup) {
+        synchronized (writeLock) {
+            layerGroups.remove(unwrap(layerGroup));
+        }
+    }
+
+    public void save(LayerGroupInfo layerGroup) {
+        beforeSaved(layerGroup);
+        synchronized (writeLock) {
+            layerGroups.reindex(commitProxy(layerGroup));
+        }
+        afterSaved(layerGroup);
+    }
+
+    public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
+        return layerGroup;
+    }
+
+    public List<LayerGroupInfo> getLayerGroups() {
+        return ModificationProxy.createList(new ArrayList<LayerGroupInfo>(layerGroups.values()),
+                LayerGroupInfo.class);
+    }
+
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+
+        List<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>();
+        if (workspace == NO_WORKSPACE) {
+            for (LayerGroupInfo layerGroup : layerGroups.lookup(1, NO_KEY)) {
+                if (layerGroup.getWorkspace() == null) {
+                    matches.add(layerGroup);
+                }
+            }
+        } else if (workspace != null) {
+            for (LayerGroupInfo layerGroup : layerGroups.lookup(1, workspace.getId())) {
+                if (workspace.equals(layerGroup.getWorkspace())) {
+                    matches.add(layerGroup);
+                }
+            }
+        }
+        return ModificationProxy.createList(matches, LayerGroupInfo.class);
+    }
+
+    public LayerGroupInfo getLayerGroup(String id) {
+        LayerGroupInfo layerGroup = layerGroups.get(id);
+        return layerGroup != null ? ModificationProxy.create(layerGroup, LayerGroupInfo.class)
+                : null;
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(String name) {
+        return getLayerGroupByName(NO_WORKSPACE, name);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        LayerGroupInfo match = null;
+        for (LayerGroupInfo layerGroup : layerGroups.lookup(0, name)) {
+            if (!name.equals(layerGroup.getName())) {
+                continue;
+            }
+            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+            boolean matches;
+            if (NO_WORKSPACE == workspace) {
+                matches = lgWorkspace == null;
+            } else if (ANY_WORKSPACE == workspace) {
+                matches = true;
+            } else {
+                matches = lgWorkspace != null && workspace.equals(lgWorkspace);
+            }
+            if (matches) {
+                if (match != null) {
+                    // ambiguous
+                    return null;
+                }
+                match = layerGroup;
+            }
+        }
+        return match != null ? ModificationProxy.create(match, LayerGroupInfo.class) : null;
+    }
+
+    //
+    // Namespaces
+    //
+    public NamespaceInfo add(NamespaceInfo namespace) {
+        resolve(namespace);
+        synchronized (writeLock) {
+            namespaces.add(namespace);
+        }
+        return ModificationProxy.create(namespace, NamespaceInfo.class);
+    }
+
+    public void remove(NamespaceInfo namespace) {
+        synchronized (writeLock) {
+            namespace = unwrap(namespace);
+            if (namespace.equals(defaultNamespace)) {
+                defaultNamespace = null;
+            }
+            namespaces.remove(namespace);
+        }
+    }
+
+    public void save(NamespaceInfo namespace) {
+        beforeSaved(namespace);
+        synchronized (writeLock) {
+            namespaces.reindex(commitProxy(namespace));
+        }
+        afterSaved(namespace);
+    }
+
+    public NamespaceInfo detach(NamespaceInfo namespace) {
+        return namespace;
+    }
+
+    public NamespaceInfo getDefaultNamespace() {
+        NamespaceInfo ns = defaultNamespace;
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public void setDefaultNamespace(NamespaceInfo namespace) {
+        NamespaceInfo old;
+        synchronized (writeLock) {
+            old = defaultNamespace;
+            defaultNamespace = namespace != null ? namespaces.get(namespace.getId()) : null;
+        }
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultNamespace"), Arrays.asList(old),
+                Arrays.asList(namespace));
+    }
+
+    public NamespaceInfo getNamespace(String id) {
+        NamespaceInfo ns = namespaces.get(id);
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public NamespaceInfo getNamespaceByPrefix(String prefix) {
+        if (prefix == null || Catalog.DEFAULT.equals(prefix)) {
+            return getDefaultNamespace();
+        }
+        for (NamespaceInfo ns : namespaces.lookup(0, prefix)) {
+            if (prefix.equals(ns.getPrefix())) {
+                return ModificationProxy.create(ns, NamespaceInfo.class);
+            }
+        }
+        return null;
+    }
+
+    public NamespaceInfo getNamespaceByURI(String uri) {
+        for (NamespaceInfo ns : namespaces.lookup(1, uri)) {
+            if (uri.equals(ns.getURI())) {
+                return ModificationProxy.create(ns, NamespaceInfo.class);
+            }
+        }
+        return null;
+    }
+
+    public List<NamespaceInfo> getNamespaces() {
+        return ModificationProxy.createList(new ArrayList<NamespaceInfo>(namespaces.values()),
+                NamespaceInfo.class);
+    }
+
+    //
+    // Workspaces
+    //
+    public WorkspaceInfo add(WorkspaceInfo workspace) {
+        resolve(workspace);
+        synchronized (writeLock) {
+            workspaces.add(workspace);
+        }
+        return ModificationProxy.create(workspace, WorkspaceInfo.class);
+    }
+
+    public void remove(WorkspaceInfo workspace) {
+        synchronized (writeLock) {
+            workspaces.remove(unwrap(workspace));
+        }
+    }
+
+    public void save(WorkspaceInfo workspace) {
+        beforeSaved(workspace);
+        synchronized (writeLock) {
+            workspaces.reindex(commitProxy(workspace));
+        }
+        afterSaved(workspace);
+    }
+
+    public WorkspaceInfo detach(WorkspaceInfo workspace) {
+        return workspace;
+    }
+
+    public WorkspaceInfo getDefaultWorkspace() {
+        WorkspaceInfo ws = defaultWorkspace;
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    public void setDefaultWorkspace(WorkspaceInfo workspace) {
+        WorkspaceInfo old;
+        synchronized (writeLock) {
+            old = defaultWorkspace;
+            defaultWorkspace = workspace != null ? workspaces.get(workspace.getId()) : null;
+        }
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultWorkspace"), Arrays.asList(old),
+                Arrays.asList(workspace));
+    }
+
+    public List<WorkspaceInfo> getWorkspaces() {
+        return ModificationProxy.createList(new ArrayList<WorkspaceInfo>(workspaces.values()),
+                WorkspaceInfo.class);
+    }
+
+    public WorkspaceInfo getWorkspace(String id) {
+        WorkspaceInfo ws = workspaces.get(id);
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    public WorkspaceInfo getWorkspaceByName(String name) {
+        if (name == null || Catalog.DEFAULT.equals(name)) {
+            return getDefaultWorkspace();
+        }
+        for (WorkspaceInfo ws : workspaces.lookup(0, name)) {
+            if (name.equals(ws.getName())) {
+                return ModificationProxy.create(ws, WorkspaceInfo.class);
+            }
+        }
+        return null;
+    }
+
+    //
+    // Styles
+    //
+    public StyleInfo add(StyleInfo style) {
+        resolve(style);
+        synchronized (writeLock) {
+            styles.add(style);
+        }
+        return ModificationProxy.create(style, StyleInfo.class);
+    }
+
+    public void remove(StyleInfo style) {
+        synchronized (writeLock) {
+            styles.remove(unwrap(style));
+        }
+    }
+
+    public void save(StyleInfo style) {
+        beforeSaved(style);
+        synchronized (writeLock) {
+            styles.reindex(commitProxy(style));
+        }
+        afterSaved(style);
+    }
+
+    public StyleInfo detach(StyleInfo style) {
+        return style;
+    }
+
+    public StyleInfo getStyle(String id) {
+        StyleInfo style = styles.get(id);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    public StyleInfo getStyleByName(String name) {
+        for (StyleInfo style : styles.lookup(0, name)) {
+            if (null == style.getWorkspace() && name.equals(style.getName())) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+
+        List<StyleInfo> candidates = styles.lookup(0, name);
+        if (workspace == ANY_WORKSPACE) {
+            StyleInfo match = null;
+            for (StyleInfo style : candidates) {
+                if (name.equals(style.getName())) {
+                    if (match != null) {
+                        // ambiguous
+                        return null;
+                    }
+                    match = style;
+                }
+            }
+            return match != null ? ModificationProxy.create(match, StyleInfo.class) : null;
+        }
+
+        for (StyleInfo style : candidates) {
+            if (name.equals(style.getName())) {
+                if (style.getWorkspace() != null && style.getWorkspace().equals(workspace)
+                        || style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                    return ModificationProxy.create(style, StyleInfo.class);
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<StyleInfo> getStyles() {
+        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles.values()),
+                StyleInfo.class);
+    }
+
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+
+        List<StyleInfo> matches = new ArrayList<StyleInfo>();
+        if (workspace == NO_WORKSPACE) {
+            for (StyleInfo style : styles.lookup(1, NO_KEY)) {
+                if (style.getWorkspace() == null) {
+                    matches.add(style);
+                }
+            }
+        } else if (workspace != null) {
+            for (StyleInfo style : styles.lookup(1, workspace.getId())) {
+                if (workspace.equals(style.getWorkspace())) {
+                    matches.add(style);
+                }
+            }
+        }
+        return ModificationProxy.createList(matches, StyleInfo.class);
+    }
+
+    public void dispose() {
+        synchronized (writeLock) {
+            stores.clear();
+            defaultStores.clear();
+            resources.clear();
+            namespaces.clear();
+            workspaces.clear();
+            layers.clear();
+            layerGroups.clear();
+            maps.clear();
+            styles.clear();
+            defaultWorkspace = null;
+            defaultNamespace = null;
+        }
+    }
+
+    public void resolve() {
+        synchronized (writeLock) {
+            for (WorkspaceInfo ws : workspaces.values()) {
+                resolve(ws);
+            }
+            for (NamespaceInfo ns : namespaces.values()) {
+                resolve(ns);
+            }
+            for (StoreInfo s : stores.values()) {
+                resolve(s);
+            }
+            for (StyleInfo s : styles.values()) {
+                resolve(s);
+            }
+            for (ResourceInfo r : resources.values()) {
+                resolve(r);
+            }
+            for (LayerInfo l : layers.values()) {
+                resolve(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.values()) {
+                resolve(lg);
+            }
+            for (MapInfo m : maps.values()) {
+                resolve(m);
+            }
+
+            // resolving might have changed the indexed values
+            workspaces.rebuild();
+            namespaces.rebuild();
+            stores.rebuild();
+            styles.rebuild();
+            resources.rebuild();
+            layers.rebuild();
+            layerGroups.rebuild();
+            maps.rebuild();
+        }
+    }
+
+    public void syncTo(CatalogFacade dao) {
+        if (dao instanceof IndexedCatalogFacade) {
+            // do an optimized sync
+            IndexedCatalogFacade other = (IndexedCatalogFacade) dao;
+            synchronized (other.writeLock) {
+                other.stores = stores;
+                other.defaultStores = defaultStores;
+                other.resources = resources;
+                other.namespaces = namespaces;
+                other.workspaces = workspaces;
+                other.layers = layers;
+                other.maps = maps;
+                other.layerGroups = layerGroups;
+                other.styles = styles;
+                other.defaultWorkspace = defaultWorkspace;
+                other.defaultNamespace = defaultNamespace;
+            }
+        } else {
+            // do a manual import
+            for (WorkspaceInfo ws : workspaces.values()) {
+                dao.add(ws);
+            }
+            for (NamespaceInfo ns : namespaces.values()) {
+                dao.add(ns);
+            }
+            for (StoreInfo s : stores.values()) {
+                dao.add(s);
+            }
+            for (ResourceInfo r : resources.values()) {
+                dao.add(r);
+            }
+            for (StyleInfo s : styles.values()) {
+                dao.add(s);
+            }
+            for (LayerInfo l : layers.values()) {
+                dao.add(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.values()) {
+                dao.add(lg);
+            }
+            for (MapInfo m : maps.values()) {
+                dao.add(m);
+            }
+
+            if (defaultWorkspace != null) {
+                dao.setDefaultWorkspace(defaultWorkspace);
+            }
+            if (defaultNamespace != null) {
+                dao.setDefaultNamespace(defaultNamespace);
+            }
+            for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
+                WorkspaceInfo ws = workspaces.get(e.getKey());
+                if (null != ws) {
+                    dao.setDefaultDataStore(ws, e.getValue());
+                }
+            }
+        }
+    }
+
+    //
+    // Query support
+    //
+    /**
+     * Maximum number of objects (offset + count) selected with a bounded heap when sorting, above
+     * it the whole result is sorted
+     */
+    static final int TOP_K_LIMIT = 10000;
+
+    /**
+     * The objects that can match a filter, as found by the indexes, along with the parts of the
+     * filter that still need to be evaluated against them.
+     */
+    static class QueryPlan {
+        Collection<? extends CatalogInfo> candidates;
+
+        /**
+         * the number of candidates, kept apart as the size of the whole index values is not a
+         * constant time operation
+         */
+        int size;
+
+        /**
+         * whether the candidates are all the objects in the index
+         */
+        boolean all = true;
+
+        /**
+         * whether the candidates need to be filtered by type
+         */
+        boolean typeCheck;
+
+        List<Filter> residual = new ArrayList<Filter>();
+    }
+
+    @Override
+    public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
+        QueryPlan plan = plan(of, filter);
+        if (plan.residual.isEmpty() && !plan.typeCheck) {
+            return plan.size;
+        }
+        return Iterators.size(matches(of, plan));
+    }
+
+    @Override
+    public <T extends CatalogInfo> CloseableIterator<T> list(final Class<T> of,
+            final Filter filter, @Nullable Integer offset, @Nullable Integer count,
+            @Nullable SortBy sortOrder) {
+
+        if (null != sortOrder && !canSort(of, sortOrder.getPropertyName().getPropertyName())) {
+            throw new IllegalArgumentException("Can't sort objects of type " + of.getName()
+                    + " by " + sortOrder.getPropertyName());
+        }
+
+        final int skip = offset != null && offset.intValue() > 0 ? offset.intValue() : 0;
+        final int limit = count != null && count.intValue() >= 0 ? count.intValue() : -1;
+
+        Iterator<T> matches = matches(of, plan(of, filter));
+        if (sortOrder != null) {
+            matches = sort(matches, sortOrder, limit >= 0 ? skip + limit : -1).iterator();
+        }
+        for (int i = 0; i < skip && matches.hasNext(); i++) {
+            matches.next();
+        }
+        if (limit >= 0) {
+            matches = Iterators.limit(matches, limit);
+        }
+
+        // only proxy what is actually returned
+        Iterator<T> proxies = Iterators.transform(matches, new Function<T, T>() {
+            @Override
+            public T apply(T input) {
+                return ModificationProxy.create(input, of);
+            }
+        });
+        return new CloseableIteratorAdapter<T>(proxies);
+    }
+
+    /**
+     * Returns the index holding objects of the specified type
+     */
+    InfoIndex<? extends CatalogInfo> index(Class<?> of) {
+        if (NamespaceInfo.class.isAssignableFrom(of)) {
+            return namespaces;
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            return workspaces;
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            return stores;
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return resources;
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return layers;
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            return layerGroups;
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return styles;
+        } else if (MapInfo.class.isAssignableFrom(of)) {
+            return maps;
+        }
+        throw new IllegalArgumentException("Unknown type: " + of);
+    }
+
+    /**
+     * Splits the filter in its top level conjuncts and picks the most selective one that can be
+     * answered by the indexes, the others are left for evaluation.
+     */
+    QueryPlan plan(Class<?> of, Filter filter) {
+        InfoIndex<? extends CatalogInfo> index = index(of);
+
+        QueryPlan plan = new QueryPlan();
+        plan.candidates = index.values();
+        plan.size = index.size();
+        plan.typeCheck = !Arrays.<Class<?>> asList(NamespaceInfo.class, WorkspaceInfo.class,
+                StoreInfo.class, ResourceInfo.class, LayerInfo.class, LayerGroupInfo.class,
+                StyleInfo.class, MapInfo.class).contains(of);
+
+        if (Filter.EXCLUDE.equals(filter)) {
+            plan.candidates = Collections.emptyList();
+            plan.size = 0;
+            plan.all = false;
+            return plan;
+        }
+
+        List<Filter> conjuncts = filter instanceof And ? ((And) filter).getChildren()
+                : Collections.singletonList(filter);
+        int best = -1;
+        boolean exact = false;
+        for (int i = 0; i < conjuncts.size(); i++) {
+            Filter f = conjuncts.get(i);
+            Collection<? extends CatalogInfo> hits = lookup(index, f);
+            if (hits != null) {
+                if (best < 0 || hits.size() < plan.size
+                        || (hits.size() == plan.size && !exact)) {
+                    plan.candidates = hits;
+                    plan.size = hits.size();
+                    best = i;
+                    exact = true;
+                }
+            } else {
+                hits = prefixLookup(index, f);
+                if (hits != null && hits.size() < plan.size) {
+                    plan.candidates = hits;
+                    plan.size = hits.size();
+                    best = i;
+                    exact = false;
+                }
+            }
+        }
+        plan.all = best < 0;
+
+        for (int i = 0; i < conjuncts.size(); i++) {
+            Filter f = conjuncts.get(i);
+            if ((i == best && exact) || Filter.INCLUDE.equals(f)) {
+                continue;
+            }
+            plan.residual.add(f);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the objects matching an equality filter on an indexed property, or null if the
+     * filter cannot be answered by the indexes
+     */
+    Collection<? extends CatalogInfo> lookup(InfoIndex<? extends CatalogInfo> index,
+            Filter filter) {
+        if (!(filter instanceof PropertyIsEqualTo) || !((PropertyIsEqualTo) filter).isMatchingCase()) {
+            return null;
+        }
+        PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        if (e1 instanceof Literal && e2 instanceof PropertyName) {
+            Expression tmp = e1;
+            e1 = e2;
+            e2 = tmp;
+        }
+        if (!(e1 instanceof PropertyName) || !(e2 instanceof Literal)
+                || !(((Literal) e2).getValue() instanceof String)) {
+            return null;
+        }
+        String property = ((PropertyName) e1).getPropertyName();
+        String value = (String) ((Literal) e2).getValue();
+
+        if ("id".equals(property)) {
+            CatalogInfo info = index.get(value);
+            return info != null ? Collections.singletonList(info)
+                    : Collections.<CatalogInfo> emptyList();
+        }
+        if (index == namespaces) {
+            if ("prefix".equals(property) || "name".equals(property)) {
+                return namespaces.lookup(0, value);
+            } else if ("uri".equalsIgnoreCase(property)) {
+                return namespaces.lookup(1, value);
+            }
+        } else if (index == stores || index == layerGroups || index == styles) {
+            if ("name".equals(property)) {
+                return index.lookup(0, value);
+            } else if ("workspace.id".equals(property)) {
+                return index.lookup(1, value);
+            } else if ("workspace.name".equals(property)) {
+                return lookup(index, 1, workspaces.lookup(0, value));
+            }
+        } else if (index == resources) {
+            if ("name".equals(property)) {
+                return resources.lookup(0, value);
+            } else if ("namespace.id".equals(property)) {
+                return resources.lookup(1, value);
+            } else if ("namespace.prefix".equals(property)) {
+                return lookup(resources, 1, namespaces.lookup(0, value));
+            } else if ("store.id".equals(property)) {
+                return resources.lookup(2, value);
+            }
+        } else if (index == layers) {
+            if ("name".equals(property) || "resource.name".equals(property)) {
+                return layers.lookup(0, value);
+            } else if ("resource.id".equals(property)) {
+                return layers.lookup(1, value);
+            }
+        } else if (index == workspaces || index == maps) {
+            if ("name".equals(property)) {
+                return index.lookup(0, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the objects indexed under the ids of the specified containers
+     */
+    Collection<? extends CatalogInfo> lookup(InfoIndex<? extends CatalogInfo> index,
+            int attribute, List<? extends CatalogInfo> containers) {
+        if (containers.size() == 1) {
+            return index.lookup(attribute, containers.get(0).getId());
+        }
+        List<CatalogInfo> result = new ArrayList<CatalogInfo>();
+        for (CatalogInfo container : containers) {
+            result.addAll(index.lookup(attribute, container.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the objects whose name starts with the prefix of a "prefix*" like filter, ignoring
+     * case, or null if the filter is not a prefix match on the name. The result is a superset of
+     * the actual matches, the filter still needs to be evaluated.
+     */
+    Collection<? extends CatalogInfo> prefixLookup(InfoIndex<? extends CatalogInfo> index,
+            Filter filter) {
+        if (!(filter instanceof PropertyIsLike)) {
+            return null;
+        }
+        PropertyIsLike like = (PropertyIsLike) filter;
+        if (!(like.getExpression() instanceof PropertyName)) {
+            return null;
+        }
+        String property = ((PropertyName) like.getExpression()).getPropertyName();
+        if (!"name".equals(property) && !(index == namespaces && "prefix".equals(property))) {
+            return null;
+        }
+        String pattern = like.getLiteral();
+        String wildcard = like.getWildCard();
+        if (pattern == null || wildcard == null || !pattern.endsWith(wildcard)) {
+            return null;
+        }
+        String prefix = pattern.substring(0, pattern.length() - wildcard.length());
+        if (prefix.length() == 0 || prefix.contains(wildcard)
+                || (like.getSingleChar() != null && prefix.contains(like.getSingleChar()))
+                || (like.getEscape() != null && prefix.contains(like.getEscape()))) {
+            return null;
+        }
+        return index.prefixLookup(prefix);
+    }
+
+    /**
+     * Returns the candidates of the plan that match the residual filters
+     */
+    <T extends CatalogInfo> Iterator<T> matches(final Class<T> of, final QueryPlan plan) {
+        Iterator<? extends CatalogInfo> candidates = plan.candidates.iterator();
+        if (!plan.typeCheck && plan.residual.isEmpty()) {
+            return (Iterator<T>) candidates;
+        }
+
+        final List<Predicate<Object>> predicates = new ArrayList<Predicate<Object>>();
+        for (final Filter f : plan.residual) {
+            predicates.add(predicate(f));
+        }
+        return Iterators.filter(Iterators.filter(candidates, of), new Predicate<T>() {
+            @Override
+            public boolean apply(T input) {
+                for (Predicate<Object> p : predicates) {
+                    if (!p.apply(input)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Turns a filter into a predicate, evaluating the enabled and advertised flags directly and
+     * anything else as a regular filter
+     */
+    Predicate<Object> predicate(final Filter filter) {
+        if (filter instanceof PropertyIsEqualTo) {
+            PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+            if (equal.getExpression1() instanceof PropertyName
+                    && equal.getExpression2() instanceof Literal
+                    && ((Literal) equal.getExpression2()).getValue() instanceof Boolean) {
+                final String property = ((PropertyName) equal.getExpression1()).getPropertyName();
+                final boolean expected = (Boolean) ((Literal) equal.getExpression2()).getValue();
+                if ("enabled".equals(property) || "advertised".equals(property)) {
+                    return new Predicate<Object>() {
+                        @Override
+                        public boolean apply(Object input) {
+                            Boolean flag = flag(input, property);
+                            return flag != null ? flag.booleanValue() == expected
+                                    : filter.evaluate(input);
+                        }
+                    };
+                }
+            }
+        }
+        return new Predicate<Object>() {
+            @Override
+            public boolean apply(Object input) {
+                return filter.evaluate(input);
+            }
+        };
+    }
+
+    static Boolean flag(Object info, String property) {
+        if ("enabled".equals(property)) {
+            if (info instanceof LayerInfo) {
+                return ((LayerInfo) info).isEnabled();
+            } else if (info instanceof ResourceInfo) {
+                return ((ResourceInfo) info).isEnabled();
+            } else if (info instanceof StoreInfo) {
+                return ((StoreInfo) info).isEnabled();
+            }
+        } else {
+            if (info instanceof LayerInfo) {
+                return ((LayerInfo) info).isAdvertised();
+            } else if (info instanceof ResourceInfo) {
+                return ((ResourceInfo) info).isAdvertised();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sorts the objects, when only the first <code>k</code> are needed they are selected with a
+     * bounded heap instead of sorting them all.
+     */
+    <T> List<T> sort(Iterator<T> objects, SortBy sortBy, int k) {
+        final String property = sortBy.getPropertyName().getPropertyName();
+        final boolean descending = SortOrder.DESCENDING.equals(sortBy.getSortOrder());
+
+        // extract the sort keys once
+        List<SortKey<T>> keys = new ArrayList<SortKey<T>>();
+        for (int i = 0; objects.hasNext(); i++) {
+            T info = objects.next();
+            keys.add(new SortKey<T>(info, OwsUtils.get(info, property), i, descending));
+        }
+
+        if (k >= 0 && k < keys.size() && k <= TOP_K_LIMIT) {
+            if (k == 0) {
+                return Collections.emptyList();
+            }
+            // keep the k smallest keys, the head of the queue being the largest among them
+            PriorityQueue<SortKey<T>> heap = new PriorityQueue<SortKey<T>>(k,
+                    Collections.reverseOrder());
+            for (SortKey<T> key : keys) {
+                if (heap.size() < k) {
+                    heap.add(key);
+                } else if (key.compareTo(heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(key);
+                }
+            }
+            keys = new ArrayList<SortKey<T>>(heap);
+        }
+        Collections.sort(keys);
+
+        List<T> sorted = new ArrayList<T>(keys.size());
+        for (SortKey<T> key : keys) {
+            sorted.add(key.info);
+        }
+        return sorted;
+    }
+
+    /**
+     * An object along with its sort value and original position, used to break ties so that the
+     * sort is stable
+     */
+    static class SortKey<T> implements Comparable<SortKey<T>> {
+        final T info;
+
+        final Object value;
+
+        final int position;
+
+        final boolean descending;
+
+        SortKey(T info, Object value, int position, boolean descending) {
+            this.info = info;
+            this.value = value;
+            this.position = position;
+            this.descending = descending;
+        }
+
+        @Override
+        public int compareTo(SortKey<T> other) {
+            int c;
+            if (value == null) {
+                c = other.value == null ? 0 : -1;
+            } else if (other.value == null) {
+                c = 1;
+            } else {
+                c = ((Comparable) value).compareTo(other.value);
+            }
+            if (descending) {
+                c = -c;
+            }
+            return c != 0 ? c : (position < other.position ? -1
+                    : (position == other.position ? 0 : 1));
+        }
+    }
+
+    <T> List<T> filter(Collection<? super T> all, Class<T> clazz) {
+        List<T> result = new ArrayList<T>();
+        for (Object o : all) {
+            if (clazz.isInstance(o)) {
+                result.add(clazz.cast(o));
+            }
+        }
+        return result;
+    }
+
+    static String id(CatalogInfo info) {
+        // unresolved references return their id as well
+        return info != null ? info.getId() : null;
+    }
+
+    static final Collection<String> NONE = Collections.emptyList();
+
+    static Collection<String> single(String value) {
+        return value != null ? Collections.singletonList(value) : NONE;
+    }
+
+    /**
+     * Extracts the values an object is indexed under for a single index attribute.
+     */
+    static abstract class IndexAttribute<T> {
+        abstract Collection<String> values(T info);
+    }
+
+    /**
+     * Holds the objects of a single type indexed by id, insertion order and a number of
+     * {@link IndexAttribute}s.
+     * <p>
+     * All the maps are concurrent so that readers never block, the lists stored as index values
+     * are never modified once published, updates replace them with a modified copy in a single
+     * put. Objects are reindexed by first publishing them under their new keys and then removing
+     * them from the keys they no longer have, so that a lookup by a key the object holds both
+     * before and after the update always finds it. Rebuilding and clearing the index publish a
+     * whole new set of maps at once. Mutating methods are expected to be called by a single thread
+     * at a time.
+     * </p>
+     */
+    static class InfoIndex<T extends CatalogInfo> {
+
+        static class Entry<T> {
+            final T info;
+
+            final Long order;
+
+            final List<Collection<String>> keys;
+
+            Entry(T info, Long order, List<Collection<String>> keys) {
+                this.info = info;
+                this.order = order;
+                this.keys = keys;
+            }
+        }
+
+        /**
+         * The maps making up the index, replaced as a whole when the index is rebuilt
+         */
+        static class State<T> {
+            final ConcurrentMap<String, Entry<T>> byId = new ConcurrentHashMap<String, Entry<T>>();
+
+            final ConcurrentSkipListMap<Long, T> byOrder = new ConcurrentSkipListMap<Long, T>();
+
+            final List<ConcurrentMap<String, List<T>>> buckets;
+
+            /**
+             * the values of the first attribute, lower cased and sorted, for prefix lookups
+             */
+            final ConcurrentSkipListMap<String, List<T>> byPrefix = 
+                new ConcurrentSkipListMap<String, List<T>>();
+
+            State(int attributes) {
+                buckets = new ArrayList<ConcurrentMap<String, List<T>>>(attributes);
+                for (int i = 0; i < attributes; i++) {
+                    buckets.add(new ConcurrentHashMap<String, List<T>>());
+                }
+            }
+        }
+
+        final AtomicLong sequence = new AtomicLong();
+
+        final IndexAttribute<T>[] attributes;
+
+        volatile State<T> state;
+
+        InfoIndex(IndexAttribute<T>... attributes) {
+            this.attributes = attributes;
+            this.state = new State<T>(attributes.length);
+        }
+
+        T get(String id) {
+            Entry<T> e = id != null ? state.byId.get(id) : null;
+            return e != null ? e.info : null;
+        }
+
+        List<T> lookup(int attribute, String value) {
+            List<T> matches = value != null ? state.buckets.get(attribute).get(value) : null;
+            return matches != null ? matches : Collections.<T> emptyList();
+        }
+
+        /**
+         * Returns the objects whose first attribute starts with the specified prefix, ignoring
+         * case
+         */
+        List<T> prefixLookup(String prefix) {
+            String from = prefix.toLowerCase();
+            List<T> matches = new ArrayList<T>();
+            for (List<T> infos : state.byPrefix.subMap(from, true, from + '\uffff', true).values()) {
+                matches.addAll(infos);
+            }
+            return matches;
+        }
+
+        Collection<T> values() {
+            return state.byOrder.values();
+        }
+
+        int size() {
+            return state.byId.size();
+        }
+
+        void add(T info) {
+            index(state, info, sequence.incrementAndGet());
+        }
+
+        void remove(T info) {
+            State<T> s = state;
+            Entry<T> e = s.byId.remove(info.getId());
+            if (e != null) {
+                s.byOrder.remove(e.order);
+                for (int i = 0; i < attributes.length; i++) {
+                    for (String value : e.keys.get(i)) {
+                        replace(s.buckets.get(i), value, e.info, null);
+                    }
+                }
+                for (String key : prefixKeys(e.keys)) {
+                    replace(s.byPrefix, key, e.info, null);
+                }
+            }
+        }
+
+        void reindex(T info) {
+            State<T> s = state;
+            Entry<T> e = s.byId.get(info.getId());
+            if (e == null) {
+                return;
+            }
+            List<Collection<String>> keys = keys(info);
+            for (int i = 0; i < attributes.length; i++) {
+                ConcurrentMap<String, List<T>> bucket = s.buckets.get(i);
+                for (String value : keys.get(i)) {
+                    replace(bucket, value, e.info, info);
+                }
+                for (String value : e.keys.get(i)) {
+                    if (!keys.get(i).contains(value)) {
+                        replace(bucket, value, e.info, null);
+                    }
+                }
+            }
+            Set<String> prefixKeys = prefixKeys(keys);
+            for (String key : prefixKeys) {
+                replace(s.byPrefix, key, e.info, info);
+            }
+            for (String key : prefixKeys(e.keys)) {
+                if (!prefixKeys.contains(key)) {
+                    replace(s.byPrefix, key, e.info, null);
+                }
+            }
+            s.byId.put(info.getId(), new Entry<T>(info, e.order, keys));
+            s.byOrder.put(e.order, info);
+        }
+
+        void rebuild() {
+            State<T> rebuilt = new State<T>(attributes.length);
+            for (T info : state.byOrder.values()) {
+                index(rebuilt, info, sequence.incrementAndGet());
+            }
+            state = rebuilt;
+        }
+
+        void clear() {
+            state = new State<T>(attributes.length);
+        }
+
+        void index(State<T> s, T info, Long order) {
+            List<Collection<String>> keys = keys(info);
+            for (int i = 0; i < attributes.length; i++) {
+                for (String value : keys.get(i)) {
+                    replace(s.buckets.get(i), value, null, info);
+                }
+            }
+            for (String key : prefixKeys(keys)) {
+                replace(s.byPrefix, key, null, info);
+            }
+            s.byId.put(info.getId(), new Entry<T>(info, order, keys));
+            s.byOrder.put(order, info);
+        }
+
+        List<Collection<String>> keys(T info) {
+            List<Collection<String>> keys = new ArrayList<Collection<String>>(attributes.length);
+            for (int i = 0; i < attributes.length; i++) {
+                keys.add(attributes[i].values(info));
+            }
+            return keys;
+        }
+
+        Set<String> prefixKeys(List<Collection<String>> keys) {
+            if (attributes.length == 0) {
+                return Collections.emptySet();
+            }
+            Set<String> prefixKeys = new LinkedHashSet<String>();
+            for (String value : keys.get(0)) {
+                prefixKeys.add(value.toLowerCase());
+            }
+            return prefixKeys;
+        }
+
+        /**
+         * Publishes a copy of the list stored under the specified key, with the old object
+         * replaced by the new one in the same position. Either object can be null, to only add or
+         * remove an object.
+         */
+        static <T> void replace(ConcurrentMap<String, List<T>> map, String key, T oldInfo,
+                T newInfo) {
+            List<T> old = map.get(key);
+            List<T> updated = new ArrayList<T>(old != null ? old.size() + 1 : 1);
+            boolean replaced = false;
+            if (old != null) {
+                for (T info : old) {
+                    if (oldInfo != null && info == oldInfo) {
+                        if (newInfo != null && !replaced) {
+                            updated.add(newInfo);
+                            replaced = true;
+                        }
+                    } else if (info != newInfo) {
+                        updated.add(info);
+                    } else if (!replaced) {
+                        updated.add(info);
+                        replaced = true;
+                    }
+                }
+            }
+            if (newInfo != null && !replaced) {
+                updated.add(newInfo);
+            }
+            if (updated.isEmpty()) {
+                map.remove(key);
+            } else {
+                map.put(key, Collections.unmodifiableList(updated));
+            }
+        }
+    }
+}
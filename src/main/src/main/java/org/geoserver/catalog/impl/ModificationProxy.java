@@ -153,7 +153,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 //avoid double proxy
                 Object o = ModificationProxy.unwrap( result );
                 if ( o == result ) {
-                    result = ModificationProxy.create( result, (Class) method.getReturnType() );
+                    //always use a modification proxy here, the result is cached and committed
+                    result = ProxyUtils.createProxy( result, (Class) method.getReturnType(), 
+                        new ModificationProxy( result ) );
                     
                     //cache the proxy, in case it is modified itself
                     properties().put( property, result );
@@ -547,10 +549,17 @@ public class ModificationProxy implements WrappingProxy, Serializable {
 
     /**
      * Wraps an object in a proxy.
+     * <p>
+     * If read only access is enabled for the current thread (see {@link ReadOnlyProxy#enable()})
+     * a {@link ReadOnlyProxy} is returned instead.
+     * </p>
      * 
      * @throws RuntimeException If creating the proxy fails.
      */
     public static <T> T create( T proxyObject, Class<T> clazz ) {
+        if ( ReadOnlyProxy.isEnabled() ) {
+            return ReadOnlyProxy.create( proxyObject, clazz );
+        }
         return ProxyUtils.createProxy(proxyObject, clazz, new ModificationProxy( proxyObject ));
     }
     
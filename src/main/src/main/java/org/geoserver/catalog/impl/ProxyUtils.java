@@ -4,11 +4,17 @@
  */
 package org.geoserver.catalog.impl;
 
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class for working with proxies.
@@ -18,6 +24,14 @@ import java.util.List;
  */
 public class ProxyUtils {
 
+    /**
+     * proxy class constructors, keyed by class loader and then by the names of the proxied 
+     * interfaces. Neither the keys nor the values strongly reference the classes, so that the 
+     * cache does not pin the class loaders (e.g. across webapp redeploys)
+     */
+    static final Map<ClassLoader, ConcurrentMap<List<String>, SoftReference<Constructor>>> constructors = 
+        new WeakHashMap<ClassLoader, ConcurrentMap<List<String>, SoftReference<Constructor>>>();
+
     /**
      * Creates a proxy for the specified object.
      * 
@@ -43,13 +57,9 @@ public class ProxyUtils {
             proxyInterfaces.add( clazz );
         }
         
-        Class proxyClass = Proxy.getProxyClass( clazz.getClassLoader(), 
-            (Class[]) proxyInterfaces.toArray(new Class[proxyInterfaces.size()]) );
-        
         T proxy;
         try {
-            proxy = (T) proxyClass.getConstructor(
-                new Class[] { InvocationHandler.class }).newInstance(new Object[] { h } );
+            proxy = (T) constructor( clazz, proxyInterfaces ).newInstance(new Object[] { h } );
         }
         catch( Exception e ) {
             throw new RuntimeException( e );
@@ -58,6 +68,35 @@ public class ProxyUtils {
         return proxy;
     }
 
+    /**
+     * Looks up the proxy class constructor for the specified interfaces, caching it.
+     */
+    static Constructor constructor(Class clazz, List<Class> proxyInterfaces) throws Exception {
+        ClassLoader loader = clazz.getClassLoader();
+        ConcurrentMap<List<String>, SoftReference<Constructor>> loaderConstructors;
+        synchronized ( constructors ) {
+            loaderConstructors = constructors.get( loader );
+            if ( loaderConstructors == null ) {
+                loaderConstructors = new ConcurrentHashMap<List<String>, SoftReference<Constructor>>();
+                constructors.put( loader, loaderConstructors );
+            }
+        }
+        
+        List<String> names = new ArrayList<String>( proxyInterfaces.size() );
+        for ( Class interfce : proxyInterfaces ) {
+            names.add( interfce.getName() );
+        }
+        SoftReference<Constructor> ref = loaderConstructors.get( names );
+        Constructor c = ref != null ? ref.get() : null;
+        if ( c == null ) {
+            Class proxyClass = Proxy.getProxyClass( loader, 
+                (Class[]) proxyInterfaces.toArray(new Class[proxyInterfaces.size()]) );
+            c = proxyClass.getConstructor( new Class[] { InvocationHandler.class } );
+            loaderConstructors.put( names, new SoftReference<Constructor>( c ) );
+        }
+        return c;
+    }
+
     /**
      * Unwraps a proxy returning the underlying object, if one exists.
      * <p>
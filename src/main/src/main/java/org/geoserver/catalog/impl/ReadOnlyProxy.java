@@ -0,0 +1,280 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.Info;
+import org.geoserver.catalog.MetadataMap;
+
+/**
+ * Proxies an object providing read only access to it.
+ * <p>
+ * Unlike {@link ModificationProxy} this proxy keeps no state: getters are forwarded straight to
+ * the underlying object, collections and maps are returned as unmodifiable views of the live ones
+ * instead of being copied, and any setter call, as well as any attempt to save the object back to
+ * the catalog, fails with an {@link UnsupportedOperationException}.
+ * </p>
+ * <p>
+ * Read only access is enabled on a per thread basis with {@link #enable()}, typically for the
+ * duration of an OWS request that is known not to modify the catalog. While enabled
+ * {@link ModificationProxy#create(Object, Class)} returns read only proxies instead of modification
+ * ones. Info objects and metadata maps returned by the proxied object, including the ones
+ * contained in collections and maps, are wrapped in read only views in turn.
+ * </p>
+ */
+public class ReadOnlyProxy extends ModificationProxy {
+
+    static final ThreadLocal<Boolean> ENABLED = new ThreadLocal<Boolean>();
+
+    /**
+     * Enables read only catalog access for the current thread.
+     */
+    public static void enable() {
+        ENABLED.set(Boolean.TRUE);
+    }
+
+    /**
+     * Disables read only catalog access for the current thread.
+     */
+    public static void disable() {
+        ENABLED.remove();
+    }
+
+    /**
+     * Returns true if read only catalog access is enabled for the current thread.
+     */
+    public static boolean isEnabled() {
+        return ENABLED.get() != null;
+    }
+
+    /**
+     * Wraps an object in a read only proxy.
+     */
+    public static <T> T create(T proxyObject, Class<T> clazz) {
+        return ProxyUtils.createProxy(proxyObject, clazz, new ReadOnlyProxy(proxyObject));
+    }
+
+    public ReadOnlyProxy(Object proxyObject) {
+        super(proxyObject);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().startsWith("set") && args != null && args.length == 1) {
+            throw new UnsupportedOperationException("Read only access to " + proxyObject
+                    + ", unable to call " + method.getName());
+        }
+
+        Object result;
+        try {
+            result = method.invoke(proxyObject, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+        if (result == null) {
+            return null;
+        }
+
+        return readOnly(result, method.getReturnType());
+    }
+
+    /**
+     * Returns a read only view of a value: info objects are wrapped in read only proxies, metadata
+     * maps, collections and maps in unmodifiable views that wrap their contents in turn.
+     * 
+     * @param type The declared type of the value, collection and maps are wrapped only if declared
+     *        as one of the collection interfaces
+     */
+    static Object readOnly(Object value, Class type) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Info && !(value instanceof Catalog)) {
+            if (Proxy.isProxyClass(value.getClass())
+                    && Proxy.getInvocationHandler(value) instanceof ReadOnlyProxy) {
+                return value;
+            }
+            Object unwrapped = ModificationProxy.unwrap(value);
+            Class proxyType = type != null && type.isInterface() && type.isInstance(unwrapped) 
+                ? type : Info.class;
+            return ReadOnlyProxy.create(unwrapped, proxyType);
+        }
+        if (value instanceof MetadataMap) {
+            if (((MetadataMap) value).getMap() instanceof ReadOnlyMap) {
+                return value;
+            }
+            MetadataMap map = new MetadataMap(new ReadOnlyMap(((MetadataMap) value).getMap()));
+            map.setId(((MetadataMap) value).getId());
+            return map;
+        }
+        if (type == null || type.isInterface()) {
+            if (value instanceof List && (type == null || type.isAssignableFrom(List.class))) {
+                return new ReadOnlyList((List) value);
+            }
+            if (value instanceof Set && (type == null || type.isAssignableFrom(Set.class))) {
+                return new ReadOnlySet((Set) value);
+            }
+            if (value instanceof Collection && (type == null || type == Collection.class)) {
+                return new ReadOnlyCollection((Collection) value);
+            }
+            if (value instanceof Map && (type == null || type == Map.class)) {
+                return new ReadOnlyMap((Map) value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void commit() {
+        throw new UnsupportedOperationException("Read only access to " + proxyObject
+                + ", unable to commit changes");
+    }
+
+    /**
+     * Unmodifiable live view of a list, wrapping its elements
+     */
+    static class ReadOnlyList extends AbstractList implements RandomAccess, Serializable {
+        final List delegate;
+
+        ReadOnlyList(List delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object get(int index) {
+            return readOnly(delegate.get(index), null);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+    }
+
+    /**
+     * Unmodifiable live view of a collection, wrapping its elements
+     */
+    static class ReadOnlyCollection extends AbstractCollection implements Serializable {
+        final Collection delegate;
+
+        ReadOnlyCollection(Collection delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Iterator iterator() {
+            final Iterator it = delegate.iterator();
+            return new Iterator() {
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public Object next() {
+                    return readOnly(it.next(), null);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+    }
+
+    /**
+     * Unmodifiable live view of a set, wrapping its elements
+     */
+    static class ReadOnlySet extends AbstractSet implements Serializable {
+        final ReadOnlyCollection delegate;
+
+        ReadOnlySet(Set delegate) {
+            this.delegate = new ReadOnlyCollection(delegate);
+        }
+
+        @Override
+        public Iterator iterator() {
+            return delegate.iterator();
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+    }
+
+    /**
+     * Unmodifiable live view of a map, wrapping its values
+     */
+    static class ReadOnlyMap extends AbstractMap implements Serializable {
+        final Map delegate;
+
+        ReadOnlyMap(Map delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return readOnly(delegate.get(key), null);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return delegate.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public Set entrySet() {
+            return new AbstractSet() {
+                @Override
+                public Iterator iterator() {
+                    final Iterator<Map.Entry> it = delegate.entrySet().iterator();
+                    return new Iterator() {
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        public Object next() {
+                            Map.Entry e = it.next();
+                            return new SimpleImmutableEntry(e.getKey(), readOnly(e.getValue(), null));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return delegate.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates the loading of cached resources on a per key basis.
+ * <p>
+ * The first thread asking for a key that is not loaded yet runs the load, any other thread asking
+ * for the same key while the load is in progress waits for the same result, while threads asking
+ * for different keys are never blocked. The loader does not store the loaded values, the
+ * {@link Callable} passed to {@link #load(Object, Callable)} is expected to check and fill the
+ * actual cache, this way the eviction and dispose policies of the cache are left untouched.
+ * A load that asks again for its own key, from the same thread, is run inline as it would be
+ * with a reentrant lock.
+ * </p>
+ * <p>
+ * Loads are stamped with a generation that {@link #invalidate(Map...)} bumps when the caches are
+ * cleared, and {@link #store(Map, Object, Object, long)} drops the values of loads started
+ * before the last invalidation, so that a load racing with a clear does not put a stale value
+ * back in the cache.
+ * </p>
+ * <p>
+ * The loader also keeps simple statistics about the cache it's coordinating: hits and misses
+ * (when the caller reports them via {@link #hit()}), number of loads and time spent loading, and
+ * number of threads that had to wait for a load run by another thread.
+ * </p>
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class KeyedLoader<K, V> {
+
+    /**
+     * A load in progress, along with the thread running it
+     */
+    static class Load<V> extends FutureTask<V> {
+        final Thread owner = Thread.currentThread();
+
+        Load(Callable<V> loader) {
+            super(loader);
+        }
+    }
+
+    final String name;
+
+    final ConcurrentMap<K, Load<V>> loading = new ConcurrentHashMap<K, Load<V>>();
+
+    final AtomicLong generation = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong loads = new AtomicLong();
+
+    final AtomicLong failures = new AtomicLong();
+
+    final AtomicLong loadTime = new AtomicLong();
+
+    final AtomicLong waits = new AtomicLong();
+
+    final AtomicInteger waiters = new AtomicInteger();
+
+    public KeyedLoader(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a cache hit, that is, a lookup that did not need to call {@link #load(Object,
+     * Callable)}.
+     */
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Loads the value for the specified key. If another thread is already loading the same key the
+     * current thread waits for it and returns the same value (or the same exception) instead of
+     * running <tt>loader</tt>.
+     *
+     * @param key The key, if null the load is run without any coordination.
+     * @param loader Loads the value and stores it in the cache.
+     *
+     * @throws IOException Any exception thrown by the loader, wrapped in an {@link IOException}
+     *         if needed.
+     */
+    public V load(K key, Callable<V> loader) throws IOException {
+        misses.incrementAndGet();
+        if (key == null) {
+            return call(loader);
+        }
+
+        Load<V> task = new Load<V>(loader);
+        Load<V> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                long start = System.nanoTime();
+                task.run();
+                loads.incrementAndGet();
+                loadTime.addAndGet(System.nanoTime() - start);
+                return get(task);
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+
+        if (running.owner == Thread.currentThread()) {
+            // the load is asking for its own key, waiting would never end
+            return call(loader);
+        }
+
+        // somebody else is loading this key, wait for it
+        waits.incrementAndGet();
+        waiters.incrementAndGet();
+        try {
+            return get(running);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the current generation, to be taken before starting a load and then passed to
+     * {@link #store(Map, Object, Object, long)}
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Stores a loaded value in the cache, unless the caches have been invalidated after the
+     * specified generation was taken. The check and the store are performed while holding the
+     * cache lock.
+     *
+     * @return true if the value has been stored
+     */
+    public <C> boolean store(Map<C, ? super V> cache, C key, V value, long generation) {
+        synchronized (cache) {
+            if (generation != this.generation.get()) {
+                return false;
+            }
+            cache.put(key, value);
+            return true;
+        }
+    }
+
+    /**
+     * Bumps the generation, so that the loads in progress do not store their values, and clears
+     * the specified caches while holding their locks.
+     */
+    public void invalidate(Map<?, ?>... caches) {
+        generation.incrementAndGet();
+        for (Map<?, ?> cache : caches) {
+            synchronized (cache) {
+                cache.clear();
+            }
+        }
+    }
+
+    V call(Callable<V> loader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            throw toIOException(e);
+        } finally {
+            loads.incrementAndGet();
+            loadTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    V get(FutureTask<V> task) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // keep on waiting, the loading thread is not going to stop because of us
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failures.incrementAndGet();
+                    throw toIOException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return (IOException) new IOException(t.getMessage()).initCause(t);
+    }
+
+    /**
+     * The name of the cache this loader is coordinating.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of lookups answered by the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that had to load the value, or wait for another thread loading it.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Ratio between hits and total lookups, or 0 if no lookup was made yet.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : ((double) h) / total;
+    }
+
+    /**
+     * Number of loads actually run.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * Number of failed loads (as seen by each caller).
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Total time spent loading, in milliseconds.
+     */
+    public long getTotalLoadTime() {
+        return loadTime.get() / 1000000;
+    }
+
+    /**
+     * Average load time, in milliseconds.
+     */
+    public double getAverageLoadTime() {
+        long l = loads.get();
+        return l == 0 ? 0 : loadTime.get() / 1000000d / l;
+    }
+
+    /**
+     * Total number of times a thread had to wait for a load run by another thread.
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Number of threads currently waiting for a load run by another thread.
+     */
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    /**
+     * Number of keys currently being loaded.
+     */
+    public int getLoading() {
+        return loading.size();
+    }
+
+    /**
+     * Resets all the statistics.
+     */
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        loads.set(0);
+        failures.set(0);
+        loadTime.set(0);
+        waits.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[hits=" + getHits() + ", misses=" + getMisses() + ", hitRatio="
+                + getHitRatio() + ", loads=" + getLoads() + ", failures=" + getFailures()
+                + ", avgLoadTime=" + getAverageLoadTime() + "ms, waits=" + getWaits()
+                + ", waiters=" + getWaiters() + "]";
+    }
+}
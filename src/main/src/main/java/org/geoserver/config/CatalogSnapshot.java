@@ -0,0 +1,301 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Binary snapshot of the catalog, used to avoid parsing the whole data directory on startup.
+ * <p>
+ * The snapshot is a single file, in the root of the data directory, containing all the catalog
+ * objects encoded with a binary {@link XStreamPersister}, in an order that allows them to be
+ * added back to a catalog one by one. The snapshot is tagged with a {@link #fingerprint()} of
+ * the catalog configuration files (their paths, sizes and modification times) and is ignored as
+ * soon as any of them is added, removed or modified.
+ * </p>
+ *
+ * @see GeoServerLoader
+ */
+public class CatalogSnapshot {
+
+    static Logger LOGGER = Logging.getLogger( "org.geoserver" );
+
+    /**
+     * Name of the snapshot file
+     */
+    public static final String SNAPSHOT_FILE = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    static final int VERSION = 1;
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersisterFactory xpf;
+
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader, XStreamPersisterFactory xpf) {
+        this.resourceLoader = resourceLoader;
+        this.xpf = xpf;
+    }
+
+    /**
+     * Computes a fingerprint of the catalog configuration files currently in the data directory.
+     */
+    public String fingerprint() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw (IOException) new IOException( "Unable to compute the catalog fingerprint" ).initCause( e );
+        }
+
+        digest( digest, "", resourceLoader.find( "styles" ), false );
+        digest( digest, "", resourceLoader.find( "workspaces" ), true );
+        digest( digest, "", resourceLoader.find( "layergroups" ), false );
+
+        StringBuilder sb = new StringBuilder();
+        for ( byte b : digest.digest() ) {
+            sb.append( Integer.toHexString( (b & 0xff) | 0x100 ).substring( 1 ) );
+        }
+        return sb.toString();
+    }
+
+    void digest(MessageDigest digest, String path, File dir, boolean recurse) {
+        if ( dir == null ) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if ( files == null ) {
+            return;
+        }
+        //make the fingerprint independent of the file system listing order
+        Arrays.sort( files );
+
+        path = path + dir.getName() + "/";
+        for ( File f : files ) {
+            if ( f.isDirectory() ) {
+                if ( recurse ) {
+                    digest( digest, path, f, recurse );
+                }
+            }
+            else if ( f.getName().endsWith( ".xml" ) ) {
+                String entry = path + f.getName() + ":" + f.length() + ":" + f.lastModified() + "\n";
+                try {
+                    digest.update( entry.getBytes( "UTF-8" ) );
+                }
+                catch( IOException e ) {
+                    //UTF-8 is always supported
+                    throw new RuntimeException( e );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the snapshot file, which might not exist.
+     */
+    public File getFile() {
+        return new File( resourceLoader.getBaseDirectory(), SNAPSHOT_FILE );
+    }
+
+    /**
+     * Reads the catalog from the snapshot.
+     *
+     * @param fingerprint The fingerprint of the current configuration files
+     *
+     * @return The catalog, or null if the snapshot is missing, out of date or cannot be read.
+     */
+    public Catalog read(String fingerprint) {
+        File f = getFile();
+        if ( !f.exists() ) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( f ), 64 * 1024 ) );
+            try {
+                if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                    LOGGER.info( "Ignoring catalog snapshot, unrecognized format" );
+                    return null;
+                }
+                if ( !fingerprint.equals( in.readUTF() ) ) {
+                    LOGGER.info( "Ignoring catalog snapshot, the configuration files have changed" );
+                    return null;
+                }
+
+                Catalog catalog = new CatalogImpl();
+                catalog.setResourceLoader( resourceLoader );
+                XStreamPersister xp = xpf.createBinaryPersister();
+                xp.setCatalog( catalog );
+
+                int count = 0;
+                for ( WorkspaceInfo ws : read( in, xp, WorkspaceInfo.class ) ) {
+                    catalog.add( ws );
+                    count++;
+                }
+                for ( NamespaceInfo ns : read( in, xp, NamespaceInfo.class ) ) {
+                    catalog.add( ns );
+                    count++;
+                }
+                for ( StyleInfo s : read( in, xp, StyleInfo.class ) ) {
+                    catalog.add( s );
+                    count++;
+                }
+                for ( StoreInfo s : read( in, xp, StoreInfo.class ) ) {
+                    catalog.add( s );
+                    count++;
+                }
+                for ( ResourceInfo r : read( in, xp, ResourceInfo.class ) ) {
+                    catalog.add( r );
+                    count++;
+                }
+                for ( LayerInfo l : read( in, xp, LayerInfo.class ) ) {
+                    catalog.add( l );
+                    count++;
+                }
+                for ( LayerGroupInfo lg : read( in, xp, LayerGroupInfo.class ) ) {
+                    catalog.add( lg );
+                    count++;
+                }
+
+                String ws = in.readUTF();
+                if ( ws.length() > 0 ) {
+                    catalog.setDefaultWorkspace( catalog.getWorkspace( ws ) );
+                }
+                String ns = in.readUTF();
+                if ( ns.length() > 0 ) {
+                    catalog.setDefaultNamespace( catalog.getNamespace( ns ) );
+                }
+
+                LOGGER.info( "Loaded " + count + " catalog objects from snapshot in "
+                    + (System.currentTimeMillis() - start) + " ms" );
+                return catalog;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to read the catalog snapshot, ignoring it", e );
+            return null;
+        }
+    }
+
+    <T extends CatalogInfo> List<T> read(DataInputStream in, XStreamPersister xp, Class<T> clazz)
+        throws IOException {
+        int count = in.readInt();
+        List<T> infos = new ArrayList<T>( count );
+        for ( int i = 0; i < count; i++ ) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+            infos.add( xp.load( new ByteArrayInputStream( bytes ), clazz ) );
+        }
+        return infos;
+    }
+
+    /**
+     * Writes a snapshot of the catalog, replacing the existing one.
+     * <p>
+     * Failures are logged and the snapshot removed, so that the next startup falls back on
+     * the configuration files.
+     * </p>
+     *
+     * @param catalog The catalog, as just read from the configuration files
+     * @param fingerprint The fingerprint of the configuration files, as computed before reading
+     * them
+     */
+    public void write(Catalog catalog, String fingerprint) {
+        long start = System.currentTimeMillis();
+        File f = getFile();
+        File tmp = new File( f.getParentFile(), f.getName() + ".tmp" );
+        try {
+            XStreamPersister xp = xpf.createBinaryPersister();
+            xp.setCatalog( catalog );
+
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( tmp ), 64 * 1024 ) );
+            try {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeUTF( fingerprint );
+
+                write( out, xp, catalog.getWorkspaces() );
+                write( out, xp, catalog.getNamespaces() );
+                write( out, xp, catalog.getStyles() );
+                write( out, xp, catalog.getStores( StoreInfo.class ) );
+                write( out, xp, catalog.getResources( ResourceInfo.class ) );
+                write( out, xp, catalog.getLayers() );
+                write( out, xp, catalog.getLayerGroups() );
+
+                WorkspaceInfo ws = catalog.getDefaultWorkspace();
+                out.writeUTF( ws != null ? ws.getId() : "" );
+                NamespaceInfo ns = catalog.getDefaultNamespace();
+                out.writeUTF( ns != null ? ns.getId() : "" );
+            }
+            finally {
+                out.close();
+            }
+
+            if ( f.exists() && !f.delete() ) {
+                throw new IOException( "Unable to remove the old catalog snapshot " + f.getPath() );
+            }
+            if ( !tmp.renameTo( f ) ) {
+                throw new IOException( "Unable to rename " + tmp.getPath() + " to " + f.getPath() );
+            }
+            LOGGER.info( "Wrote catalog snapshot in " + (System.currentTimeMillis() - start) + " ms" );
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to write the catalog snapshot", e );
+            tmp.delete();
+            f.delete();
+        }
+    }
+
+    void write(DataOutputStream out, XStreamPersister xp, List<? extends CatalogInfo> infos)
+        throws IOException {
+        out.writeInt( infos.size() );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for ( CatalogInfo info : infos ) {
+            bytes.reset();
+            xp.save( info, bytes );
+            out.writeInt( bytes.size() );
+            bytes.writeTo( out );
+        }
+    }
+}
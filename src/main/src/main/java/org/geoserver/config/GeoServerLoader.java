@@ -15,6 +15,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,14 +39,18 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.Wrapper;
+import org.geoserver.catalog.event.AsyncCatalogListener;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
@@ -76,6 +88,19 @@ public abstract class GeoServerLoader {
     // this ugly hack can die
     static boolean legacy = false;
     
+    /**
+     * Number of threads used to parse the catalog configuration files, defaults to the number of
+     * available processors and can be set with the CATALOG_LOADER_THREADS variable, a value of 1
+     * disables parallel loading
+     */
+    int loaderThreads = getDefaultLoaderThreads();
+    
+    /**
+     * Whether to keep a binary snapshot of the catalog to speed up the following startups, can 
+     * be enabled with the CATALOG_SNAPSHOT variable
+     */
+    boolean snapshotEnabled = Boolean.valueOf(GeoServerExtensions.getProperty("CATALOG_SNAPSHOT"));
+    
     public GeoServerLoader( GeoServerResourceLoader resourceLoader ) {
         this.resourceLoader = resourceLoader;
     }
@@ -93,6 +118,26 @@ public abstract class GeoServerLoader {
         GeoServerLoader.legacy = legacy;
     }
     
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+    
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+    
+    static int getDefaultLoaderThreads() {
+        String threads = GeoServerExtensions.getProperty("CATALOG_LOADER_THREADS");
+        if (threads != null) {
+            try {
+                return Integer.parseInt(threads.trim());
+            } catch(NumberFormatException e) {
+                LOGGER.warning("Invalid CATALOG_LOADER_THREADS value '" + threads + "', ignoring it");
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
     public final Object postProcessAfterInitialization(Object bean, String beanName)
             throws BeansException {
         return bean;
@@ -196,6 +241,10 @@ public abstract class GeoServerLoader {
     }
     
     public void reload() throws Exception {
+        //let the asynchronous listeners catch up before throwing away the current catalog
+        if ( !AsyncCatalogListener.await( geoserver.getCatalog(), 60, TimeUnit.SECONDS ) ) {
+            LOGGER.warning( "Timed out waiting for the asynchronous catalog listeners, reloading anyways" );
+        }
         destroy();
         
         //reload catalog, make sure we reload the underlying catalog, not any wrappers
@@ -222,8 +271,23 @@ public abstract class GeoServerLoader {
         // an old data directory
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
-            //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            //assume 2.x style data directory, use the snapshot if it's up to date
+            CatalogImpl catalog2 = null;
+            CatalogSnapshot snapshot = null;
+            String fingerprint = null;
+            if ( snapshotEnabled ) {
+                snapshot = new CatalogSnapshot( resourceLoader, xpf );
+                fingerprint = snapshot.fingerprint();
+                catalog2 = (CatalogImpl) snapshot.read( fingerprint );
+            }
+            if ( catalog2 == null ) {
+                catalog2 = (CatalogImpl) readCatalog( xp );
+                if ( snapshot != null ) {
+                    snapshot.write( catalog2, fingerprint );
+                }
+            }
+            connectDataStores( catalog2 );
+            
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
         } else {
@@ -241,14 +305,21 @@ public abstract class GeoServerLoader {
     
     /**
      * Reads the catalog from disk.
+     * <p>
+     * The catalog objects are loaded in dependency order (workspaces and styles, stores, resources,
+     * layers and layer groups), the configuration files of each level are parsed in parallel using
+     * {@link #loaderThreads} threads, all sharing the given {@link XStreamPersister}, and then
+     * added to the catalog sequentially.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
-        Catalog catalog = new CatalogImpl();
+        final Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
-        
-        CatalogFactory factory = catalog.getFactory();
-       
+
+        long start = System.currentTimeMillis();
+        long phase = start;
+
         //global styles
         loadStyles(resourceLoader.find( "styles" ), catalog, xp);
 
@@ -270,28 +341,28 @@ public abstract class GeoServerLoader {
             else {
                 LOGGER.warning("No default workspace was found.");
             }
-            
+
             for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
                 File f = new File( wsd, "workspace.xml");
                 if ( !f.exists() ) {
                     continue;
                 }
-                
+
                 WorkspaceInfo ws = null;
                 try {
                     ws = depersist( xp, f, WorkspaceInfo.class );
-                    catalog.add( ws );    
+                    catalog.add( ws );
                 }
                 catch( Exception e ) {
                     LOGGER.log( Level.WARNING, "Failed to load workspace '" + wsd.getName() + "'" , e );
                     continue;
                 }
-                
+
                 LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
-                
+
                 //load the namespace
                 File nsf = new File( wsd, "namespace.xml" );
-                NamespaceInfo ns = null; 
+                NamespaceInfo ns = null;
                 if ( nsf.exists() ) {
                     try {
                         ns = depersist( xp, nsf, NamespaceInfo.class );
@@ -301,8 +372,8 @@ public abstract class GeoServerLoader {
                         LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wsd.getName() + "'" , e );
                     }
                 }
-                
-                //set the default workspace, this value might be null in the case of coming from a 
+
+                //set the default workspace, this value might be null in the case of coming from a
                 // 2.0.0 data directory. See http://jira.codehaus.org/browse/GEOS-3440
                 if (defaultWorkspace != null ) {
                     if (ws.getName().equals(defaultWorkspace.getName())) {
@@ -317,13 +388,13 @@ public abstract class GeoServerLoader {
                     defaultWorkspace = catalog.getDefaultWorkspace();
                     if (defaultWorkspace != null) {
                         try {
-                            persist(xp, defaultWorkspace, dws);    
+                            persist(xp, defaultWorkspace, dws);
                         }
                         catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to persist default workspace '" + 
+                            LOGGER.log( Level.WARNING, "Failed to persist default workspace '" +
                                 wsd.getName() + "'" , e );
                         }
-                        
+
                     }
                 }
 
@@ -333,182 +404,118 @@ public abstract class GeoServerLoader {
                     loadStyles(styles, catalog, xp);
                 }
             }
-            
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                
-                //load the stores for this workspace
-                for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
-                    File f = new File( sd, "datastore.xml");
-                    if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
-                            
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-                            
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
-                                try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
-                                    
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
-                                }
-                            }
-                        }
-                        catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
-                            continue;
-                        }
-                        
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
-                            if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
-                                try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
-                                }
-                                catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
-                                if ( f.exists() ) {
-                                    try {
-                                        LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                        catalog.add( l );
-                                        
-                                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
-                                    }
-                                }
+            phase = logPhase("workspaces, namespaces and styles", phase);
+
+            ExecutorService executor = createLoaderExecutor();
+            // the parsing tasks share the persister, configured by the caller (aliases, password
+            // encryption, references), xstream can unmarshal concurrently once set up
+            final XStreamPersister persister = xp;
+            try {
+                //parse the stores, all workspaces are in the catalog already
+                List<Callable<StoreContents>> storeTasks = new ArrayList<Callable<StoreContents>>();
+                for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                    for ( final File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
+                        storeTasks.add(new Callable<StoreContents>() {
+                            public StoreContents call() throws Exception {
+                                return readStore(sd, persister);
                             }
-                            else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
+                        });
+                    }
+                }
+                List<StoreContents> stores = new ArrayList<StoreContents>();
+                for ( StoreContents sc : invokeAll(executor, storeTasks) ) {
+                    if ( sc == null ) {
+                        continue;
+                    }
+                    try {
+                        catalog.add( sc.store );
+                        LOGGER.info( "Loaded " + sc.type.storeLabel + " '" + sc.store.getName() +"'");
+                        stores.add( sc );
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load " + sc.type.storeLabel + " '"
+                            + sc.dir.getName() +"'", e);
+                    }
+                }
+                phase = logPhase(stores.size() + " stores", phase);
+
+                //parse the resources of the stores that could be loaded
+                List<Callable<ResourceContents>> resourceTasks = new ArrayList<Callable<ResourceContents>>();
+                for ( final StoreContents sc : stores ) {
+                    for ( final File rd : list(sc.dir, DirectoryFileFilter.INSTANCE) ) {
+                        resourceTasks.add(new Callable<ResourceContents>() {
+                            public ResourceContents call() throws Exception {
+                                return readResource(sc.type, rd, persister);
                             }
-                        }
-                    } else {
-                        //look for a coverage store
-                        f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
+                        });
+                    }
+                }
+                List<ResourceContents> resources = new ArrayList<ResourceContents>();
+                for ( ResourceContents rc : invokeAll(executor, resourceTasks) ) {
+                    if ( rc == null ) {
+                        continue;
+                    }
+                    try {
+                        catalog.add( rc.resource );
+                        LOGGER.info( "Loaded " + rc.type.resourceLabel + " '" + rc.resource.getName() +"'");
+                        resources.add( rc );
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load " + rc.type.resourceLabel + " '"
+                            + rc.dir.getName() +"'", e);
+                    }
+                }
+                phase = logPhase(resources.size() + " resources", phase);
+
+                //parse the layers of the resources that could be loaded
+                List<Callable<LayerInfo>> layerTasks = new ArrayList<Callable<LayerInfo>>();
+                for ( final ResourceContents rc : resources ) {
+                    final File f = new File( rc.dir, "layer.xml" );
+                    if ( !f.exists() ) {
+                        continue;
+                    }
+                    layerTasks.add(new Callable<LayerInfo>() {
+                        public LayerInfo call() throws Exception {
                             try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
-                            
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
+                                return depersist(persister, f, LayerInfo.class );
                             }
                             catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
-                                continue;
-                            }
-                            
-                            //load coverages
-                            for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
-                                if( f.exists() ) {
-                                    CoverageInfo c = null;
-                                    try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
-                                        
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
-                                    }
-                                    catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
-                                        continue;
-                                    }
-                                    
-                                    f = new File( cd, "layer.xml" );
-                                    if ( f.exists() ) {
-                                        try {
-                                            LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                            catalog.add( l );
-                                            
-                                            LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
-                                        }
-                                    }
-                                }
-                                else {
-                                    LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                }
-                            }
-                        } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
+                                LOGGER.log( Level.WARNING, "Failed to load layer for "
+                                    + rc.type.resourceLabel + " '" + rc.resource.getName() +"'", e);
+                                return null;
                             }
                         }
+                    });
+                }
+                int layers = 0;
+                for ( LayerInfo l : invokeAll(executor, layerTasks) ) {
+                    if ( l == null ) {
+                        continue;
+                    }
+                    try {
+                        catalog.add( l );
+                        LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                        layers++;
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load layer '" + l.getName() +"'", e);
                     }
                 }
+                phase = logPhase(layers + " layers", phase);
 
-                //load hte layer groups for this workspace
-                File layergroups = resourceLoader.find(wsd, "layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
+                //load the layer groups of each workspace
+                for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                    File layergroups = resourceLoader.find(wsd, "layergroups");
+                    if (layergroups != null) {
+                        loadLayerGroups(layergroups, catalog, xp);
+                    }
+                }
+
+                phase = logPhase("layer groups", phase);
+            }
+            finally {
+                if ( executor != null ) {
+                    executor.shutdown();
                 }
             }
         }
@@ -517,16 +524,206 @@ public abstract class GeoServerLoader {
         }
 
         //namespaces
-        
+
         //layergroups
         File layergroups = resourceLoader.find( "layergroups" );
         if ( layergroups != null ) {
            loadLayerGroups(layergroups, catalog, xp);
         }
 
+        LOGGER.info( "Catalog loaded in " + (System.currentTimeMillis() - start) + " ms");
         return catalog;
     }
-    
+
+    /**
+     * Connects to the enabled data stores of the catalog, in parallel, disabling the ones that
+     * cannot be connected to.
+     */
+    void connectDataStores(Catalog catalog) throws Exception {
+        long start = System.currentTimeMillis();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for ( DataStoreInfo info : catalog.getDataStores() ) {
+            //work against the actual store, the catalog hands out proxies
+            final DataStoreInfo ds = ModificationProxy.unwrap( info );
+            if ( !ds.isEnabled() ) {
+                continue;
+            }
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        ds.getDataStore(null);
+                    }
+                    catch( Throwable t ) {
+                        LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                        LOGGER.log( Level.INFO, "", t );
+
+                        ds.setError(t);
+                        ds.setEnabled(false);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = createLoaderExecutor();
+        try {
+            invokeAll(executor, tasks);
+        }
+        finally {
+            if ( executor != null ) {
+                executor.shutdown();
+            }
+        }
+        logPhase(tasks.size() + " data store connections", start);
+    }
+
+    /**
+     * The kinds of stores found in a workspace directory, along with the resources they contain.
+     */
+    enum StoreType {
+        DATA("datastore.xml", DataStoreInfo.class, "data store",
+            "featuretype.xml", FeatureTypeInfo.class, "feature type"),
+        COVERAGE("coveragestore.xml", CoverageStoreInfo.class, "coverage store",
+            "coverage.xml", CoverageInfo.class, "coverage"),
+        WMS("wmsstore.xml", WMSStoreInfo.class, "wms store",
+            "wmslayer.xml", WMSLayerInfo.class, "wms layer");
+
+        final String storeFile;
+        final Class<? extends StoreInfo> storeClass;
+        final String storeLabel;
+        final String resourceFile;
+        final Class<? extends ResourceInfo> resourceClass;
+        final String resourceLabel;
+
+        StoreType(String storeFile, Class<? extends StoreInfo> storeClass, String storeLabel,
+                String resourceFile, Class<? extends ResourceInfo> resourceClass, String resourceLabel) {
+            this.storeFile = storeFile;
+            this.storeClass = storeClass;
+            this.storeLabel = storeLabel;
+            this.resourceFile = resourceFile;
+            this.resourceClass = resourceClass;
+            this.resourceLabel = resourceLabel;
+        }
+    }
+
+    static class StoreContents {
+        StoreType type;
+        File dir;
+        StoreInfo store;
+    }
+
+    static class ResourceContents {
+        StoreType type;
+        File dir;
+        ResourceInfo resource;
+    }
+
+    /**
+     * Parses the store contained in the specified directory, returns null if the directory does
+     * not contain a store or the store could not be parsed.
+     */
+    StoreContents readStore(File sd, XStreamPersister xp) {
+        for ( StoreType type : StoreType.values() ) {
+            File f = new File( sd, type.storeFile );
+            if ( !f.exists() ) {
+                continue;
+            }
+
+            StoreContents sc = new StoreContents();
+            sc.type = type;
+            sc.dir = sd;
+            try {
+                sc.store = depersist( xp, f, type.storeClass );
+                return sc;
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load " + type.storeLabel + " '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+
+        LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+        return null;
+    }
+
+    /**
+     * Parses the resource contained in the specified directory, returns null if the directory does
+     * not contain a resource or the resource could not be parsed.
+     */
+    ResourceContents readResource(StoreType type, File rd, XStreamPersister xp) {
+        File f = new File( rd, type.resourceFile );
+        if ( !f.exists() ) {
+            LOGGER.warning( "Ignoring " + type.resourceLabel + " directory " + rd.getAbsolutePath() );
+            return null;
+        }
+
+        ResourceContents rc = new ResourceContents();
+        rc.type = type;
+        rc.dir = rd;
+        try {
+            rc.resource = depersist( xp, f, type.resourceClass );
+            return rc;
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to load " + type.resourceLabel + " '" + rd.getName() +"'", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the executor used to parse the catalog files, or returns null if the files should
+     * be parsed in the calling thread.
+     */
+    ExecutorService createLoaderExecutor() {
+        if ( loaderThreads <= 1 ) {
+            return null;
+        }
+
+        return Executors.newFixedThreadPool( loaderThreads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread( r, "GeoServer catalog loader " + count.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Runs the tasks with the executor, or in the calling thread if the executor is null, and
+     * returns their results in the same order as the tasks.
+     */
+    <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if ( executor == null ) {
+            for ( Callable<T> task : tasks ) {
+                results.add( task.call() );
+            }
+            return results;
+        }
+
+        for ( Future<T> future : executor.invokeAll( tasks ) ) {
+            try {
+                results.add( future.get() );
+            }
+            catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+                if ( cause instanceof Exception ) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+        return results;
+    }
+
+    long logPhase(String phase, long start) {
+        long now = System.currentTimeMillis();
+        LOGGER.info( "Catalog loading: " + phase + " loaded in " + (now - start) + " ms");
+        return now;
+    }
+
     /**
      * Reads the legacy (1.x) catalog from disk.
      */
@@ -132,6 +132,7 @@ import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriterHelper;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.mapper.ClassAliasingMapper;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.vividsolutions.jts.geom.Geometry;
@@ -238,6 +239,11 @@ public class XStreamPersister {
      * Flag controlling whether the persister should perform encryption on password fields
      */
     boolean encryptPasswordFields = true;
+    
+    /**
+     * The stream driver, or null for the default xml one
+     */
+    HierarchicalStreamDriver streamDriver;
 
     /**
      * Constructs the persister and underlying xstream.
@@ -250,6 +256,7 @@ public class XStreamPersister {
      * Constructs the persister and underlying xstream specifying the stream driver explicitly.
      */
     protected XStreamPersister(HierarchicalStreamDriver streamDriver) {
+        this.streamDriver = streamDriver;
         
         //control the order in which fields are sorted
         SortableFieldKeySorter sorter = new SortableFieldKeySorter();
@@ -521,7 +528,15 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        if ( streamDriver instanceof BinaryStreamDriver ) {
+            //binary streams cannot be written as characters
+            HierarchicalStreamWriter writer = streamDriver.createWriter( out );
+            xs.marshal( obj, writer );
+            writer.flush();
+        }
+        else {
+            xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        }
     }
     
     /**
@@ -0,0 +1,59 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.geoserver.catalog.impl.ReadOnlyProxy;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Dispatcher callback that enables read only catalog access (see {@link ReadOnlyProxy}) for the
+ * duration of a configurable set of OWS requests.
+ * <p>
+ * The request names are read from the <code>READ_ONLY_CATALOG_REQUESTS</code> property (system
+ * property, servlet context parameter or environment variable) as a comma separated list, for
+ * instance <code>GetCapabilities,GetMap,GetFeature</code>. When the property is not set the
+ * callback does nothing.
+ * </p>
+ */
+public class ReadOnlyCatalogCallback extends AbstractDispatcherCallback {
+
+    public static final String READ_ONLY_CATALOG_REQUESTS = "READ_ONLY_CATALOG_REQUESTS";
+
+    Set<String> requests;
+
+    public ReadOnlyCatalogCallback() {
+        this(GeoServerExtensions.getProperty(READ_ONLY_CATALOG_REQUESTS));
+    }
+
+    public ReadOnlyCatalogCallback(String requests) {
+        this.requests = new HashSet<String>();
+        if (requests != null) {
+            for (String r : requests.split(",")) {
+                if (r.trim().length() > 0) {
+                    this.requests.add(r.trim().toUpperCase());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) throws ServiceException {
+        if (request.getRequest() != null
+                && requests.contains(request.getRequest().toUpperCase())) {
+            ReadOnlyProxy.enable();
+        }
+        return service;
+    }
+
+    @Override
+    public void finished(Request request) {
+        ReadOnlyProxy.disable();
+    }
+}
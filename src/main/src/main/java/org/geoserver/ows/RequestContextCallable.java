@@ -0,0 +1,62 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.concurrent.Callable;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.ReadOnlyProxy;
+import org.geoserver.security.WrapperPolicyCache;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * A task meant to run in a pooled thread on behalf of a request, with the security context and
+ * the OWS thread locals ({@link Dispatcher#REQUEST}, {@link LocalWorkspace}, {@link LocalLayer}
+ * and the {@link ReadOnlyProxy read only catalog mode}) of the thread that created it.
+ * <p>
+ * The context is captured when the task is built, set before {@link #callInContext()} runs, and
+ * cleared afterwards, along with the request scoped security decisions, so that nothing leaks to
+ * the next task run by the same thread.
+ * </p>
+ */
+public abstract class RequestContextCallable<V> implements Callable<V> {
+
+    final SecurityContext security = SecurityContextHolder.getContext();
+
+    final Request owsRequest = Dispatcher.REQUEST.get();
+
+    final WorkspaceInfo localWorkspace = LocalWorkspace.get();
+
+    final LayerInfo localLayer = LocalLayer.get();
+
+    final boolean readOnly = ReadOnlyProxy.isEnabled();
+
+    public final V call() throws Exception {
+        SecurityContextHolder.setContext(security);
+        Dispatcher.REQUEST.set(owsRequest);
+        LocalWorkspace.set(localWorkspace);
+        LocalLayer.set(localLayer);
+        if (readOnly) {
+            ReadOnlyProxy.enable();
+        }
+        try {
+            return callInContext();
+        } finally {
+            SecurityContextHolder.clearContext();
+            Dispatcher.REQUEST.remove();
+            LocalWorkspace.remove();
+            LocalLayer.remove();
+            ReadOnlyProxy.disable();
+            WrapperPolicyCache.releaseRequestScope();
+        }
+    }
+
+    /**
+     * Runs the task, with the context of the creating thread
+     */
+    protected abstract V callInContext() throws Exception;
+}
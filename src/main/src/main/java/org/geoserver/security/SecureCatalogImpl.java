@@ -76,7 +76,17 @@ import com.google.common.collect.ImmutableList;
 public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Catalog {
 
     protected ResourceAccessManager accessManager;
-    
+
+    /**
+     * Memoizes the access decisions, see {@link WrapperPolicyCache}
+     */
+    protected WrapperPolicyCache policyCache = new WrapperPolicyCache();
+
+    /**
+     * Whether the policy cache has been registered as a security manager listener
+     */
+    volatile boolean policyCacheRegistered;
+
     public SecureCatalogImpl(Catalog catalog) throws Exception {
         this(catalog, lookupResourceAccessManager());
     }
@@ -89,6 +99,13 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
         return accessManager;
     }
 
+    /**
+     * The cache holding the access decisions, along with its statistics
+     */
+    public WrapperPolicyCache getWrapperPolicyCache() {
+        return policyCache;
+    }
+
     static ResourceAccessManager lookupResourceAccessManager() throws Exception {
         ResourceAccessManager manager = GeoServerExtensions.bean(ResourceAccessManager.class);
         if (manager == null) {
@@ -116,6 +133,7 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
     public SecureCatalogImpl(Catalog catalog, ResourceAccessManager manager) {
         super(catalog);
         this.accessManager = manager;
+        policyCache.listenTo(catalog);
     }
 
     // -------------------------------------------------------------------
@@ -756,7 +774,40 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
      * @param resourceName
      * @return
      */
-    public WrapperPolicy buildWrapperPolicy(Authentication user,
+    public WrapperPolicy buildWrapperPolicy(final Authentication user,
+            final CatalogInfo info, final String resourceName) {
+        if (!policyCacheRegistered) {
+            registerPolicyCache();
+        }
+        return policyCache.get(user, info, resourceName, new WrapperPolicyCache.PolicyBuilder() {
+            public WrapperPolicy build() {
+                return computeWrapperPolicy(user, info, resourceName);
+            }
+        });
+    }
+
+    /**
+     * Registers the policy cache with the security manager, so that it's emptied on security
+     * configuration changes. Done lazily as the security manager might not be available yet when
+     * the secure catalog is created.
+     */
+    synchronized void registerPolicyCache() {
+        if (!policyCacheRegistered) {
+            GeoServerSecurityManager securityManager = 
+                GeoServerExtensions.bean(GeoServerSecurityManager.class);
+            if (securityManager != null) {
+                policyCache.listenTo(securityManager);
+            }
+            policyCacheRegistered = true;
+        }
+    }
+
+    /**
+     * Computes the access level policy, bypassing the cache
+     * 
+     * @see #buildWrapperPolicy(Authentication, CatalogInfo, String)
+     */
+    protected WrapperPolicy computeWrapperPolicy(Authentication user,
             CatalogInfo info, String resourceName) {
         boolean canRead = true;
         boolean canWrite = true;
@@ -1188,9 +1239,19 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
     }
 
     public void dispose() {
+        unregisterPolicyCache();
         delegate.dispose();
     }
 
+    /**
+     * Stops the policy cache from listening to the catalog and security manager events
+     */
+    synchronized void unregisterPolicyCache() {
+        policyCache.stopListening();
+        // don't register again if used after being disposed
+        policyCacheRegistered = true;
+    }
+
     public CatalogFacade getFacade() {
         return delegate.getFacade();
     }
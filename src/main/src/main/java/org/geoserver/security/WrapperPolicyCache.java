@@ -0,0 +1,498 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Memoizes the {@link WrapperPolicy} decisions taken by {@link SecureCatalogImpl}, so that the
+ * same user asking for the same catalog object over and over (as a capabilities document or a
+ * large layer group do) hits the {@link ResourceAccessManager} only once.
+ * <p>
+ * Decisions are keyed by authentication, catalog object id and name, and by the request traits
+ * an access manager can base its decision on (admin request, OWS service and request). The cache
+ * works in one of three modes, controlled by the SECURE_CATALOG_CACHE_TTL variable:
+ * <ul>
+ * <li>not set: decisions are kept for the duration of the current OWS request only, and nothing
+ * is cached outside of OWS requests</li>
+ * <li>a positive number of milliseconds: decisions are shared among requests and kept for that
+ * long</li>
+ * <li>zero or a negative number: caching is disabled</li>
+ * </ul>
+ * All the decisions are dropped whenever the catalog or the security configuration change. The
+ * request scoped decisions are released at the end of the request by {@link RequestCleaner}, and
+ * by {@link #releaseRequestScope()} for the pooled threads working on behalf of a request.
+ * </p>
+ * <p>
+ * The cache does not register itself with the catalog and the security manager, see
+ * {@link #listenTo(Catalog)}: a single {@link Invalidator} per catalog and security manager
+ * forwards their events to the caches, holding them weakly, so that secure catalogs that are not
+ * disposed do not leak.
+ * </p>
+ */
+public class WrapperPolicyCache {
+
+    static final Logger LOGGER = Logging.getLogger(WrapperPolicyCache.class);
+
+    /**
+     * Maximum number of decisions held, the cache is emptied when going above it
+     */
+    static final int MAX_ENTRIES = 100000;
+
+    /**
+     * Computes a decision when it's not found in the cache
+     */
+    public static interface PolicyBuilder {
+        WrapperPolicy build();
+    }
+
+    static class Key {
+        final Authentication user;
+
+        final String id;
+
+        final String name;
+
+        final boolean admin;
+
+        final String service;
+
+        final String request;
+
+        Key(Authentication user, String id, String name, boolean admin, String service,
+                String request) {
+            this.user = user;
+            this.id = id;
+            this.name = name;
+            this.admin = admin;
+            this.service = service;
+            this.request = request;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = id.hashCode();
+            result = 31 * result + (user == null ? 0 : user.hashCode());
+            result = 31 * result + (name == null ? 0 : name.hashCode());
+            result = 31 * result + (admin ? 1 : 0);
+            result = 31 * result + (service == null ? 0 : service.hashCode());
+            return 31 * result + (request == null ? 0 : request.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return id.equals(other.id) && admin == other.admin
+                    && equal(user, other.user) && equal(name, other.name)
+                    && equal(service, other.service) && equal(request, other.request);
+        }
+
+        static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    static class Entry {
+        final WrapperPolicy policy;
+
+        /**
+         * time it took to build the policy, in nanoseconds
+         */
+        final long cost;
+
+        final long expires;
+
+        Entry(WrapperPolicy policy, long cost, long expires) {
+            this.policy = policy;
+            this.cost = cost;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Releases the request scoped decisions of all the caches at the end of each OWS request
+     */
+    public static class RequestCleaner extends AbstractDispatcherCallback {
+        @Override
+        public void finished(Request request) {
+            releaseRequestScope();
+        }
+    }
+
+    /**
+     * Releases the request scoped decisions held by the current thread
+     */
+    public static void releaseRequestScope() {
+        REQUEST_SCOPES.remove();
+    }
+
+    /**
+     * Forwards the events of a catalog or security manager to the caches listening to it,
+     * without keeping them alive
+     */
+    static class Invalidator implements CatalogListener, SecurityManagerListener {
+        final Map<WrapperPolicyCache, Boolean> caches = new WeakHashMap<WrapperPolicyCache, Boolean>();
+
+        synchronized void add(WrapperPolicyCache cache) {
+            caches.put(cache, Boolean.TRUE);
+        }
+
+        synchronized void remove(WrapperPolicyCache cache) {
+            caches.remove(cache);
+        }
+
+        synchronized boolean contains(WrapperPolicyCache cache) {
+            return caches.containsKey(cache);
+        }
+
+        void invalidate() {
+            List<WrapperPolicyCache> targets;
+            synchronized (this) {
+                targets = new ArrayList<WrapperPolicyCache>(caches.keySet());
+            }
+            for (WrapperPolicyCache cache : targets) {
+                cache.invalidate();
+            }
+        }
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            invalidate();
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            invalidate();
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            invalidate();
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            invalidate();
+        }
+
+        public void reloaded() {
+            invalidate();
+        }
+
+        public void handlePostChanged(GeoServerSecurityManager securityManager) {
+            invalidate();
+        }
+    }
+
+    /**
+     * The invalidators registered with each catalog and security manager
+     */
+    static final Map<Object, Invalidator> INVALIDATORS = new WeakHashMap<Object, Invalidator>();
+
+    /**
+     * The request scoped decisions of each cache, for the current thread
+     */
+    static final ThreadLocal<Map<WrapperPolicyCache, RequestScope>> REQUEST_SCOPES = 
+        new ThreadLocal<Map<WrapperPolicyCache, RequestScope>>();
+
+    /**
+     * The decisions taken during a single request
+     */
+    static class RequestScope {
+        final Request request;
+
+        final long generation;
+
+        final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+        RequestScope(Request request, long generation) {
+            this.request = request;
+            this.generation = generation;
+        }
+    }
+
+    final long timeToLive;
+
+    final boolean enabled;
+
+    /**
+     * bumped at each invalidation, request scoped decisions taken before it are ignored
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final ConcurrentHashMap<Key, Entry> shared = new ConcurrentHashMap<Key, Entry>();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong buildTime = new AtomicLong();
+
+    final AtomicLong savedTime = new AtomicLong();
+
+    final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The invalidators this cache is listening to
+     */
+    final List<Invalidator> invalidators = new ArrayList<Invalidator>();
+
+    /**
+     * Builds a cache configured from the SECURE_CATALOG_CACHE_TTL variable
+     */
+    public WrapperPolicyCache() {
+        String ttl = GeoServerExtensions.getProperty("SECURE_CATALOG_CACHE_TTL");
+        long timeToLive = 0;
+        boolean enabled = true;
+        if (ttl != null) {
+            try {
+                timeToLive = Long.parseLong(ttl.trim());
+                enabled = timeToLive > 0;
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid SECURE_CATALOG_CACHE_TTL value " + ttl
+                        + ", caching security decisions per request", e);
+            }
+        }
+        this.timeToLive = timeToLive;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Builds a cache
+     *
+     * @param enabled Whether to cache at all
+     * @param timeToLive How long decisions are shared among requests in milliseconds, or zero to
+     *        keep them for the current request only
+     */
+    public WrapperPolicyCache(boolean enabled, long timeToLive) {
+        this.enabled = enabled;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the cached decision for the specified user and catalog object, or builds and caches
+     * it. Failed decisions (the builder throwing an exception) are never cached.
+     */
+    public WrapperPolicy get(Authentication user, CatalogInfo info, String name,
+            PolicyBuilder builder) {
+        String id = info != null ? info.getId() : null;
+        Map<Key, Entry> entries = enabled && id != null ? entries() : null;
+        if (entries == null) {
+            return builder.build();
+        }
+
+        Request request = Dispatcher.REQUEST.get();
+        Key key = new Key(user, id, name, AdminRequest.get() != null,
+                request != null ? request.getService() : null,
+                request != null ? request.getRequest() : null);
+
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires >= now) {
+            hits.incrementAndGet();
+            savedTime.addAndGet(entry.cost);
+            return entry.policy;
+        }
+
+        misses.incrementAndGet();
+        long generation = this.generation.get();
+        long start = System.nanoTime();
+        WrapperPolicy policy = builder.build();
+        long cost = System.nanoTime() - start;
+        buildTime.addAndGet(cost);
+
+        if (timeToLive > 0) {
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+            entries.put(key, new Entry(policy, cost, now + timeToLive));
+            if (generation != this.generation.get()) {
+                // invalidated while building, don't keep a possibly stale decision around
+                entries.remove(key);
+            }
+        } else {
+            entries.put(key, new Entry(policy, cost, Long.MAX_VALUE));
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the decisions usable by the current thread, or null if there are none
+     */
+    Map<Key, Entry> entries() {
+        if (timeToLive > 0) {
+            return shared;
+        }
+
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null) {
+            return null;
+        }
+        Map<WrapperPolicyCache, RequestScope> scopes = REQUEST_SCOPES.get();
+        if (scopes == null) {
+            scopes = new IdentityHashMap<WrapperPolicyCache, RequestScope>();
+            REQUEST_SCOPES.set(scopes);
+        }
+        RequestScope scope = scopes.get(this);
+        long generation = this.generation.get();
+        if (scope == null || scope.request != request || scope.generation != generation) {
+            scope = new RequestScope(request, generation);
+            scopes.put(this, scope);
+        }
+        return scope.entries;
+    }
+
+    /**
+     * Drops the cached decisions whenever the catalog changes
+     */
+    public void listenTo(Catalog catalog) {
+        listen(catalog, catalog);
+    }
+
+    /**
+     * Drops the cached decisions whenever the security configuration changes
+     */
+    public void listenTo(GeoServerSecurityManager securityManager) {
+        listen(securityManager, null);
+    }
+
+    void listen(Object source, Catalog catalog) {
+        Invalidator invalidator;
+        synchronized (INVALIDATORS) {
+            invalidator = INVALIDATORS.get(source);
+            if (invalidator == null) {
+                invalidator = new Invalidator();
+                if (catalog != null) {
+                    catalog.addListener(invalidator);
+                } else {
+                    ((GeoServerSecurityManager) source).addListener(invalidator);
+                }
+                INVALIDATORS.put(source, invalidator);
+            }
+        }
+        invalidator.add(this);
+        synchronized (invalidators) {
+            invalidators.add(invalidator);
+        }
+    }
+
+    /**
+     * Returns whether the cache is listening to the events of the catalog or security manager
+     */
+    public boolean isListeningTo(Object source) {
+        Invalidator invalidator;
+        synchronized (INVALIDATORS) {
+            invalidator = INVALIDATORS.get(source);
+        }
+        return invalidator != null && invalidator.contains(this);
+    }
+
+    /**
+     * Stops listening to all catalogs and security managers
+     */
+    public void stopListening() {
+        synchronized (invalidators) {
+            for (Invalidator invalidator : invalidators) {
+                invalidator.remove(this);
+            }
+            invalidators.clear();
+        }
+    }
+
+    /**
+     * Drops all the cached decisions
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        shared.clear();
+    }
+
+    /**
+     * Number of decisions served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of decisions that had to be built
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Ratio between hits and total lookups, or 0 if no lookup was made yet
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : ((double) h) / total;
+    }
+
+    /**
+     * Total time spent building decisions, in milliseconds
+     */
+    public double getBuildTime() {
+        return buildTime.get() / 1000000d;
+    }
+
+    /**
+     * Estimated time saved by the cache, that is, the time the cached decisions took to build
+     * summed over all the hits, in milliseconds
+     */
+    public double getSavedTime() {
+        return savedTime.get() / 1000000d;
+    }
+
+    /**
+     * Number of times the cache has been emptied due to catalog or security changes
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Resets the statistics
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        buildTime.set(0);
+        savedTime.set(0);
+        invalidations.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "WrapperPolicyCache[hits=" + getHits() + ", misses=" + getMisses()
+                + ", hitRatio=" + getHitRatio() + ", buildTime=" + getBuildTime()
+                + "ms, savedTime=" + getSavedTime() + "ms]";
+    }
+}
@@ -13,7 +13,9 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -239,4 +241,24 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
                 MockData.LAKES.getLocalPart());
         assertEquals("foo", lakes.getTitle());
     }
+
+    @Test public void testWarmer() throws Exception {
+        Catalog cat = getCatalog();
+        String lakes = MockData.LAKES.getPrefix() + ":" + MockData.LAKES.getLocalPart();
+        ResourcePoolWarmer warmer = new ResourcePoolWarmer(2, Arrays.asList(lakes), 3);
+
+        List<LayerInfo> layers = warmer.prioritize(cat);
+        assertEquals(3, layers.size());
+        assertEquals(lakes, layers.get(0).prefixedName());
+
+        warmer.start(cat);
+        try {
+            assertTrue(warmer.await(60, TimeUnit.SECONDS));
+            assertEquals(3, warmer.getTotal());
+            assertEquals(3, warmer.getCompleted());
+            assertEquals(0, warmer.getFailed());
+        } finally {
+            warmer.stop();
+        }
+    }
 }
@@ -27,6 +27,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogException;
@@ -47,6 +48,7 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.AsyncCatalogListener;
 import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.event.CatalogModifyEvent;
@@ -1976,6 +1978,54 @@ public class CatalogImplTest {
         assertEquals(s, lg2.styles().iterator().next());        
     }
     
+    @Test
+    public void testAsyncListener() throws Exception {
+        // hold the listener on the first event so that the following ones pile up
+        final CountDownLatch latch = new CountDownLatch(1);
+        TestListener l = new TestListener() {
+            public void handleAddEvent(CatalogAddEvent event) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.handleAddEvent(event);
+            }
+        };
+        AsyncCatalogListener async = new AsyncCatalogListener(l);
+        catalog.addListener(async);
+
+        catalog.add(ws);
+        for (int i = 0; i < 10; i++) {
+            WorkspaceInfo ws2 = catalog.getWorkspaceByName(i == 0 ? "wsName" : "ws" + (i - 1));
+            ws2.setName("ws" + i);
+            catalog.save(ws2);
+        }
+        assertFalse(AsyncCatalogListener.await(catalog, 10, TimeUnit.MILLISECONDS));
+        latch.countDown();
+        assertTrue(AsyncCatalogListener.await(catalog, 10, TimeUnit.SECONDS));
+
+        assertEquals(1, l.added.size());
+        assertEquals(ws.getId(), l.added.get(0).getSource().getId());
+        // the renames queued while the listener was busy got coalesced (the first one might
+        // have made it in the same batch as the add event)
+        List<CatalogModifyEvent> renames = new ArrayList<CatalogModifyEvent>();
+        for (CatalogModifyEvent e : l.modified) {
+            if (e.getSource() instanceof WorkspaceInfo) {
+                renames.add(e);
+            }
+        }
+        assertTrue(renames.size() == 1 || renames.size() == 2);
+        CatalogModifyEvent first = renames.get(0);
+        assertEquals("wsName", first.getOldValues().get(first.getPropertyNames().indexOf("name")));
+        CatalogModifyEvent last = renames.get(renames.size() - 1);
+        assertEquals("ws9", last.getNewValues().get(last.getPropertyNames().indexOf("name")));
+
+        // removal works against the wrapped listener too
+        catalog.removeListener(l);
+        assertFalse(catalog.getListeners().contains(async));
+    }
+
     static class TestListener implements CatalogListener {
 
         public List<CatalogAddEvent> added = new ArrayList();
@@ -0,0 +1,163 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.desc;
+import static org.geoserver.catalog.Predicates.equal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+/**
+ * Runs the catalog test suite against the {@link IndexedCatalogFacade}.
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    @Test
+    public void testIndexesFollowRenames() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("ftRenamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftName"));
+        assertNotNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftRenamed"));
+        assertNull(catalog.getLayerByName("ftName"));
+        assertNotNull(catalog.getLayerByName("ftRenamed"));
+
+        WorkspaceInfo ws2 = catalog.getWorkspaceByName(ws.getName());
+        ws2.setName("wsRenamed");
+        catalog.save(ws2);
+
+        assertNull(catalog.getWorkspaceByName("wsName"));
+        assertNotNull(catalog.getWorkspaceByName("wsRenamed"));
+        assertEquals(1, catalog.getStoresByWorkspace(ws2, StoreInfo.class).size());
+    }
+
+    @Test
+    public void testLookupsDuringSaves() throws Exception {
+        addDataStore();
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger misses = new AtomicInteger();
+        Thread reader = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    if (catalog.getDataStoreByName(ws.getName(), ds.getName()) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                DataStoreInfo ds2 = catalog.getDataStoreByName(ds.getName());
+                ds2.setDescription("description " + i);
+                catalog.save(ds2);
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertEquals(0, misses.get());
+    }
+
+    @Test
+    public void testLayersByStyle() {
+        addLayer();
+
+        assertEquals(1, catalog.getLayers(s).size());
+
+        LayerInfo l2 = catalog.getLayerByName(l.getName());
+        catalog.remove(l2);
+        assertEquals(0, catalog.getLayers(s).size());
+    }
+
+    @Test
+    public void testIndexedQueries() {
+        addDataStore();
+        addNamespace();
+        for (int i = 0; i < 20; i++) {
+            FeatureTypeInfo ft = newFeatureType("ft" + (i < 10 ? "0" : "") + i, ds);
+            ft.setEnabled(i % 2 == 0);
+            catalog.add(ft);
+        }
+        catalog.add(newFeatureType("other", ds));
+
+        assertEquals(21, catalog.count(FeatureTypeInfo.class, Filter.INCLUDE));
+        assertEquals(21, catalog.count(FeatureTypeInfo.class, equal("store.id", ds.getId())));
+        assertEquals(1, catalog.count(FeatureTypeInfo.class, equal("name", "ft07")));
+        assertEquals(0, catalog.count(FeatureTypeInfo.class, equal("name", "FT07")));
+
+        Filter prefix = Predicates.factory.like(Predicates.factory.property("name"), "FT1*", "*",
+                "?", "\\", false);
+        assertEquals(10, catalog.count(FeatureTypeInfo.class, prefix));
+        assertEquals(5, catalog.count(FeatureTypeInfo.class, and(prefix, equal("enabled", true))));
+        assertEquals(Arrays.asList("ft11", "ft13", "ft15", "ft17", "ft19"),
+                names(catalog.list(FeatureTypeInfo.class,
+                        and(prefix, equal("enabled", false)), null, null, null)));
+
+        // top-k sorted paging, and a full sort for comparison
+        assertEquals(Arrays.asList("ft18", "ft17", "ft16"), names(catalog.list(
+                FeatureTypeInfo.class, Filter.INCLUDE, 2, 3, desc("name"))));
+        List<String> all = names(catalog.list(FeatureTypeInfo.class, Filter.INCLUDE, null,
+                null, desc("name")));
+        assertEquals(21, all.size());
+        assertEquals("other", all.get(0));
+        assertEquals("ft00", all.get(20));
+
+        // unsorted paging follows the insertion order
+        assertEquals(Arrays.asList("ft05", "ft06"), names(catalog.list(FeatureTypeInfo.class,
+                Filter.INCLUDE, 5, 2, null)));
+
+        // lookups by container, with type checks
+        assertEquals(1, catalog.count(DataStoreInfo.class, equal("workspace.name", ws.getName())));
+        assertEquals(0, catalog.count(CoverageStoreInfo.class,
+                equal("workspace.name", ws.getName())));
+        assertEquals(1, catalog.count(StoreInfo.class, equal("workspace.id", ws.getId())));
+        assertEquals(0, catalog.count(FeatureTypeInfo.class, Filter.EXCLUDE));
+    }
+
+    List<String> names(CloseableIterator<? extends CatalogInfo> it) {
+        List<String> names = new ArrayList<String>();
+        try {
+            while (it.hasNext()) {
+                names.add(((FeatureTypeInfo) it.next()).getName());
+            }
+        } finally {
+            it.close();
+        }
+        return names;
+    }
+}
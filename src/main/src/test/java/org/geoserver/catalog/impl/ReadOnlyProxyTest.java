@@ -0,0 +1,174 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Keyword;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geoserver.ows.RequestContextCallable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadOnlyProxyTest {
+
+    Catalog catalog;
+
+    @Before
+    public void setUp() throws Exception {
+        catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("ws");
+        catalog.add(ws);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ReadOnlyProxy.disable();
+    }
+
+    @Test
+    public void testReadOnlyProxies() throws Exception {
+        assertTrue(ModificationProxy.handler(catalog.getWorkspaceByName("ws"))
+            .getClass() == ModificationProxy.class);
+
+        ReadOnlyProxy.enable();
+        WorkspaceInfo ws = catalog.getWorkspaceByName("ws");
+        assertNotNull(ws);
+        assertTrue(ModificationProxy.handler(ws) instanceof ReadOnlyProxy);
+        assertEquals("ws", ws.getName());
+
+        try {
+            ws.setName("foo");
+            fail("setter should have failed");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            catalog.save(ws);
+            fail("save should have failed");
+        } catch (UnsupportedOperationException e) {
+        }
+        
+        ReadOnlyProxy.disable();
+        ws = catalog.getWorkspaceByName("ws");
+        ws.setName("foo");
+        catalog.save(ws);
+        assertNotNull(catalog.getWorkspaceByName("foo"));
+    }
+
+    @Test
+    public void testPooledTasksInheritReadOnlyMode() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            RequestContextCallable<WorkspaceInfo> lookup = new RequestContextCallable<WorkspaceInfo>() {
+                protected WorkspaceInfo callInContext() throws Exception {
+                    return catalog.getWorkspaceByName("ws");
+                }
+            };
+            
+            // the task runs in read only mode even if the pooled thread is not
+            ReadOnlyProxy.enable();
+            WorkspaceInfo ws = pool.submit(lookup).get();
+            assertTrue(ModificationProxy.handler(ws) instanceof ReadOnlyProxy);
+
+            // and the mode does not leak to the next task run by the same thread
+            ReadOnlyProxy.disable();
+            Boolean enabled = pool.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return ReadOnlyProxy.isEnabled();
+                }
+            }).get();
+            assertFalse(enabled);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCollectionsAreNotCopied() throws Exception {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(catalog);
+        ft.getKeywords().add(new Keyword("one"));
+        
+        FeatureTypeInfo proxy = ReadOnlyProxy.create((FeatureTypeInfo) ft, FeatureTypeInfo.class);
+        assertEquals(1, proxy.getKeywords().size());
+        try {
+            proxy.getKeywords().add(new Keyword("two"));
+            fail("collection should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+        
+        // live view
+        ft.getKeywords().add(new Keyword("two"));
+        assertEquals(2, proxy.getKeywords().size());
+    }
+
+    @Test
+    public void testNestedObjectsAreReadOnly() throws Exception {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl(catalog);
+        ft.setName("ft");
+        ft.setEnabled(true);
+        ft.getMetadata().put("key", "value");
+        StyleInfoImpl style = new StyleInfoImpl(catalog);
+        style.setName("style");
+        LayerInfoImpl layer = new LayerInfoImpl();
+        layer.setResource(ft);
+        layer.getStyles().add(style);
+        LayerGroupInfoImpl group = new LayerGroupInfoImpl();
+        group.getLayers().add(layer);
+
+        LayerInfo proxy = ReadOnlyProxy.create((LayerInfo) layer, LayerInfo.class);
+        try {
+            proxy.getResource().getMetadata().put("key", "other");
+            fail("metadata should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            proxy.getResource().setName("foo");
+            fail("resource should be read only");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            proxy.getStyles().iterator().next().setName("foo");
+            fail("styles should be read only");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        LayerGroupInfo groupProxy = ReadOnlyProxy.create((LayerGroupInfo) group,
+                LayerGroupInfo.class);
+        LayerInfo groupLayer = (LayerInfo) groupProxy.getLayers().get(0);
+        try {
+            groupLayer.setEnabled(false);
+            fail("layer group layers should be read only");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            groupLayer.getResource().getMetadata().remove("key");
+            fail("metadata should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        assertEquals("ft", ft.getName());
+        assertEquals("style", style.getName());
+        assertTrue(layer.isEnabled());
+        assertEquals("value", ft.getMetadata().get("key"));
+        assertEquals("value", proxy.getResource().getMetadata().get("key", String.class));
+    }
+}
@@ -0,0 +1,213 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedLoaderTest {
+
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameKeyLoadedOnce() throws Exception {
+        final KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> load = new Callable<String>() {
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return "value";
+            }
+        };
+
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return loader.load("key", load);
+                }
+            }));
+        }
+
+        // wait for everybody to pile up on the same load
+        long start = System.currentTimeMillis();
+        while (loader.getWaiters() < 7 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<String> f : results) {
+            assertEquals("value", f.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, loader.getLoads());
+        assertEquals(7, loader.getWaits());
+        assertEquals(8, loader.getMisses());
+        assertEquals(0, loader.getLoading());
+    }
+
+    @Test
+    public void testDifferentKeysDoNotBlock() throws Exception {
+        final KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // a slow load for one key...
+        Future<String> slow = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("slow", new Callable<String>() {
+                    public String call() throws Exception {
+                        release.await();
+                        return "slow";
+                    }
+                });
+            }
+        });
+
+        // ... does not prevent another key from loading
+        Future<String> fast = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("fast", new Callable<String>() {
+                    public String call() throws Exception {
+                        return "fast";
+                    }
+                });
+            }
+        });
+        assertEquals("fast", fast.get(5, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+
+        release.countDown();
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        assertEquals(2, loader.getLoads());
+        assertEquals(0, loader.getWaits());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        try {
+            loader.load("key", new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(1, loader.getFailures());
+
+        // a following load runs again
+        assertEquals("value", loader.load("key", new Callable<String>() {
+            public String call() throws Exception {
+                return "value";
+            }
+        }));
+        assertEquals(2, loader.getLoads());
+    }
+
+    @Test
+    public void testHitRatio() throws Exception {
+        KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        loader.load("key", new Callable<String>() {
+            public String call() throws Exception {
+                return "value";
+            }
+        });
+        loader.hit();
+        loader.hit();
+        loader.hit();
+        assertEquals(0.75, loader.getHitRatio(), 0d);
+
+        loader.reset();
+        assertEquals(0, loader.getHits());
+        assertEquals(0, loader.getMisses());
+    }
+
+    @Test
+    public void testReentrantLoad() throws Exception {
+        final KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        Future<String> result = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("key", new Callable<String>() {
+                    public String call() throws Exception {
+                        // the same key again, from the loading thread
+                        return "outer-" + loader.load("key", new Callable<String>() {
+                            public String call() throws Exception {
+                                return "inner";
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        assertEquals("outer-inner", result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, loader.getWaits());
+        assertEquals(0, loader.getLoading());
+    }
+
+    @Test
+    public void testStaleLoadNotStored() throws Exception {
+        final KeyedLoader<String, String> loader = new KeyedLoader<String, String>("test");
+        final Map<String, String> cache = new HashMap<String, String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final long generation = loader.getGeneration();
+        Future<String> result = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("key", new Callable<String>() {
+                    public String call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        loader.store(cache, "key", "stale", generation);
+                        return "stale";
+                    }
+                });
+            }
+        });
+
+        // the cache is cleared while the load is running
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        loader.invalidate(cache);
+        release.countDown();
+
+        // the caller still gets its value, but it's not cached
+        assertEquals("stale", result.get(5, TimeUnit.SECONDS));
+        assertTrue(cache.isEmpty());
+
+        // loads started after the clear are
+        assertTrue(loader.store(cache, "key", "fresh", loader.getGeneration()));
+        assertEquals("fresh", cache.get("key"));
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.impl.ResourceInfoImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SystemTest.class)
+public class GeoServerLoaderTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testParallelLoadMatchesSequential() throws Exception {
+        Catalog sequential = readCatalog(1);
+        Catalog parallel = readCatalog(4);
+
+        assertFalse(ids(sequential.getLayers()).isEmpty());
+        assertEquals(ids(sequential.getWorkspaces()), ids(parallel.getWorkspaces()));
+        assertEquals(ids(sequential.getNamespaces()), ids(parallel.getNamespaces()));
+        assertEquals(ids(sequential.getStyles()), ids(parallel.getStyles()));
+        assertEquals(ids(sequential.getStores(StoreInfo.class)),
+            ids(parallel.getStores(StoreInfo.class)));
+        assertEquals(ids(sequential.getResources(ResourceInfo.class)),
+            ids(parallel.getResources(ResourceInfo.class)));
+        assertEquals(ids(sequential.getLayers()), ids(parallel.getLayers()));
+        assertEquals(ids(sequential.getLayerGroups()), ids(parallel.getLayerGroups()));
+        assertEquals(sequential.getDefaultWorkspace().getId(),
+            parallel.getDefaultWorkspace().getId());
+
+        // references have been resolved against the new catalog
+        for (LayerInfo l : parallel.getLayers()) {
+            assertNotNull(l.getResource().getStore().getWorkspace().getName());
+            assertNotNull(l.getResource().getNamespace().getPrefix());
+        }
+    }
+
+    @Test
+    public void testParallelLoadUsesPersisterConfiguration() throws Exception {
+        boolean titled = false;
+        for (ResourceInfo r : readCatalog(1).getResources(ResourceInfo.class)) {
+            titled |= r.getTitle() != null;
+        }
+        assertTrue(titled);
+
+        // the files parsed in parallel honour the configuration of the given persister
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.getXStream().omitField(ResourceInfoImpl.class, "title");
+        Catalog catalog = readCatalog(4, xp);
+        assertFalse(catalog.getResources(ResourceInfo.class).isEmpty());
+        for (ResourceInfo r : catalog.getResources(ResourceInfo.class)) {
+            assertNull(r.getTitle());
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        CatalogSnapshot snapshot = new CatalogSnapshot(getResourceLoader(),
+            new XStreamPersisterFactory());
+        String fingerprint = snapshot.fingerprint();
+        assertEquals(fingerprint, snapshot.fingerprint());
+
+        Catalog catalog = readCatalog(1);
+        try {
+            snapshot.write(catalog, fingerprint);
+            assertTrue(snapshot.getFile().exists());
+
+            Catalog restored = snapshot.read(fingerprint);
+            assertNotNull(restored);
+            assertEquals(ids(catalog.getWorkspaces()), ids(restored.getWorkspaces()));
+            assertEquals(ids(catalog.getNamespaces()), ids(restored.getNamespaces()));
+            assertEquals(ids(catalog.getStyles()), ids(restored.getStyles()));
+            assertEquals(ids(catalog.getStores(StoreInfo.class)),
+                ids(restored.getStores(StoreInfo.class)));
+            assertEquals(ids(catalog.getResources(ResourceInfo.class)),
+                ids(restored.getResources(ResourceInfo.class)));
+            assertEquals(ids(catalog.getLayers()), ids(restored.getLayers()));
+            assertEquals(ids(catalog.getLayerGroups()), ids(restored.getLayerGroups()));
+            assertEquals(catalog.getDefaultWorkspace(), restored.getDefaultWorkspace());
+            for (LayerInfo l : restored.getLayers()) {
+                assertEquals(catalog.getLayer(l.getId()), l);
+            }
+
+            // a stale snapshot is ignored
+            assertNull(snapshot.read("abcd"));
+
+            // touching a configuration file changes the fingerprint
+            File ws = new File(getResourceLoader().find("workspaces", 
+                catalog.getDefaultWorkspace().getName()), "workspace.xml");
+            ws.setLastModified(ws.lastModified() + 10000);
+            assertFalse(fingerprint.equals(snapshot.fingerprint()));
+        } finally {
+            snapshot.getFile().delete();
+        }
+    }
+
+    Catalog readCatalog(int threads) throws Exception {
+        return readCatalog(threads, new XStreamPersisterFactory().createXMLPersister());
+    }
+
+    Catalog readCatalog(int threads, XStreamPersister xp) throws Exception {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        loader.setLoaderThreads(threads);
+        Catalog catalog = loader.readCatalog(xp);
+        // make sure the same data directory produced the same catalog as the running one
+        assertEquals(getCatalog().getLayers().size(), catalog.getLayers().size());
+        return catalog;
+    }
+
+    Set<String> ids(Iterable<? extends CatalogInfo> infos) {
+        Set<String> ids = new TreeSet<String>();
+        for (CatalogInfo info : infos) {
+            ids.add(info.getId());
+        }
+        return ids;
+    }
+}
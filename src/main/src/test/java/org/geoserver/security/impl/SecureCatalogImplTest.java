@@ -8,6 +8,7 @@ import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -18,10 +19,14 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.security.ResourceAccessManager;
 import org.geoserver.security.SecureCatalogImpl;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.WrapperPolicyCache;
 import org.geoserver.security.decorators.ReadOnlyDataStoreTest;
 import org.geoserver.security.decorators.SecuredDataStoreInfo;
 import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
@@ -419,4 +424,81 @@ public class SecureCatalogImplTest extends AbstractAuthorizationTest {
         layerGroup = sc.getLayerGroupByName("topp", "eoStatesLayerGroup");                
         assertNull(layerGroup);        
     }
+
+    @Test
+    public void testWrapperPolicyCache() throws Exception {
+        ResourceAccessManager manager = buildManager("lockedDown.properties");
+        SecureCatalogImpl sc = new SecureCatalogImpl(catalog, manager);
+        WrapperPolicyCache cache = sc.getWrapperPolicyCache();
+        SecurityContextHolder.getContext().setAuthentication(roUser);
+
+        WorkspaceInfo ws = createNiceMock(WorkspaceInfo.class);
+        expect(ws.getId()).andReturn("wsCached").anyTimes();
+        expect(ws.getName()).andReturn("topp").anyTimes();
+        replay(ws);
+
+        // outside of a request nothing is cached
+        WrapperPolicy policy = sc.buildWrapperPolicy(roUser, ws, "topp");
+        assertEquals(0, cache.getHits() + cache.getMisses());
+
+        Request request = org.easymock.classextension.EasyMock.createNiceMock(Request.class);
+        org.easymock.classextension.EasyMock.expect(request.getService()).andReturn("WMS").anyTimes();
+        org.easymock.classextension.EasyMock.expect(request.getRequest()).andReturn("GetCapabilities").anyTimes();
+        org.easymock.classextension.EasyMock.replay(request);
+        Dispatcher.REQUEST.set(request);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(policy.getAccessLevel(),
+                        sc.buildWrapperPolicy(roUser, ws, "topp").getAccessLevel());
+            }
+            assertEquals(1, cache.getMisses());
+            assertEquals(2, cache.getHits());
+
+            // a different user gets its own decision
+            sc.buildWrapperPolicy(rwUser, ws, "topp");
+            assertEquals(2, cache.getMisses());
+
+            // security changes drop the cached decisions
+            cache.handlePostChanged(null);
+            sc.buildWrapperPolicy(roUser, ws, "topp");
+            assertEquals(3, cache.getMisses());
+            assertEquals(1, cache.getInvalidations());
+
+            // the end of the request releases its decisions
+            new WrapperPolicyCache.RequestCleaner().finished(request);
+            sc.buildWrapperPolicy(roUser, ws, "topp");
+            assertEquals(4, cache.getMisses());
+        } finally {
+            Dispatcher.REQUEST.remove();
+        }
+
+        // a different service or request gets its own decision, access managers can
+        // depend on them
+        Request other = org.easymock.classextension.EasyMock.createNiceMock(Request.class);
+        org.easymock.classextension.EasyMock.expect(other.getService()).andReturn("WFS").anyTimes();
+        org.easymock.classextension.EasyMock.expect(other.getRequest()).andReturn("GetFeature").anyTimes();
+        org.easymock.classextension.EasyMock.replay(other);
+        Dispatcher.REQUEST.set(other);
+        try {
+            sc.buildWrapperPolicy(roUser, ws, "topp");
+            assertEquals(5, cache.getMisses());
+        } finally {
+            Dispatcher.REQUEST.remove();
+            new WrapperPolicyCache.RequestCleaner().finished(other);
+        }
+
+        // a single listener is registered per catalog, whatever the number of secure catalogs
+        CatalogImpl rawCatalog = new CatalogImpl();
+        int listeners = rawCatalog.getListeners().size();
+        SecureCatalogImpl disposed = new SecureCatalogImpl(rawCatalog, manager);
+        SecureCatalogImpl other = new SecureCatalogImpl(rawCatalog, manager);
+        assertEquals(listeners + 1, rawCatalog.getListeners().size());
+        assertTrue(disposed.getWrapperPolicyCache().isListeningTo(rawCatalog));
+        assertTrue(other.getWrapperPolicyCache().isListeningTo(rawCatalog));
+
+        // once disposed the cache stops listening to the catalog
+        disposed.dispose();
+        assertFalse(disposed.getWrapperPolicyCache().isListeningTo(rawCatalog));
+        assertTrue(other.getWrapperPolicyCache().isListeningTo(rawCatalog));
+    }
 }
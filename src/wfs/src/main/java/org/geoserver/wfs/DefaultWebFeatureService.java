@@ -26,6 +26,7 @@ import org.geoserver.wfs.request.TransactionRequest;
 import org.geotools.xml.transform.TransformerBase;
 import org.opengis.filter.FilterFactory2;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
@@ -36,7 +37,8 @@ import org.springframework.context.ApplicationContextAware;
  * @author Justin Deoliveira, The Open Planning Project
  *
  */
-public class DefaultWebFeatureService implements WebFeatureService, ApplicationContextAware {
+public class DefaultWebFeatureService implements WebFeatureService, ApplicationContextAware,
+        DisposableBean {
     /**
      * GeoServer configuration
      */
@@ -202,4 +204,11 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
         throws BeansException {
         this.context = context;
     }
+
+    /**
+     * Shuts down the GetFeature count threads along with the application context
+     */
+    public void destroy() throws Exception {
+        GetFeature.disposeCountPool();
+    }
 }
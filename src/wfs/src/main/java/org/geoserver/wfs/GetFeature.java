@@ -14,6 +14,15 @@ import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
@@ -30,8 +39,11 @@ import org.geoserver.catalog.ResourcePool;
 import org.geoserver.feature.TypeNameExtractingVisitor;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
+import org.geoserver.ows.RequestContextCallable;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.WFSInfo.NumberMatchedMode;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Lock;
@@ -117,6 +129,18 @@ public class GetFeature {
     /** Standard logging instance for class */
     private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.vfny.geoserver.requests");
 
+    /**
+     * Threads counting the features matched by the queries, see {@link #getCountPool()}
+     */
+    static ExecutorService COUNT_POOL;
+
+    static boolean COUNT_POOL_INITIALIZED;
+
+    /**
+     * Number of counts queued per count thread before counting in the request thread
+     */
+    static final int COUNT_QUEUE_FACTOR = 4;
+
     /**
      * Describes the allowed filters we support for join queries.
      */
@@ -329,6 +353,13 @@ public class GetFeature {
         }
         int offset = totalOffset;
 
+        // the numberMatched counts are run in parallel with the rest of the query processing,
+        // if a pool is available, and gathered once all the queries have been set up
+        final NumberMatchedMode matchedMode = wfs.getNumberMatchedMode();
+        final ExecutorService countPool = totalCount > -1 ? getCountPool() : null;
+        List<Future<Integer>> matchedCounts = new ArrayList<Future<Integer>>();
+        boolean matchedUnknown = false;
+
         List results = new ArrayList();
         try {
             for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
@@ -484,6 +515,22 @@ public class GetFeature {
 
                 LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
 
+                // numberMatched needs the same query without paging, start counting right away 
+                // so that it runs while the page itself is counted
+                Future<Integer> matched = null;
+                if (countPool != null && matchedMode != NumberMatchedMode.UNKNOWN) {
+                    org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
+                        source, request, allPropNames.get(0), viewParam, joins);
+                    try {
+                        matched = countPool.submit(new CountTask(source, q2, matchedMode));
+                    } catch (RejectedExecutionException e) {
+                        // the pool is saturated, count in the request thread once the page is 
+                        // known, as done when no pool is configured
+                        LOGGER.fine("Count pool saturated, counting in the request thread");
+                    }
+                }
+                boolean unpaged = offset <= 0;
+
                 FeatureCollection<? extends FeatureType, ? extends Feature> features = getFeatures(request, source, gtQuery);
 
                 // For complex features, we need the targetCrs and version in scenario where we have
@@ -547,10 +594,28 @@ public class GetFeature {
                     if (calculateSize && queryMaxFeatures == Integer.MAX_VALUE && offset == 0) {
                         totalCount += size;
                     }
-                    else {
+                    else if (calculateSize && unpaged && size < queryMaxFeatures) {
+                        // the page is not full, it holds all the matched features
+                        if (matched != null) {
+                            matched.cancel(false);
+                        }
+                        totalCount += size;
+                    }
+                    else if (matched != null) {
+                        matchedCounts.add(matched);
+                    }
+                    else if (matchedMode != NumberMatchedMode.UNKNOWN) {
                         org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
                             source, request, allPropNames.get(0), viewParam, joins);
-                        totalCount += source.getFeatures(q2).size();
+                        int matchedCount = countMatched(source, q2, matchedMode);
+                        if (matchedCount < 0) {
+                            matchedUnknown = true;
+                        } else {
+                            totalCount += matchedCount;
+                        }
+                    }
+                    else {
+                        matchedUnknown = true;
                     }
                 }
 
@@ -591,11 +656,27 @@ public class GetFeature {
                     throw e;
                 }
             }
-            
+
+            for (Future<Integer> matched : matchedCounts) {
+                int matchedCount = getMatched(matched);
+                if (matchedCount < 0) {
+                    matchedUnknown = true;
+                } else {
+                    totalCount += matchedCount;
+                }
+            }
+            if (matchedUnknown) {
+                totalCount = -1;
+            }
         } catch (IOException e) {
             throw new WFSException(request, "Error occurred getting features", e, request.getHandle());
         } catch (SchemaException e) {
             throw new WFSException(request, "Error occurred getting features", e, request.getHandle());
+        } finally {
+            // don't leave counts running if a query failed
+            for (Future<Integer> matched : matchedCounts) {
+                matched.cancel(true);
+            }
         }
 
         //locking
@@ -629,6 +710,111 @@ public class GetFeature {
         return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
     }
 
+    /**
+     * Counts the features matched by a query, returns a negative value if the count is unknown
+     */
+    static int countMatched(FeatureSource<? extends FeatureType, ? extends Feature> source,
+            org.geotools.data.Query query, NumberMatchedMode mode) throws IOException {
+        if (mode == NumberMatchedMode.ESTIMATED) {
+            // only what the store can tell without reading the features
+            return source.getCount(query);
+        }
+        return source.getFeatures(query).size();
+    }
+
+    /**
+     * Waits for a numberMatched count running in the count pool
+     */
+    int getMatched(Future<Integer> matched) throws IOException {
+        try {
+            return matched.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting the matched features");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Counts the features matched by a query in a pooled thread, running with the security and 
+     * OWS context of the request thread
+     */
+    static class CountTask extends RequestContextCallable<Integer> {
+        FeatureSource<? extends FeatureType, ? extends Feature> source;
+
+        org.geotools.data.Query query;
+
+        NumberMatchedMode mode;
+
+        CountTask(FeatureSource<? extends FeatureType, ? extends Feature> source,
+                org.geotools.data.Query query, NumberMatchedMode mode) {
+            this.source = source;
+            this.query = query;
+            this.mode = mode;
+        }
+
+        protected Integer callInContext() throws Exception {
+            return countMatched(source, query, mode);
+        }
+    }
+
+    /**
+     * Returns the thread pool used to count the features matched by the queries, or null if 
+     * they should be counted one after the other in the request thread. The pool size is set by
+     * the WFS_COUNT_THREADS variable, parallel counting is disabled when not set or zero.
+     * <p>
+     * The pool queues up to {@link #COUNT_QUEUE_FACTOR} counts per thread, and rejects the ones
+     * beyond that, which the request thread then runs itself.
+     * </p>
+     */
+    static synchronized ExecutorService getCountPool() {
+        if (!COUNT_POOL_INITIALIZED) {
+            COUNT_POOL_INITIALIZED = true;
+            int threads = 0;
+            String value = GeoServerExtensions.getProperty("WFS_COUNT_THREADS");
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid WFS_COUNT_THREADS value " + value
+                            + ", parallel feature counting disabled");
+                }
+            }
+            if (threads > 0) {
+                COUNT_POOL = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(threads * COUNT_QUEUE_FACTOR),
+                        new ThreadFactory() {
+                            AtomicInteger count = new AtomicInteger();
+
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "GetFeature count "
+                                        + count.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        }, new ThreadPoolExecutor.AbortPolicy());
+            }
+        }
+        return COUNT_POOL;
+    }
+
+    /**
+     * Shuts down the count thread pool, a new one will be created on the next request if needed
+     */
+    public static synchronized void disposeCountPool() {
+        if (COUNT_POOL != null) {
+            COUNT_POOL.shutdownNow();
+            COUNT_POOL = null;
+        }
+        COUNT_POOL_INITIALIZED = false;
+    }
+
     protected void processStoredQueries(GetFeatureRequest request) {
         List queries = request.getAdaptedQueries();
         for (int i = 0; i < queries.size(); i++) {
@@ -708,7 +894,8 @@ public class GetFeature {
 
                 //calculate the count of the next result set 
                 int nextCount = total - (offset + count);
-                if (nextCount > 0) {
+                // an unknown total (see NumberMatchedMode) may have more features past a full page
+                if (nextCount > 0 || (total < 0 && count >= maxFeatures)) {
                     kvp.put("startIndex", String.valueOf(offset > 0 ? offset + count : count));
                     //kvp.put("count", String.valueOf(nextCount));
                     kvp.put("count", String.valueOf(maxFeatures));
@@ -6,6 +6,7 @@ package org.geoserver.wfs;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -13,6 +14,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
@@ -75,11 +77,37 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public void execute(TransactionElement element, TransactionRequest request, Map featureStores, 
         TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
+        execute(Collections.singletonList((Insert) element), request, featureStores, response,
+                listener, 0);
+    }
+
+    /**
+     * Returns true if two inserts can be executed as a single one, that is, if they have the same
+     * handle, so that the first one can stand for the other as the source of the transaction
+     * events and to locate errors
+     */
+    static boolean canMerge(Insert first, Insert other) {
+        return first.getHandle() == null ? other.getHandle() == null 
+                : first.getHandle().equals(other.getHandle());
+    }
+
+    /**
+     * Executes a run of consecutive insert elements as a whole, grouping their features by schema
+     * and writing them to the stores in batches. The elements are expected to be mergeable, see 
+     * {@link #canMerge(Insert, Insert)}, the first one is used as the source of the transaction
+     * events and to locate errors.
+     *
+     * @param batchSize Number of features written to the store at a time, zero or negative to
+     *        write all the features of a schema at once
+     */
+    @SuppressWarnings("unchecked")
+    void execute(List<Insert> inserts, TransactionRequest request, Map featureStores,
+        TransactionResponse response, TransactionListener listener, int batchSize) 
+        throws WFSTransactionException {
         
-        Insert insert = (Insert) element;
+        Insert insert = inserts.get(0);
         LOGGER.finer("Transasction Insert:" + insert);
 
         long inserted = response.getTotalInserted().longValue();
@@ -88,26 +116,29 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
             // group features by their schema
             HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
 
-            
-            List featureList = insert.getFeatures();
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-                DefaultFeatureCollection collection = 
-                    (DefaultFeatureCollection) schema2features.get(schema);
-
-                if (collection == null) {
-                    collection = new DefaultFeatureCollection(null, schema);
-                    schema2features.put(schema, collection);
-                }
-
-                // do a check for idegen = useExisting, if set try to tell the datastore to use
-                // the privided fid
-                if (insert.isIdGenUseExisting()) {
-                    feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+            int featureCount = 0;
+            for (Insert element : inserts) {
+                List featureList = element.getFeatures();
+                for (Iterator f = featureList.iterator(); f.hasNext();) {
+                    SimpleFeature feature = (SimpleFeature) f.next();
+                    SimpleFeatureType schema = feature.getFeatureType();
+                    DefaultFeatureCollection collection = 
+                        (DefaultFeatureCollection) schema2features.get(schema);
+    
+                    if (collection == null) {
+                        collection = new DefaultFeatureCollection(null, schema);
+                        schema2features.put(schema, collection);
+                    }
+    
+                    // do a check for idegen = useExisting, if set try to tell the datastore to use
+                    // the privided fid
+                    if (element.isIdGenUseExisting()) {
+                        feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+                    }
+    
+                    collection.add(feature);
                 }
-
-                collection.add(feature);
+                featureCount += featureList.size();
             }
 
             // JD: change from set fo list because if inserting
@@ -132,21 +163,6 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                 }
 
                 if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
                     // Need to use the namespace here for the
                     // lookup, due to our weird
                     // prefixed internal typenames. see
@@ -178,37 +194,55 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                         schema2fids.put(schema.getTypeName(), fids);
                     }
 
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            request, elementName, collection);
-                    event.setSource(Insert.WFS11.unadapt(insert));
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
-                        elementName, features, Insert.WFS11.unadapt(insert));
-                    listener.dataStoreChange( event );
+                    int size = collection.size();
+                    if (batchSize <= 0 || size <= batchSize) {
+                        insertBatch(collection, store, elementName, fids, request, insert,
+                                listener);
+                    } else {
+                        // write in batches, keeping the store calls and the feature id filters 
+                        // of the post insert events bounded
+                        SimpleFeatureIterator fi = collection.features();
+                        try {
+                            DefaultFeatureCollection batch = null;
+                            while (fi.hasNext()) {
+                                if (batch == null) {
+                                    batch = new DefaultFeatureCollection(null, schema);
+                                }
+                                batch.add(fi.next());
+                                if (batch.size() == batchSize || !fi.hasNext()) {
+                                    insertBatch(batch, store, elementName, fids, request, insert,
+                                            listener);
+                                    batch = null;
+                                    if (LOGGER.isLoggable(Level.FINE)) {
+                                        LOGGER.fine("Inserted " + fids.size() + " of " + size
+                                                + " features in " + elementName);
+                                    }
+                                }
+                            }
+                        } finally {
+                            fi.close();
+                        }
+                    }
                 }
             }
 
             // report back fids, we need to keep the same order the
             // fids were reported in the original feature collection
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-
-                // get the next fid
-                LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
-                FeatureId fid = fids.removeFirst();
-
-                response.addInsertedFeature(insert.getHandle(), fid);
+            for (Insert element : inserts) {
+                for (Iterator f = element.getFeatures().iterator(); f.hasNext();) {
+                    SimpleFeature feature = (SimpleFeature) f.next();
+                    SimpleFeatureType schema = feature.getFeatureType();
+    
+                    // get the next fid
+                    LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
+                    FeatureId fid = fids.removeFirst();
+    
+                    response.addInsertedFeature(element.getHandle(), fid);
+                }
             }
 
             // update the insert counter
-            inserted += featureList.size();
+            inserted += featureCount;
         } catch (Exception e) {
             String msg = "Error performing insert: " + e.getMessage();
             throw new WFSTransactionException(msg, e, insert.getHandle());
@@ -218,7 +252,45 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
-    
+    /**
+     * Writes a collection of features to the store, firing the pre and post insert events
+     */
+    void insertBatch(SimpleFeatureCollection collection, SimpleFeatureStore store,
+            QName elementName, List<FeatureId> fids, TransactionRequest request, Insert insert,
+            TransactionListener listener) throws Exception {
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(getInfo().isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                request, elementName, collection);
+        event.setSource(Insert.WFS11.unadapt(insert));
+        
+        listener.dataStoreChange( event );
+        long start = System.nanoTime();
+        List<FeatureId> added = store.addFeatures(collection);
+        TransactionStatistics.get().featuresInserted(added.size(), System.nanoTime() - start);
+        fids.addAll(added);
+        
+        //fire post insert event
+        SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(added)));
+        event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
+            elementName, features, Insert.WFS11.unadapt(insert));
+        listener.dataStoreChange( event );
+    }
+
     /**
      * Checks that all features coordinates are within the expected coordinate range
      * @param collection
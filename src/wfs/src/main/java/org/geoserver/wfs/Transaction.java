@@ -25,9 +25,11 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.Insert;
 import org.geoserver.wfs.request.TransactionElement;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.request.Update;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureLockException;
 import org.geotools.data.FeatureSource;
@@ -100,6 +102,8 @@ public class Transaction {
             throw new WFSException(request, "Transaction support is not enabled");
         }
 
+        TransactionStatistics statistics = TransactionStatistics.get();
+        statistics.transactionStarted();
         try {
             return execute(request);
         } catch (WFSException e) {
@@ -108,6 +112,8 @@ public class Transaction {
         } catch (Throwable t) {
             abort(request); // release any locks
             throw new WFSException(request, t);
+        } finally {
+            statistics.transactionCompleted();
         }
     }
 
@@ -180,7 +186,10 @@ public class Transaction {
         // List of type names, maintain this list because of the insert hack
         // described below
         // List typeNames = new ArrayList();
-        Map elementHandlers = gatherElementHandlers(request);
+        // Elements of a request parsed incrementally are prepared as they are read instead
+        Iterator<TransactionElement> incremental = request.getIncrementalElements();
+        Map elementHandlers = incremental != null ? new LinkedHashMap()
+                : gatherElementHandlers(request);
 
         // Gather feature types required by transaction elements and validate
         // the elements
@@ -193,84 +202,7 @@ public class Transaction {
             Map.Entry entry = (Map.Entry) it.next();
             TransactionElement element = (TransactionElement) entry.getKey();
             TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-            Map featureTypeInfos = new HashMap();
-
-            
-            QName[] typeNames = handler.getTypeNames(element);
-
-            for (int i = 0; i < typeNames.length; i++) {
-                final QName typeName = typeNames[i];
-                final String name = typeName.getLocalPart();
-                final String namespaceURI;
-
-                if (typeName.getNamespaceURI() != null) {
-                    namespaceURI = typeName.getNamespaceURI();
-                } else {
-                    namespaceURI = catalog.getDefaultNamespace().getURI();
-                }
-
-                LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
-
-                final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
-
-                if (meta == null) {
-                    String msg = "Feature type '" + name + "' is not available: ";
-                    throw new WFSTransactionException(msg, (String) null, element.getHandle());
-                }
-
-                featureTypeInfos.put(typeName, meta);
-            }
-
-            // check element validity
-            handler.checkValidity(element, featureTypeInfos);
-
-            // go through all feature type infos data objects, and load feature
-            // stores
-            for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
-                FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
-                String typeRef = meta.getStore().getName() + ":" + meta.getName();
-
-                String URI = meta.getNamespace().getURI();
-                QName elementName = new QName(URI, meta.getName(),
-                        meta.getNamespace().getPrefix());
-                QName elementNameDefault = null;
-
-                if (catalog.getDefaultNamespace().getURI().equals(URI)) {
-                    elementNameDefault = new QName(meta.getName());
-                }
-
-                LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
-                    + elementName + "'");
-
-                if (stores.containsKey(elementName)) {
-                    // typeName already loaded
-                    continue;
-                }
-
-                try {
-                    FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
-
-                    if (source instanceof FeatureStore) {
-                        FeatureStore<? extends FeatureType, ? extends Feature> store;
-                        store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
-                        store.setTransaction(transaction);
-                        stores.put(elementName, source);
-
-                        if (elementNameDefault != null) {
-                            stores.put(elementNameDefault, source);
-                        }
-
-                        stores2.put(typeRef, source);
-                    } else {
-                        String msg = elementName + " is read-only";
-                        throw new WFSTransactionException(msg, (String) null, element.getHandle());
-                    }
-                } catch (IOException ioException) {
-                    String msg = elementName + " is not available: "
-                        + ioException.getLocalizedMessage();
-                    throw new WFSTransactionException(msg, ioException, element.getHandle());
-                }
-            }
+            prepareElement(element, handler, stores, stores2);
         }
 
         // provide authorization for transaction
@@ -309,14 +241,44 @@ public class Transaction {
         // checks
         // Envelope envelope = new Envelope();
         Exception exception = null;
+        WFSException readFailure = null;
 
         try {
-            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-                Map.Entry entry = (Map.Entry) it.next();
-                TransactionElement element = (TransactionElement) entry.getKey();
-                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-
-                handler.execute(element, request, stores, result, multiplexer);
+            if (incremental != null) {
+                readFailure = executeIncremental(incremental, request, stores, stores2, result,
+                        multiplexer);
+            }
+            List<Map.Entry> entries = new ArrayList<Map.Entry>(elementHandlers.entrySet());
+            int batchSize = wfs.getTransactionBatchSize();
+            for (int i = 0; i < entries.size(); i++) {
+                TransactionElement element = (TransactionElement) entries.get(i).getKey();
+                TransactionElementHandler handler = (TransactionElementHandler) entries.get(i).getValue();
+
+                if (batchSize > 0 && handler.getClass() == InsertElementHandler.class) {
+                    // bulk mode, consecutive inserts are written together in batches
+                    List<Insert> inserts = new ArrayList<Insert>();
+                    inserts.add((Insert) element);
+                    while (i + 1 < entries.size() && entries.get(i + 1).getValue() == handler
+                            && InsertElementHandler.canMerge((Insert) element,
+                                    (Insert) entries.get(i + 1).getKey())) {
+                        inserts.add((Insert) entries.get(++i).getKey());
+                    }
+                    ((InsertElementHandler) handler).execute(inserts, request, stores, result,
+                            multiplexer, batchSize);
+                } else if (batchSize > 0 && handler.getClass() == UpdateElementHandler.class) {
+                    // bulk mode, consecutive updates setting the same values are merged
+                    List<Update> updates = new ArrayList<Update>();
+                    updates.add((Update) element);
+                    while (i + 1 < entries.size() && entries.get(i + 1).getValue() == handler
+                            && UpdateElementHandler.canMerge((Update) element,
+                                    (Update) entries.get(i + 1).getKey())) {
+                        updates.add((Update) entries.get(++i).getKey());
+                    }
+                    ((UpdateElementHandler) handler).execute(updates, request, stores, result,
+                            multiplexer);
+                } else {
+                    handler.execute(element, request, stores, result, multiplexer);
+                }
             }
         } catch (WFSTransactionException e) {
             LOGGER.log(Level.SEVERE, "Transaction failed", e);
@@ -334,6 +296,12 @@ public class Transaction {
                 e.getLocator(), e.getMessage());
         }
 
+        // failing to read or prepare an element fails the whole request, as it does when the
+        // elements are prepared upfront, the caller will roll back the transaction
+        if (readFailure != null) {
+            throw readFailure;
+        }
+
         // commit
         boolean committed = false;
 
@@ -440,6 +408,185 @@ public class Transaction {
         // response = build;
     }
 
+    /**
+     * Validates an element and loads the feature stores it requires, configuring them with the
+     * current transaction
+     */
+    void prepareElement(TransactionElement element, TransactionElementHandler handler, Map stores,
+            Map stores2) throws WFSTransactionException {
+        Map featureTypeInfos = new HashMap();
+        QName[] typeNames = handler.getTypeNames(element);
+
+        for (int i = 0; i < typeNames.length; i++) {
+            final QName typeName = typeNames[i];
+            final String name = typeName.getLocalPart();
+            final String namespaceURI;
+
+            if (typeName.getNamespaceURI() != null) {
+                namespaceURI = typeName.getNamespaceURI();
+            } else {
+                namespaceURI = catalog.getDefaultNamespace().getURI();
+            }
+
+            LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
+
+            final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
+
+            if (meta == null) {
+                String msg = "Feature type '" + name + "' is not available: ";
+                throw new WFSTransactionException(msg, (String) null, element.getHandle());
+            }
+
+            featureTypeInfos.put(typeName, meta);
+        }
+
+        // check element validity
+        handler.checkValidity(element, featureTypeInfos);
+
+        // go through all feature type infos data objects, and load feature
+        // stores
+        for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
+            FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
+            String typeRef = meta.getStore().getName() + ":" + meta.getName();
+
+            String URI = meta.getNamespace().getURI();
+            QName elementName = new QName(URI, meta.getName(),
+                    meta.getNamespace().getPrefix());
+            QName elementNameDefault = null;
+
+            if (catalog.getDefaultNamespace().getURI().equals(URI)) {
+                elementNameDefault = new QName(meta.getName());
+            }
+
+            LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
+                + elementName + "'");
+
+            if (stores.containsKey(elementName)) {
+                // typeName already loaded
+                continue;
+            }
+
+            try {
+                FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
+
+                if (source instanceof FeatureStore) {
+                    FeatureStore<? extends FeatureType, ? extends Feature> store;
+                    store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
+                    store.setTransaction(transaction);
+                    stores.put(elementName, source);
+
+                    if (elementNameDefault != null) {
+                        stores.put(elementNameDefault, source);
+                    }
+
+                    stores2.put(typeRef, source);
+                } else {
+                    String msg = elementName + " is read-only";
+                    throw new WFSTransactionException(msg, (String) null, element.getHandle());
+                }
+            } catch (IOException ioException) {
+                String msg = elementName + " is not available: "
+                    + ioException.getLocalizedMessage();
+                throw new WFSTransactionException(msg, ioException, element.getHandle());
+            }
+        }
+    }
+
+    /**
+     * Executes the elements of a request parsed incrementally, in bulk mode. Elements are read and
+     * prepared one at a time, and consecutive inserts and mergeable updates are gathered up to the
+     * batch size before being executed, so that only a batch of features is held in memory.
+     * 
+     * @return The failure to read or prepare an element, if any, in which case the elements
+     *         following it have not been executed
+     */
+    WFSException executeIncremental(Iterator<TransactionElement> elements,
+            TransactionRequest request, Map stores, Map stores2, TransactionResponse result,
+            TransactionListener listener) throws WFSTransactionException {
+        int batchSize = Math.max(1, wfs.getTransactionBatchSize());
+        IncrementalElements reader = new IncrementalElements(elements, stores, stores2);
+        reader.advance();
+        while (reader.element != null) {
+            TransactionElement element = reader.element;
+            TransactionElementHandler handler = reader.handler;
+            reader.advance();
+
+            if (handler.getClass() == InsertElementHandler.class) {
+                List<Insert> inserts = new ArrayList<Insert>();
+                inserts.add((Insert) element);
+                int count = ((Insert) element).getFeatures().size();
+                while (count < batchSize && reader.handler == handler
+                        && InsertElementHandler.canMerge((Insert) element, (Insert) reader.element)) {
+                    inserts.add((Insert) reader.element);
+                    count += ((Insert) reader.element).getFeatures().size();
+                    reader.advance();
+                }
+                ((InsertElementHandler) handler).execute(inserts, request, stores, result,
+                        listener, batchSize);
+            } else if (handler.getClass() == UpdateElementHandler.class) {
+                List<Update> updates = new ArrayList<Update>();
+                updates.add((Update) element);
+                while (updates.size() < batchSize && reader.handler == handler
+                        && UpdateElementHandler.canMerge((Update) element, (Update) reader.element)) {
+                    updates.add((Update) reader.element);
+                    reader.advance();
+                }
+                ((UpdateElementHandler) handler).execute(updates, request, stores, result,
+                        listener);
+            } else {
+                handler.execute(element, request, stores, result, listener);
+            }
+        }
+        return reader.failure;
+    }
+
+    /**
+     * Reads and prepares the elements of an incrementally parsed request one at a time, keeping
+     * the failures to read or prepare them apart from the ones of executing them
+     */
+    class IncrementalElements {
+        Iterator<TransactionElement> elements;
+
+        Map stores;
+
+        Map stores2;
+
+        TransactionElement element;
+
+        TransactionElementHandler handler;
+
+        WFSException failure;
+
+        IncrementalElements(Iterator<TransactionElement> elements, Map stores, Map stores2) {
+            this.elements = elements;
+            this.stores = stores;
+            this.stores2 = stores2;
+        }
+
+        /**
+         * Moves to the next element, leaving a null element at the end of the request or after a
+         * failure
+         */
+        void advance() {
+            element = null;
+            handler = null;
+            if (failure != null) {
+                return;
+            }
+            try {
+                if (elements.hasNext()) {
+                    TransactionElement next = elements.next();
+                    TransactionElementHandler nextHandler = findElementHandler(next.getClass());
+                    prepareElement(next, nextHandler, stores, stores2);
+                    element = next;
+                    handler = nextHandler;
+                }
+            } catch (WFSException e) {
+                failure = e;
+            }
+        }
+    }
+
     void fireAfterTransaction(TransactionRequest request, TransactionResponse result, boolean committed, TransactionPlugin tp) {
         TransactionType tx = TransactionRequest.WFS11.unadapt(request);
         TransactionResponseType tr = TransactionResponse.WFS11.unadapt(result);
@@ -0,0 +1,157 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Progress and throughput of the WFS transactions, published as the
+ * <code>org.geoserver:type=WFSTransactions</code> MBean for as long as the
+ * <code>wfsTransactionStatistics</code> bean lives in the application context.
+ * <p>
+ * The insert and update counters are advanced as each batch reaches the store, so that the
+ * progress of a long running bulk transaction can be followed while it's executing.
+ * </p>
+ */
+public class TransactionStatistics implements TransactionStatisticsMBean, InitializingBean,
+        DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(TransactionStatistics.class);
+
+    static final String MBEAN_NAME = "org.geoserver:type=WFSTransactions";
+
+    /**
+     * Collects the statistics when running outside of an application context, not published
+     */
+    static final TransactionStatistics UNREGISTERED = new TransactionStatistics();
+
+    final AtomicInteger running = new AtomicInteger();
+
+    final AtomicLong completed = new AtomicLong();
+
+    final AtomicLong inserted = new AtomicLong();
+
+    final AtomicLong updated = new AtomicLong();
+
+    final AtomicLong batches = new AtomicLong();
+
+    final AtomicLong batchTime = new AtomicLong();
+
+    /**
+     * Returns the statistics shared by all transactions
+     */
+    public static TransactionStatistics get() {
+        TransactionStatistics statistics = GeoServerExtensions.bean(TransactionStatistics.class);
+        return statistics != null ? statistics : UNREGISTERED;
+    }
+
+    /**
+     * Publishes the statistics as a MBean
+     */
+    public void afterPropertiesSet() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not register the WFS transactions MBean", e);
+        }
+    }
+
+    /**
+     * Withdraws the MBean
+     */
+    public void destroy() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not unregister the WFS transactions MBean", e);
+        }
+    }
+
+    void transactionStarted() {
+        running.incrementAndGet();
+    }
+
+    void transactionCompleted() {
+        running.decrementAndGet();
+        completed.incrementAndGet();
+    }
+
+    /**
+     * Records a batch of inserted features
+     *
+     * @param count Number of features written
+     * @param time Time spent writing them, in nanoseconds
+     */
+    void featuresInserted(int count, long time) {
+        inserted.addAndGet(count);
+        batches.incrementAndGet();
+        batchTime.addAndGet(time);
+    }
+
+    /**
+     * Records a batch of updated features
+     *
+     * @param count Number of features written
+     * @param time Time spent writing them, in nanoseconds
+     */
+    void featuresUpdated(int count, long time) {
+        updated.addAndGet(count);
+        batches.incrementAndGet();
+        batchTime.addAndGet(time);
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getInsertedCount() {
+        return inserted.get();
+    }
+
+    public long getUpdatedCount() {
+        return updated.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public double getAverageBatchTime() {
+        long count = batches.get();
+        return count == 0 ? 0 : batchTime.get() / 1000000d / count;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionStatistics[running=" + getRunningCount() + ", completed="
+                + getCompletedCount() + ", inserted=" + getInsertedCount() + ", updated="
+                + getUpdatedCount() + ", batches=" + getBatchCount() + "]";
+    }
+}
@@ -0,0 +1,42 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+/**
+ * Management interface of the {@link TransactionStatistics}
+ */
+public interface TransactionStatisticsMBean {
+
+    /**
+     * Number of transactions currently running
+     */
+    int getRunningCount();
+
+    /**
+     * Number of transactions completed, committed or not
+     */
+    long getCompletedCount();
+
+    /**
+     * Number of features inserted so far, including the ones of the running transactions
+     */
+    long getInsertedCount();
+
+    /**
+     * Number of features updated so far, including the ones of the running transactions
+     */
+    long getUpdatedCount();
+
+    /**
+     * Number of batches written to the stores, outside of bulk transactions each insert and
+     * update element is written as a single batch
+     */
+    long getBatchCount();
+
+    /**
+     * Average time spent writing a batch to the store, in milliseconds
+     */
+    double getAverageBatchTime();
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -37,6 +38,7 @@ import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.projection.PointOutsideEnvelopeException;
+import org.geotools.util.Utilities;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.FeatureType;
@@ -48,6 +50,7 @@ import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.Id;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.identity.FeatureId;
+import org.opengis.filter.identity.Identifier;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 
@@ -129,8 +132,78 @@ public class UpdateElementHandler extends AbstractTransactionElementHandler {
     public void execute(TransactionElement element, TransactionRequest request, 
        @SuppressWarnings("rawtypes") Map<QName, FeatureStore> featureStores,
        TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
-        
         Update update = (Update) element;
+        execute(update, update.getFilter(), request, featureStores, response, listener);
+    }
+
+    /**
+     * Executes a run of consecutive update elements that can be merged, see 
+     * {@link #canMerge(Update, Update)}, as a single update whose filter matches the features of
+     * all of them. Should the updates target the same features they are executed one at a time
+     * instead, so that each feature is counted once per update as usual.
+     */
+    void execute(List<Update> updates, TransactionRequest request, 
+        @SuppressWarnings("rawtypes") Map<QName, FeatureStore> featureStores,
+        TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
+        Update update = updates.get(0);
+        if (updates.size() == 1) {
+            execute(update, update.getFilter(), request, featureStores, response, listener);
+            return;
+        }
+
+        // feature id filters are merged in a single one, stores can turn them into a single
+        // query more easily than an Or of many
+        Set<Identifier> ids = new LinkedHashSet<Identifier>();
+        Set<String> seen = new HashSet<String>();
+        for (Update u : updates) {
+            for (Identifier id : ((Id) u.getFilter()).getIdentifiers()) {
+                if (!seen.add(String.valueOf(id.getID()))) {
+                    for (Update overlapping : updates) {
+                        execute(overlapping, overlapping.getFilter(), request, featureStores,
+                                response, listener);
+                    }
+                    return;
+                }
+                ids.add(id);
+            }
+        }
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+        execute(update, ff.id(ids), request, featureStores, response, listener);
+    }
+
+    /**
+     * Returns true if two updates can be executed as a single one: same type, handle, and 
+     * property values, and both with a feature id filter, the only kind of filter whose overlap
+     * can be told before running the update
+     */
+    static boolean canMerge(Update first, Update other) {
+        if (!(first.getFilter() instanceof Id) || !(other.getFilter() instanceof Id)
+                || !first.getTypeName().equals(other.getTypeName())) {
+            return false;
+        }
+        if (first.getHandle() == null ? other.getHandle() != null 
+                : !first.getHandle().equals(other.getHandle())) {
+            return false;
+        }
+
+        List<Property> properties = first.getUpdateProperties();
+        List<Property> otherProperties = other.getUpdateProperties();
+        if (properties.size() != otherProperties.size()) {
+            return false;
+        }
+        for (int i = 0; i < properties.size(); i++) {
+            Property p1 = properties.get(i);
+            Property p2 = otherProperties.get(i);
+            if (!p1.getName().equals(p2.getName()) || !Utilities.equals(p1.getValue(), p2.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void execute(Update update, Filter filter, TransactionRequest request, 
+        @SuppressWarnings("rawtypes") Map<QName, FeatureStore> featureStores,
+        TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
         final QName elementName = update.getTypeName();
         String handle = update.getHandle();
         
@@ -145,8 +218,6 @@ public class UpdateElementHandler extends AbstractTransactionElementHandler {
         LOGGER.finer("Transaction Update:" + update);
 
         try {
-            Filter filter = update.getFilter();
-
             // make sure all geometric elements in the filter have a crs, and that the filter
             // is reprojected to store's native crs as well
             CoordinateReferenceSystem declaredCRS = WFSReprojectionUtil.getDeclaredCrs(
@@ -244,7 +315,9 @@ public class UpdateElementHandler extends AbstractTransactionElementHandler {
             }
 
             try {
+                long start = System.nanoTime();
                 store.modifyFeatures(names, values, filter);
+                TransactionStatistics.get().featuresUpdated(fids.size(), System.nanoTime() - start);
             } catch( Exception e) {
                 //JD: this is a bit hacky but some of the wfs cite tests require
                 // that the 'InvalidParameterValue' code be set on exceptions in 
@@ -161,6 +161,25 @@ public interface WFSInfo extends ServiceInfo {
         }
     };
     
+    /**
+     * How the WFS 2.0 numberMatched attribute is computed when the response is paged
+     */
+    static enum NumberMatchedMode {
+        /**
+         * Exact count of the matched features, counting them one by one if the store cannot
+         */
+        EXACT,
+        /**
+         * The count the store can provide without reading the features, unknown if it cannot
+         */
+        ESTIMATED,
+        /**
+         * No count is performed, numberMatched is reported as unknown unless the features fit
+         * in a single page
+         */
+        UNKNOWN
+    };
+    
     
     
     /**
@@ -245,5 +264,33 @@ public interface WFSInfo extends ServiceInfo {
      * Set the option to ignore the maximum feature limit for WFS hit counts
      */
     void setHitsIgnoreMaxFeatures(boolean hitsIgnoreMaxFeatures);
+
+    /**
+     * How the WFS 2.0 numberMatched is computed for paged responses, {@link NumberMatchedMode#EXACT}
+     * by default
+     */
+    NumberMatchedMode getNumberMatchedMode();
+
+    /**
+     * Sets how the WFS 2.0 numberMatched is computed for paged responses
+     */
+    void setNumberMatchedMode(NumberMatchedMode numberMatchedMode);
+
+    /**
+     * Number of features written to the store at a time by a bulk transaction, zero or negative
+     * if bulk transactions are disabled.
+     * <p>
+     * In bulk mode consecutive inserts with the same handle are written together, in batches of
+     * this size, and consecutive updates by feature id setting the same values on the same type
+     * are merged into a single update, with one pair of transaction events per batch.
+     * </p>
+     */
+    int getTransactionBatchSize();
+
+    /**
+     * Sets the number of features written to the store at a time by a bulk transaction, zero to
+     * disable bulk transactions
+     */
+    void setTransactionBatchSize(int transactionBatchSize);
     
 }
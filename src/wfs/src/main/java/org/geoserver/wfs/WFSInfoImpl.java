@@ -18,6 +18,8 @@ public class WFSInfoImpl extends ServiceInfoImpl implements WFSInfo {
     protected boolean canonicalSchemaLocation = false;
     protected boolean encodeFeatureMember = false;    
     protected boolean hitsIgnoreMaxFeatures = false;
+    protected NumberMatchedMode numberMatchedMode = NumberMatchedMode.EXACT;
+    protected int transactionBatchSize = 0;
     
     public WFSInfoImpl() {
     }
@@ -94,6 +96,8 @@ public class WFSInfoImpl extends ServiceInfoImpl implements WFSInfo {
                 + ((serviceLevel == null) ? 0 : serviceLevel.hashCode());
         result = prime * result + (encodeFeatureMember ? 83 : 87);
         result = prime * result + (hitsIgnoreMaxFeatures ? 29 : 197);
+        result = prime * result + getNumberMatchedMode().hashCode();
+        result = prime * result + transactionBatchSize;
         return result;
     }
 
@@ -126,6 +130,10 @@ public class WFSInfoImpl extends ServiceInfoImpl implements WFSInfo {
             return false;
         if (hitsIgnoreMaxFeatures != other.isHitsIgnoreMaxFeatures())
             return false;
+        if (getNumberMatchedMode() != other.getNumberMatchedMode())
+            return false;
+        if (transactionBatchSize != other.getTransactionBatchSize())
+            return false;
         return true;
     }
 
@@ -138,4 +146,25 @@ public class WFSInfoImpl extends ServiceInfoImpl implements WFSInfo {
     public void setHitsIgnoreMaxFeatures(boolean hitsIgnoreMaxFeatures) {
         this.hitsIgnoreMaxFeatures = hitsIgnoreMaxFeatures;
     }
+
+    @Override
+    public NumberMatchedMode getNumberMatchedMode() {
+        // configurations saved before the option was introduced have no value
+        return numberMatchedMode != null ? numberMatchedMode : NumberMatchedMode.EXACT;
+    }
+
+    @Override
+    public void setNumberMatchedMode(NumberMatchedMode numberMatchedMode) {
+        this.numberMatchedMode = numberMatchedMode;
+    }
+
+    @Override
+    public int getTransactionBatchSize() {
+        return transactionBatchSize;
+    }
+
+    @Override
+    public void setTransactionBatchSize(int transactionBatchSize) {
+        this.transactionBatchSize = transactionBatchSize;
+    }
 }
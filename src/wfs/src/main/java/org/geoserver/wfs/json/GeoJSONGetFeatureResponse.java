@@ -17,6 +17,7 @@ import java.util.logging.Logger;
 
 import net.sf.json.JSONException;
 
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
@@ -104,7 +105,9 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                 outWriter.write(getCallbackFunction() + "(");
             }
 
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+            List resultsList = featureCollection.getFeature();
+            final GeoJSONWriter jsonWriter = new GeoJSONWriter(outWriter,
+                    getNumDecimals(resultsList));
             jsonWriter.object().key("type").value("FeatureCollection");
             jsonWriter.key("features");
             jsonWriter.array();
@@ -113,7 +116,6 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             // including the lockID
             //
             // execute should also fail if all of the locks could not be aquired
-            List resultsList = featureCollection.getFeature();
             CoordinateReferenceSystem crs = null;
             for (int i = 0; i < resultsList.size(); i++) {
                 FeatureCollection collection = (FeatureCollection) resultsList.get(i);
@@ -155,7 +157,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                             jsonWriter.writeGeom(aGeom);
                             hasGeom = true;
                         } else {
-                            jsonWriter.value(null);
+                            jsonWriter.value((Object) null);
                         }
                         if (defaultGeomType != null)
                             jsonWriter.key("geometry_name").value(defaultGeomType.getLocalName());
@@ -190,13 +192,15 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
 
                             } else {
                                 jsonWriter.key(ad.getLocalName());
-                                jsonWriter.value(null);
+                                jsonWriter.value((Object) null);
                             }
                         }
                         // Bounding box for feature in properties
-                        ReferencedEnvelope refenv = new ReferencedEnvelope(feature.getBounds());
-                        if (featureBounding && !refenv.isEmpty())
-                            jsonWriter.writeBoundingBox(refenv);
+                        if (featureBounding) {
+                            ReferencedEnvelope refenv = new ReferencedEnvelope(feature.getBounds());
+                            if (!refenv.isEmpty())
+                                jsonWriter.writeBoundingBox(refenv);
+                        }
 
                         jsonWriter.endObject(); // end the properties
                         jsonWriter.endObject(); // end the feature
@@ -265,6 +269,23 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
+    /**
+     * Returns the number of decimals configured for the coordinates of the feature types being
+     * encoded, the max if they are many, or -1 for full precision if none has it set
+     */
+    int getNumDecimals(List resultsList) {
+        int numDecimals = -1;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            FeatureTypeInfo info = gs.getCatalog().getFeatureTypeByName(
+                    collection.getSchema().getName());
+            if (info != null && info.getNumDecimals() > 0) {
+                numDecimals = Math.max(numDecimals, info.getNumDecimals());
+            }
+        }
+        return numDecimals;
+    }
+
     private String getCallbackFunction() {
         Request request = Dispatcher.REQUEST.get();
         if (request == null) {
@@ -0,0 +1,446 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+
+import net.sf.json.JSONException;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A streaming GeoJSON writer, producing the same output as {@link GeoJSONBuilder} without its
+ * per value overhead: there is no stack of JSON states, coordinates are read straight from the
+ * JTS coordinate sequences and numbers are formatted in a reusable buffer.
+ * <p>
+ * Coordinates are written with full precision by default, or rounded to the specified number of
+ * decimals (trailing zeroes are omitted). Attribute values are always written with full precision.
+ * </p>
+ * <p>
+ * The writer performs no validation of the call sequence, it's up to the caller to open and close
+ * objects and arrays, and to write a key before each object member.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    static final long[] POWERS = new long[16];
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Largest scaled value that can be rounded to a long exactly
+     */
+    static final double MAX_SCALED = 1L << 53;
+
+    final Writer out;
+
+    final int numDecimals;
+
+    /**
+     * Whether the current object or array has no members written yet, one entry per nesting level
+     */
+    boolean[] first = new boolean[16];
+
+    int depth;
+
+    /**
+     * Set after a key, the next value goes without separator
+     */
+    boolean afterKey;
+
+    final char[] digits = new char[20];
+
+    /**
+     * Builds a writer with full precision coordinates
+     */
+    public GeoJSONWriter(Writer out) {
+        this(out, -1);
+    }
+
+    /**
+     * Builds a writer
+     *
+     * @param out The target writer, should be buffered as the output is written a few chars at a
+     *        time
+     * @param numDecimals Number of decimals of the coordinates, or a negative value for full
+     *        precision
+     */
+    public GeoJSONWriter(Writer out, int numDecimals) {
+        this.out = out;
+        this.numDecimals = numDecimals < POWERS.length ? numDecimals : -1;
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        return open('{');
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        return open('[');
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    GeoJSONWriter open(char c) throws IOException {
+        separator();
+        out.write(c);
+        if (++depth == first.length) {
+            boolean[] grown = new boolean[first.length * 2];
+            System.arraycopy(first, 0, grown, 0, first.length);
+            first = grown;
+        }
+        first[depth] = true;
+        return this;
+    }
+
+    GeoJSONWriter close(char c) throws IOException {
+        out.write(c);
+        depth--;
+        return this;
+    }
+
+    /**
+     * Writes the comma between members, if needed
+     */
+    void separator() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (depth > 0) {
+            if (first[depth]) {
+                first[depth] = false;
+            } else {
+                out.write(',');
+            }
+        }
+    }
+
+    public GeoJSONWriter key(String key) throws IOException {
+        separator();
+        quote(key);
+        out.write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a value: strings, numbers, booleans, dates (as ISO 8601 strings), geometries and
+     * nulls are supported, other objects are written as their string representation
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        if (value == null) {
+            separator();
+            out.write("null");
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            value(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            separator();
+            out.write(value.toString());
+        } else if (value instanceof Boolean) {
+            separator();
+            out.write(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof java.util.Date || value instanceof Calendar) {
+            value(Converters.convert(value, String.class));
+        } else if (value instanceof Geometry) {
+            writeGeom((Geometry) value);
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    public GeoJSONWriter value(String value) throws IOException {
+        separator();
+        if (value == null) {
+            out.write("null");
+        } else {
+            quote(value);
+        }
+        return this;
+    }
+
+    public GeoJSONWriter value(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a number with full precision
+     */
+    public GeoJSONWriter value(double value) throws IOException {
+        separator();
+        writeDouble(value, -1);
+        return this;
+    }
+
+    /**
+     * Writes any geometry object
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type").value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType == GeoJSONBuilder.MULTIGEOMETRY) {
+            key("geometries");
+            array();
+            GeometryCollection collection = (GeometryCollection) geometry;
+            for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
+                writeGeom(collection.getGeometryN(i));
+            }
+            endArray();
+            return endObject();
+        }
+
+        key("coordinates");
+        switch (geometryType) {
+        case GeoJSONBuilder.POINT:
+            Point point = (Point) geometry;
+            writeCoordinate(point.getX(), point.getY());
+            break;
+        case GeoJSONBuilder.LINESTRING:
+            writeCoordinates(((LineString) geometry).getCoordinateSequence());
+            break;
+        case GeoJSONBuilder.POLYGON:
+            writePolygon((Polygon) geometry);
+            break;
+        case GeoJSONBuilder.MULTIPOINT:
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                Point p = (Point) geometry.getGeometryN(i);
+                writeCoordinate(p.getX(), p.getY());
+            }
+            endArray();
+            break;
+        case GeoJSONBuilder.MULTILINESTRING:
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeCoordinates(((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+            }
+            endArray();
+            break;
+        case GeoJSONBuilder.MULTIPOLYGON:
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writePolygon((Polygon) geometry.getGeometryN(i));
+            }
+            endArray();
+            break;
+        }
+        return endObject();
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence coords) throws IOException {
+        array();
+        for (int i = 0, n = coords.size(); i < n; i++) {
+            writeCoordinate(coords.getOrdinate(i, CoordinateSequence.X),
+                    coords.getOrdinate(i, CoordinateSequence.Y));
+        }
+        endArray();
+    }
+
+    void writeCoordinate(double x, double y) throws IOException {
+        separator();
+        out.write('[');
+        writeDouble(x, numDecimals);
+        out.write(',');
+        writeDouble(y, numDecimals);
+        out.write(']');
+    }
+
+    /**
+     * Writes an envelope as a "bbox" member, [minX,minY,maxX,maxY]. The bounds are always written
+     * with full precision, as {@link GeoJSONBuilder} does, whatever the number of decimals of the
+     * coordinates.
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        separator();
+        out.write('[');
+        writeDouble(env.getMinX(), -1);
+        out.write(',');
+        writeDouble(env.getMinY(), -1);
+        out.write(',');
+        writeDouble(env.getMaxX(), -1);
+        out.write(',');
+        writeDouble(env.getMaxY(), -1);
+        out.write(']');
+        return this;
+    }
+
+    void writeDouble(double d, int decimals) throws IOException {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+
+        if (decimals >= 0) {
+            double scaled = Math.abs(d) * POWERS[decimals];
+            if (scaled < MAX_SCALED) {
+                long rounded = Math.round(scaled);
+                if (d < 0 && rounded != 0) {
+                    out.write('-');
+                }
+                long scale = POWERS[decimals];
+                writeLong(rounded / scale);
+                long fraction = rounded % scale;
+                if (fraction != 0) {
+                    // strip the trailing zeroes, then pad on the left to the number of decimals
+                    int length = decimals;
+                    while (fraction % 10 == 0) {
+                        fraction /= 10;
+                        length--;
+                    }
+                    out.write('.');
+                    int pos = digits.length;
+                    for (int i = 0; i < length; i++) {
+                        digits[--pos] = (char) ('0' + fraction % 10);
+                        fraction /= 10;
+                    }
+                    out.write(digits, pos, digits.length - pos);
+                }
+                return;
+            }
+        }
+
+        if (d == (long) d && Math.abs(d) < MAX_SCALED) {
+            // integral value, the same json-lib writes for a double with no fractional part
+            if (d == 0 && 1 / d < 0) {
+                out.write('-');
+            }
+            writeLong((long) d);
+            return;
+        }
+
+        // full precision, trailing zeroes removed like json-lib does
+        String s = Double.toString(d);
+        if (s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            out.write(s, 0, end);
+        } else {
+            out.write(s);
+        }
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * Writes a quoted and escaped string, copying the runs of plain chars in one go
+     */
+    void quote(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String escape;
+            switch (c) {
+            case '"':
+                escape = "\\\"";
+                break;
+            case '\\':
+                escape = "\\\\";
+                break;
+            case '/':
+                // escaped only after '<', to avoid closing script tags in JSONP
+                escape = i > 0 && s.charAt(i - 1) == '<' ? "\\/" : null;
+                break;
+            case '\b':
+                escape = "\\b";
+                break;
+            case '\t':
+                escape = "\\t";
+                break;
+            case '\n':
+                escape = "\\n";
+                break;
+            case '\f':
+                escape = "\\f";
+                break;
+            case '\r':
+                escape = "\\r";
+                break;
+            default:
+                // same ranges json-lib escapes
+                escape = c < 0x20 || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)
+                        ? unicode(c) : null;
+            }
+            if (escape != null) {
+                out.write(s, start, i - start);
+                out.write(escape);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, length - start);
+        out.write('"');
+    }
+
+    static String unicode(char c) {
+        String hex = Integer.toHexString(c);
+        return "\\u" + "0000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Flushes the underlying writer
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
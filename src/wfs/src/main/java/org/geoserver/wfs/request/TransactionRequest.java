@@ -8,6 +8,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.opengis.wfs.AllSomeType;
 import net.opengis.wfs.DeleteElementType;
@@ -33,6 +34,12 @@ import org.eclipse.emf.ecore.EObject;
  */
 public abstract class TransactionRequest extends RequestObject {
 
+    /**
+     * Extended property holding the iterator over the elements of a request that is being parsed
+     * incrementally, see {@link #getIncrementalElements()}
+     */
+    public static final String INCREMENTAL_ELEMENTS = "incrementalElements";
+
     public static TransactionRequest adapt(Object request) {
         if (request instanceof TransactionType) {
             return new WFS11((EObject) request);
@@ -65,6 +72,17 @@ public abstract class TransactionRequest extends RequestObject {
     public abstract void setReleaseActionAll();
     
     public abstract List<TransactionElement> getElements();
+
+    /**
+     * Returns the elements of a request being parsed incrementally, in which case
+     * {@link #getElements()} is empty and each element is parsed as the iterator advances, or null
+     * if the request was parsed as a whole.
+     */
+    public Iterator<TransactionElement> getIncrementalElements() {
+        Map extended = getExtendedProperties();
+        return extended != null ? (Iterator<TransactionElement>) extended
+                .get(INCREMENTAL_ELEMENTS) : null;
+    }
     
     public abstract TransactionResponse createResponse();
     
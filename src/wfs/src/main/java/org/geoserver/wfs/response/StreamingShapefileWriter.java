@@ -0,0 +1,385 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.data.shapefile.shp.ShapefileHeader;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes a shapefile straight into a zip stream, without going through a shapefile data store
+ * and a temporary directory.
+ * <p>
+ * The .shp, .shx and .dbf headers carry the record count, file length and bounds, which are known
+ * only once all the features have been written: the records are accumulated in memory, spilling
+ * to a temporary file past {@link #SPILL_THRESHOLD} bytes, and the three files are written out as
+ * zip entries, headers first, when the writer is closed. The output is the same the shapefile
+ * data store would produce for the same schema and features.
+ * </p>
+ */
+class StreamingShapefileWriter {
+
+    /**
+     * Bytes of each of the .shp, .shx and .dbf files kept in memory before spilling to disk
+     */
+    static final int SPILL_THRESHOLD = 1024 * 1024;
+
+    static final int HEADER_LENGTH = 100;
+
+    final String name;
+
+    final SimpleFeatureType schema;
+
+    final GeometryFactory geometryFactory = new GeometryFactory();
+
+    final SpillBuffer shp;
+
+    final SpillBuffer shx;
+
+    final SpillBuffer dbf;
+
+    final DbaseFileHeader dbfHeader;
+
+    final DbaseFileWriter dbfWriter;
+
+    final Object[] record;
+
+    ShapeType shapeType;
+
+    ShapeHandler handler;
+
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    Envelope bounds = new Envelope();
+
+    int records;
+
+    /**
+     * Length of the .shp file in bytes, header included
+     */
+    long shpLength = HEADER_LENGTH;
+
+    /**
+     * Builds a writer
+     *
+     * @param name The name of the shapefile, without extension
+     * @param schema The shapefile schema, with the_geom geometry and shapefile compatible names
+     * @param charset The charset of the dbf strings
+     */
+    StreamingShapefileWriter(String name, SimpleFeatureType schema, Charset charset)
+            throws IOException {
+        this.name = name;
+        this.schema = schema;
+        this.shp = new SpillBuffer(SPILL_THRESHOLD);
+        this.shx = new SpillBuffer(SPILL_THRESHOLD);
+        this.dbf = new SpillBuffer(SPILL_THRESHOLD);
+        try {
+            this.dbfHeader = DbaseHeaderBuilder.build(schema);
+            this.dbfWriter = new DbaseFileWriter(dbfHeader, Channels.newChannel(dbf), charset);
+            this.record = new Object[dbfHeader.getNumFields()];
+        } catch (IOException e) {
+            dispose();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a feature to the shapefile
+     */
+    void write(SimpleFeature feature) throws IOException {
+        Geometry g = (Geometry) feature.getDefaultGeometry();
+        int length;
+        if (g == null) {
+            length = 4;
+        } else {
+            if (shapeType == null) {
+                int dims = JTSUtilities.guessCoorinateDims(g.getCoordinates());
+                shapeType = JTSUtilities.getShapeType(g, dims);
+                handler = shapeType.getShapeHandler(geometryFactory);
+            }
+            g = JTSUtilities.convertToCollection(g, shapeType);
+            Envelope env = g.getEnvelopeInternal();
+            if (!env.isNull()) {
+                bounds.expandToInclude(env);
+            }
+            length = handler.getLength(g);
+        }
+
+        // shp record, header is big endian, contents little endian
+        if (buffer.capacity() < length + 8) {
+            buffer = ByteBuffer.allocate(length + 8);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(++records);
+        buffer.putInt(length / 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (g == null) {
+            buffer.putInt(ShapeType.NULL.id);
+        } else {
+            buffer.putInt(shapeType.id);
+            handler.write(buffer, g);
+        }
+        shp.write(buffer.array(), 0, buffer.position());
+
+        // shx record, offset and length in 16 bit words
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt((int) (shpLength / 2));
+        buffer.putInt(length / 2);
+        shx.write(buffer.array(), 0, 8);
+        shpLength += length + 8;
+
+        // dbf record, converted to the types a shapefile reader would return
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        int field = 0;
+        for (AttributeDescriptor ad : descriptors) {
+            if (Geometry.class.isAssignableFrom(ad.getType().getBinding())) {
+                continue;
+            }
+            Object value = feature.getAttribute(ad.getLocalName());
+            if (value != null) {
+                Object converted = Converters.convert(value, dbfHeader.getFieldClass(field));
+                if (converted != null) {
+                    value = converted;
+                }
+            }
+            record[field++] = value;
+        }
+        dbfWriter.write(record);
+    }
+
+    /**
+     * Returns the number of features written so far
+     */
+    int getCount() {
+        return records;
+    }
+
+    /**
+     * Writes the .shp, .shx and .dbf entries to the zip stream and releases the buffers
+     */
+    void writeTo(ZipOutputStream zip) throws IOException {
+        try {
+            if (shapeType == null) {
+                // no geometry seen, use the declared one as the shapefile datastore does
+                shapeType = getShapeType(schema.getGeometryDescriptor().getType().getBinding());
+            }
+            double minX = bounds.isNull() ? 0 : bounds.getMinX();
+            double minY = bounds.isNull() ? 0 : bounds.getMinY();
+            double maxX = bounds.isNull() ? 0 : bounds.getMaxX();
+            double maxY = bounds.isNull() ? 0 : bounds.getMaxY();
+            ShapefileHeader header = new ShapefileHeader();
+
+            zip.putNextEntry(new ZipEntry(name + ".shp"));
+            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+            header.write(headerBuffer, shapeType, records, (int) (shpLength / 2), minX, minY,
+                    maxX, maxY);
+            zip.write(headerBuffer.array(), 0, HEADER_LENGTH);
+            shp.writeTo(zip, 0);
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(name + ".shx"));
+            headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+            header.write(headerBuffer, shapeType, records, 50 + 4 * records, minX, minY, maxX,
+                    maxY);
+            zip.write(headerBuffer.array(), 0, HEADER_LENGTH);
+            shx.writeTo(zip, 0);
+            zip.closeEntry();
+
+            // the dbf header written at creation has no record count, replace it
+            dbfWriter.close();
+            zip.putNextEntry(new ZipEntry(name + ".dbf"));
+            dbfHeader.setNumRecords(records);
+            dbfHeader.writeHeader(Channels.newChannel(new NonClosingOutputStream(zip)));
+            dbf.writeTo(zip, dbfHeader.getHeaderLength());
+            zip.closeEntry();
+        } finally {
+            dispose();
+        }
+    }
+
+    static ShapeType getShapeType(Class<?> binding) throws IOException {
+        if (Point.class.equals(binding)) {
+            return ShapeType.POINT;
+        } else if (MultiPoint.class.equals(binding)) {
+            return ShapeType.MULTIPOINT;
+        } else if (Polygon.class.equals(binding) || MultiPolygon.class.equals(binding)) {
+            return ShapeType.POLYGON;
+        } else if (LineString.class.isAssignableFrom(binding)
+                || MultiLineString.class.equals(binding)) {
+            return ShapeType.ARC;
+        }
+        throw new IOException("Cannot write a shapefile with geometry type " + binding);
+    }
+
+    /**
+     * Releases the buffers, removing the spill files if any
+     */
+    void dispose() {
+        shp.dispose();
+        shx.dispose();
+        dbf.dispose();
+    }
+
+    /**
+     * Gives access to the dbf header mapping of the shapefile datastore, so that the streamed dbf
+     * uses the same field types and lengths
+     */
+    static class DbaseHeaderBuilder extends ShapefileDataStore {
+
+        private DbaseHeaderBuilder() {
+            super((URL) null);
+        }
+
+        static DbaseFileHeader build(SimpleFeatureType schema) throws IOException {
+            return createDbaseHeader(schema);
+        }
+    }
+
+    /**
+     * Keeps the zip stream open when the dbf header channel is closed
+     */
+    static class NonClosingOutputStream extends OutputStream {
+        final OutputStream delegate;
+
+        NonClosingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // nothing to do
+        }
+    }
+
+    /**
+     * An output stream held in memory up to a threshold, and in a temporary file past it. Closing
+     * it does not release the contents, {@link #dispose()} does.
+     */
+    static class SpillBuffer extends OutputStream {
+        final int threshold;
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+        File file;
+
+        OutputStream fileOutput;
+
+        SpillBuffer(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (file == null && memory.size() + len > threshold) {
+                file = File.createTempFile("shpzip", ".tmp");
+                fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+                memory.writeTo(fileOutput);
+                memory = null;
+            }
+            if (file != null) {
+                fileOutput.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileOutput != null) {
+                fileOutput.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Copies the contents to the specified stream, skipping the first bytes
+         */
+        void writeTo(OutputStream output, long skip) throws IOException {
+            if (file == null) {
+                byte[] bytes = memory.toByteArray();
+                output.write(bytes, (int) skip, bytes.length - (int) skip);
+            } else {
+                fileOutput.close();
+                fileOutput = null;
+                InputStream input = new FileInputStream(file);
+                try {
+                    IOUtils.skipFully(input, skip);
+                    IOUtils.copy(input, output);
+                } finally {
+                    input.close();
+                }
+            }
+        }
+
+        void dispose() {
+            memory = null;
+            if (fileOutput != null) {
+                IOUtils.closeQuietly(fileOutput);
+                fileOutput = null;
+            }
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionElement;
+import org.geoserver.wfs.request.TransactionRequest;
+
+/**
+ * Reads a WFS transaction request incrementally, so that large requests can be executed while
+ * they are being parsed, with bounded memory.
+ * <p>
+ * Requests up to {@link #INCREMENTAL_THRESHOLD} chars are parsed as a whole, as usual. Larger
+ * ones are scanned with a StAX reader: the returned request holds only the root attributes, and
+ * its elements are made available by {@link TransactionRequest#getIncrementalElements()} as they
+ * are read. Elements are parsed in chunks wrapped in a copy of the root element, each holding at
+ * most the batch size between features of inserts and other elements, splitting inserts if
+ * needed, so that no more than a batch of features is in memory at any time and the parser setup
+ * is paid once per batch.
+ * </p>
+ * <p>
+ * Transaction plugins are meant to inspect and alter the whole request before it's executed, so
+ * requests are always read as a whole when a plugin is registered, unless it declares it does not
+ * need the request elements, see {@link #isSupported()} and {@link ElementsIndependent}.
+ * </p>
+ */
+public abstract class IncrementalTransactionReader implements Iterator<TransactionElement> {
+
+    /**
+     * Requests up to this number of chars are parsed as a whole
+     */
+    public static int INCREMENTAL_THRESHOLD = 1024 * 1024;
+
+    final int batchSize;
+
+    XMLStreamReader xml;
+
+    /**
+     * The root start tag, with the namespace declarations and attributes of the request
+     */
+    String rootStart;
+
+    String rootEnd;
+
+    /**
+     * Start tag of the insert being read, null when not inside an insert
+     */
+    String insertStart;
+
+    String insertEnd;
+
+    /**
+     * Whether a part of the current insert has already been read
+     */
+    boolean insertChunked;
+
+    /**
+     * The elements parsed and not yet returned
+     */
+    LinkedList<TransactionElement> pending = new LinkedList<TransactionElement>();
+
+    boolean done;
+
+    /**
+     * @param batchSize Maximum number of elements and insert features parsed at once
+     */
+    protected IncrementalTransactionReader(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Marks the {@link TransactionPlugin} implementations that neither inspect nor alter the
+     * request elements, and can work with requests read incrementally
+     */
+    public static interface ElementsIndependent {
+    }
+
+    /**
+     * Returns true if transactions can be read incrementally, that is, if every registered
+     * {@link TransactionPlugin} is {@link ElementsIndependent}
+     */
+    public static boolean isSupported() {
+        for (TransactionPlugin plugin : GeoServerExtensions.extensions(TransactionPlugin.class)) {
+            if (!(plugin instanceof ElementsIndependent)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a transaction request, or a part of it wrapped in the root element, as a whole
+     */
+    protected abstract Object parse(Reader reader) throws Exception;
+
+    /**
+     * Reads a transaction request, incrementally if it's larger than
+     * {@link #INCREMENTAL_THRESHOLD}
+     */
+    public Object read(Reader reader) throws Exception {
+        CharArrayWriter head = new CharArrayWriter();
+        char[] buffer = new char[8192];
+        int read;
+        while (head.size() < INCREMENTAL_THRESHOLD && (read = reader.read(buffer)) > 0) {
+            head.write(buffer, 0, read);
+        }
+        if (head.size() < INCREMENTAL_THRESHOLD) {
+            return parse(new CharArrayReader(head.toCharArray()));
+        }
+
+        PushbackReader input = new PushbackReader(reader, head.size());
+        input.unread(head.toCharArray());
+        return readIncrementally(input);
+    }
+
+    Object readIncrementally(Reader reader) throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        xml = factory.createXMLStreamReader(reader);
+        xml.nextTag();
+
+        StringBuilder sb = new StringBuilder();
+        writeStartTag(sb);
+        rootStart = sb.toString();
+        rootEnd = "</" + qualifiedName() + ">";
+
+        // the root alone gives the request attributes
+        Object request = parse(new StringReader(rootStart + rootEnd));
+        TransactionRequest tx = TransactionRequest.adapt(request);
+        if (tx == null) {
+            throw new WFSException("Not a transaction request: " + request);
+        }
+        tx.getExtendedProperties().put(TransactionRequest.INCREMENTAL_ELEMENTS, this);
+        return request;
+    }
+
+    public boolean hasNext() {
+        if (pending.isEmpty() && !done) {
+            readChunk();
+        }
+        return !pending.isEmpty();
+    }
+
+    public TransactionElement next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.removeFirst();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the next batch of elements, up to the batch size between features of inserts and
+     * other elements, and parses them in one go
+     */
+    void readChunk() {
+        try {
+            StringBuilder sb = new StringBuilder(rootStart);
+            int count = 0;
+            while (count < batchSize && !done) {
+                if (insertStart == null) {
+                    // move to the next child of the root
+                    if (xml.nextTag() == XMLStreamConstants.END_ELEMENT) {
+                        done = true;
+                        xml.close();
+                        break;
+                    }
+                    if (!"Insert".equals(xml.getLocalName())) {
+                        copyElement(sb);
+                        count++;
+                        continue;
+                    }
+                    StringBuilder start = new StringBuilder();
+                    writeStartTag(start);
+                    insertStart = start.toString();
+                    insertEnd = "</" + qualifiedName() + ">";
+                    insertChunked = false;
+                }
+
+                // the features of the current insert that fit in the batch
+                int mark = sb.length();
+                sb.append(insertStart);
+                int features = 0;
+                while (count < batchSize) {
+                    if (xml.nextTag() == XMLStreamConstants.END_ELEMENT) {
+                        insertStart = null;
+                        break;
+                    }
+                    copyElement(sb);
+                    count++;
+                    features++;
+                }
+                if (features == 0 && insertChunked) {
+                    // nothing left of an insert split across batches, but keep the inserts that
+                    // are empty to begin with
+                    sb.setLength(mark);
+                } else {
+                    sb.append(insertEnd);
+                    insertChunked = true;
+                }
+            }
+
+            if (sb.length() > rootStart.length()) {
+                sb.append(rootEnd);
+                Object parsed = parse(new StringReader(sb.toString()));
+                pending.addAll(TransactionRequest.adapt(parsed).getElements());
+            }
+        } catch (WFSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WFSException("Error reading the transaction request", e);
+        }
+    }
+
+    /**
+     * Copies the element the reader is positioned on, leaving the reader on its end tag
+     */
+    void copyElement(StringBuilder sb) throws XMLStreamException {
+        int depth = 0;
+        while (true) {
+            switch (xml.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                writeStartTag(sb);
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                sb.append("</").append(qualifiedName()).append('>');
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                escape(sb, xml.getText(), false);
+                break;
+            default:
+                // comments and processing instructions are dropped
+            }
+            if (depth == 0) {
+                return;
+            }
+            xml.next();
+        }
+    }
+
+    void writeStartTag(StringBuilder sb) {
+        sb.append('<').append(qualifiedName());
+        for (int i = 0; i < xml.getNamespaceCount(); i++) {
+            String prefix = xml.getNamespacePrefix(i);
+            sb.append(prefix == null || prefix.length() == 0 ? " xmlns" : " xmlns:" + prefix);
+            sb.append("=\"");
+            escape(sb, xml.getNamespaceURI(i) == null ? "" : xml.getNamespaceURI(i), true);
+            sb.append('"');
+        }
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            String prefix = xml.getAttributePrefix(i);
+            sb.append(' ');
+            if (prefix != null && prefix.length() > 0) {
+                sb.append(prefix).append(':');
+            }
+            sb.append(xml.getAttributeLocalName(i)).append("=\"");
+            escape(sb, xml.getAttributeValue(i), true);
+            sb.append('"');
+        }
+        sb.append('>');
+    }
+
+    String qualifiedName() {
+        String prefix = xml.getPrefix();
+        if (prefix == null || prefix.length() == 0) {
+            return xml.getLocalName();
+        }
+        return prefix + ":" + xml.getLocalName();
+    }
+
+    static void escape(StringBuilder sb, String text, boolean attribute) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                sb.append("&amp;");
+                break;
+            case '<':
+                sb.append("&lt;");
+                break;
+            case '>':
+                sb.append("&gt;");
+                break;
+            case '"':
+                sb.append(attribute ? "&quot;" : "\"");
+                break;
+            case '\r':
+                sb.append("&#13;");
+                break;
+            case '\n':
+            case '\t':
+                sb.append(attribute ? "&#" + (int) c + ";" : String.valueOf(c));
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.util.NoExternalEntityResolver;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.IncrementalTransactionReader;
 import org.geoserver.wfs.xml.WFSURIHandler;
 import org.geoserver.wfs.xml.WFSXmlUtils;
 import org.geotools.util.Version;
@@ -59,7 +60,23 @@ public class WfsXmlReader extends XmlRequestReader {
         this.entityResolverProvider = new EntityResolverProvider(geoServer);
     }
     
-    public Object read(Object request, Reader reader, Map kvp) throws Exception {
+    public Object read(Object request, Reader reader, final Map kvp) throws Exception {
+        //large transactions in bulk mode are parsed and executed incrementally, unless plugins
+        //need to see the whole request
+        int batchSize = geoServer.getService(WFSInfo.class).getTransactionBatchSize();
+        if (batchSize > 0 && "Transaction".equals(getElement().getLocalPart())
+                && IncrementalTransactionReader.isSupported()) {
+            return new IncrementalTransactionReader(batchSize) {
+                @Override
+                protected Object parse(Reader reader) throws Exception {
+                    return WfsXmlReader.this.parse(reader, kvp);
+                }
+            }.read(reader);
+        }
+        return parse(reader, kvp);
+    }
+
+    Object parse(Reader reader, Map kvp) throws Exception {
         //TODO: make this configurable?
         configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
 
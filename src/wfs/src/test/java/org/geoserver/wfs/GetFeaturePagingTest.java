@@ -4,7 +4,20 @@
  */
 package org.geoserver.wfs;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geoserver.catalog.Catalog;
@@ -12,9 +25,11 @@ import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wfs.WFSInfo.NumberMatchedMode;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -253,4 +268,174 @@ public class GetFeaturePagingTest extends WFSTestSupport {
         XMLAssert.assertXpathEvaluatesTo("1", "count(//" + typeName + "[@gml:id='Fifteen.4'])", doc);
         XMLAssert.assertXpathEvaluatesTo("1", "count(//" + typeName + "[@gml:id='Fifteen.5'])", doc);
     }
+
+    @Test
+    public void testNumberMatchedParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        synchronized (GetFeature.class) {
+            GetFeature.COUNT_POOL = pool;
+            GetFeature.COUNT_POOL_INITIALIZED = true;
+        }
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=cdf:Fifteen&count=5");
+            XMLAssert.assertXpathEvaluatesTo("5", "count(//cdf:Fifteen)", doc);
+            assertEquals("15", doc.getDocumentElement().getAttribute("numberMatched"));
+
+            // the first page is not full and needs no count, the second one is counted
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=(cdf:Fifteen)(cdf:Seven)&count=18");
+            XMLAssert.assertXpathEvaluatesTo("15", "count(//cdf:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("3", "count(//cdf:Seven)", doc);
+            assertEquals("22", doc.getDocumentElement().getAttribute("numberMatched"));
+        } finally {
+            synchronized (GetFeature.class) {
+                GetFeature.COUNT_POOL = null;
+                GetFeature.COUNT_POOL_INITIALIZED = false;
+            }
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNumberMatchedSaturatedPool() throws Exception {
+        // a pool rejecting all tasks, the counts run in the request thread
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        pool.shutdown();
+        synchronized (GetFeature.class) {
+            GetFeature.COUNT_POOL = pool;
+            GetFeature.COUNT_POOL_INITIALIZED = true;
+        }
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=(cdf:Fifteen)(cdf:Seven)&count=18");
+            XMLAssert.assertXpathEvaluatesTo("15", "count(//cdf:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("3", "count(//cdf:Seven)", doc);
+            assertEquals("22", doc.getDocumentElement().getAttribute("numberMatched"));
+        } finally {
+            synchronized (GetFeature.class) {
+                GetFeature.COUNT_POOL = null;
+                GetFeature.COUNT_POOL_INITIALIZED = false;
+            }
+        }
+    }
+
+    @Test
+    public void testNumberMatchedUnknownPageNotFull() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setNumberMatchedMode(NumberMatchedMode.UNKNOWN);
+        getGeoServer().save(wfs);
+        try {
+            // all the matched features fit in the page, numberMatched is known anyways
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=cdf:Fifteen&count=20");
+            XMLAssert.assertXpathEvaluatesTo("15", "count(//cdf:Fifteen)", doc);
+            assertEquals("15", doc.getDocumentElement().getAttribute("numberMatched"));
+        } finally {
+            wfs.setNumberMatchedMode(NumberMatchedMode.EXACT);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testNumberMatchedUnknownPageFull() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setNumberMatchedMode(NumberMatchedMode.UNKNOWN);
+        getGeoServer().save(wfs);
+        try {
+            // the page is full, there may be more features, and a next page is offered
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=cdf:Fifteen&count=5");
+            XMLAssert.assertXpathEvaluatesTo("5", "count(//cdf:Fifteen)", doc);
+            assertEquals("-1", doc.getDocumentElement().getAttribute("numberMatched"));
+            assertTrue(doc.getDocumentElement().getAttribute("next").contains("startIndex=5"));
+        } finally {
+            wfs.setNumberMatchedMode(NumberMatchedMode.EXACT);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testNumberMatchedEstimated() throws Exception {
+        // the estimate is whatever the store can tell without reading the features
+        FeatureSource fs = getFeatureSource(SystemTestData.FIFTEEN);
+        int estimate = fs.getCount(new Query(fs.getSchema().getName().getLocalPart()));
+
+        WFSInfo wfs = getWFS();
+        wfs.setNumberMatchedMode(NumberMatchedMode.ESTIMATED);
+        getGeoServer().save(wfs);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=cdf:Fifteen&count=5");
+            XMLAssert.assertXpathEvaluatesTo("5", "count(//cdf:Fifteen)", doc);
+            assertEquals(String.valueOf(estimate < 0 ? -1 : estimate), 
+                    doc.getDocumentElement().getAttribute("numberMatched"));
+            // either way there is a next page
+            assertTrue(doc.getDocumentElement().getAttribute("next").contains("startIndex=5"));
+        } finally {
+            wfs.setNumberMatchedMode(NumberMatchedMode.EXACT);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testNumberMatchedCancelledOnFailure() throws Exception {
+        // a pool whose counts wait until released, so that they are still running when the 
+        // request fails
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<?>> counts = new CopyOnWriteArrayList<Future<?>>();
+        ExecutorService pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, 
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public <T> Future<T> submit(final Callable<T> task) {
+                Future<T> future = super.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        release.await();
+                        return task.call();
+                    }
+                });
+                counts.add(future);
+                return future;
+            }
+        };
+        synchronized (GetFeature.class) {
+            GetFeature.COUNT_POOL = pool;
+            GetFeature.COUNT_POOL_INITIALIZED = true;
+        }
+        try {
+            // the first query is paged and counted, the second one has an invalid filter
+            String xml = "<wfs:GetFeature service='WFS' version='2.0.0' startIndex='5' count='20' "
+                    + "xmlns:wfs='http://www.opengis.net/wfs/2.0' "
+                    + "xmlns:fes='http://www.opengis.net/fes/2.0' "
+                    + "xmlns:cdf='http://www.opengis.net/cite/data'>"
+                    + " <wfs:Query typeNames='cdf:Fifteen'/>"
+                    + " <wfs:Query typeNames='cdf:Seven'>"
+                    + "  <fes:Filter><fes:PropertyIsEqualTo>"
+                    + "   <fes:ValueReference>notThere</fes:ValueReference>"
+                    + "   <fes:Literal>1</fes:Literal>"
+                    + "  </fes:PropertyIsEqualTo></fes:Filter>"
+                    + " </wfs:Query>"
+                    + "</wfs:GetFeature>";
+            Document doc = postAsDOM("wfs", xml);
+            assertEquals("ows:ExceptionReport", doc.getDocumentElement().getNodeName());
+
+            // the pending count has been cancelled
+            assertEquals(1, counts.size());
+            assertTrue(counts.get(0).isCancelled());
+
+            // and the pool is still usable
+            release.countDown();
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typenames=cdf:Fifteen&count=5");
+            XMLAssert.assertXpathEvaluatesTo("5", "count(//cdf:Fifteen)", doc);
+            assertEquals("15", doc.getDocumentElement().getAttribute("numberMatched"));
+        } finally {
+            release.countDown();
+            synchronized (GetFeature.class) {
+                GetFeature.COUNT_POOL = null;
+                GetFeature.COUNT_POOL_INITIALIZED = false;
+            }
+            pool.shutdown();
+        }
+    }
 }
@@ -154,4 +154,131 @@ public class TransactionListenerTest extends WFSTestSupport {
         
         assertEquals(2, listener.features.size());
     }
+
+    @Test
+    public void testBulkInsert() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(2);
+        getGeoServer().save(wfs);
+        try {
+            // three consecutive inserts, written in two batches
+            StringBuilder insert = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> ");
+            for (int i = 0; i < 3; i++) {
+                insert.append("<wfs:Insert><cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                        + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                        + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                        + "</gml:coordinates></gml:LineString></cgf:lineStringProperty>"
+                        + "<cgf:id>b000" + i + "</cgf:id></cgf:Lines></wfs:Insert>");
+            }
+            insert.append("</wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", insert.toString());
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+            assertEquals(4, listener.events.size());
+            assertEquals(TransactionEventType.PRE_INSERT, ((TransactionEvent) listener.events.get(0)).getType());
+            assertEquals(TransactionEventType.POST_INSERT, ((TransactionEvent) listener.events.get(1)).getType());
+            assertEquals(TransactionEventType.PRE_INSERT, ((TransactionEvent) listener.events.get(2)).getType());
+            assertEquals(TransactionEventType.POST_INSERT, ((TransactionEvent) listener.events.get(3)).getType());
+            // each feature in the pre and post insert events
+            assertEquals(6, listener.features.size());
+        } finally {
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+            revertLayer(CiteTestData.LINES);
+        }
+    }
+
+    @Test
+    public void testBulkInsertHandles() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(10);
+        getGeoServer().save(wfs);
+        try {
+            // inserts with different handles are not merged
+            StringBuilder insert = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> ");
+            String[] handles = new String[] { "first", "first", "second" };
+            for (int i = 0; i < handles.length; i++) {
+                insert.append("<wfs:Insert handle=\"" + handles[i] + "\"><cgf:Lines>"
+                        + "<cgf:lineStringProperty><gml:LineString>"
+                        + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                        + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                        + "</gml:coordinates></gml:LineString></cgf:lineStringProperty>"
+                        + "<cgf:id>h000" + i + "</cgf:id></cgf:Lines></wfs:Insert>");
+            }
+            insert.append("</wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", insert.toString());
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+            assertEquals(4, listener.events.size());
+            String[] sources = new String[] { "first", "first", "second", "second" };
+            for (int i = 0; i < sources.length; i++) {
+                TransactionEvent event = (TransactionEvent) listener.events.get(i);
+                assertEquals(sources[i], ((InsertElementType) event.getSource()).getHandle());
+            }
+        } finally {
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+            revertLayer(CiteTestData.LINES);
+        }
+    }
+
+    @Test
+    public void testBulkUpdateMerged() throws Exception {
+        revertLayer(CiteTestData.POLYGONS);
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(10);
+        getGeoServer().save(wfs);
+        try {
+            // two updates by id setting the same value, executed as one
+            postAsDOM("wfs", bulkUpdate("Polygons.0", "Polygons.1"));
+            assertEquals(2, listener.events.size());
+            assertEquals(TransactionEventType.PRE_UPDATE, ((TransactionEvent) listener.events.get(0)).getType());
+            assertEquals(TransactionEventType.POST_UPDATE, ((TransactionEvent) listener.events.get(1)).getType());
+            Feature updatedAfter = (Feature) listener.features.get(1);
+            assertEquals("t0003", updatedAfter.getProperty("id").getValue());
+        } finally {
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+            revertLayer(CiteTestData.POLYGONS);
+        }
+    }
+
+    @Test
+    public void testBulkUpdateOverlapping() throws Exception {
+        revertLayer(CiteTestData.POLYGONS);
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(10);
+        getGeoServer().save(wfs);
+        try {
+            // updates of the same feature are executed one by one, and counted as such
+            Document dom = postAsDOM("wfs", bulkUpdate("Polygons.0", "Polygons.0"));
+            assertEquals(4, listener.events.size());
+            assertEquals("2", dom.getElementsByTagName("wfs:totalUpdated").item(0)
+                    .getFirstChild().getNodeValue());
+        } finally {
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+            revertLayer(CiteTestData.POLYGONS);
+        }
+    }
+
+    String bulkUpdate(String... fids) {
+        StringBuilder update = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.1.0\" "
+                + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                + "xmlns:wfs=\"http://www.opengis.net/wfs\"> ");
+        for (String fid : fids) {
+            update.append("<wfs:Update typeName=\"cgf:Polygons\"><wfs:Property>"
+                    + "<wfs:Name>id</wfs:Name><wfs:Value>t0003</wfs:Value></wfs:Property>"
+                    + "<ogc:Filter><ogc:FeatureId fid=\"" + fid + "\"/></ogc:Filter></wfs:Update>");
+        }
+        update.append("</wfs:Transaction>");
+        return update.toString();
+    }
 }
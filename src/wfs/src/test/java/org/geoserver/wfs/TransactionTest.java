@@ -9,6 +9,7 @@ import static org.junit.Assert.assertTrue;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geoserver.data.test.CiteTestData;
+import org.geoserver.wfs.xml.IncrementalTransactionReader;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -414,4 +415,121 @@ public class TransactionTest extends WFSTestSupport {
               .getFirstChild().getNodeValue());
    }
 
+    @Test
+    public void testBulkInsertLoad() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(100);
+        getGeoServer().save(wfs);
+        try {
+            final int count = 1000;
+            StringBuilder insert = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> ");
+            for (int i = 0; i < count; i++) {
+                insert.append("<wfs:Insert><cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                        + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                        + "494475.71056415,5433016.8189323 " + (494982 + i) + ",5435041.95096618"
+                        + "</gml:coordinates></gml:LineString></cgf:lineStringProperty>"
+                        + "<cgf:id>b" + i + "</cgf:id></cgf:Lines></wfs:Insert>");
+            }
+            insert.append("</wfs:Transaction>");
+
+            TransactionStatistics statistics = TransactionStatistics.get();
+            long inserted = statistics.getInsertedCount();
+            long batches = statistics.getBatchCount();
+            Document dom = postAsDOM("wfs", insert.toString());
+            assertTrue(dom.getElementsByTagName("wfs:SUCCESS").getLength() != 0);
+            assertEquals(count, dom.getElementsByTagName("ogc:FeatureId").getLength());
+            assertEquals(inserted + count, statistics.getInsertedCount());
+            assertEquals(batches + count / 100, statistics.getBatchCount());
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=cgf:Lines");
+            assertEquals(count + 1, dom.getElementsByTagName("gml:featureMember").getLength());
+        } finally {
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testIncrementalInsert() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(10);
+        getGeoServer().save(wfs);
+        int threshold = IncrementalTransactionReader.INCREMENTAL_THRESHOLD;
+        IncrementalTransactionReader.INCREMENTAL_THRESHOLD = 1024;
+        try {
+            final int count = 25;
+            StringBuilder insert = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.1.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"><wfs:Insert>");
+            for (int i = 0; i < count; i++) {
+                insert.append("<cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                        + "<gml:posList>494475.71056415 5433016.8189323 " + (494982 + i)
+                        + " 5435041.95096618</gml:posList></gml:LineString></cgf:lineStringProperty>"
+                        + "<cgf:id>i" + i + "</cgf:id></cgf:Lines>");
+            }
+            insert.append("</wfs:Insert></wfs:Transaction>");
+
+            TransactionStatistics statistics = TransactionStatistics.get();
+            long batches = statistics.getBatchCount();
+            Document dom = postAsDOM("wfs", insert.toString());
+            XMLAssert.assertXpathEvaluatesTo(String.valueOf(count), "//wfs:totalInserted", dom);
+            assertEquals(batches + 3, statistics.getBatchCount());
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=cgf:Lines");
+            assertEquals(count + 1, dom.getElementsByTagName("gml:featureMember").getLength());
+
+            // a failure half way through rolls back the features already written
+            insert.insert(insert.length() - "</wfs:Transaction>".length(),
+                    "<wfs:Delete typeName=\"cgf:Unknown\"/>");
+            dom = postAsDOM("wfs", insert.toString());
+            assertEquals("ows:ExceptionReport", dom.getDocumentElement().getNodeName());
+            dom = getAsDOM("wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=cgf:Lines");
+            assertEquals(count + 1, dom.getElementsByTagName("gml:featureMember").getLength());
+        } finally {
+            IncrementalTransactionReader.INCREMENTAL_THRESHOLD = threshold;
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.setTransactionBatchSize(10);
+        getGeoServer().save(wfs);
+        int threshold = IncrementalTransactionReader.INCREMENTAL_THRESHOLD;
+        IncrementalTransactionReader.INCREMENTAL_THRESHOLD = 1024;
+        try {
+            // a chain of updates, each one depending on the previous one
+            StringBuilder update = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\">");
+            String previous = "t0002";
+            for (int i = 0; i < 95; i++) {
+                update.append("<wfs:Update typeName=\"cgf:Polygons\"><wfs:Property>"
+                        + "<wfs:Name>id</wfs:Name><wfs:Value>u" + i + "</wfs:Value></wfs:Property>"
+                        + "<ogc:Filter><ogc:PropertyIsEqualTo><ogc:PropertyName>id</ogc:PropertyName>"
+                        + "<ogc:Literal>" + previous + "</ogc:Literal></ogc:PropertyIsEqualTo>"
+                        + "</ogc:Filter></wfs:Update>");
+                previous = "u" + i;
+            }
+            update.append("</wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", update.toString());
+            assertTrue(dom.getElementsByTagName("wfs:SUCCESS").getLength() != 0);
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=cgf:Polygons");
+            assertEquals("u94", dom.getElementsByTagName("cgf:id").item(0).getFirstChild()
+                    .getNodeValue());
+        } finally {
+            IncrementalTransactionReader.INCREMENTAL_THRESHOLD = threshold;
+            wfs.setTransactionBatchSize(0);
+            getGeoServer().save(wfs);
+        }
+    }
 }
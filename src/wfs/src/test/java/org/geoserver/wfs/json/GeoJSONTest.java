@@ -13,6 +13,7 @@ import java.io.File;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.util.IOUtils;
@@ -128,6 +129,41 @@ public class GeoJSONTest extends WFSTestSupport {
     	assertEquals(geomArray.getString(0), "55.174");
     }
     
+    @Test
+    public void testNumDecimals() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = getWFS();
+        boolean before = wfs.isFeatureBounding();
+        wfs.setFeatureBounding(true);
+        gs.save(wfs);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName("sf", "AggregateGeoFeature");
+        try {
+            String request = "wfs?request=GetFeature&version=1.0.0&typename=sf:AggregateGeoFeature"
+                    + "&maxfeatures=3&outputformat=" + JSONType.json;
+            JSONObject fullPrecision = JSONObject.fromObject(getAsString(request))
+                    .getJSONArray("features").getJSONObject(1);
+
+            // the coordinates are rounded to the number of decimals of the feature type...
+            info.setNumDecimals(1);
+            getCatalog().save(info);
+            JSONObject rounded = JSONObject.fromObject(getAsString(request))
+                    .getJSONArray("features").getJSONObject(1);
+            JSONArray coordinates = rounded.getJSONObject("geometry").getJSONArray("coordinates")
+                    .getJSONArray(0).getJSONArray(0);
+            assertEquals("55.2", coordinates.getString(0));
+
+            // ... while the feature bounds keep their full precision
+            assertEquals(fullPrecision.getJSONObject("properties").getJSONArray("bbox"), 
+                    rounded.getJSONObject("properties").getJSONArray("bbox"));
+        } finally {
+            info = getCatalog().getFeatureTypeByName("sf", "AggregateGeoFeature");
+            info.setNumDecimals(0);
+            getCatalog().save(info);
+            wfs.setFeatureBounding(before);
+            gs.save(wfs);
+        }
+    }
+
     @Test
     public void testMixedCollection() throws Exception {
         String xml = "<wfs:GetFeature " + "service=\"WFS\" " + "outputFormat=\""+JSONType.json+"\" "
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest {
+
+    StringWriter writer;
+
+    GeoJSONWriter json;
+
+    @Before
+    public void setUp() {
+        writer = new StringWriter();
+        json = new GeoJSONWriter(writer);
+    }
+
+    /**
+     * Encodes the same contents with the json-lib based builder
+     */
+    String builderOutput(Geometry g) throws Exception {
+        StringWriter sw = new StringWriter();
+        new GeoJSONBuilder(sw).writeGeom(g);
+        return sw.toString();
+    }
+
+    @Test
+    public void testSameAsBuilder() throws Exception {
+        String[] wkts = new String[] { "POINT(1 2)", "LINESTRING(0 0, 1.5 -2.25, 3 0.1)",
+                "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+                "MULTIPOINT((0 0), (1e20 -1e-7))", "MULTILINESTRING((0 0, 1 1), (2 2, 3 3))",
+                "MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))" };
+        for (String wkt : wkts) {
+            Geometry g = new WKTReader().read(wkt);
+            writer.getBuffer().setLength(0);
+            new GeoJSONWriter(writer).writeGeom(g);
+            assertEquals(wkt, builderOutput(g), writer.toString());
+        }
+    }
+
+    @Test
+    public void testGeometryCollection() throws Exception {
+        json.writeGeom(new WKTReader().read("GEOMETRYCOLLECTION(POINT(1 2), LINESTRING(0 0, 1 1))"));
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[1,2]},"
+                + "{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]}]}", writer.toString());
+    }
+
+    @Test
+    public void testDecimals() throws Exception {
+        json = new GeoJSONWriter(writer, 3);
+        json.writeGeom(new WKTReader().read("LINESTRING(1.23456 -0.0001, 10.1 -7.9999, 0.05 3)"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[1.235,0],[10.1,-8],[0.05,3]]}",
+                writer.toString());
+    }
+
+    @Test
+    public void testBoundingBox() throws Exception {
+        json = new GeoJSONWriter(writer, 2);
+        json.object().writeBoundingBox(new Envelope(-1.005, 2.5, 0, 100)).endObject();
+        assertEquals("{\"bbox\":[-1.005,0,2.5,100]}", writer.toString());
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        json.object().key("s").value("a \"b\"\n</c>").key("i").value(Integer.valueOf(-12))
+                .key("d").value(Double.valueOf(1.5)).key("b").value(Boolean.TRUE).key("n")
+                .value((Object) null).key("a").array().value(1).value(2.0).endArray()
+                .endObject();
+        assertEquals("{\"s\":\"a \\\"b\\\"\\n<\\/c>\",\"i\":-12,\"d\":1.5,\"b\":true,"
+                + "\"n\":null,\"a\":[1,2]}", writer.toString());
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+        json.object().key("date").value(date).endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\"}", writer.toString());
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -28,6 +29,7 @@ import java.util.zip.ZipInputStream;
 import javax.xml.namespace.QName;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.MetadataMap;
@@ -35,6 +37,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.feature.RetypingFeatureCollection;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.Operation;
 import org.geoserver.test.TestSetup;
@@ -47,6 +50,7 @@ import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.FeatureCollection;
 import org.junit.Before;
 import org.junit.Test;
@@ -212,6 +216,49 @@ public class ShapeZipTest extends WFSTestSupport {
         checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
     }
 
+    @Test
+    public void testSameAsShapefileDataStore() throws Exception {
+        SimpleFeatureCollection fc = getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures();
+        byte[] zip = writeOut(fc);
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            entries.put(entry.getName(), IOUtils.toByteArray(zis));
+        }
+
+        // write the same features with the shapefile datastore
+        File dir = File.createTempFile("shpzip", "test");
+        dir.delete();
+        dir.mkdir();
+        try {
+            SimpleFeatureCollection remapped = new ShapeZipOutputFormat().remapCollectionSchema(fc,
+                    null);
+            ShapefileDataStore sfds = new ShapefileDataStore(new File(dir, "BasicPolygons.shp")
+                    .toURI().toURL());
+            sfds.setStringCharset(Charset.forName("ISO-8859-1"));
+            sfds.createSchema(remapped.getSchema());
+            SimpleFeatureStore store = (SimpleFeatureStore) sfds.getFeatureSource();
+            store.addFeatures(new RetypingFeatureCollection(remapped, store.getSchema()));
+            sfds.dispose();
+
+            for (String extension : new String[] { "shp", "shx", "prj" }) {
+                byte[] expected = FileUtils.readFileToByteArray(new File(dir, "BasicPolygons."
+                        + extension));
+                assertTrue(extension, Arrays.equals(expected, entries.get("BasicPolygons."
+                        + extension)));
+            }
+            // the dbf carries the date of last update in bytes 1 to 3
+            byte[] expected = FileUtils.readFileToByteArray(new File(dir, "BasicPolygons.dbf"));
+            byte[] actual = entries.get("BasicPolygons.dbf");
+            assertEquals(expected.length, actual.length);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 4, expected.length),
+                    Arrays.copyOfRange(actual, 4, actual.length)));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
     @Test
     public void testLongNames() throws Exception {
         byte[] zip = writeOut(getFeatureSource(LONGNAMES).getFeatures());
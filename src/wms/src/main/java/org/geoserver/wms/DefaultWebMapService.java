@@ -8,7 +8,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import net.opengis.wfs.FeatureCollectionType;
@@ -702,15 +701,41 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      * @return
      */
     public static ExecutorService getRenderingPool() {
-        if(USE_GLOBAL_RENDERING_POOL && RENDERING_POOL == null) {
+        if (!USE_GLOBAL_RENDERING_POOL) {
+            return RENDERING_POOL;
+        }
+
+        // pick up the current configuration, if any
+        int poolSize = 0;
+        int queueSize = 0;
+        long queueTimeout = 0;
+        WMS wms = WMS.get();
+        if (wms != null && wms.getServiceInfo() != null) {
+            poolSize = wms.getRenderingPoolSize();
+            queueSize = wms.getRenderingPoolQueueSize();
+            queueTimeout = wms.getRenderingPoolQueueTimeout();
+        }
+
+        ExecutorService pool = RENDERING_POOL;
+        if (pool == null || (pool instanceof RenderingExecutor
+                && !((RenderingExecutor) pool).isConfiguredAs(poolSize, queueSize, queueTimeout))) {
             synchronized (DefaultWebMapService.class) {
-                if(RENDERING_POOL == null) {
-                    RENDERING_POOL = Executors.newCachedThreadPool();
+                pool = RENDERING_POOL;
+                if (pool == null || (pool instanceof RenderingExecutor && !((RenderingExecutor) pool)
+                        .isConfiguredAs(poolSize, queueSize, queueTimeout))) {
+                    if (pool != null) {
+                        // other requests might have just got the old pool, let it drain
+                        ((RenderingExecutor) pool).drain();
+                    }
+                    RenderingExecutor executor = new RenderingExecutor(poolSize, queueSize,
+                            queueTimeout);
+                    executor.register();
+                    RENDERING_POOL = pool = executor;
                 }
             }
         }
-        
-        return RENDERING_POOL;
+
+        return pool;
     }
 
     public void destroy() throws Exception {
@@ -0,0 +1,490 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessLimits;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.xml.IncrementalTransactionReader;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Caches the time and elevation domains of vector layers, which are otherwise computed by
+ * visiting the whole feature source every time a capabilities document is built or the current
+ * time is looked up.
+ * <p>
+ * The freshness of the cached domains is controlled, in seconds, by the
+ * {@link #TTL_KEY dimensionDomainCacheTTL} key in the feature type metadata, falling back on the
+ * DIMENSION_DOMAIN_CACHE_TTL variable. Caching is disabled when neither is set to a positive value.
+ * Once a domain is older than its time to live the old one keeps being served while a new one is
+ * computed in the background. Domains are dropped as soon as the layer or its store are modified,
+ * and when a WFS transaction modifying the layer data is committed.
+ * </p>
+ * <p>
+ * Domains are computed with the access limits of the user asking for them, and cached
+ * separately for each set of limits, so that users with different limits never share them.
+ * </p>
+ * <p>
+ * Time domains are held as runs of evenly spaced values (start, period and count), which takes
+ * a fraction of the memory of the full list of dates for regularly sampled data.
+ * </p>
+ */
+public class DimensionDomainCache implements CatalogListener, TransactionPlugin,
+        IncrementalTransactionReader.ElementsIndependent, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(DimensionDomainCache.class);
+
+    /**
+     * Feature type metadata key holding the time to live of the cached domains, in seconds
+     */
+    public static final String TTL_KEY = "dimensionDomainCacheTTL";
+
+    /**
+     * Transaction extended property holding the names of the layers modified by the transaction
+     */
+    static final String MODIFIED_LAYERS = "DimensionDomainCache.modifiedLayers";
+
+    /**
+     * Computes a domain when missing or stale
+     */
+    public static interface Loader<T> {
+        TreeSet<T> load() throws IOException;
+    }
+
+    /**
+     * A cached domain
+     */
+    static class Entry {
+        /**
+         * The dimension configuration the domain was computed with
+         */
+        final String signature;
+
+        /**
+         * The access limits the domain was computed with, null if there were none
+         */
+        final AccessLimits limits;
+
+        final Object domain;
+
+        final long created;
+
+        volatile boolean refreshing;
+
+        Entry(String signature, AccessLimits limits, Object domain, long created) {
+            this.signature = signature;
+            this.limits = limits;
+            this.domain = domain;
+            this.created = created;
+        }
+    }
+
+    /**
+     * A run of evenly spaced times
+     */
+    static class TimeRun {
+        final long start;
+
+        final long period;
+
+        int count;
+
+        TimeRun(long start, long period, int count) {
+            this.start = start;
+            this.period = period;
+            this.count = count;
+        }
+    }
+
+    final Catalog catalog;
+
+    final long defaultTimeToLive;
+
+    final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * bumped at each invalidation, domains computed across an invalidation are not cached
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    ExecutorService refresher;
+
+    public DimensionDomainCache(Catalog catalog) {
+        this(catalog, ttlProperty());
+    }
+
+    /**
+     * Builds a cache
+     *
+     * @param catalog The catalog to listen to
+     * @param defaultTimeToLive Time to live of the domains in milliseconds, used for the layers
+     *        not specifying their own
+     */
+    public DimensionDomainCache(Catalog catalog, long defaultTimeToLive) {
+        this.catalog = catalog;
+        this.defaultTimeToLive = defaultTimeToLive;
+        catalog.addListener(this);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Dimension domain refresher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        refresher = executor;
+    }
+
+    static long ttlProperty() {
+        String ttl = GeoServerExtensions.getProperty("DIMENSION_DOMAIN_CACHE_TTL");
+        if (ttl != null) {
+            try {
+                return Long.parseLong(ttl.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid DIMENSION_DOMAIN_CACHE_TTL value " + ttl
+                        + ", dimension domain caching disabled");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the time to live of the domains of the specified layer in milliseconds, zero or
+     * negative if they should not be cached
+     */
+    long getTimeToLive(FeatureTypeInfo typeInfo) {
+        Object value = typeInfo.getMetadata().get(TTL_KEY);
+        if (value != null) {
+            try {
+                return (long) (Double.parseDouble(value.toString().trim()) * 1000);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + TTL_KEY + " value " + value + " for layer "
+                        + typeInfo.getPrefixedName());
+            }
+        }
+        return defaultTimeToLive;
+    }
+
+    /**
+     * Returns whether the domains of the specified layer are cached
+     */
+    public boolean isCached(FeatureTypeInfo typeInfo) {
+        return getTimeToLive(typeInfo) > 0;
+    }
+
+    /**
+     * Returns the domain of the specified dimension, from the cache if possible. The returned set
+     * can be freely modified by the caller.
+     * <p>
+     * The loader must compute the domain through the specified feature type, so that the access
+     * limits of the user it has been secured for, if any, are applied.
+     * </p>
+     */
+    public <T> TreeSet<T> getDomain(final FeatureTypeInfo typeInfo, final String dimensionName,
+            DimensionInfo dimension, final Loader<T> loader) throws IOException {
+        long timeToLive = getTimeToLive(typeInfo);
+        if (timeToLive <= 0 || typeInfo.getId() == null) {
+            return loader.load();
+        }
+
+        final AccessLimits limits = accessLimits(typeInfo);
+        final String key = key(typeInfo.getId(), dimensionName, limits);
+        final String signature = signature(dimension);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.signature.equals(signature) && sameLimits(entry.limits, limits)) {
+            hits.incrementAndGet();
+            if (System.currentTimeMillis() - entry.created > timeToLive && !entry.refreshing) {
+                entry.refreshing = true;
+                final Entry stale = entry;
+                refresher.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            load(key, signature, limits, loader);
+                        } catch (Exception e) {
+                            stale.refreshing = false;
+                            LOGGER.log(Level.WARNING, "Failed to refresh the " + dimensionName
+                                    + " domain of " + typeInfo.getPrefixedName(), e);
+                        }
+                    }
+                });
+            }
+            return decode(entry.domain);
+        }
+
+        misses.incrementAndGet();
+        return decode(load(key, signature, limits, loader).domain);
+    }
+
+    <T> Entry load(String key, String signature, AccessLimits limits, Loader<T> loader)
+            throws IOException {
+        long generation = this.generation.get();
+        TreeSet<T> domain = loader.load();
+        Entry entry = new Entry(signature, limits, encode(domain), System.currentTimeMillis());
+        entries.put(key, entry);
+        if (generation != this.generation.get()) {
+            // invalidated while loading, the domain might be stale already
+            entries.remove(key, entry);
+        }
+        return entry;
+    }
+
+    static String key(String id, String dimensionName, AccessLimits limits) {
+        return key(id, dimensionName) + "/" + (limits == null ? "" : limits.hashCode());
+    }
+
+    static String key(String id, String dimensionName) {
+        return id + "/" + dimensionName;
+    }
+
+    /**
+     * Returns the access limits the feature type has been secured with, null if it's not secured
+     * or has no limits
+     */
+    static AccessLimits accessLimits(FeatureTypeInfo typeInfo) {
+        if (typeInfo instanceof SecuredFeatureTypeInfo) {
+            return ((SecuredFeatureTypeInfo) typeInfo).getPolicy().getLimits();
+        }
+        return null;
+    }
+
+    static boolean sameLimits(AccessLimits l1, AccessLimits l2) {
+        return l1 == null ? l2 == null : l1.equals(l2);
+    }
+
+    static String signature(DimensionInfo dimension) {
+        return dimension.getAttribute() + "/" + dimension.getEndAttribute() + "/"
+                + dimension.getPresentation() + "/" + dimension.getResolution();
+    }
+
+    /**
+     * Packs times into runs of evenly spaced values, other domains are copied
+     */
+    static Object encode(TreeSet<?> domain) {
+        if (domain == null) {
+            return null;
+        }
+        if (domain.isEmpty() || !(domain.first() instanceof Date)) {
+            return new TreeSet<Object>(domain);
+        }
+
+        List<TimeRun> runs = new ArrayList<TimeRun>();
+        TimeRun run = null;
+        for (Iterator<?> it = domain.iterator(); it.hasNext();) {
+            long time = ((Date) it.next()).getTime();
+            if (run == null) {
+                run = new TimeRun(time, 0, 1);
+            } else if (run.count == 1 && run.period == 0) {
+                runs.remove(runs.size() - 1);
+                run = new TimeRun(run.start, time - run.start, 2);
+            } else if (run.start + run.period * run.count == time) {
+                run.count++;
+                continue;
+            } else {
+                run = new TimeRun(time, 0, 1);
+            }
+            runs.add(run);
+        }
+        return runs.toArray(new TimeRun[runs.size()]);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> TreeSet<T> decode(Object domain) {
+        if (domain == null) {
+            return null;
+        }
+        if (domain instanceof TreeSet) {
+            return new TreeSet<T>((TreeSet<T>) domain);
+        }
+
+        TreeSet<Date> result = new TreeSet<Date>();
+        for (TimeRun run : (TimeRun[]) domain) {
+            for (int i = 0; i < run.count; i++) {
+                result.add(new Date(run.start + run.period * i));
+            }
+        }
+        return (TreeSet<T>) result;
+    }
+
+    /**
+     * Drops the cached domains of the specified feature type
+     */
+    public void invalidate(FeatureTypeInfo typeInfo) {
+        generation.incrementAndGet();
+        String prefix = key(typeInfo.getId(), "");
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached domains
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Number of domains served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of domains that had to be computed on the spot
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do, new layers are not cached yet
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        handleChange(event.getSource());
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        handleChange(event.getSource());
+    }
+
+    void handleChange(CatalogInfo source) {
+        if (source instanceof FeatureTypeInfo) {
+            invalidate((FeatureTypeInfo) source);
+        } else if (source instanceof StoreInfo) {
+            invalidateAll();
+        }
+    }
+
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    /**
+     * Collects the layers modified by the transaction, their domains are dropped once it's
+     * committed
+     */
+    @SuppressWarnings("unchecked")
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        TransactionEventType type = event.getType();
+        if (type != TransactionEventType.POST_INSERT && type != TransactionEventType.POST_UPDATE
+                && type != TransactionEventType.PRE_DELETE) {
+            return;
+        }
+        TransactionType request = event.getRequest();
+        if (request == null) {
+            invalidate(event.getLayerName());
+            return;
+        }
+        Map<Object, Object> properties = request.getExtendedProperties();
+        Set<QName> layers = (Set<QName>) properties.get(MODIFIED_LAYERS);
+        if (layers == null) {
+            layers = new HashSet<QName>();
+            properties.put(MODIFIED_LAYERS, layers);
+        }
+        layers.add(event.getLayerName());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        Set<QName> layers = (Set<QName>) request.getExtendedProperties().remove(MODIFIED_LAYERS);
+        if (!committed || layers == null) {
+            return;
+        }
+        for (QName name : layers) {
+            invalidate(name);
+        }
+    }
+
+    /**
+     * Drops the domains of the specified layer, or all of them if the layer is not known
+     */
+    void invalidate(QName name) {
+        FeatureTypeInfo typeInfo = name == null ? null : catalog.getResourceByName(
+                name.getNamespaceURI(), name.getLocalPart(), FeatureTypeInfo.class);
+        if (typeInfo != null) {
+            invalidate(typeInfo);
+        } else {
+            invalidateAll();
+        }
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    public void destroy() throws Exception {
+        catalog.removeListener(this);
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "DimensionDomainCache[entries=" + entries.size() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + "]";
+    }
+}
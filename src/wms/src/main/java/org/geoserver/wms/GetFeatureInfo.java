@@ -16,6 +16,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +36,10 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ProjectionPolicy;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.RequestContextCallable;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.featureinfo.FeatureCollectionDecorator;
 import org.geotools.coverage.GridSampleDimension;
@@ -39,8 +51,10 @@ import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.ows.Layer;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.FilteringFeatureCollection;
 import org.geotools.data.store.ReTypingFeatureCollection;
 import org.geotools.data.wms.WebMapServer;
@@ -100,6 +114,12 @@ import com.vividsolutions.jts.geom.Polygon;
 
 /**
  * WMS GetFeatureInfo operation
+ * <p>
+ * When the WMS_FEATURE_INFO_THREADS variable is set the query layers are identified in parallel,
+ * each one limited to {@link WMS#getFeatureInfoLayerTimeout()}: the layers not answering in time
+ * are dropped from the response, with a HTTP warning header noting it. The time spent on each
+ * layer is recorded in {@link GetFeatureInfoRequest#getLayerTimes()}.
+ * </p>
  * 
  * @author Gabriel Roldan
  */
@@ -107,6 +127,13 @@ public class GetFeatureInfo {
 
     private static final Logger LOGGER = Logging.getLogger(GetFeatureInfo.class);
 
+    /**
+     * Threads identifying the query layers, see {@link #getLayerPool()}
+     */
+    static ExecutorService LAYER_POOL;
+
+    static boolean LAYER_POOL_INITIALIZED;
+
     private WMS wms;
 
     public GetFeatureInfo(final WMS wms) {
@@ -181,6 +208,296 @@ public class GetFeatureInfo {
     private List<FeatureCollection> execute(GetFeatureInfoRequest request, Style[] styles,
             Filter[] filters) throws Exception {
 
+        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
+        ExecutorService pool = getLayerPool();
+        if (pool != null && requestedLayers.size() > 1) {
+            return executeParallel(request, styles, filters, pool);
+        }
+
+        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
+        int maxFeatures = request.getFeatureCount();
+        for (int i = 0; i < requestedLayers.size(); i++) {
+            long start = System.currentTimeMillis();
+            LayerResult result = identify(request, styles, filters, i, maxFeatures);
+            request.getLayerTimes().put(requestedLayers.get(i).getName(),
+                    System.currentTimeMillis() - start);
+
+            // don't return more than FEATURE_COUNT
+            int size = collect(request, result, results);
+            if (size > 0) {
+                maxFeatures -= size;
+                if (maxFeatures <= 0) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Identifies the query layers concurrently, and then gathers the results in layer order
+     * applying the same FEATURE_COUNT accounting as the serial case. Layers not answering within
+     * {@link WMS#getFeatureInfoLayerTimeout()} are dropped from the response and their queries
+     * interrupted.
+     * <p>
+     * The timeout is measured from the moment the layers are submitted, not from the moment each
+     * one starts running, and it's shared among all the layers: it bounds how long the request
+     * waits overall, time spent waiting for a pool thread included.
+     * </p>
+     */
+    @SuppressWarnings("rawtypes")
+    private List<FeatureCollection> executeParallel(GetFeatureInfoRequest request,
+            Style[] styles, Filter[] filters, ExecutorService pool) throws Exception {
+        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
+        final long timeout = wms.getFeatureInfoLayerTimeout();
+
+        // each layer is queried with the full FEATURE_COUNT, as we don't know yet how many
+        // features the previous ones will return
+        int maxFeatures = request.getFeatureCount();
+        List<Future<LayerResult>> futures = new ArrayList<Future<LayerResult>>();
+        for (int i = 0; i < requestedLayers.size(); i++) {
+            futures.add(pool.submit(new LayerTask(request, styles, filters, i, maxFeatures)));
+        }
+
+        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < requestedLayers.size(); i++) {
+                String layerName = requestedLayers.get(i).getName();
+                LayerResult result;
+                try {
+                    if (timeout > 0) {
+                        long wait = Math.max(0, start + timeout - System.currentTimeMillis());
+                        result = futures.get(i).get(wait, TimeUnit.MILLISECONDS);
+                    } else {
+                        result = futures.get(i).get();
+                    }
+                } catch (TimeoutException e) {
+                    request.getLayerTimes().put(layerName, System.currentTimeMillis() - start);
+                    layerTimedOut(layerName, timeout);
+                    continue;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                request.getLayerTimes().put(layerName, result.time);
+
+                // the previous layers used part of FEATURE_COUNT, query again with what's left
+                if (result.size > maxFeatures) {
+                    result = identify(request, styles, filters, i, maxFeatures);
+                }
+                int size = collect(request, result, results);
+                if (size > 0) {
+                    maxFeatures -= size;
+                    if (maxFeatures <= 0) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            // stop the queries still running, their results would be discarded anyways
+            for (Future<LayerResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Notes in the log and in the response headers that a query layer has been dropped
+     */
+    private void layerTimedOut(String layerName, long timeout) {
+        String message = "Layer " + layerName + " skipped, it did not answer within " + timeout
+                + "ms";
+        LOGGER.warning("GetFeatureInfo: " + message);
+        Request owsRequest = Dispatcher.REQUEST.get();
+        if (owsRequest != null && owsRequest.getHttpResponse() != null) {
+            owsRequest.getHttpResponse().addHeader("Warning",
+                    "199 - \"" + message.replace('"', '\'') + "\"");
+        }
+    }
+
+    /**
+     * Adds the collections of a layer to the results
+     *
+     * @return The number of features counting against FEATURE_COUNT
+     */
+    @SuppressWarnings("rawtypes")
+    private int collect(GetFeatureInfoRequest request, LayerResult result,
+            List<FeatureCollection> results) {
+        if (!result.counted) {
+            results.addAll(result.collections);
+            return 0;
+        }
+
+        int total = 0;
+        for (FeatureCollection collection : result.collections) {
+            int size = result.size >= 0 ? result.size : collection.size();
+            if (size != 0) {
+                // HACK HACK HACK
+                // For complex features, we need the targetCrs and version in scenario where we have
+                // a top level feature that does not contain a geometry(therefore no crs) and has a
+                // nested feature that contains geometry as its property.Furthermore it is possible
+                // for each nested feature to have different crs hence we need to reproject on each
+                // feature accordingly.
+                // This is a Hack, this information should not be passed through feature type
+                // appschema will need to remove this information from the feature type again
+                if (!(collection instanceof SimpleFeatureCollection)) {
+                    collection.getSchema().getUserData()
+                            .put("targetCrs", request.getGetMapRequest().getCrs());
+                    collection.getSchema().getUserData()
+                            .put("targetVersion", "wms:getfeatureinfo");
+                }
+
+                results.add(collection);
+                total += size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The features found in a single query layer
+     */
+    @SuppressWarnings("rawtypes")
+    static class LayerResult {
+        List<FeatureCollection> collections = new ArrayList<FeatureCollection>(1);
+
+        /**
+         * Whether the features count against FEATURE_COUNT, cascaded layers do not
+         */
+        boolean counted = true;
+
+        /**
+         * The number of features, or -1 if not computed yet
+         */
+        int size = -1;
+
+        /**
+         * Time spent identifying the layer, in milliseconds
+         */
+        long time;
+    }
+
+    /**
+     * Identifies a query layer in a pooled thread, running with the security and OWS context of
+     * the request thread
+     */
+    class LayerTask extends RequestContextCallable<LayerResult> {
+        GetFeatureInfoRequest request;
+
+        Style[] styles;
+
+        Filter[] filters;
+
+        int index;
+
+        int maxFeatures;
+
+        LayerTask(GetFeatureInfoRequest request, Style[] styles, Filter[] filters, int index,
+                int maxFeatures) {
+            this.request = request;
+            this.styles = styles;
+            this.filters = filters;
+            this.index = index;
+            this.maxFeatures = maxFeatures;
+        }
+
+        @SuppressWarnings("rawtypes")
+        protected LayerResult callInContext() throws Exception {
+            long start = System.currentTimeMillis();
+            LayerResult result = identify(request, styles, filters, index, maxFeatures);
+            if (result.counted) {
+                // run the query here rather than in the request thread, and keep the
+                // features around so that the response encoding does not run it again
+                for (int i = 0; i < result.collections.size(); i++) {
+                    FeatureCollection collection = result.collections.get(i);
+                    if (collection instanceof SimpleFeatureCollection) {
+                        collection = load((SimpleFeatureCollection) collection);
+                        result.collections.set(i, collection);
+                    }
+                    result.size = Math.max(result.size, 0) + collection.size();
+                }
+            }
+            result.time = System.currentTimeMillis() - start;
+            return result;
+        }
+    }
+
+    /**
+     * Reads the features in memory, giving up as soon as the thread is interrupted
+     */
+    static SimpleFeatureCollection load(SimpleFeatureCollection collection)
+            throws InterruptedException {
+        ListFeatureCollection result = new ListFeatureCollection(collection.getSchema());
+        SimpleFeatureIterator it = collection.features();
+        try {
+            while (it.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("GetFeatureInfo layer query interrupted");
+                }
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the thread pool used to identify the query layers in parallel, or null if they
+     * should be identified one after the other in the request thread. The pool size is set by
+     * the WMS_FEATURE_INFO_THREADS variable, parallel identification is disabled when not set or
+     * zero.
+     */
+    public static synchronized ExecutorService getLayerPool() {
+        if (!LAYER_POOL_INITIALIZED) {
+            LAYER_POOL_INITIALIZED = true;
+            int threads = 0;
+            String value = GeoServerExtensions.getProperty("WMS_FEATURE_INFO_THREADS");
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid WMS_FEATURE_INFO_THREADS value " + value
+                            + ", parallel GetFeatureInfo disabled");
+                }
+            }
+            if (threads > 0) {
+                LAYER_POOL = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "GetFeatureInfo " + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        return LAYER_POOL;
+    }
+
+    /**
+     * Shuts down the layer thread pool, a new one will be created on the next request if needed
+     */
+    public static synchronized void disposeLayerPool() {
+        if (LAYER_POOL != null) {
+            LAYER_POOL.shutdownNow();
+            LAYER_POOL = null;
+        }
+        LAYER_POOL_INITIALIZED = false;
+    }
+
+    /**
+     * Identifies the features of a single query layer
+     */
+    @SuppressWarnings("rawtypes")
+    private LayerResult identify(GetFeatureInfoRequest request, Style[] styles,
+            Filter[] filters, int i, int maxFeatures) throws Exception {
+
         final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
         // delegate to subclasses the hard work
         final int x = request.getXPixel();
@@ -197,135 +514,105 @@ public class GetFeatureInfo {
                 getMapReq.getCrs());
         final double scaleDenominator = RendererUtilities.calculateOGCScale(bbox, width, null);
         final List<Object> elevations = request.getGetMapRequest().getElevation();
-		final List<Object> times = request.getGetMapRequest().getTime();
+        final List<Object> times = request.getGetMapRequest().getTime();
         final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
 
-        List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
+        LayerResult result = new LayerResult();
+        final MapLayerInfo layer = requestedLayers.get(i);
 
-        int maxFeatures = request.getFeatureCount();
-        for (int i = 0; i < requestedLayers.size(); i++) {
-            final MapLayerInfo layer = requestedLayers.get(i);
-            
-            // look at the property names
-            String[] names;
-            List<List<String>> propertyNames = request.getPropertyNames();
-            if(propertyNames == null || propertyNames.size() == 0 || propertyNames.get(i) == null) {
-                names = Query.ALL_NAMES;
-            } else {
-                List<String> layerPropNames = propertyNames.get(i);
-                names = (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
-            }
+        // look at the property names
+        String[] names;
+        List<List<String>> propertyNames = request.getPropertyNames();
+        if(propertyNames == null || propertyNames.size() == 0 || propertyNames.get(i) == null) {
+            names = Query.ALL_NAMES;
+        } else {
+            List<String> layerPropNames = propertyNames.get(i);
+            names = (String[]) layerPropNames.toArray(new String[layerPropNames.size()]);
+        }
 
-            // check cascaded WMS first, it's a special case
-            if (layer.getType() == MapLayerInfo.TYPE_WMS) {
-                List<FeatureCollection> cascadedResults;
-                cascadedResults = handleGetFeatureInfoCascade(request, maxFeatures, layer);
-                if (cascadedResults != null) {
-                    for (FeatureCollection fc : cascadedResults) {
-                        results.add(selectProperties(fc, names));
-                    }
+        // check cascaded WMS first, it's a special case
+        if (layer.getType() == MapLayerInfo.TYPE_WMS) {
+            result.counted = false;
+            List<FeatureCollection> cascadedResults;
+            cascadedResults = handleGetFeatureInfoCascade(request, maxFeatures, layer);
+            if (cascadedResults != null) {
+                for (FeatureCollection fc : cascadedResults) {
+                    result.collections.add(selectProperties(fc, names));
                 }
-                continue;
-            } 
-            final Style style = styles[i];
-            // ok, internally rendered layer then, we check the style to see what's active
-            final List<Rule> rules = getActiveRules(style, scaleDenominator);
-            if (rules.size() == 0) {
-                continue;
             }
-            
-            FeatureCollection collection = null;
-            if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
-                final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-				collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
-                        requestedCRS, width, height, bbox, ff, results, i, layer, rules, maxFeatures,
-                        times, elevations, names);
-            } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
-                final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
-                final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) cinfo
-                        .getGridCoverageReader(new NullProgressListener(),
-                                GeoTools.getDefaultHints());
-                
-                
-                // set the requested position in model space for this request
-                final Coordinate middle = WMS.pixelToWorld(x, y, bbox, width, height);
-                DirectPosition position = new DirectPosition2D(requestedCRS, middle.x, middle.y);
-
-                // change from request crs to coverage crs in order to compute a minimal request
-                // area,
-                // TODO this code need to be made much more robust
-                if (requestedCRS != null) {
-                    final CoordinateReferenceSystem targetCRS;
-                    if(cinfo.getProjectionPolicy() == ProjectionPolicy.NONE) {
-                        targetCRS = cinfo.getNativeCRS();
-                    } else {
-                        targetCRS = cinfo.getCRS();
-                    }
-                    final TransformedDirectPosition arbitraryToInternal = new TransformedDirectPosition(
-                            requestedCRS, targetCRS, new Hints(Hints.LENIENT_DATUM_SHIFT,
-                                    Boolean.TRUE));
-                    try {
-                        arbitraryToInternal.transform(position);
-                    } catch (TransformException exception) {
-                        throw new CannotEvaluateException("Unable to answer the geatfeatureinfo",
-                                exception);
-                    }
-                    position = arbitraryToInternal;
+            return result;
+        }
+        final Style style = styles[i];
+        // ok, internally rendered layer then, we check the style to see what's active
+        final List<Rule> rules = getActiveRules(style, scaleDenominator);
+        if (rules.size() == 0) {
+            return result;
+        }
+
+        FeatureCollection collection = null;
+        if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
+            final Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
+            collection = identifyVectorLayer(filters, x, y, buffer, viewParam,
+                    requestedCRS, width, height, bbox, ff, i, layer, rules, maxFeatures,
+                    times, elevations, names);
+        } else if (layer.getType() == MapLayerInfo.TYPE_RASTER) {
+            final CoverageInfo cinfo = requestedLayers.get(i).getCoverage();
+            final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) cinfo
+                    .getGridCoverageReader(new NullProgressListener(),
+                            GeoTools.getDefaultHints());
+
+            // set the requested position in model space for this request
+            final Coordinate middle = WMS.pixelToWorld(x, y, bbox, width, height);
+            DirectPosition position = new DirectPosition2D(requestedCRS, middle.x, middle.y);
+
+            // change from request crs to coverage crs in order to compute a minimal request
+            // area,
+            // TODO this code need to be made much more robust
+            if (requestedCRS != null) {
+                final CoordinateReferenceSystem targetCRS;
+                if(cinfo.getProjectionPolicy() == ProjectionPolicy.NONE) {
+                    targetCRS = cinfo.getNativeCRS();
+                } else {
+                    targetCRS = cinfo.getCRS();
                 }
-                // check that the provided point is inside the bbox for this coverage
-                if (!reader.getOriginalEnvelope().contains(position)) {
-                    continue;
+                final TransformedDirectPosition arbitraryToInternal = new TransformedDirectPosition(
+                        requestedCRS, targetCRS, new Hints(Hints.LENIENT_DATUM_SHIFT,
+                                Boolean.TRUE));
+                try {
+                    arbitraryToInternal.transform(position);
+                } catch (TransformException exception) {
+                    throw new CannotEvaluateException("Unable to answer the geatfeatureinfo",
+                            exception);
                 }
-
-                // read from the request
-                GeneralParameterValue[] parameters = wms.getWMSReadParameters(request.getGetMapRequest(), 
-                        requestedLayers.get(i), filters[i], times, elevations, reader, true);
-                collection = identifyRasterLayer(reader, position, parameters, cinfo, getMapReq);
-                
-                // apply attribute selection
-                collection = selectProperties(collection, names);
-            } else {
-                LOGGER.log(Level.SEVERE,
-                        "Can't perform feature info " + "requests on " + layer.getName()
-                                + ", layer type not supported");
+                position = arbitraryToInternal;
+            }
+            // check that the provided point is inside the bbox for this coverage
+            if (!reader.getOriginalEnvelope().contains(position)) {
+                return result;
             }
-            
 
-            if (collection != null) {
-                if (!(collection.getSchema() instanceof SimpleFeatureType)) {
-                    //put wrapper around it with layer name
-                    Name name = new NameImpl (layer.getFeature().getNamespace().getName(), layer.getFeature().getName());                
-                    collection = new FeatureCollectionDecorator(name, collection);
-                }
-                
-                int size = collection.size();
-                if(size != 0) {
-
-                    // HACK HACK HACK
-                    // For complex features, we need the targetCrs and version in scenario where we have
-                    // a top level feature that does not contain a geometry(therefore no crs) and has a
-                    // nested feature that contains geometry as its property.Furthermore it is possible
-                    // for each nested feature to have different crs hence we need to reproject on each
-                    // feature accordingly.
-                    // This is a Hack, this information should not be passed through feature type
-                    // appschema will need to remove this information from the feature type again
-                	if (! (collection instanceof SimpleFeatureCollection)) {
-                       collection.getSchema().getUserData().put("targetCrs", request.getGetMapRequest().getCrs());
-                       collection.getSchema().getUserData().put("targetVersion", "wms:getfeatureinfo");
-                       
-                    }
-                	
-                    results.add(collection);
-                    
-                    // don't return more than FEATURE_COUNT
-                    maxFeatures -= size;
-                    if(maxFeatures <= 0) {
-                        break;
-                    }
-                }
+            // read from the request
+            GeneralParameterValue[] parameters = wms.getWMSReadParameters(request.getGetMapRequest(),
+                    requestedLayers.get(i), filters[i], times, elevations, reader, true);
+            collection = identifyRasterLayer(reader, position, parameters, cinfo, getMapReq);
+
+            // apply attribute selection
+            collection = selectProperties(collection, names);
+        } else {
+            LOGGER.log(Level.SEVERE,
+                    "Can't perform feature info " + "requests on " + layer.getName()
+                            + ", layer type not supported");
+        }
+
+        if (collection != null) {
+            if (!(collection.getSchema() instanceof SimpleFeatureType)) {
+                //put wrapper around it with layer name
+                Name name = new NameImpl (layer.getFeature().getNamespace().getName(), layer.getFeature().getName());
+                collection = new FeatureCollectionDecorator(name, collection);
             }
+            result.collections.add(collection);
         }
-        return results;
+        return result;
     }
 
     private FeatureCollection selectProperties(FeatureCollection collection, String[] names) throws IOException {
@@ -409,7 +696,7 @@ public class GetFeatureInfo {
             final int x, final int y, final int buffer, final Map<String, String> viewParams,
             final CoordinateReferenceSystem requestedCRS, final int width, final int height,
             final ReferencedEnvelope bbox, final FilterFactory2 ff,
-            List<FeatureCollection> results, int i, final MapLayerInfo layer, final List<Rule> rules,
+            int i, final MapLayerInfo layer, final List<Rule> rules,
             final int maxFeatures, List<Object> times, List<Object> elevations, final String[] propertyNames)
             throws IOException {
 
@@ -5,7 +5,9 @@
 package org.geoserver.wms;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -66,6 +68,11 @@ public class GetFeatureInfoRequest extends WMSRequest {
      */
     private String exeptionFormat = DEFAULT_EXCEPTION_FORMAT;
 
+    /**
+     * Time spent identifying each query layer, in milliseconds, filled while the request executes
+     */
+    private Map<String, Long> layerTimes = new LinkedHashMap<String, Long>();
+
     public GetFeatureInfoRequest() {
         super("GetFeatureInfo");
     }
@@ -190,4 +197,16 @@ public class GetFeatureInfoRequest extends WMSRequest {
     public void setPropertyNames(List<List<String>> propertyNames) {
         this.propertyNames = propertyNames;
     }
+
+    /**
+     * The time spent identifying each query layer, in milliseconds, keyed by layer name. Filled
+     * while the request executes, layers not identified are missing.
+     */
+    public Map<String, Long> getLayerTimes() {
+        return layerTimes;
+    }
+
+    public void setLayerTimes(Map<String, Long> layerTimes) {
+        this.layerTimes = layerTimes;
+    }
 }
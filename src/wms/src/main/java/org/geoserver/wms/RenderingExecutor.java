@@ -0,0 +1,248 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * The thread pool used by the {@link org.geotools.renderer.lite.StreamingRenderer} painter
+ * threads, see {@link DefaultWebMapService#getRenderingPool()}.
+ * <p>
+ * The pool can be bounded in size and queue length. When it's saturated a rendering waits for
+ * up to the queue timeout for a slot, and then falls back on the request that asked for it, so
+ * that latency degrades instead of requests failing. The painter cannot run in the request thread
+ * itself, which is busy feeding it, so it runs on a thread started for that request only, as the
+ * renderer does when it has no pool: the overflow is bounded by the number of request threads.
+ * Usage statistics are published as the <code>org.geoserver:type=RenderingPool</code> MBean.
+ * </p>
+ */
+public class RenderingExecutor extends ThreadPoolExecutor implements RenderingExecutorMBean {
+
+    static final Logger LOGGER = Logging.getLogger(RenderingExecutor.class);
+
+    static final String MBEAN_NAME = "org.geoserver:type=RenderingPool";
+
+    final int poolSize;
+
+    final int queueSize;
+
+    final long queueTimeout;
+
+    final AtomicLong rejected = new AtomicLong();
+
+    final AtomicLong completed = new AtomicLong();
+
+    final AtomicLong renderingTime = new AtomicLong();
+
+    final AtomicLong layers = new AtomicLong();
+
+    final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    /**
+     * Builds a rendering pool
+     *
+     * @param poolSize Maximum number of threads, zero or negative for an unbounded pool
+     * @param queueSize Number of renderings that can wait for a thread
+     * @param queueTimeout How long a rendering can wait for a queue slot when the pool is
+     *        saturated, in milliseconds
+     */
+    public RenderingExecutor(int poolSize, int queueSize, long queueTimeout) {
+        super(poolSize > 0 ? poolSize : 0, poolSize > 0 ? poolSize : Integer.MAX_VALUE, 60,
+                TimeUnit.SECONDS, queue(poolSize, queueSize), new RenderingThreadFactory());
+        this.poolSize = poolSize;
+        this.queueSize = queueSize;
+        this.queueTimeout = queueTimeout;
+        if (poolSize > 0) {
+            allowCoreThreadTimeOut(true);
+        }
+        setRejectedExecutionHandler(new SaturationHandler());
+    }
+
+    static BlockingQueue<Runnable> queue(int poolSize, int queueSize) {
+        if (poolSize <= 0 || queueSize <= 0) {
+            return new SynchronousQueue<Runnable>();
+        }
+        return new LinkedBlockingQueue<Runnable>(queueSize);
+    }
+
+    /**
+     * Returns true if the pool has been built with the specified settings
+     */
+    public boolean isConfiguredAs(int poolSize, int queueSize, long queueTimeout) {
+        return this.poolSize == poolSize && this.queueSize == queueSize
+                && this.queueTimeout == queueTimeout;
+    }
+
+    static class RenderingThreadFactory implements ThreadFactory {
+        final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Rendering thread " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    static final AtomicInteger OVERFLOW_THREADS = new AtomicInteger();
+
+    /**
+     * Waits for a queue slot, and then runs the rendering on behalf of the requesting thread
+     */
+    class SaturationHandler implements RejectedExecutionHandler {
+        public void rejectedExecution(final Runnable r, ThreadPoolExecutor executor) {
+            if (isShutdown()) {
+                throw new RejectedExecutionException("Rendering pool has been shut down");
+            }
+            if (queueTimeout > 0) {
+                try {
+                    if (getQueue().offer(r, queueTimeout, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            rejected.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Rendering pool saturated, rendering outside of the pool");
+            }
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        r.run();
+                    } finally {
+                        completed(System.nanoTime() - start);
+                    }
+                }
+            }, "Overflow rendering thread " + OVERFLOW_THREADS.incrementAndGet());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        startTime.set(System.nanoTime());
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long start = startTime.get();
+        if (start != null) {
+            startTime.remove();
+            completed(System.nanoTime() - start);
+        }
+        super.afterExecute(r, t);
+    }
+
+    void completed(long time) {
+        completed.incrementAndGet();
+        renderingTime.addAndGet(time);
+    }
+
+    /**
+     * Records the number of layers painted by a rendering, used to compute the time per layer
+     */
+    public void layersRendered(int count) {
+        layers.addAndGet(count);
+    }
+
+    /**
+     * Publishes the statistics as a MBean, replacing any previous rendering pool
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not register the rendering pool MBean", e);
+        }
+    }
+
+    /**
+     * Retires the pool after a configuration change: the statistics are no longer published and
+     * the threads go away as soon as they are idle, but renderings are still accepted, as other
+     * requests might still be holding on to the pool
+     */
+    void drain() {
+        unregister();
+        setKeepAliveTime(1, TimeUnit.SECONDS);
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops accepting new renderings, lets the running ones complete
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        unregister();
+    }
+
+    void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not unregister the rendering pool MBean", e);
+        }
+    }
+
+    public int getQueuedCount() {
+        return getQueue().size();
+    }
+
+    public boolean isUnbounded() {
+        return poolSize <= 0;
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public double getAverageLayerTime() {
+        long count = layers.get();
+        return count == 0 ? 0 : renderingTime.get() / 1000000d / count;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderingExecutor[maxThreads="
+                + (isUnbounded() ? "unbounded" : String.valueOf(getMaximumPoolSize())) + ", active="
+                + getActiveCount() + ", queued=" + getQueuedCount() + ", rejected="
+                + getRejectedCount() + ", completed=" + getCompletedCount() + "]";
+    }
+}
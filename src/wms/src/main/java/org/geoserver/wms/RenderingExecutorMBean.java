@@ -0,0 +1,47 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+/**
+ * Management interface of the {@link RenderingExecutor}
+ */
+public interface RenderingExecutorMBean {
+
+    /**
+     * Maximum number of pooled rendering threads, meaningless if {@link #isUnbounded()}
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * Whether the number of rendering threads is unbounded
+     */
+    boolean isUnbounded();
+
+    /**
+     * Number of threads currently rendering
+     */
+    int getActiveCount();
+
+    /**
+     * Number of renderings waiting for a thread
+     */
+    int getQueuedCount();
+
+    /**
+     * Number of renderings that found the pool saturated and ran outside of it, on a thread
+     * started for the requesting thread
+     */
+    long getRejectedCount();
+
+    /**
+     * Number of renderings completed
+     */
+    long getCompletedCount();
+
+    /**
+     * Average time spent painting a layer, in milliseconds
+     */
+    double getAverageLayerTime();
+}
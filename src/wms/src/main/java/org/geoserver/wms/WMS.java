@@ -46,6 +46,7 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.png.PNGFilterType;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -103,6 +104,14 @@ public class WMS implements ApplicationContextAware {
 
     public static final int PNG_COMPRESSION_DEFAULT = 25;
 
+    public static final String PNG_ENCODER = "pngEncoder";
+
+    public static final String PNG_ENCODER_IMAGEIO = "imageio";
+
+    public static final String PNG_ENCODER_STREAMING = "streaming";
+
+    public static final String PNG_FILTER = "pngFilter";
+
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
@@ -110,6 +119,20 @@ public class WMS implements ApplicationContextAware {
     public static final String MAX_RENDERING_TIME = "maxAnimatorRenderingTime";
     
     public static final String MAX_RENDERING_SIZE = "maxRenderingSize";
+
+    public static final String ANIMATOR_THREADS = "animatorRenderingThreads";
+
+    public static final int ANIMATOR_THREADS_DEFAULT = 4;
+
+    public static final String ANIMATOR_USE_TILE_CACHE = "animatorUseTileCache";
+
+    public static final String RENDERING_POOL_SIZE = "renderingPoolSize";
+
+    public static final String RENDERING_POOL_QUEUE_SIZE = "renderingPoolQueueSize";
+
+    public static final String RENDERING_POOL_QUEUE_TIMEOUT = "renderingPoolQueueTimeout";
+
+    public static final String FEATURE_INFO_LAYER_TIMEOUT = "featureInfoLayerTimeout";
     
     public static final String FRAMES_DELAY = "framesDelay";
 
@@ -186,6 +209,8 @@ public class WMS implements ApplicationContextAware {
 
     private ApplicationContext applicationContext;
 
+    private DimensionDomainCache dimensionDomainCache;
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -460,6 +485,30 @@ public class WMS implements ApplicationContextAware {
                 PNG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * The PNG encoder used for the non paletted or paletted PNG output, either
+     * {@link #PNG_ENCODER_IMAGEIO} or {@link #PNG_ENCODER_STREAMING}
+     */
+    public String getPngEncoder() {
+        return getMetadataValue(PNG_ENCODER, PNG_ENCODER_IMAGEIO, String.class);
+    }
+
+    /**
+     * The row filter used by the streaming PNG encoder
+     */
+    public PNGFilterType getPngFilter() {
+        String filter = getMetadataValue(PNG_FILTER, null, String.class);
+        if (filter != null) {
+            try {
+                return PNGFilterType.parse(filter);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Invalid " + PNG_FILTER + " value " + filter + ", using "
+                        + PNGFilterType.ADAPTIVE);
+            }
+        }
+        return PNGFilterType.ADAPTIVE;
+    }
+
     public int getJpegCompression() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataPercentage(serviceInfo.getMetadata(), JPEG_COMPRESSION,
@@ -473,7 +522,54 @@ public class WMS implements ApplicationContextAware {
     public Long getMaxAnimatorRenderingTime() {
         return getMetadataValue(MAX_RENDERING_TIME, null, Long.class);
     }
+
+    /**
+     * Number of threads rendering the animation frames, shared by all the animations
+     */
+    public int getAnimatorRenderingThreads() {
+        return getMetadataValue(ANIMATOR_THREADS, ANIMATOR_THREADS_DEFAULT, Integer.class);
+    }
+
+    /**
+     * Whether the animator should get the frames from the tile cache when they match a cached
+     * tile, rather than rendering them
+     */
+    public boolean isAnimatorUseTileCache() {
+        return getMetadataValue(ANIMATOR_USE_TILE_CACHE, false, Boolean.class);
+    }
     
+    /**
+     * Maximum number of threads in the rendering pool, zero for an unbounded pool
+     */
+    public int getRenderingPoolSize() {
+        return getMetadataValue(RENDERING_POOL_SIZE, 0, Integer.class);
+    }
+
+    /**
+     * Number of renderings that can wait for a thread when the rendering pool is bounded
+     */
+    public int getRenderingPoolQueueSize() {
+        return getMetadataValue(RENDERING_POOL_QUEUE_SIZE, 0, Integer.class);
+    }
+
+    /**
+     * How long a rendering waits for the saturated rendering pool, in milliseconds, before
+     * running on a dedicated thread
+     */
+    public long getRenderingPoolQueueTimeout() {
+        return getMetadataValue(RENDERING_POOL_QUEUE_TIMEOUT, 0l, Long.class);
+    }
+
+    /**
+     * How long GetFeatureInfo waits for the query layers, in milliseconds, before dropping the
+     * ones that did not answer from the response. The time is counted from the moment the layers
+     * are submitted to the pool. Zero or negative means no limit. Only applies when the query
+     * layers are identified in parallel, see {@link GetFeatureInfo}
+     */
+    public long getFeatureInfoLayerTimeout() {
+        return getMetadataValue(FEATURE_INFO_LAYER_TIMEOUT, 0l, Long.class);
+    }
+
     public Long getMaxRenderingSize() {
         return getMetadataValue( MAX_RENDERING_SIZE, null, Long.class);
     }
@@ -615,6 +711,17 @@ public class WMS implements ApplicationContextAware {
         return WMSExtensions.findExtendedCapabilitiesProviders(applicationContext);
     }
 
+    /**
+     * Returns the dimension domain cache, or null if not available
+     */
+    DimensionDomainCache getDimensionDomainCache() {
+        if (dimensionDomainCache == null && applicationContext != null) {
+            dimensionDomainCache = GeoServerExtensions.bean(DimensionDomainCache.class,
+                    applicationContext);
+        }
+        return dimensionDomainCache;
+    }
+
     /**
      * @see org.springframework.context.ApplicationContextAware#setApplicationContext(org.springframework.context.ApplicationContext)
      */
@@ -932,14 +1039,29 @@ public class WMS implements ApplicationContextAware {
      * @return
      * @throws IOException
      */
-    public TreeSet<Date> getFeatureTypeTimes(FeatureTypeInfo typeInfo) throws IOException {
+    public TreeSet<Date> getFeatureTypeTimes(final FeatureTypeInfo typeInfo) throws IOException {
         // grab the time metadata
-        DimensionInfo time = typeInfo.getMetadata().get(ResourceInfo.TIME, DimensionInfo.class);
+        final DimensionInfo time = typeInfo.getMetadata().get(ResourceInfo.TIME,
+                DimensionInfo.class);
         if (time == null || !time.isEnabled()) {
             throw new ServiceException("Layer " + typeInfo.getPrefixedName()
                     + " does not have time support enabled");
         }
 
+        DimensionDomainCache cache = getDimensionDomainCache();
+        if (cache == null) {
+            return loadFeatureTypeTimes(typeInfo, time);
+        }
+        return cache.getDomain(typeInfo, ResourceInfo.TIME, time,
+                new DimensionDomainCache.Loader<Date>() {
+                    public TreeSet<Date> load() throws IOException {
+                        return loadFeatureTypeTimes(typeInfo, time);
+                    }
+                });
+    }
+
+    TreeSet<Date> loadFeatureTypeTimes(FeatureTypeInfo typeInfo, DimensionInfo time)
+            throws IOException {
         FeatureCollection collection = getDimensionCollection(typeInfo, time);
 
         TreeSet<Date> result = new TreeSet<Date>();
@@ -980,15 +1102,30 @@ public class WMS implements ApplicationContextAware {
      * @return
      * @throws IOException
      */
-    public TreeSet<Double> getFeatureTypeElevations(FeatureTypeInfo typeInfo) throws IOException {
+    public TreeSet<Double> getFeatureTypeElevations(final FeatureTypeInfo typeInfo)
+            throws IOException {
         // grab the time metadata
-        DimensionInfo elevation = typeInfo.getMetadata().get(ResourceInfo.ELEVATION,
+        final DimensionInfo elevation = typeInfo.getMetadata().get(ResourceInfo.ELEVATION,
                 DimensionInfo.class);
         if (elevation == null || !elevation.isEnabled()) {
             throw new ServiceException("Layer " + typeInfo.getPrefixedName()
                     + " does not have elevation support enabled");
         }
 
+        DimensionDomainCache cache = getDimensionDomainCache();
+        if (cache == null) {
+            return loadFeatureTypeElevations(typeInfo, elevation);
+        }
+        return cache.getDomain(typeInfo, ResourceInfo.ELEVATION, elevation,
+                new DimensionDomainCache.Loader<Double>() {
+                    public TreeSet<Double> load() throws IOException {
+                        return loadFeatureTypeElevations(typeInfo, elevation);
+                    }
+                });
+    }
+
+    TreeSet<Double> loadFeatureTypeElevations(FeatureTypeInfo typeInfo, DimensionInfo elevation)
+            throws IOException {
         FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
 
         TreeSet<Double> result = new TreeSet<Double>();
@@ -1038,6 +1175,13 @@ public class WMS implements ApplicationContextAware {
                     + " does not have time support enabled");
         }
 
+        // the time domain holds the max time in all presentations, use it if cached
+        DimensionDomainCache cache = getDimensionDomainCache();
+        if (cache != null && cache.isCached(typeInfo)) {
+            TreeSet<Date> times = getFeatureTypeTimes(typeInfo);
+            return times == null || times.isEmpty() ? null : times.last();
+        }
+
         // current is the max time we have
         FeatureCollection collection = getDimensionCollection(typeInfo, time);
         final MaxVisitor max = new MaxVisitor(time.getAttribute());
@@ -1080,6 +1224,13 @@ public class WMS implements ApplicationContextAware {
                     + " does not have time support enabled");
         }
 
+        // the elevation domain holds the min elevation in all presentations, use it if cached
+        DimensionDomainCache cache = getDimensionDomainCache();
+        if (cache != null && cache.isCached(typeInfo)) {
+            TreeSet<Double> elevations = getFeatureTypeElevations(typeInfo);
+            return elevations == null || elevations.isEmpty() ? null : elevations.first();
+        }
+
         FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
         final MinVisitor min = new MinVisitor(elevation.getAttribute());
         collection.accepts(min, null);
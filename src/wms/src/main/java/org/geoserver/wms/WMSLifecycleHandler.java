@@ -12,14 +12,17 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.renderer.style.FontCache;
 import org.geotools.renderer.style.ImageGraphicFactory;
 import org.geotools.renderer.style.SVGGraphicFactory;
@@ -48,6 +51,9 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
     public void onDispose() {
         // dispose the WMS Animator Executor Service
         shutdownAnimatorExecutorService();
+        // and the quantizer and GetFeatureInfo ones
+        RenderedImageMapResponse.disposeQuantizerPool();
+        GetFeatureInfo.disposeLayerPool();
     }
 
     public void onReload() {
@@ -68,16 +74,24 @@ public class WMSLifecycleHandler implements GeoServerLifecycleHandler, Applicati
     }
 
     /**
-     * Shutting down pending tasks and resetting the executor service
-     * timeout.
+     * Shutting down pending tasks and rebuilding the frame rendering pool, sized by
+     * {@link WMS#getAnimatorRenderingThreads()}
      */
     private void resetAnimatorExecutorService() {
         shutdownAnimatorExecutorService();
 
-        Long framesTimeout = this.wmsConfig.getMaxAnimatorRenderingTime() != null ? 
-                this.wmsConfig.getMaxAnimatorRenderingTime() : Long.MAX_VALUE;
-        ExecutorService animatorExecutorService = 
-            new ThreadPoolExecutor(4, 20, framesTimeout, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        int threads = Math.max(1, this.wmsConfig.getAnimatorRenderingThreads());
+        ThreadPoolExecutor animatorExecutorService = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Animator frame " + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        animatorExecutorService.allowCoreThreadTimeOut(true);
 
         this.wmsConfig.setAnimatorExecutorService(animatorExecutorService);
     }
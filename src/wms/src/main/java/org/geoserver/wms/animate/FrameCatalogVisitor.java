@@ -4,39 +4,51 @@
  */
 package org.geoserver.wms.animate;
 
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.imageio.ImageIO;
 import javax.media.jai.RenderedImageList;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.RequestContextCallable;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br/>
- * The "visit" method initializes the runnables and the animatorExecutor service, while
- * the "produce" method runs the tasks and generated the frames images.
+ * The "visit" method collects the frames to be rendered, while the "produce" method returns the
+ * list of frame images. The frames are rendered in parallel on the animator thread pool, a few
+ * ahead of the one being encoded, and handed over in order as the list is walked, so that the
+ * encoding starts as soon as the first frame is ready and only a window of frames is held in
+ * memory.
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
@@ -48,12 +60,12 @@ public class FrameCatalogVisitor {
     int framesNumber;
 
     /**
-     * the list of runnables to be executed
+     * the frames to be rendered
      */
-    List<Future<RenderedImage>> tasks;
+    List<FrameLoader> loaders;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not yet initialied. 
+     * Adds a new frame to the list of frames to be rendered. 
      * @param request
      * @param wms
      * @param wmsConfiguration
@@ -61,87 +73,192 @@ public class FrameCatalogVisitor {
      * @param avalue
      */
     public void visit(final GetMapRequest request, WebMapService wms, WMS wmsConfiguration, String aparam, String avalue) {
-        if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+        if (this.loaders == null) {
+            this.loaders = new ArrayList<FrameLoader>();
         }
 
-        FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
-        
-        
-        final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
-        this.tasks.add(task);
+        this.loaders.add(new FrameLoader(request, wms, wmsConfiguration, aparam, avalue));
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Starts rendering the frames and returns the list of frame images, which blocks on access
+     * until the requested frame is ready.
      * @param wmsConfiguration
      * @return
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
+        if (loaders == null || loaders.size() == 0) {
+            dispose();
+            throw new IOException("Empty list of frames.");
+        }
 
-        long gifAnimatedSize = 0;
+        FrameList frames = new FrameList(loaders, wmsConfiguration);
+        dispose();
+        // render the first frame before handing over the list, so that the most common failures
+        // and the size limit are reported before the response starts being written
+        frames.get(0);
+        return new StreamingImageList(frames);
+    }
+
+    /**
+     * Clears the frames list.
+     */
+    private void dispose() {
+        this.framesNumber = 0;
+        this.loaders = null;
+    }
+
+    /**
+     * A {@link RenderedImageList} that does not look at its images upfront, the base class
+     * constructor would wait for all the frames to be rendered
+     */
+    static class StreamingImageList extends RenderedImageList {
+        StreamingImageList(FrameList frames) {
+            super();
+            imageCollection = frames;
+        }
+    }
+
+    /**
+     * The frames of an animation, rendered in parallel and returned in order. Frames are let go
+     * once returned, but for the first one, which {@link RenderedImageList} uses to describe the
+     * whole list, and cannot be asked for again.
+     */
+    static class FrameList extends AbstractList<RenderedImage> {
+
+        final List<FrameLoader> loaders;
+
+        final ExecutorService executor;
+
+        final List<Future<RenderedImage>> frames;
+
+        final long maxTime;
+
+        /**
+         * Time by which all the frames must be rendered, or zero if there is no limit
+         */
+        final long deadline;
+
+        final Long maxSize;
+
+        /**
+         * Estimated size of the frames returned so far
+         */
+        long totalSize;
+
+        /**
+         * Index of the next frame to be returned
+         */
+        int next;
+
+        RenderedImage first;
+
+        FrameList(List<FrameLoader> loaders, WMS wmsConfiguration) {
+            this.loaders = loaders;
+            this.executor = wmsConfiguration.getAnimatorExecutorService();
+            this.frames = new ArrayList<Future<RenderedImage>>(loaders.size());
+            Long maxTime = wmsConfiguration.getMaxAnimatorRenderingTime();
+            this.maxTime = maxTime != null && maxTime > 0 ? maxTime : 0;
+            this.deadline = this.maxTime > 0 ? System.currentTimeMillis() + this.maxTime : 0;
+            this.maxSize = wmsConfiguration.getMaxRenderingSize();
+
+            // render a window of frames ahead, so that a single animation cannot take over the
+            // whole pool and the frames waiting to be encoded are bounded
+            int window = Math.max(1, wmsConfiguration.getAnimatorRenderingThreads());
+            for (int i = 0; i < window && i < loaders.size(); i++) {
+                frames.add(executor.submit(loaders.get(i)));
+            }
+        }
+
+        @Override
+        public int size() {
+            return loaders.size();
+        }
+
+        @Override
+        public synchronized RenderedImage get(int index) {
+            if (index == 0 && first != null) {
+                return first;
+            } else if (index < next) {
+                throw new IllegalStateException("Frame " + index
+                        + " has already been handed over and released");
+            }
 
-        for (Future<RenderedImage> future : tasks) {
             RenderedImage image = null;
+            while (next <= index) {
+                image = take(next);
+                frames.set(next, null);
+                next++;
+                if (frames.size() < loaders.size()) {
+                    frames.add(executor.submit(loaders.get(frames.size())));
+                }
+            }
+            if (index == 0) {
+                first = image;
+                // the frames all share the same size, check the limit upfront
+                if (maxSize != null && getImageSizeInBytes(image) * loaders.size() >= maxSize) {
+                    cancel();
+                    throw new ServiceException("Max rendering size exceed!");
+                }
+            }
+            return image;
+        }
+
+        RenderedImage take(int index) {
+            RenderedImage image;
             try {
-                image = future.get();
+                if (deadline > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    image = frames.get(index).get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+                } else {
+                    image = frames.get(index).get();
+                }
+            } catch (TimeoutException e) {
+                cancel();
+                throw new ServiceException("Animation rendering took longer than the maximum "
+                        + "rendering time of " + maxTime + "ms");
             } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new ServiceException(e);
             } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
+                cancel();
+                throw new ServiceException("Failed to render frame " + index, e.getCause());
             }
 
             if (image == null) {
-                continue;
+                cancel();
+                throw new ServiceException("Frame " + index + " has no image");
             }
-
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
+            totalSize += getImageSizeInBytes(image);
+            if (maxSize != null && totalSize >= maxSize) {
+                cancel();
+                throw new ServiceException("Max rendering size exceed!");
             }
-
-            images.add(image);
+            return image;
         }
 
-        if (images == null || images.size() == 0) {
-            dispose();
-            throw new IOException("Empty list of frames.");
+        /**
+         * Stops rendering the frames not handed over yet
+         */
+        void cancel() {
+            for (Future<RenderedImage> frame : frames) {
+                if (frame != null) {
+                    frame.cancel(true);
+                }
+            }
         }
-
-        dispose();
-        return new RenderedImageList(images);
     }
 
-    private long getImageSizeInBytes(RenderedImage image) {
-        int tileWidth = image.getTileWidth();
-        int tileLength = image.getNumXTiles();
-        int numBands = image.getSampleModel().getNumBands();
+    static long getImageSizeInBytes(RenderedImage image) {
         int[] sampleSize = image.getSampleModel().getSampleSize();
-
-        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
-    }
-
-    /**
-     * Suddenly stops the Executor service and clear instantiated visitors.
-     */
-    private void dispose() {
-        this.framesNumber = 0;
-
-        if (this.tasks != null)
-            this.tasks.clear();
-        
-        this.tasks = null;
+        long pixelBits = 0;
+        for (int bits : sampleSize) {
+            pixelBits += bits;
+        }
+        return (long) Math.ceil((long) image.getWidth() * image.getHeight() * pixelBits / 8.0);
     }
 
 }
@@ -152,7 +269,7 @@ public class FrameCatalogVisitor {
  * @author Alessio
  * 
  */
-class FrameLoader implements Callable<RenderedImage> {
+class FrameLoader extends RequestContextCallable<RenderedImage> {
 
     /**
      * The default output format for each frame if not specified in the request
@@ -186,8 +303,16 @@ class FrameLoader implements Callable<RenderedImage> {
         this.avalue = avalue.replaceAll("\\\\,", ",");
     }
 
+    /**
+     * Renders the frame, the frames are rendered by the animator pool threads with the context of
+     * the request thread
+     */
     @Override
-    public RenderedImage call() throws Exception {
+    protected RenderedImage callInContext() throws Exception {
+        return render();
+    }
+
+    RenderedImage render() throws Exception {
         org.geoserver.wms.WebMap wmsResponse;
 
         // Making a shallow copy of the original request and replacing param's values
@@ -213,9 +338,42 @@ class FrameLoader implements Callable<RenderedImage> {
             }
         }
         
-        wmsResponse = this.wms.getMap(frameRequest);
+        WebMapService service = this.wms;
+        if (wmsConfiguration.isAnimatorUseTileCache()) {
+            // go through the service proxy, so that the tile cache can serve tiled frames
+            WebMapService proxy = (WebMapService) GeoServerExtensions.bean("webMapService");
+            if (proxy != null) {
+                service = proxy;
+            }
+        } else {
+            // frames are collected as images, the meta tiler would return them encoded
+            frameRequest.setTiled(false);
+        }
+        wmsResponse = service.getMap(frameRequest);
+
+        return toImage(wmsResponse);
+    }
 
-        return ((RenderedImageMap) wmsResponse).getImage();
+    /**
+     * Extracts the frame image, decoding it if the map came out encoded already
+     */
+    static RenderedImage toImage(org.geoserver.wms.WebMap map) throws IOException {
+        if (map instanceof RenderedImageMap) {
+            return ((RenderedImageMap) map).getImage();
+        } else if (map instanceof RawMap) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try {
+                ((RawMap) map).writeTo(bos);
+            } finally {
+                map.dispose();
+            }
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+            if (image == null) {
+                throw new ServiceException("Could not decode the " + map.getMimeType() + " frame");
+            }
+            return image;
+        }
+        throw new ServiceException("Unexpected frame map " + map.getClass().getSimpleName());
     }
 
     /**
@@ -0,0 +1,454 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.filters.GZIPResponseWrapper;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalLayer;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the encoded WMS capabilities documents, which are otherwise rebuilt from the whole
+ * catalog at each request.
+ * <p>
+ * Documents are keyed by version, base URL, virtual service (workspace and layer), the
+ * {@link #KEY_PARAMETERS request parameters affecting the output} and the user and roles, and are
+ * valid for the update sequence they were built with. Other parameters, such as cache busters,
+ * share the same document. The documents are kept as is, and gzipped the first time a client
+ * accepting gzip encoding asks for them (unless the response is already being compressed by the
+ * GZIP filter). Each encoding of a document carries its own ETag, so that clients can issue
+ * conditional requests. The least recently used documents are dropped when more than
+ * {@link #MAX_ENTRIES} are held.
+ * </p>
+ * <p>
+ * When a document goes out of date, because of a catalog or configuration change or because it
+ * is older than its time to live, a single request rebuilds it while the other ones keep on
+ * getting the previous version. Concurrent requests for a document that is not cached at all wait
+ * for a single build of it instead of building it each. The time to live, in seconds, is set by the
+ * WMS_CAPABILITIES_CACHE_TTL variable, caching is disabled when it's not set to a positive value.
+ * The time to live bounds how long changes not tracked by the update sequence (data or security
+ * rule changes) take to show up.
+ * </p>
+ */
+public class CapabilitiesCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Maximum number of documents held
+     */
+    static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The request parameters, beyond version and namespace, that can alter the document
+     */
+    static final Set<String> KEY_PARAMETERS = Collections.unmodifiableSet(new TreeSet<String>(
+            Arrays.asList("FORMAT", "TILED")));
+
+    /**
+     * Writes out the capabilities document
+     */
+    public static interface DocumentWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
+    static class Entry {
+        final byte[] document;
+
+        /**
+         * The gzipped document, computed on first use
+         */
+        volatile byte[] gzipped;
+
+        final long updateSequence;
+
+        final long generation;
+
+        final long created;
+
+        final String etag;
+
+        final AtomicBoolean rebuilding = new AtomicBoolean();
+
+        Entry(byte[] document, long updateSequence, long generation, long created, String etag) {
+            this.document = document;
+            this.updateSequence = updateSequence;
+            this.generation = generation;
+            this.created = created;
+            this.etag = etag;
+        }
+
+        byte[] getGzipped() throws IOException {
+            byte[] result = gzipped;
+            if (result == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(document.length / 4);
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                gzip.write(document);
+                gzip.close();
+                gzipped = result = bytes.toByteArray();
+            }
+            return result;
+        }
+
+        /**
+         * The ETag of the gzipped document
+         */
+        String getGzippedETag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+    }
+
+    /**
+     * Returns the capabilities cache registered in the application context, or null if there is
+     * none
+     */
+    public static CapabilitiesCache get() {
+        return GeoServerExtensions.bean(CapabilitiesCache.class);
+    }
+
+    final GeoServer geoServer;
+
+    final long timeToLive;
+
+    final Map<String, Entry> entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    });
+
+    /**
+     * The documents being built for keys that have no cached document yet
+     */
+    final ConcurrentHashMap<String, FutureTask<Entry>> loading = new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+    /**
+     * bumped at each catalog or configuration change
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong staleHits = new AtomicLong();
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this(geoServer, ttlProperty());
+    }
+
+    /**
+     * Builds a cache
+     *
+     * @param geoServer The configuration to listen to
+     * @param timeToLive Time to live of the documents in milliseconds, zero or negative to
+     *        disable caching
+     */
+    public CapabilitiesCache(GeoServer geoServer, long timeToLive) {
+        this.geoServer = geoServer;
+        this.timeToLive = timeToLive;
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                invalidate();
+            }
+
+            @Override
+            public void handleServiceRemove(ServiceInfo service) {
+                invalidate();
+            }
+        });
+    }
+
+    static long ttlProperty() {
+        String ttl = GeoServerExtensions.getProperty("WMS_CAPABILITIES_CACHE_TTL");
+        if (ttl != null) {
+            try {
+                return Long.parseLong(ttl.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid WMS_CAPABILITIES_CACHE_TTL value " + ttl
+                        + ", capabilities caching disabled");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes out the capabilities document for the specified request, from the cache if possible
+     */
+    public void write(GetCapabilitiesRequest request, DocumentWriter writer, OutputStream output)
+            throws IOException {
+        if (timeToLive <= 0) {
+            writer.write(output);
+            return;
+        }
+
+        String key = key(request);
+        long updateSequence = geoServer.getGlobal().getUpdateSequence();
+        Entry entry = entries.get(key);
+        if (entry != null && isFresh(entry, updateSequence)) {
+            hits.incrementAndGet();
+        } else if (entry != null && !entry.rebuilding.compareAndSet(false, true)) {
+            // someone else is rebuilding it, don't wait
+            staleHits.incrementAndGet();
+        } else if (entry != null) {
+            misses.incrementAndGet();
+            Entry stale = entry;
+            try {
+                entry = build(key, updateSequence, writer);
+            } finally {
+                stale.rebuilding.set(false);
+            }
+        } else {
+            entry = load(key, updateSequence, writer);
+        }
+        serve(entry, output);
+    }
+
+    /**
+     * Builds a document that is not cached, or waits for the request already building it
+     */
+    Entry load(final String key, final long updateSequence, final DocumentWriter writer)
+            throws IOException {
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() throws Exception {
+                misses.incrementAndGet();
+                return build(key, updateSequence, writer);
+            }
+        });
+        FutureTask<Entry> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+            running = task;
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the capabilities document", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to build the capabilities document", cause);
+        }
+    }
+
+    boolean isFresh(Entry entry, long updateSequence) {
+        return entry.updateSequence == updateSequence && entry.generation == generation.get()
+                && System.currentTimeMillis() - entry.created <= timeToLive;
+    }
+
+    Entry build(String key, long updateSequence, DocumentWriter writer) throws IOException {
+        long generation = this.generation.get();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(bytes);
+
+        String etag = "\"" + updateSequence + "-" + Integer.toHexString(key.hashCode()) + "-"
+                + System.currentTimeMillis() + "\"";
+        Entry entry = new Entry(bytes.toByteArray(), updateSequence, generation,
+                System.currentTimeMillis(), etag);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    void serve(Entry entry, OutputStream output) throws IOException {
+        Request request = Dispatcher.REQUEST.get();
+        HttpServletRequest httpRequest = request != null ? request.getHttpRequest() : null;
+        HttpServletResponse httpResponse = request != null ? request.getHttpResponse() : null;
+        if (httpRequest != null && httpResponse != null) {
+            String encodings = httpRequest.getHeader("Accept-Encoding");
+            boolean gzip = encodings != null && encodings.toLowerCase().contains("gzip")
+                    && !isCompressing(httpResponse);
+            String etag = gzip ? entry.getGzippedETag() : entry.etag;
+            httpResponse.setHeader("ETag", etag);
+            httpResponse.addHeader("Vary", "Accept-Encoding");
+            if (etag.equals(httpRequest.getHeader("If-None-Match"))) {
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            if (gzip) {
+                httpResponse.setHeader("Content-Encoding", "gzip");
+                output.write(entry.getGzipped());
+                return;
+            }
+        }
+
+        output.write(entry.document);
+    }
+
+    /**
+     * Checks whether the response is going through the GZIP filter already
+     */
+    boolean isCompressing(ServletResponse response) {
+        while (response instanceof HttpServletResponseWrapper) {
+            if (response instanceof GZIPResponseWrapper) {
+                return true;
+            }
+            response = ((HttpServletResponseWrapper) response).getResponse();
+        }
+        return false;
+    }
+
+    String key(GetCapabilitiesRequest request) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getVersion()).append('|').append(request.getBaseUrl()).append('|');
+        sb.append(request.getNamespace()).append('|');
+
+        WorkspaceInfo ws = LocalWorkspace.get();
+        sb.append(ws != null ? ws.getName() : null).append('|');
+        LayerInfo layer = LocalLayer.get();
+        sb.append(layer != null ? layer.getName() : null).append('|');
+
+        // only the parameters altering the document, anything else would just fill the cache
+        if (request.getRawKvp() != null) {
+            Map<String, String> kvp = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            kvp.putAll(request.getRawKvp());
+            for (String name : KEY_PARAMETERS) {
+                String value = kvp.get(name);
+                if (value != null) {
+                    sb.append(name).append('=').append(value).append('|');
+                }
+            }
+        }
+
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        if (user != null) {
+            List<String> roles = new ArrayList<String>();
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+            sb.append(user.getName()).append(roles);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Marks all the cached documents as out of date
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Number of documents served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of out of date documents served while being rebuilt
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * Number of documents built
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    public void reloaded() {
+        invalidate();
+        entries.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "CapabilitiesCache[entries=" + entries.size() + ", hits=" + getHits()
+                + ", staleHits=" + getStaleHits() + ", misses=" + getMisses() + "]";
+    }
+}
@@ -57,10 +57,24 @@ public class Capabilities_1_3_0_Response extends Response {
     public void write(final Object value, final OutputStream output, final Operation operation)
             throws IOException, ServiceException {
 
-        Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        final Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            write(transformer, request, output);
+        } else {
+            cache.write(request, new CapabilitiesCache.DocumentWriter() {
+                public void write(OutputStream output) throws IOException {
+                    Capabilities_1_3_0_Response.this.write(transformer, request, output);
+                }
+            }, output);
+        }
+    }
+
+    private void write(Capabilities_1_3_0_Transformer transformer,
+            GetCapabilitiesRequest request, OutputStream output) throws ServiceException {
         try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
             transformer.transform(request, output);
         } catch (TransformerException e) {
             throw new ServiceException(e);
@@ -123,6 +123,21 @@ public class GetCapabilitiesResponse extends Response {
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            write(transformer, request, output);
+        } else {
+            cache.write(request, new CapabilitiesCache.DocumentWriter() {
+                public void write(OutputStream output) throws IOException {
+                    GetCapabilitiesResponse.this.write(transformer, request, output);
+                }
+            }, output);
+        }
+    }
+
+    private void write(final GetCapabilitiesTransformer transformer,
+            final GetCapabilitiesRequest request, final OutputStream output) throws IOException,
+            ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
@@ -29,7 +29,7 @@ import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
-import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphicBuilder;
+import org.geoserver.wms.legendgraphic.LegendCache;
 import org.geoserver.wms.legendgraphic.LegendUtils;
 import org.geoserver.wms.map.ImageUtils;
 import org.geotools.map.Layer;
@@ -89,7 +89,6 @@ public class LegendDecoration extends AbstractDispatcherCallback implements MapD
                 continue;
             }
 
-            BufferedImageLegendGraphicBuilder legendGraphicBuilder = new BufferedImageLegendGraphicBuilder();
             GetLegendGraphicRequest request = new GetLegendGraphicRequest();
             request.setLayer(layer.getFeatureSource().getSchema());
             request.setTransparent(true);
@@ -117,7 +116,7 @@ public class LegendDecoration extends AbstractDispatcherCallback implements MapD
                 legend.title = titleImage;
             }
 
-            BufferedImage legendImage = legendGraphicBuilder.buildLegendGraphic(request);
+            BufferedImage legendImage = LegendCache.getOrBuild(request).getLegend();
             legend.legend = legendImage;
 
             layerLegends.add(legend);
@@ -9,6 +9,7 @@ import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.logging.Logger;
 
@@ -17,6 +18,8 @@ import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.stream.ImageInputStream;
 
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.ConcurrentColorIndexer;
 import org.geotools.image.palette.InverseColorMapOp;
 import org.geotools.util.SoftValueHashMap;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
@@ -45,6 +48,12 @@ public class PaletteManager {
     public static final IndexColorModel safePalette = buildDefaultPalette();
     static SoftValueHashMap<String, PaletteCacheEntry> paletteCache = new SoftValueHashMap<String, PaletteCacheEntry>();
     static SoftValueHashMap<IndexColorModel, InverseColorMapOp> opCache = new SoftValueHashMap<IndexColorModel, InverseColorMapOp>();
+    static SoftValueHashMap<PaletteKey, ColorIndexer> indexerCache = new SoftValueHashMap<PaletteKey, ColorIndexer>();
+
+    /**
+     * Number of color matches cached by the shared palette indexers
+     */
+    static final int INDEXER_CACHE_SIZE = 16384;
 
     /**
      * TODO: we should probably provide the data directory as a constructor
@@ -154,6 +163,47 @@ public class PaletteManager {
         }
 	}
 
+	/**
+	 * Returns a color indexer for the specified palette, shared among all the requests using it
+	 */
+	public static ColorIndexer getColorIndexer(IndexColorModel icm) {
+	    PaletteKey key = new PaletteKey(icm);
+	    synchronized (indexerCache) {
+	        ColorIndexer indexer = indexerCache.get(key);
+	        if (indexer == null) {
+	            indexer = new ConcurrentColorIndexer(icm, INDEXER_CACHE_SIZE);
+	            indexerCache.put(key, indexer);
+	        }
+	        return indexer;
+	    }
+	}
+
+	/**
+	 * Compares palettes by their colors, {@link IndexColorModel#equals(Object)} does not look at
+	 * them
+	 */
+	static class PaletteKey {
+	    int[] rgbs;
+	    
+	    int hashCode;
+
+	    PaletteKey(IndexColorModel icm) {
+	        rgbs = new int[icm.getMapSize()];
+	        icm.getRGBs(rgbs);
+	        hashCode = Arrays.hashCode(rgbs);
+	    }
+
+	    @Override
+	    public int hashCode() {
+	        return hashCode;
+	    }
+
+	    @Override
+	    public boolean equals(Object obj) {
+	        return obj instanceof PaletteKey && Arrays.equals(rgbs, ((PaletteKey) obj).rgbs);
+	    }
+	}
+
 	/**
 	 * Builds the internet safe paletteInverter
 	 */
@@ -5,16 +5,50 @@
 package org.geoserver.wms.legendgraphic;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.platform.ServiceException;
 
 public class BufferedImageLegendGraphic {
 
     private BufferedImage legendGraphic;
 
+    private byte[] png;
+
     public BufferedImageLegendGraphic(final BufferedImage legendGraphic) {
         this.legendGraphic = legendGraphic;
     }
 
+    /**
+     * Builds a legend from its PNG encoding, see {@link LegendCache}
+     */
+    public BufferedImageLegendGraphic(final byte[] png) {
+        this.png = png;
+    }
+
+    public BufferedImageLegendGraphic(final BufferedImage legendGraphic, final byte[] png) {
+        this.legendGraphic = legendGraphic;
+        this.png = png;
+    }
+
     public BufferedImage getLegend() {
+        if (legendGraphic == null && png != null) {
+            try {
+                legendGraphic = ImageIO.read(new ByteArrayInputStream(png));
+            } catch (IOException e) {
+                throw new ServiceException("Failed to decode the cached legend", e);
+            }
+        }
         return legendGraphic;
     }
+
+    /**
+     * The PNG encoded legend, or null if not available
+     */
+    public byte[] getPNG() {
+        return png;
+    }
 }
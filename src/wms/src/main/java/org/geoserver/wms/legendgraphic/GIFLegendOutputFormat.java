@@ -4,8 +4,6 @@
  */
 package org.geoserver.wms.legendgraphic;
 
-import java.awt.image.BufferedImage;
-
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetLegendGraphicOutputFormat;
 import org.geoserver.wms.GetLegendGraphicRequest;
@@ -27,10 +25,7 @@ public class GIFLegendOutputFormat implements GetLegendGraphicOutputFormat {
      */
     public BufferedImageLegendGraphic produceLegendGraphic(GetLegendGraphicRequest request)
             throws ServiceException {
-        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
-        BufferedImage legendGraphic = builder.buildLegendGraphic(request);
-        BufferedImageLegendGraphic legend = new BufferedImageLegendGraphic(legendGraphic);
-        return legend;
+        return LegendCache.getOrBuild(request);
     }
 
     /**
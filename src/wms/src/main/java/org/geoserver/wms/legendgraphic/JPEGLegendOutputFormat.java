@@ -4,8 +4,6 @@
  */
 package org.geoserver.wms.legendgraphic;
 
-import java.awt.image.BufferedImage;
-
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetLegendGraphic;
 import org.geoserver.wms.GetLegendGraphicOutputFormat;
@@ -38,10 +36,7 @@ public class JPEGLegendOutputFormat implements GetLegendGraphicOutputFormat {
         
         request.setTransparent(false);
         
-        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
-        BufferedImage legendGraphic = builder.buildLegendGraphic(request);
-        BufferedImageLegendGraphic legend = new BufferedImageLegendGraphic(legendGraphic);
-        return legend;
+        return LegendCache.getOrBuild(request);
     }
 
     /**
@@ -0,0 +1,552 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.styling.SLDTransformer;
+import org.geotools.styling.Style;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.Name;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Caches the legend images built by the {@link BufferedImageLegendGraphicBuilder}, for the
+ * GetLegendGraphic requests and the legend map decorations.
+ * <p>
+ * Legends are kept PNG encoded, so that the PNG GetLegendGraphic responses can be written out
+ * without encoding them again. They are keyed by a digest of the style contents, layer, rule,
+ * scale, size, format, transparency, legend options and environment variables of the request, so
+ * a style change cannot result in a stale legend being served. The cached legends are dropped
+ * anyways when a style is modified or removed, to account for changes the key does not track
+ * (e.g. external graphics). Legends are grouped by layer, so that a feature type change only
+ * drops the legends of that layer (along with the ones of multi layer requests).
+ * </p>
+ * <p>
+ * The cache is controlled by the following variables:
+ * <ul>
+ * <li>WMS_LEGEND_CACHE_SIZE: number of legends kept in memory, the least recently used ones are
+ * evicted first. Caching is disabled when not set or zero</li>
+ * <li>WMS_LEGEND_CACHE_DIR: optional directory where the legends are stored as well, and read
+ * back from once evicted from memory or after a restart. Relative paths are resolved against the
+ * data directory</li>
+ * <li>WMS_LEGEND_CACHE_DISK_SIZE: number of legends kept on disk, the least recently used ones
+ * are deleted first. Defaults to ten times the number of legends kept in memory</li>
+ * </ul>
+ * </p>
+ */
+public class LegendCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(LegendCache.class);
+
+    /**
+     * Returns the legend cache registered in the application context, or null if there is none
+     */
+    public static LegendCache get() {
+        return GeoServerExtensions.bean(LegendCache.class);
+    }
+
+    /**
+     * Returns the legend for the specified request, going through the registered legend cache
+     * if any
+     */
+    public static BufferedImageLegendGraphic getOrBuild(GetLegendGraphicRequest request)
+            throws ServiceException {
+        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
+        LegendCache cache = get();
+        if (cache == null) {
+            return new BufferedImageLegendGraphic(builder.buildLegendGraphic(request));
+        }
+        return cache.getLegendGraphic(request, builder);
+    }
+
+    /**
+     * Group of the legends not tied to a single layer
+     */
+    static final String SHARED_GROUP = "shared";
+
+    final Catalog catalog;
+
+    final int maxEntries;
+
+    final File directory;
+
+    final int maxDiskEntries;
+
+    /**
+     * Number of legends on disk, -1 until counted
+     */
+    final AtomicInteger diskEntries = new AtomicInteger(-1);
+
+    final Map<String, byte[]> entries;
+
+    /**
+     * Digests of the style contents. Parsed styles are shared among requests by the resource
+     * pool, so this saves encoding them at each request
+     */
+    final ConcurrentMap<Style, String> styleDigests = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * bumped at each invalidation, legends built across an invalidation are not cached
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong diskHits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    public LegendCache(Catalog catalog, GeoServerResourceLoader loader) {
+        this(catalog, sizeProperty("WMS_LEGEND_CACHE_SIZE", 0), directoryProperty(loader),
+                sizeProperty("WMS_LEGEND_CACHE_DISK_SIZE", 10 * sizeProperty(
+                        "WMS_LEGEND_CACHE_SIZE", 0)));
+    }
+
+    /**
+     * Builds a cache holding up to ten times more legends on disk than in memory
+     */
+    public LegendCache(Catalog catalog, int maxEntries, File directory) {
+        this(catalog, maxEntries, directory, 10 * maxEntries);
+    }
+
+    /**
+     * Builds a cache
+     *
+     * @param catalog The catalog to listen to
+     * @param maxEntries The number of legends held in memory, zero or negative to disable
+     *        caching
+     * @param directory The disk tier directory, or null to keep the legends in memory only
+     * @param maxDiskEntries The number of legends held on disk
+     */
+    public LegendCache(Catalog catalog, final int maxEntries, File directory, int maxDiskEntries) {
+        this.catalog = catalog;
+        this.maxEntries = maxEntries;
+        this.directory = maxEntries > 0 && maxDiskEntries > 0 ? directory : null;
+        this.maxDiskEntries = maxDiskEntries;
+        this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = -1597218574498372924L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        catalog.addListener(this);
+    }
+
+    static int sizeProperty(String name, int defaultSize) {
+        String size = GeoServerExtensions.getProperty(name);
+        if (size != null) {
+            try {
+                return Integer.parseInt(size.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + name + " value " + size + ", using " + defaultSize);
+            }
+        }
+        return defaultSize;
+    }
+
+    static File directoryProperty(GeoServerResourceLoader loader) {
+        String path = GeoServerExtensions.getProperty("WMS_LEGEND_CACHE_DIR");
+        if (path == null || path.trim().length() == 0) {
+            return null;
+        }
+        File directory = new File(path.trim());
+        if (!directory.isAbsolute() && loader != null) {
+            directory = new File(loader.getBaseDirectory(), path.trim());
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            LOGGER.warning("Could not create the legend cache directory " + directory
+                    + ", legends will be cached in memory only");
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Returns whether legends are being cached
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Returns the legend for the specified request, from the cache if possible, building it with
+     * the specified builder otherwise
+     */
+    public BufferedImageLegendGraphic getLegendGraphic(GetLegendGraphicRequest request,
+            BufferedImageLegendGraphicBuilder builder) throws ServiceException {
+        String key = isEnabled() ? key(request) : null;
+        if (key == null) {
+            return new BufferedImageLegendGraphic(builder.buildLegendGraphic(request));
+        }
+
+        byte[] png = lookup(key);
+        if (png != null) {
+            return new BufferedImageLegendGraphic(png);
+        }
+
+        misses.incrementAndGet();
+        long generation = this.generation.get();
+        BufferedImage image = builder.buildLegendGraphic(request);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PNGLegendGraphicResponse.writePNG(image, bytes);
+            png = bytes.toByteArray();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to encode the legend, not caching it", e);
+            return new BufferedImageLegendGraphic(image);
+        }
+        if (generation == this.generation.get()) {
+            store(key, png);
+        }
+        return new BufferedImageLegendGraphic(image, png);
+    }
+
+    byte[] lookup(String key) {
+        byte[] png;
+        synchronized (entries) {
+            png = entries.get(key);
+        }
+        if (png != null) {
+            hits.incrementAndGet();
+            return png;
+        }
+
+        if (directory != null) {
+            File file = file(key);
+            if (file.exists()) {
+                try {
+                    png = FileUtils.readFileToByteArray(file);
+                    diskHits.incrementAndGet();
+                    // the modification time tells the least recently used legends on disk
+                    file.setLastModified(System.currentTimeMillis());
+                    synchronized (entries) {
+                        entries.put(key, png);
+                    }
+                    return png;
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to read cached legend " + file, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    void store(String key, byte[] png) {
+        synchronized (entries) {
+            entries.put(key, png);
+        }
+        if (directory != null) {
+            // write and rename, concurrent readers should never see a partial file
+            File file = file(key);
+            File temp = new File(file.getParentFile(), file.getName() + "."
+                    + Thread.currentThread().getId() + ".tmp");
+            try {
+                file.getParentFile().mkdirs();
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    out.write(png);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                } else if (countDiskEntries().incrementAndGet() > maxDiskEntries) {
+                    trimDisk();
+                }
+            } catch (IOException e) {
+                temp.delete();
+                LOGGER.log(Level.FINE, "Failed to write cached legend " + file, e);
+            }
+        }
+    }
+
+    /**
+     * The file of a legend, keys are made of the group directory and the legend digest
+     */
+    File file(String key) {
+        return new File(directory, key + ".png");
+    }
+
+    AtomicInteger countDiskEntries() {
+        if (diskEntries.get() < 0) {
+            diskEntries.compareAndSet(-1, diskFiles().size());
+        }
+        return diskEntries;
+    }
+
+    List<File> diskFiles() {
+        List<File> result = new ArrayList<File>();
+        File[] groups = directory.listFiles();
+        if (groups != null) {
+            for (File group : groups) {
+                File[] files = group.isDirectory() ? group.listFiles() : null;
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".png")) {
+                            result.add(file);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the least recently used legends on disk, leaving some room so that the directory
+     * is not scanned at each new legend
+     */
+    synchronized void trimDisk() {
+        List<File> files = diskFiles();
+        if (files.size() > maxDiskEntries) {
+            final Map<File, Long> modified = new HashMap<File, Long>();
+            for (File file : files) {
+                modified.put(file, file.lastModified());
+            }
+            Collections.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    return modified.get(f1).compareTo(modified.get(f2));
+                }
+            });
+            int target = maxDiskEntries - maxDiskEntries / 10;
+            for (int i = 0; i < files.size() - target; i++) {
+                files.get(i).delete();
+            }
+        }
+        diskEntries.set(diskFiles().size());
+    }
+
+    /**
+     * Builds the cache key of a request, or returns null if the legend should not be cached. The
+     * key is made of the {@link #group(Name) group} of the legend and of the digest of the request
+     */
+    String key(GetLegendGraphicRequest request) {
+        StringBuilder sb = new StringBuilder();
+        List<FeatureType> layers = request.getLayers();
+        String group = layers.size() == 1 && layers.get(0) != null ? group(layers.get(0)
+                .getName()) : SHARED_GROUP;
+        List<Style> styles = request.getStyles();
+        List<String> rules = request.getRules();
+        for (int i = 0; i < layers.size(); i++) {
+            FeatureType layer = layers.get(i);
+            sb.append(layer != null ? layer.getName() : null).append('|');
+            Style style = i < styles.size() ? styles.get(i) : null;
+            if (style == null) {
+                return null;
+            }
+            String digest = styleDigest(style);
+            if (digest == null) {
+                return null;
+            }
+            sb.append(digest).append('|');
+            sb.append(i < rules.size() ? rules.get(i) : null).append('|');
+        }
+        sb.append(request.getScale()).append('|');
+        sb.append(request.getWidth()).append('x').append(request.getHeight()).append('|');
+        sb.append(request.getFormat()).append('|').append(request.isTransparent()).append('|');
+        sb.append(sorted(request.getLegendOptions())).append('|');
+        sb.append(sorted(request.getEnv()));
+        return group + "/" + digest(sb.toString());
+    }
+
+    /**
+     * The group of the legends of a single layer
+     */
+    static String group(Name layerName) {
+        return digest(layerName.getNamespaceURI() + ":" + layerName.getLocalPart());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static Map sorted(Map map) {
+        if (map == null) {
+            return null;
+        }
+        Map<String, Object> sorted = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        for (Object e : map.entrySet()) {
+            Map.Entry entry = (Map.Entry) e;
+            sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return sorted;
+    }
+
+    String styleDigest(Style style) {
+        String digest = styleDigests.get(style);
+        if (digest == null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                new SLDTransformer().transform(style, bytes);
+                digest = digest(bytes.toString("UTF-8"));
+                styleDigests.put(style, digest);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not encode style " + style.getName()
+                        + ", its legends won't be cached", e);
+                return null;
+            }
+        }
+        return digest;
+    }
+
+    static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] hash = md.digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+        if (directory != null) {
+            for (File file : diskFiles()) {
+                file.delete();
+            }
+            diskEntries.set(-1);
+        }
+    }
+
+    /**
+     * Drops the cached legends of a layer, and the ones involving several layers
+     */
+    public void invalidate(Name layerName) {
+        generation.incrementAndGet();
+        for (String group : new String[] { group(layerName), SHARED_GROUP }) {
+            synchronized (entries) {
+                for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+                    if (it.next().startsWith(group + "/")) {
+                        it.remove();
+                    }
+                }
+            }
+            if (directory != null) {
+                File[] files = new File(directory, group).listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(".png")) {
+                            file.delete();
+                        }
+                    }
+                }
+            }
+        }
+        diskEntries.set(-1);
+    }
+
+    /**
+     * Number of legends served from memory
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of legends served from the disk tier
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Number of legends that had to be built
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // nothing to do, new styles are not cached yet
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleChange(event.getSource());
+    }
+
+    void handleChange(CatalogInfo source) {
+        if (source instanceof FeatureTypeInfo) {
+            invalidate(((FeatureTypeInfo) source).getQualifiedName());
+        } else if (source instanceof StyleInfo || source instanceof ResourceInfo) {
+            // the legends of rasters are not tied to the resource name
+            invalidate();
+        }
+    }
+
+    public void reloaded() {
+        invalidate();
+    }
+
+    @Override
+    public String toString() {
+        int count;
+        synchronized (entries) {
+            count = entries.size();
+        }
+        return "LegendCache[entries=" + count + ", hits=" + getHits() + ", diskHits="
+                + getDiskHits() + ", misses=" + getMisses() + "]";
+    }
+}
@@ -47,7 +47,20 @@ public class PNGLegendGraphicResponse extends AbstractGetLegendGraphicResponse {
             ServiceException {
         Assert.isInstanceOf(BufferedImageLegendGraphic.class, legend);
 
-        BufferedImage image = ((BufferedImageLegendGraphic) legend).getLegend();
+        // already encoded by the legend cache?
+        byte[] png = ((BufferedImageLegendGraphic) legend).getPNG();
+        if (png != null) {
+            output.write(png);
+            return;
+        }
+
+        writePNG(((BufferedImageLegendGraphic) legend).getLegend(), output);
+    }
+
+    /**
+     * Encodes the legend image as PNG
+     */
+    static void writePNG(BufferedImage image, OutputStream output) throws IOException {
         // /////////////////////////////////////////////////////////////////
         //
         // Reformatting this image for png
@@ -4,8 +4,6 @@
  */
 package org.geoserver.wms.legendgraphic;
 
-import java.awt.image.BufferedImage;
-
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetLegendGraphic;
 import org.geoserver.wms.GetLegendGraphicOutputFormat;
@@ -36,10 +34,7 @@ public class PNGLegendOutputFormat implements GetLegendGraphicOutputFormat {
      */
     public BufferedImageLegendGraphic produceLegendGraphic(GetLegendGraphicRequest request)
             throws ServiceException {
-        BufferedImageLegendGraphicBuilder builder = new BufferedImageLegendGraphicBuilder();
-        BufferedImage legendGraphic = builder.buildLegendGraphic(request);
-        BufferedImageLegendGraphic legend = new BufferedImageLegendGraphic(legendGraphic);
-        return legend;
+        return LegendCache.getOrBuild(request);
     }
 
     /**
@@ -9,9 +9,7 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +23,8 @@ import javax.imageio.stream.ImageOutputStream;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedImageList;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.RasterCleaner;
@@ -61,6 +61,11 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
     static final String[] OUTPUT_FORMATS = {MIME_TYPE, IMAGE_GIF_SUBTYPE_ANIMATED };
 
+    /**
+     * Animations larger than this are buffered on disk until complete
+     */
+    static final int ANIMATION_MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
     /**
      * Default capabilities for GIF .
      * 
@@ -165,10 +170,14 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionType("LZW");
         param.setCompressionQuality(0.75f);
 
+        // the frames are encoded as they get rendered, but the animation is sent only once
+        // complete, so that the rendering time and size limits can still turn into a proper
+        // service exception instead of a truncated image
+        DeferredFileOutputStream buffer = new DeferredFileOutputStream(
+                ANIMATION_MEMORY_THRESHOLD, "animation", ".gif", null);
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
         try {
-            otStream = ImageIO.createImageOutputStream(outStream);
+            otStream = ImageIO.createImageOutputStream(buffer);
             gifWriter.setOutput(otStream);
             gifWriter.prepareWriteSequence(null);
 
@@ -201,7 +210,13 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
                     // write
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+
+                    // let go of the image chain as soon as possible to free memory, the
+                    // frames might still be rendering. The first frame is kept by the list
+                    // to describe the animation, leave its chain alone
+                    if (i > 0) {
+                        dispose(ri);
+                    }
                 }
             }
 
@@ -229,13 +244,14 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
+            IOUtils.closeQuietly(buffer);
+        }
+
+        try {
+            buffer.writeTo(outStream);
+        } finally {
+            if (buffer.getFile() != null) {
+                buffer.getFile().delete();
             }
         }
 
@@ -243,6 +259,14 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             LOGGER.fine("Done writing animated gif");
     }
 
+    static void dispose(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
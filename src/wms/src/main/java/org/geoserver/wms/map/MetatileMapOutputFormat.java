@@ -10,9 +10,10 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.Collections;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,6 +22,8 @@ import javax.imageio.ImageIO;
 import javax.media.jai.PlanarImage;
 
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
@@ -28,6 +31,7 @@ import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.QuickTileCache.CacheElement;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -39,8 +43,8 @@ import org.geotools.util.logging.Logging;
 /**
  * Wrapping map producer that performs on the fly meta tiling wrapping another map producer. It will
  * first peek inside a tile cache to see if the requested tile has already been computed, if so,
- * it'll encode and return that one, otherwise it'll build a meta tile, split it, and finally encode
- * just the requested tile, putting the others in the tile cache.
+ * it'll return its encoded bytes, otherwise it'll build a meta tile, split it, and encode all the
+ * tiles, putting them in the tile cache.
  * 
  * @author Andrea Aime - TOPP
  * @author Simone Giannecchini - GeoSolutions
@@ -118,56 +122,125 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
-    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
-        // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
-
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
+    public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException, IOException {
+        // time and elevation series are combined as images, skip the meta tiler
+        if (request.getTime().size() > 1 || request.getElevation().size() > 1) {
+            return delegate.produceMap(mapContent);
+        }
+
+        // get the key that identifies the meta tile. The cache will make sure only one thread
+        // renders a given meta tile, the others will wait for it and find it ready to be used
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
+        final RenderedImageMapResponse response = getResponse();
+        if (response == null) {
+            return delegate.produceMap(mapContent);
+        }
+
+        final ReferencedEnvelope tileEnvelope = mapContent.getRenderingArea();
+        CacheElement tiles = tileCache.getTiles(key, new QuickTileCache.Loader() {
+            public CacheElement load() throws IOException {
+                return buildMetaTile(key, mapContent, response);
             }
+        });
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Got meta tile " + key.metaTileCoords.x + ", " + key.metaTileCoords.y
+                    + ", " + tileCache);
+        }
 
-            if (tile == null) {
-                // compute the meta-tile
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
-                            + key.metaTileCoords.y+" of size w="+
-                            key.getTileSize() * key.getMetaFactor()+", h="+
-                            key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
-                    
+        // the meta tile rendering alters the map content, restore it for the response
+        mapContent.getViewport().setBounds(tileEnvelope);
+        mapContent.setMapWidth(key.getTileSize());
+        mapContent.setMapHeight(key.getTileSize());
+
+        RawMap tileMap = new RawMap(mapContent, tiles.getTile(tileCache.getTileIndex(key,
+                request)), tiles.getMimeType());
+        if (delegate.getExtension() != null) {
+            tileMap.setContentDispositionHeader(mapContent, "." + delegate.getExtension(), false);
+        }
+        return tileMap;
+    }
+
+    /**
+     * Renders the meta tile, splits it and encodes the tiles with the map response
+     */
+    CacheElement buildMetaTile(MetaTileKey key, WMSMapContent mapContent,
+            RenderedImageMapResponse response) throws IOException {
+        // compute the meta-tile
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y+" of size w="+
+                    key.getTileSize() * key.getMetaFactor()+", h="+
+                    key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
+            
+        }
+
+        // alter the map definition so that we build a meta-tile instead
+        // of just the tile
+        ReferencedEnvelope metaEnvelope = key.getMetaTileEnvelope();
+        mapContent.getViewport().setBounds(metaEnvelope);
+        mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
+        mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+        mapContent.setTileSize(key.getTileSize());
+
+        RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
+        RenderedImage metaTile = metaTileMap.getImage();
+        try {
+            RenderedImage[] tiles = split(key, metaTile, mapContent);
+
+            // encode each tile with the map content set to its own area, as some formats
+            // georeference the output
+            final int metaFactor = key.getMetaFactor();
+            final double width = metaEnvelope.getWidth() / metaFactor;
+            final double height = metaEnvelope.getHeight() / metaFactor;
+            mapContent.setMapWidth(key.getTileSize());
+            mapContent.setMapHeight(key.getTileSize());
+            byte[][] encoded = new byte[tiles.length][];
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            for (int i = 0; i < metaFactor; i++) {
+                for (int j = 0; j < metaFactor; j++) {
+                    double minx = metaEnvelope.getMinX() + j * width;
+                    double miny = metaEnvelope.getMinY() + i * height;
+                    mapContent.getViewport().setBounds(new ReferencedEnvelope(minx, minx + width,
+                            miny, miny + height, metaEnvelope.getCoordinateReferenceSystem()));
+
+                    int index = i * metaFactor + j;
+                    bos.reset();
+                    response.formatImageOutputStream(tiles[index], bos, mapContent);
+                    encoded[index] = bos.toByteArray();
                 }
+            }
 
-                // alter the map definition so that we build a meta-tile instead
-                // of just the tile
-                ReferencedEnvelope origEnv = mapContent.getRenderingArea();
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
-                mapContent.setTileSize(key.getTileSize());
-
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile, mapContent);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+            String mimeType = response.getMimeType(metaTileMap, getOperation());
+            return new CacheElement(encoded, mimeType);
+        } finally {
+            for (GridCoverage2D coverage : metaTileMap.getRenderedCoverages()) {
+                RasterCleaner.addCoverage(coverage);
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+            RasterCleaner.addImage(metaTile);
         }
     }
 
+    /**
+     * Looks up the map response that would encode the delegate output
+     */
+    RenderedImageMapResponse getResponse() {
+        for (RenderedImageMapResponse response : GeoServerExtensions
+                .extensions(RenderedImageMapResponse.class)) {
+            if (response.getOutputFormats().contains(request.getFormat())) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A dummy operation wrapping the request, so that the map response can compute its mime type
+     */
+    Operation getOperation() {
+        Service service = new Service("wms", null, null, Collections.<String> emptyList());
+        return new Operation("GetMap", service, null, new Object[] { request });
+    }
+
     /**
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#getOutputFormatNames()
@@ -295,9 +368,7 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                 }                
             }
         }
-        
-        // dispose input image if necessary/possible
-        RasterCleaner.addImage(metaTile);
+
         return tiles;
     }
 
@@ -10,6 +10,8 @@ import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +27,8 @@ import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
 import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.png.PNGFilterType;
+import org.geoserver.wms.map.png.StreamingPNGEncoder;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.image.ImageWorker;
 import org.geotools.util.logging.Logging;
@@ -46,6 +50,21 @@ public class PNGMapResponse extends RenderedImageMapResponse {
 
     private static final String[] OUTPUT_FORMATS = { MIME_TYPE, MIME_TYPE_8BIT, "image/png8" };
 
+    /**
+     * Format option overriding the PNG compression, as a percentage
+     */
+    static final String FORMAT_OPTION_COMPRESSION = "png_compression";
+
+    /**
+     * Format option choosing the row filter of the streaming encoder
+     */
+    static final String FORMAT_OPTION_FILTER = "png_filter";
+
+    /**
+     * Format option choosing the PNG encoder
+     */
+    static final String FORMAT_OPTION_ENCODER = "png_encoder";
+
     /**
      * The two quantizers available for PNG images
      */
@@ -108,8 +127,50 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
+        // per request encoding options, falling back on the service configuration
+        Map<String, Object> formatOptions = mapContent.getRequest().getFormatOptions();
+        int compression = wms.getPngCompression();
+        if (formatOptions.get(FORMAT_OPTION_COMPRESSION) != null) {
+            try {
+                compression = Integer.parseInt(formatOptions.get(FORMAT_OPTION_COMPRESSION)
+                        .toString().trim());
+            } catch (NumberFormatException e) {
+                throw new ServiceException("Invalid " + FORMAT_OPTION_COMPRESSION + " value "
+                        + formatOptions.get(FORMAT_OPTION_COMPRESSION)
+                        + ", should be a percentage between 0 and 100", e,
+                        ServiceException.INVALID_PARAMETER_VALUE, "format_options");
+            }
+            compression = Math.max(0, Math.min(100, compression));
+        }
+        String encoder = formatOptions.get(FORMAT_OPTION_ENCODER) != null ? formatOptions.get(
+                FORMAT_OPTION_ENCODER).toString() : wms.getPngEncoder();
+
+        if (WMS.PNG_ENCODER_STREAMING.equalsIgnoreCase(encoder)
+                && StreamingPNGEncoder.accepts(image)) {
+            PNGFilterType filter = wms.getPngFilter();
+            if (formatOptions.get(FORMAT_OPTION_FILTER) != null) {
+                try {
+                    filter = PNGFilterType.parse(formatOptions.get(FORMAT_OPTION_FILTER)
+                            .toString());
+                } catch (IllegalArgumentException e) {
+                    throw new ServiceException("Invalid " + FORMAT_OPTION_FILTER + " value "
+                            + formatOptions.get(FORMAT_OPTION_FILTER) + ", should be one of "
+                            + Arrays.toString(PNGFilterType.values()), e,
+                            ServiceException.INVALID_PARAMETER_VALUE, "format_options");
+                }
+            }
+            int level = Math.round(compression * 9 / 100f);
+            new StreamingPNGEncoder(level, filter).encode(image, outStream);
+            RasterCleaner.addImage(image);
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
-        float quality = (100 - wms.getPngCompression()) / 100.0f;
+        float quality = (100 - compression) / 100.0f;
         SampleModel sm = image.getSampleModel();
         int numBits = sm.getSampleSize(0);
         // png acceleration only works on 2 bit and 8 bit images, crashes on 4 bits
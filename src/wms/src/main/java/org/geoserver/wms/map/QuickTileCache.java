@@ -6,14 +6,20 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-import java.awt.image.RenderedImage;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -22,6 +28,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
@@ -30,11 +37,38 @@ import org.geoserver.wms.GetMapRequest;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Caches the tiles of the meta-tiles rendered for tiled GetMap requests, see
+ * {@link MetatileMapOutputFormat}.
+ * <p>
+ * Tiles are kept encoded in the output format, and the cache is bounded in bytes, evicting the
+ * least recently used meta-tiles first. The size, in megabytes, is set by the
+ * WMS_META_TILE_CACHE_SIZE variable and defaults to {@value #DEFAULT_SIZE}, zero disables the
+ * storage. Concurrent requests for the same missing meta-tile wait for a single rendering of it
+ * instead of rendering it each. The cache is emptied at each configuration change and WFS
+ * transaction.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Default size of the cache, in megabytes
+     */
+    static final int DEFAULT_SIZE = 32;
+
+    /**
+     * Builds the encoded tiles of a meta-tile
+     */
+    public static interface Loader {
+        CacheElement load() throws IOException;
+    }
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -53,27 +87,47 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         ignoredParameters.add("EXCEPTIONS");
     }
 
+    final long maxBytes;
+
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * The cached meta-tiles, in access order, guarded by its own lock
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    private final LinkedHashMap<MetaTileKey, CacheElement> tileCache = new LinkedHashMap<MetaTileKey, CacheElement>(
+            16, 0.75f, true);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    private long bytes;
+
+    /**
+     * The meta-tiles being rendered
+     */
+    private final ConcurrentHashMap<MetaTileKey, FutureTask<CacheElement>> loading = new ConcurrentHashMap<MetaTileKey, FutureTask<CacheElement>>();
+
+    /**
+     * bumped at each invalidation, meta-tiles rendered across an invalidation are not cached
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
 
     public QuickTileCache(GeoServer geoServer) {
+        this(sizeProperty());
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,12 +136,34 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_SIZE * 1024l * 1024l);
+    }
+
+    /**
+     * Builds a cache
+     * 
+     * @param maxBytes Maximum size of the cached tiles, in bytes
+     */
+    QuickTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static long sizeProperty() {
+        String size = GeoServerExtensions.getProperty("WMS_META_TILE_CACHE_SIZE");
+        if (size != null) {
+            try {
+                return Long.parseLong(size.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid WMS_META_TILE_CACHE_SIZE value " + size
+                        + ", using the default of " + DEFAULT_SIZE + "MB");
+            }
+        }
+        return DEFAULT_SIZE * 1024l * 1024l;
     }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
-     * specific meta-tile, and also as a synchronization tool to avoid multiple requests to trigger
-     * parallel computation of the same meta-tile
+     * specific meta-tile
      * 
      * @param request
      * @return
@@ -110,12 +186,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
-
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return (MetaTileKey) metaTileKeys.unique(key);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -310,30 +381,76 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Gathers a tile from the cache, if available
-     * 
-     * @param key
-     * @param request
-     * @return
+     * Returns the cached tiles of a meta-tile, or null if they are not available
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public CacheElement getTiles(MetaTileKey key) {
+        synchronized (tileCache) {
+            return tileCache.get(key);
+        }
+    }
 
-        if (ce == null) {
-            return null;
+    /**
+     * Returns the tiles of a meta-tile, from the cache if possible, otherwise from the loader.
+     * Threads asking for a meta-tile being loaded wait for it instead of loading it again.
+     */
+    public CacheElement getTiles(final MetaTileKey key, final Loader loader) throws IOException {
+        CacheElement ce = getTiles(key);
+        if (ce != null) {
+            hits.incrementAndGet();
+            return ce;
         }
 
-        return getTile(key, request, ce.tiles);
+        final long generation = this.generation.get();
+        FutureTask<CacheElement> task = new FutureTask<CacheElement>(new Callable<CacheElement>() {
+            public CacheElement call() throws Exception {
+                // might have been stored while we were getting here
+                CacheElement ce = getTiles(key);
+                if (ce != null) {
+                    hits.incrementAndGet();
+                    return ce;
+                }
+                misses.incrementAndGet();
+                ce = loader.load();
+                if (generation == QuickTileCache.this.generation.get()) {
+                    storeTiles(key, ce);
+                }
+                return ce;
+            }
+        });
+        FutureTask<CacheElement> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+            running = task;
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for the meta tile", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ServiceException("Failed to build the meta tile", cause);
+        }
     }
 
     /**
-     * 
-     * @param key
-     * @param request
-     * @param tiles
-     * @return
+     * Returns the position of the tile requested in the meta-tile
      */
-    public RenderedImage getTile(MetaTileKey key, GetMapRequest request, RenderedImage[] tiles) {
+    public int getTileIndex(MetaTileKey key, GetMapRequest request) {
         Envelope bbox = request.getBbox();
         if(CRS.getAxisOrder(request.getCrs()) == AxisOrder.NORTH_EAST) {
             bbox = new Envelope(bbox.getMinY(), bbox.getMaxY(), bbox.getMinX(), bbox.getMaxX());
@@ -341,27 +458,99 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoord = getTileCoordinates(bbox, key.mapKey.origin);
         Point metaCoord = key.metaTileCoords;
 
-        return tiles[tileCoord.x - metaCoord.x
-                + ((tileCoord.y - metaCoord.y) * key.getMetaFactor())];
+        return tileCoord.x - metaCoord.x + ((tileCoord.y - metaCoord.y) * key.getMetaFactor());
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
-     * 
-     * @param key
-     * @param request
-     * @param tiles
-     * @return
+     * Puts the specified tiles in the cache, evicting the least recently used ones if the cache
+     * grows too big
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, CacheElement tiles) {
+        if (tiles.size > maxBytes) {
+            return;
+        }
+        synchronized (tileCache) {
+            CacheElement previous = tileCache.put(key, tiles);
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            bytes += tiles.size;
+            for (Iterator<CacheElement> it = tileCache.values().iterator(); bytes > maxBytes
+                    && it.hasNext();) {
+                bytes -= it.next().size;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    /**
+     * Empties the cache
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        synchronized (tileCache) {
+            tileCache.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * The encoded tiles of a meta-tile, numbered as in {@link #getTileIndex}
+     */
+    public static class CacheElement {
+        final byte[][] tiles;
+
+        final String mimeType;
 
-        public CacheElement(RenderedImage[] tiles) {
+        final long size;
+
+        public CacheElement(byte[][] tiles, String mimeType) {
             this.tiles = tiles;
+            this.mimeType = mimeType;
+            long size = 0;
+            for (byte[] tile : tiles) {
+                size += tile.length;
+            }
+            this.size = size;
+        }
+
+        public byte[] getTile(int index) {
+            return tiles[index];
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    /**
+     * Number of tiles served from the cache, or from a rendering made by another request
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of meta-tiles rendered
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of meta-tiles evicted to keep the cache within its size
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Size of the cached tiles, in bytes
+     */
+    public long getSize() {
+        synchronized (tileCache) {
+            return bytes;
         }
     }
 
@@ -370,22 +559,31 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (tileCache) {
+            return "QuickTileCache[entries=" + tileCache.size() + ", bytes=" + bytes
+                    + ", maxBytes=" + maxBytes + ", hits=" + getHits() + ", misses="
+                    + getMisses() + ", evictions=" + getEvictions() + "]";
+        }
     }
 }
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +50,7 @@ import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.RenderingExecutor;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
@@ -399,11 +401,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         RenderingHints hints = new RenderingHints(hintsMap);
         GTRenderer renderer;
+        ExecutorService renderingPool = null;
         if (DefaultWebMapService.useShapefileRenderer()) {
             renderer = new ShapefileRenderer();
         } else {
             StreamingRenderer sr = new StreamingRenderer();
-            sr.setThreadPool(DefaultWebMapService.getRenderingPool());
+            renderingPool = DefaultWebMapService.getRenderingPool();
+            sr.setThreadPool(renderingPool);
             renderer = sr;
         }
         renderer.setMapContent(mapContent);
@@ -490,6 +494,10 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             // finally render the image;
             renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
                     mapContent.getRenderingTransform());
+            if (renderingPool instanceof RenderingExecutor) {
+                // feeds the average time per layer statistics
+                ((RenderingExecutor) renderingPool).layersRendered(mapContent.layers().size());
+            }
 
             // apply watermarking
             if (layout != null) {
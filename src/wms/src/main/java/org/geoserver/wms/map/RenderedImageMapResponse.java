@@ -10,7 +10,13 @@ import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -21,14 +27,13 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
 import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
-import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
-import org.geoserver.wms.map.quantize.LRUColorIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.palette.InverseColorMapOp;
+import org.geotools.util.logging.Logging;
 import org.springframework.util.Assert;
 
 /**
@@ -57,12 +62,21 @@ import org.springframework.util.Assert;
  */
 public abstract class RenderedImageMapResponse extends AbstractMapResponse {
 
+    private static final Logger LOGGER = Logging.getLogger(RenderedImageMapResponse.class);
+
     /** Which format to encode the image in if one is not supplied */
     private static final String DEFAULT_MAP_FORMAT = "image/png";
 
     /** WMS Service configuration * */
     protected final WMS wms;
 
+    /**
+     * Threads quantizing large paletted images, see {@link #getQuantizerPool()}
+     */
+    static ExecutorService QUANTIZER_POOL;
+
+    static boolean QUANTIZER_POOL_INITIALIZED;
+
     /**
      * 
      */
@@ -171,18 +185,20 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 image = new ImageWorker(image).rescaleToBytes().forceComponentColorModel()
                         .getRenderedImage();
                 ColorIndexer indexer = null;
+                ExecutorService pool = getQuantizerPool();
                 
                 // user provided palette?
                 if (mapContent.getPalette() != null) {
-                    indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+                    indexer = PaletteManager.getColorIndexer(icm);
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
-                    indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+                    indexer = new Quantizer(256).subsample().executor(pool)
+                            .buildColorIndexer(image);
                 }
 
                 // if we have an indexer transform the image
                 if (indexer != null) {
-                    image = ColorIndexerDescriptor.create(image, indexer, null);
+                    image = ColorIndexerDescriptor.remap(image, indexer, pool);
                 }
             }
         }
@@ -190,6 +206,51 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
         return image;
     }
     
+    /**
+     * Returns the thread pool used to build the palette and index large images in parallel, or
+     * null if the work should be done in the calling thread. The pool size is set by the
+     * WMS_QUANTIZER_THREADS variable, parallel quantization is disabled when not set or zero.
+     */
+    static synchronized ExecutorService getQuantizerPool() {
+        if (!QUANTIZER_POOL_INITIALIZED) {
+            QUANTIZER_POOL_INITIALIZED = true;
+            int threads = 0;
+            String value = GeoServerExtensions.getProperty("WMS_QUANTIZER_THREADS");
+            if (value != null) {
+                try {
+                    threads = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid WMS_QUANTIZER_THREADS value " + value
+                            + ", parallel quantization disabled");
+                }
+            }
+            if (threads > 0) {
+                QUANTIZER_POOL = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Quantizer " + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        return QUANTIZER_POOL;
+    }
+
+    /**
+     * Shuts down the quantizer thread pool, a new one will be created on the next request if
+     * needed
+     */
+    public static synchronized void disposeQuantizerPool() {
+        if (QUANTIZER_POOL != null) {
+            QUANTIZER_POOL.shutdownNow();
+            QUANTIZER_POOL = null;
+        }
+        QUANTIZER_POOL_INITIALIZED = false;
+    }
+
     /**
      * @param originalImage
      * @return
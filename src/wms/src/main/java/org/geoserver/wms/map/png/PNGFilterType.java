@@ -0,0 +1,42 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+/**
+ * The row filters the {@link StreamingPNGEncoder} can apply before compression
+ */
+public enum PNGFilterType {
+    /**
+     * Rows are compressed as they are, the fastest option and usually the best one for paletted
+     * images
+     */
+    NONE,
+    /**
+     * Each byte is replaced by its difference with the corresponding byte of the previous pixel
+     */
+    SUB,
+    /**
+     * Each byte is replaced by its difference with the corresponding byte in the previous row
+     */
+    UP,
+    /**
+     * Each byte is replaced by its difference with the Paeth predictor of the left, upper and
+     * upper left bytes
+     */
+    PAETH,
+    /**
+     * Picks the best filter for each row, using the minimum sum of absolute differences heuristic
+     */
+    ADAPTIVE;
+
+    /**
+     * Parses a filter name, case insensitive
+     * 
+     * @throws IllegalArgumentException if the name does not match any filter
+     */
+    public static PNGFilterType parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
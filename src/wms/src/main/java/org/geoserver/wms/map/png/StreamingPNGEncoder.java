@@ -0,0 +1,456 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder writing the image straight to the output stream, one tile row at a time, so that
+ * the image never needs to be fully computed nor buffered in memory. The deflate level and the row
+ * filter can be chosen at each call.
+ * <p>
+ * Only images with 8 bit samples (gray, gray/alpha, RGB, RGBA, non premultiplied) and paletted
+ * images with 1, 2, 4 or 8 bits per pixel are supported, see {@link #accepts(RenderedImage)}.
+ * Paletted images whose rows are already stored as PNG expects them are copied without any
+ * per pixel work.
+ * </p>
+ */
+public class StreamingPNGEncoder {
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    /**
+     * Maximum size of an IDAT chunk
+     */
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    int compressionLevel;
+
+    PNGFilterType filter;
+
+    /**
+     * Builds a new encoder
+     * 
+     * @param compressionLevel The deflate level, between 0 (no compression) and 9 (best)
+     * @param filter The row filter to use
+     */
+    public StreamingPNGEncoder(int compressionLevel, PNGFilterType filter) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, was "
+                    + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        this.filter = filter == null ? PNGFilterType.ADAPTIVE : filter;
+    }
+
+    /**
+     * Returns true if the encoder can write the specified image
+     */
+    public static boolean accepts(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null || sm == null) {
+            return false;
+        }
+        if (cm instanceof IndexColorModel) {
+            int bits = sm.getSampleSize(0);
+            return sm.getNumBands() == 1 && sm.getDataType() == DataBuffer.TYPE_BYTE
+                    && (bits == 1 || bits == 2 || bits == 4 || bits == 8);
+        }
+        if (cm.isAlphaPremultiplied()) {
+            return false;
+        }
+        int bands = sm.getNumBands();
+        for (int i = 0; i < bands; i++) {
+            if (sm.getSampleSize(i) != 8) {
+                return false;
+            }
+        }
+        int type = cm.getColorSpace().getType();
+        if (type == ColorSpace.TYPE_GRAY) {
+            return bands == 1 || (bands == 2 && cm.hasAlpha());
+        } else if (type == ColorSpace.TYPE_RGB) {
+            return bands == 3 || (bands == 4 && cm.hasAlpha());
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the image into the output stream. The stream is not closed.
+     */
+    public void encode(RenderedImage image, OutputStream output) throws IOException {
+        if (!accepts(image)) {
+            throw new IllegalArgumentException("Unsupported image layout, sample model: "
+                    + image.getSampleModel() + ", color model: " + image.getColorModel());
+        }
+
+        ColorModel cm = image.getColorModel();
+        int bands = image.getSampleModel().getNumBands();
+        int bitDepth = image.getSampleModel().getSampleSize(0);
+        int colorType;
+        if (cm instanceof IndexColorModel) {
+            colorType = COLOR_PALETTE;
+        } else if (cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+            colorType = bands == 1 ? COLOR_GRAY : COLOR_GRAY_ALPHA;
+        } else {
+            colorType = bands == 3 ? COLOR_RGB : COLOR_RGBA;
+        }
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(SIGNATURE);
+        writeHeader(out, image.getWidth(), image.getHeight(), bitDepth, colorType);
+        if (colorType == COLOR_PALETTE) {
+            writePalette(out, (IndexColorModel) cm);
+        }
+        writeData(out, image, bands, bitDepth, colorType);
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    void writeHeader(DataOutputStream out, int width, int height, int bitDepth, int colorType)
+            throws IOException {
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        // compression, filter and interlace methods are all zero
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    void writePalette(DataOutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", palette, palette.length);
+
+        // the alpha values are needed only up to the last non opaque entry
+        if (lastTranslucent >= 0) {
+            byte[] alphas = new byte[lastTranslucent + 1];
+            for (int i = 0; i <= lastTranslucent; i++) {
+                alphas[i] = (byte) icm.getAlpha(i);
+            }
+            writeChunk(out, "tRNS", alphas, alphas.length);
+        }
+    }
+
+    void writeData(DataOutputStream out, RenderedImage image, int bands, int bitDepth,
+            int colorType) throws IOException {
+        final int width = image.getWidth();
+        final int rowBytes = (width * bands * bitDepth + 7) / 8;
+        final int bpp = Math.max(1, bands * bitDepth / 8);
+
+        // paletted and sub-byte images rarely benefit from filtering
+        PNGFilterType filter = this.filter;
+        if (filter == PNGFilterType.ADAPTIVE && (colorType == COLOR_PALETTE || bitDepth < 8)) {
+            filter = PNGFilterType.NONE;
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        ChunkOutputStream chunks = new ChunkOutputStream(out);
+        DeflaterOutputStream deflated = new DeflaterOutputStream(chunks, deflater, CHUNK_SIZE);
+        try {
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            byte[] filtered = new byte[rowBytes + 1];
+            byte[][] candidates = filter == PNGFilterType.ADAPTIVE ? new byte[5][rowBytes + 1]
+                    : null;
+            int[] pixels = colorType == COLOR_PALETTE && bitDepth < 8 ? new int[width]
+                    : new int[width * bands];
+
+            final int minY = image.getMinY();
+            final int maxY = minY + image.getHeight();
+            final boolean singleColumn = image.getNumXTiles() == 1;
+            int y = minY;
+            while (y < maxY) {
+                // grab the next strip, either a whole row of tiles or a slice of a single tile
+                Raster strip;
+                if (singleColumn && image.getNumYTiles() == 1) {
+                    strip = image.getTile(image.getMinTileX(), image.getMinTileY());
+                } else {
+                    int tileY = Math.max(image.getMinTileY(),
+                            (int) Math.floor((y - image.getTileGridYOffset())
+                                    / (double) image.getTileHeight()));
+                    int tileMaxY = image.getTileGridYOffset() + (tileY + 1)
+                            * image.getTileHeight();
+                    int height = Math.min(tileMaxY, maxY) - y;
+                    if (singleColumn) {
+                        strip = image.getTile(image.getMinTileX(), tileY);
+                    } else {
+                        strip = image.getData(new Rectangle(image.getMinX(), y, width, height));
+                    }
+                }
+
+                int stripMaxY = Math.min(maxY, strip.getMinY() + strip.getHeight());
+                for (; y < stripMaxY; y++) {
+                    readRow(strip, image.getMinX(), y, width, bands, bitDepth, colorType, current,
+                            pixels);
+                    byte[] row = filter(filter, current, previous, bpp, filtered, candidates);
+                    deflated.write(row, 0, rowBytes + 1);
+
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+            }
+            deflated.finish();
+            chunks.flushChunk();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads a row of the image in the PNG layout
+     */
+    void readRow(Raster raster, int minX, int y, int width, int bands, int bitDepth,
+            int colorType, byte[] row, int[] pixels) {
+        if (colorType == COLOR_PALETTE && copyRow(raster, minX, y, width, bitDepth, row)) {
+            return;
+        }
+
+        if (bitDepth < 8) {
+            // pack the indexes, most significant bits first
+            raster.getSamples(minX, y, width, 1, 0, pixels);
+            Arrays.fill(row, (byte) 0);
+            int perByte = 8 / bitDepth;
+            for (int i = 0; i < width; i++) {
+                int shift = 8 - bitDepth * (i % perByte + 1);
+                row[i / perByte] |= (byte) (pixels[i] << shift);
+            }
+        } else {
+            raster.getPixels(minX, y, width, 1, pixels);
+            int count = width * bands;
+            for (int i = 0; i < count; i++) {
+                row[i] = (byte) pixels[i];
+            }
+        }
+    }
+
+    /**
+     * Fast path for paletted images whose rows are already laid out as PNG expects them, returns
+     * false if the raster layout does not allow a straight copy
+     */
+    boolean copyRow(Raster raster, int minX, int y, int width, int bitDepth, byte[] row) {
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                || raster.getDataBuffer().getNumBanks() != 1) {
+            return false;
+        }
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int offset = raster.getDataBuffer().getOffset();
+        int x = minX - raster.getSampleModelTranslateX();
+        int ry = y - raster.getSampleModelTranslateY();
+        SampleModel sm = raster.getSampleModel();
+        if (sm instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel mpp = (MultiPixelPackedSampleModel) sm;
+            if (mpp.getPixelBitStride() != bitDepth || mpp.getBitOffset(x) != 0) {
+                return false;
+            }
+            int start = offset + mpp.getOffset(x, ry);
+            System.arraycopy(data, start, row, 0, row.length);
+            // clear the padding bits, they might contain garbage
+            int used = (width * bitDepth) % 8;
+            if (used != 0) {
+                row[row.length - 1] &= (byte) (0xFF << (8 - used));
+            }
+            return true;
+        } else if (sm instanceof ComponentSampleModel && bitDepth == 8) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            if (csm.getPixelStride() != 1) {
+                return false;
+            }
+            int start = offset + csm.getOffset(x, ry, 0);
+            System.arraycopy(data, start, row, 0, width);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Filters the current row, returns an array holding the filter type followed by the filtered
+     * bytes
+     */
+    byte[] filter(PNGFilterType filter, byte[] current, byte[] previous, int bpp,
+            byte[] filtered, byte[][] candidates) {
+        switch (filter) {
+        case NONE:
+            filtered[0] = 0;
+            System.arraycopy(current, 0, filtered, 1, current.length);
+            return filtered;
+        case SUB:
+            sub(current, bpp, filtered);
+            return filtered;
+        case UP:
+            up(current, previous, filtered);
+            return filtered;
+        case PAETH:
+            paeth(current, previous, bpp, filtered);
+            return filtered;
+        default:
+            candidates[0][0] = 0;
+            System.arraycopy(current, 0, candidates[0], 1, current.length);
+            sub(current, bpp, candidates[1]);
+            up(current, previous, candidates[2]);
+            average(current, previous, bpp, candidates[3]);
+            paeth(current, previous, bpp, candidates[4]);
+            byte[] best = null;
+            long bestSum = Long.MAX_VALUE;
+            for (byte[] candidate : candidates) {
+                long sum = 0;
+                for (int i = 1; i < candidate.length; i++) {
+                    sum += Math.abs(candidate[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+    }
+
+    static void sub(byte[] current, int bpp, byte[] out) {
+        out[0] = 1;
+        for (int i = 0; i < current.length; i++) {
+            int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+            out[i + 1] = (byte) ((current[i] & 0xFF) - left);
+        }
+    }
+
+    static void up(byte[] current, byte[] previous, byte[] out) {
+        out[0] = 2;
+        for (int i = 0; i < current.length; i++) {
+            out[i + 1] = (byte) ((current[i] & 0xFF) - (previous[i] & 0xFF));
+        }
+    }
+
+    static void average(byte[] current, byte[] previous, int bpp, byte[] out) {
+        out[0] = 3;
+        for (int i = 0; i < current.length; i++) {
+            int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+            out[i + 1] = (byte) ((current[i] & 0xFF) - ((left + (previous[i] & 0xFF)) >> 1));
+        }
+    }
+
+    static void paeth(byte[] current, byte[] previous, int bpp, byte[] out) {
+        out[0] = 4;
+        for (int i = 0; i < current.length; i++) {
+            int a = i >= bpp ? current[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            int predictor;
+            if (pa <= pb && pa <= pc) {
+                predictor = a;
+            } else if (pb <= pc) {
+                predictor = b;
+            } else {
+                predictor = c;
+            }
+            out[i + 1] = (byte) ((current[i] & 0xFF) - predictor);
+        }
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(DataOutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Splits the compressed data in IDAT chunks
+     */
+    static class ChunkOutputStream extends OutputStream {
+        DataOutputStream out;
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+
+        int count;
+
+        ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
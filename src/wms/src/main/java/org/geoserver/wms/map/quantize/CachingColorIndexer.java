@@ -15,9 +15,11 @@ import java.awt.image.IndexColorModel;
 public class CachingColorIndexer implements ColorIndexer {
     ColorIndexer delegate;
 
-    int lr, lg, lb, la;
-
-    int idx = -1;
+    /**
+     * The last color and its index packed in a single long, so that it can be read and written
+     * atomically without locking
+     */
+    volatile long last = -1l;
 
     public CachingColorIndexer(ColorIndexer delegate) {
         this.delegate = delegate;
@@ -30,21 +32,14 @@ public class CachingColorIndexer implements ColorIndexer {
 
     @Override
     public int getClosestIndex(int r, int g, int b, int a) {
-        synchronized (this) {
-            if (r == lr && g == lg && b == lb && a == la && idx >= 0) {
-                return idx;
-            }
+        int color = ColorUtils.color(r, g, b, a);
+        long last = this.last;
+        if ((int) (last >>> 32) == color && (int) last >= 0) {
+            return (int) last;
         }
 
         int delegateIdx = delegate.getClosestIndex(r, g, b, a);
-
-        synchronized (this) {
-            lr = r;
-            lg = g;
-            lb = b;
-            la = a;
-            idx = delegateIdx;
-        }
+        this.last = ((long) color << 32) | (delegateIdx & 0xFFFFFFFFl);
 
         return delegateIdx;
     }
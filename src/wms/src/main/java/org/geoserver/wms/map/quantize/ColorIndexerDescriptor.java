@@ -6,8 +6,18 @@
 package org.geoserver.wms.map.quantize;
 
 // J2SE dependencies
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.awt.image.renderable.ParameterBlock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -138,4 +148,50 @@ public class ColorIndexerDescriptor extends OperationDescriptorImpl {
 
         return JAI.create("ColorIndexer", pb, hints);
     }
+
+    /**
+     * Maps the source image to the indexer palette splitting the work in horizontal strips run by
+     * the specified executor. Falls back on the (lazy) ColorIndexer operation when there is no
+     * executor or the image is too small to be worth splitting. The indexer must be thread safe.
+     */
+    public static RenderedImage remap(final RenderedImage source, final ColorIndexer indexer,
+            ExecutorService executor) {
+        if (executor == null || source.getHeight() <= PackedHistogram.REGION_ROWS
+                || source.getMinX() != 0 || source.getMinY() != 0) {
+            return create(source, indexer, null);
+        }
+
+        final IndexColorModel icm = indexer.toIndexColorModel();
+        final WritableRaster dest = icm.createCompatibleWritableRaster(source.getWidth(),
+                source.getHeight());
+        final boolean singleTile = source.getNumXTiles() == 1 && source.getNumYTiles() == 1;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int y = 0; y < source.getHeight(); y += PackedHistogram.REGION_ROWS) {
+            final Rectangle strip = new Rectangle(0, y, source.getWidth(), Math.min(
+                    PackedHistogram.REGION_ROWS, source.getHeight() - y));
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    Raster src = singleTile ? source.getTile(source.getMinTileX(),
+                            source.getMinTileY()) : source.getData(strip);
+                    ColorIndexerOpImage.index(src, dest, strip, indexer);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while mapping the image to the palette", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to map the image to the palette", e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return new BufferedImage(icm, dest, false, null);
+    }
 }
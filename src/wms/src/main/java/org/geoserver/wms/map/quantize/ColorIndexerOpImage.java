@@ -5,6 +5,7 @@
  */
 package org.geoserver.wms.map.quantize;
 
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
@@ -85,25 +86,31 @@ public class ColorIndexerOpImage extends PointOpImage {
         }
         final WritableRaster dest = icm.createCompatibleWritableRaster(src.getWidth(),
                 src.getHeight()).createWritableTranslatedChild(src.getMinX(), src.getMinY());
-        final int w = dest.getWidth();
-        final int h = dest.getHeight();
-        final int srcMinX = Math.max(sourceImage.getMinX(), src.getMinX());
-        final int srcMinY = Math.max(sourceImage.getMinY(), src.getMinY());
-        final int srcMaxX = Math.min(sourceImage.getMinX() + sourceImage.getWidth(), src.getMinX()
-                + w);
-        final int srcMaxY = Math.min(sourceImage.getMinY() + sourceImage.getHeight(), src.getMinY()
-                + h);
-        final int dstMinX = Math.max(src.getMinX(), sourceImage.getMinX());
-        final int dstMinY = Math.max(src.getMinY(), sourceImage.getMinY());
+        final int minX = Math.max(sourceImage.getMinX(), src.getMinX());
+        final int minY = Math.max(sourceImage.getMinY(), src.getMinY());
+        final int maxX = Math.min(sourceImage.getMinX() + sourceImage.getWidth(), src.getMinX()
+                + dest.getWidth());
+        final int maxY = Math.min(sourceImage.getMinY() + sourceImage.getHeight(), src.getMinY()
+                + dest.getHeight());
+        index(src, dest, new Rectangle(minX, minY, maxX - minX, maxY - minY), palette);
+
+        return dest;
+    }
+
+    /**
+     * Maps the source pixels in the specified area to the palette indexes, the destination raster
+     * must share the source coordinate system
+     */
+    static void index(Raster src, WritableRaster dest, Rectangle area, ColorIndexer palette) {
+        final int srcMinX = area.x;
+        final int srcMinY = area.y;
+        final int srcMaxX = area.x + area.width;
+        final int srcMaxY = area.y + area.height;
         int srcBands = src.getNumBands();
         final int[] pixel = new int[srcBands];
-        final byte[] bytes = new byte[srcBands];
-        for (int y = srcMinY, y_ = dstMinY; y < srcMaxY; y++, y_++) {
-            for (int x = srcMinX, x_ = dstMinX; x < srcMaxX; x++, x_++) {
+        for (int y = srcMinY; y < srcMaxY; y++) {
+            for (int x = srcMinX; x < srcMaxX; x++) {
                 src.getPixel(x, y, pixel);
-                for (int i = 0; i < srcBands; i++) {
-                    bytes[i] = (byte) (pixel[i] & 0xFF);
-                }
 
                 int r, g, b, a;
 
@@ -118,11 +125,9 @@ public class ColorIndexerOpImage extends PointOpImage {
                 }
 
                 int idx = palette.getClosestIndex(r, g, b, a);
-                dest.setSample(x_, y_, 0, (byte) (idx & 0xff));
+                dest.setSample(x, y, 0, (byte) (idx & 0xff));
             }
         }
-
-        return dest;
     }
 
 }
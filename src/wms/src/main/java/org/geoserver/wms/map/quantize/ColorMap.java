@@ -107,6 +107,21 @@ final class ColorMap implements Iterable<ColorEntry> {
         addEntry(color, increment, index);
     }
 
+    /**
+     * Adds the specified amount to the counter associated to the specified packed color, or sets
+     * the counter to the amount if the color is missing
+     */
+    void add(int color, int amount) {
+        int index = indexFor(hash(color), table.length);
+        for (ColorEntry e = table[index]; e != null; e = e.next) {
+            if (e.color == color) {
+                e.value += amount;
+                return;
+            }
+        }
+        addEntry(color, amount, index);
+    }
+
     private void addEntry(int color, int value, int index) {
         ColorEntry entry = new ColorEntry(color, value, table[index]);
         table[index] = entry;
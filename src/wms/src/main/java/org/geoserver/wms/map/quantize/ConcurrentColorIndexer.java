@@ -0,0 +1,75 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.awt.image.IndexColorModel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A color indexer used when all we have is the target palette, that can be shared by all the
+ * requests using the same palette. The matches are cached in a fixed size, direct mapped table
+ * which is read and written without locks: each slot holds the color and its index packed in a
+ * single long, colliding colors just overwrite each other, so the memory used stays bounded no
+ * matter how many colors the images contain.
+ */
+public class ConcurrentColorIndexer implements ColorIndexer {
+
+    /**
+     * Marks an empty slot, it cannot be a valid entry as the index part is negative
+     */
+    static final long EMPTY = -1l;
+
+    IndexColorModel icm;
+
+    ColorIndexer delegate;
+
+    AtomicLongArray cache;
+
+    int mask;
+
+    /**
+     * Builds a new indexer
+     * 
+     * @param icm The target palette
+     * @param cacheSize The number of cached matches, rounded up to the next power of two
+     */
+    public ConcurrentColorIndexer(IndexColorModel icm, int cacheSize) {
+        this.icm = icm;
+        this.delegate = new SimpleColorIndexer(icm);
+        int size = Integer.highestOneBit(Math.max(cacheSize, 2) - 1) << 1;
+        this.cache = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            cache.set(i, EMPTY);
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public IndexColorModel toIndexColorModel() {
+        return icm;
+    }
+
+    @Override
+    public int getClosestIndex(int r, int g, int b, int a) {
+        int color = ColorUtils.color(r, g, b, a);
+        int slot = hash(color) & mask;
+        long entry = cache.get(slot);
+        if (entry != EMPTY && (int) (entry >>> 32) == color) {
+            return (int) entry;
+        }
+
+        int idx = delegate.getClosestIndex(r, g, b, a);
+        cache.lazySet(slot, ((long) color << 32) | (idx & 0xFFFFFFFFl));
+        return idx;
+    }
+
+    /**
+     * Spreads the color bits, nearby colors should not end up in the same slot
+     */
+    static int hash(int color) {
+        int h = color * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
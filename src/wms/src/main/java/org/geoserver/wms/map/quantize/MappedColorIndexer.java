@@ -8,13 +8,19 @@ import java.awt.image.IndexColorModel;
 
 /**
  * Palette that re-uses the ColorMap used to build the palette itsel to speedup the lookups. When
- * there is no shift every color found in the map can be also found in the color map.
+ * there is no shift every color found in the map can be also found in the color map. The indexer
+ * can be used by multiple threads at the same time.
  * 
  * @author Andrea Aime - GeoSolutions
  * 
  */
 public class MappedColorIndexer implements ColorIndexer {
 
+    /**
+     * Number of cached matches for the colors not found in the color map
+     */
+    static final int MISSES_CACHE_SIZE = 4096;
+
     byte[][] colors;
 
     ColorMap colorMap;
@@ -23,6 +29,11 @@ public class MappedColorIndexer implements ColorIndexer {
 
     SimpleColorIndexer delegate;
 
+    /**
+     * Handles the colors that were not part of the histogram
+     */
+    ConcurrentColorIndexer misses;
+
     /**
      * Builds a new {@link MappedColorIndexer}
      * 
@@ -36,6 +47,7 @@ public class MappedColorIndexer implements ColorIndexer {
         this.shift = shift;
         this.colorMap = colorMap;
         this.delegate = new SimpleColorIndexer(colors);
+        this.misses = new ConcurrentColorIndexer(delegate.toIndexColorModel(), MISSES_CACHE_SIZE);
     }
 
     public IndexColorModel toIndexColorModel() {
@@ -60,14 +72,12 @@ public class MappedColorIndexer implements ColorIndexer {
             sa = 0;
         }
 
-        synchronized (colorMap) {
-            int idx = colorMap.get(sr, sg, sb, sa);
-            if (idx < 0) {
-                idx = delegate.getClosestIndex(r, g, b, a);
-                colorMap.put(sr, sg, sb, sa, idx);
-            }
-            return idx;
+        // the color map is never modified, so it can be read without locking
+        int idx = colorMap.get(sr, sg, sb, sa);
+        if (idx < 0) {
+            idx = misses.getClosestIndex(r, g, b, a);
         }
+        return idx;
     }
 
 }
@@ -6,10 +6,17 @@ package org.geoserver.wms.map.quantize;
 
 import static org.geoserver.wms.map.quantize.ColorUtils.*;
 
+import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 
@@ -27,6 +34,11 @@ class PackedHistogram {
 
     static final int ALPHA_THRESHOLD = 5;
 
+    /**
+     * Maximum number of rows in the regions the image is split into
+     */
+    static final int REGION_ROWS = 256;
+
     /**
      * An entry in the histogram
      */
@@ -110,18 +122,38 @@ class PackedHistogram {
     ColorMap colorMap;
 
     PackedHistogram(RenderedImage image, int stepX, int stepY) {
-        // build a reduced map of the colors
-        colorMap = new ColorMap();
+        this(image, stepX, stepY, null);
+    }
 
-        final int minX = image.getMinTileX();
-        final int maxX = minX + image.getNumXTiles();
-        final int minY = image.getMinTileY();
-        final int maxY = minY + image.getNumYTiles();
+    /**
+     * Builds the histogram, computing the partial histograms of the image regions in parallel
+     * when an executor is provided.
+     * <p>
+     * The parallel path produces the very same histogram, bin order included, as the serial one:
+     * the colors are added to the histogram in the order they are first met in the serial scan.
+     * This is not possible when the serial scan has to shift bits, since the result then depends
+     * on when the shifts happen, so in that case the histogram is built again serially.
+     * </p>
+     */
+    PackedHistogram(final RenderedImage image, final int stepX, final int stepY,
+            ExecutorService executor) {
+        colorMap = new ColorMap();
         this.shift = 0;
-        for (int x = minX; x < maxX; x++) {
-            for (int y = minY; y < maxY; y++) {
-                Raster tile = image.getTile(x, y);
-                shift = updateColorMap(image, tile, colorMap, shift, stepX, stepY);
+
+        List<Region> regions = executor != null ? getRegions(image, stepY) : null;
+        if (regions == null || regions.size() == 1 || !buildParallel(image, regions, stepX, stepY,
+                executor)) {
+            colorMap = new ColorMap();
+            final int minX = image.getMinTileX();
+            final int maxX = minX + image.getNumXTiles();
+            final int minY = image.getMinTileY();
+            final int maxY = minY + image.getNumYTiles();
+            this.shift = 0;
+            for (int x = minX; x < maxX; x++) {
+                for (int y = minY; y < maxY; y++) {
+                    Raster tile = image.getTile(x, y);
+                    shift = updateColorMap(image, tile, colorMap, shift, stepX, stepY);
+                }
             }
         }
 
@@ -135,6 +167,219 @@ class PackedHistogram {
         // colorMap.printStats();
     }
 
+    /**
+     * Computes the partial histograms of the regions in parallel and merges them in serial scan
+     * order
+     * 
+     * @return false if the histogram needs shifting and has to be built serially instead
+     */
+    boolean buildParallel(final RenderedImage image, List<Region> regions, final int stepX,
+            final int stepY, ExecutorService executor) {
+        List<Future<Partial>> futures = new ArrayList<Future<Partial>>(regions.size());
+        for (final Region region : regions) {
+            futures.add(executor.submit(new Callable<Partial>() {
+                public Partial call() throws Exception {
+                    return computePartial(image, region, stepX, stepY);
+                }
+            }));
+        }
+        try {
+            int start = 0;
+            while (start < regions.size()) {
+                // the regions of the same tile
+                Region first = regions.get(start);
+                int end = start + 1;
+                while (end < regions.size() && regions.get(end).tileX == first.tileX
+                        && regions.get(end).tileY == first.tileY) {
+                    end++;
+                }
+                List<Partial> partials = new ArrayList<Partial>(end - start);
+                int newColors = 0;
+                for (int i = start; i < end; i++) {
+                    Partial partial = futures.get(i).get();
+                    if (partial == null) {
+                        return false;
+                    }
+                    partials.add(partial);
+                    newColors += partial.newColors;
+                }
+
+                // add the colors in the order the serial scan of the tile meets them first
+                long[] firsts = new long[newColors];
+                int n = 0;
+                for (Partial partial : partials) {
+                    System.arraycopy(partial.firsts, 0, firsts, n, partial.newColors);
+                    n += partial.newColors;
+                }
+                Arrays.sort(firsts);
+                for (long f : firsts) {
+                    colorMap.add((int) f, 0);
+                }
+                for (Partial partial : partials) {
+                    for (ColorEntry entry : partial.colorMap) {
+                        colorMap.add(entry.color, entry.value);
+                    }
+                }
+                if (colorMap.size() > Short.MAX_VALUE) {
+                    return false;
+                }
+                start = end;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building the histogram", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to build the histogram", e.getCause());
+        } finally {
+            for (Future<Partial> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A portion of a tile
+     */
+    static final class Region {
+        final int tileX;
+
+        final int tileY;
+
+        /**
+         * The part of the tile inside the image
+         */
+        final Rectangle tileBounds;
+
+        final Rectangle bounds;
+
+        Region(int tileX, int tileY, Rectangle tileBounds, Rectangle bounds) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.tileBounds = tileBounds;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * The histogram of a region, with the colors in it and the position in the serial scan of the
+     * tile where each of them is met first
+     */
+    static final class Partial {
+        final ColorMap colorMap;
+
+        /**
+         * Position in the tile scan in the upper 32 bits, color in the lower ones
+         */
+        final long[] firsts;
+
+        final int newColors;
+
+        Partial(ColorMap colorMap, long[] firsts, int newColors) {
+            this.colorMap = colorMap;
+            this.firsts = firsts;
+            this.newColors = newColors;
+        }
+    }
+
+    /**
+     * Splits the image tiles in horizontal strips of at most {@link #REGION_ROWS} rows
+     * 
+     * @return The regions, or null if the tiles are too large to track the scan positions
+     */
+    static List<Region> getRegions(RenderedImage image, int stepY) {
+        // keep the strips aligned with the vertical subsampling
+        final int rows = Math.max(1, REGION_ROWS / stepY) * stepY;
+        final Rectangle imageBounds = new Rectangle(image.getMinX(), image.getMinY(),
+                image.getWidth(), image.getHeight());
+        if ((long) image.getTileWidth() * image.getTileHeight() > Integer.MAX_VALUE) {
+            return null;
+        }
+        final int minX = image.getMinTileX();
+        final int maxX = minX + image.getNumXTiles();
+        final int minY = image.getMinTileY();
+        final int maxY = minY + image.getNumYTiles();
+        List<Region> regions = new ArrayList<Region>();
+        for (int x = minX; x < maxX; x++) {
+            for (int y = minY; y < maxY; y++) {
+                Rectangle tileBounds = new Rectangle(image.getTileGridXOffset() + x
+                        * image.getTileWidth(), image.getTileGridYOffset() + y
+                        * image.getTileHeight(), image.getTileWidth(), image.getTileHeight())
+                        .intersection(imageBounds);
+                for (int row = tileBounds.y; row < tileBounds.y + tileBounds.height; row += rows) {
+                    int height = Math.min(rows, tileBounds.y + tileBounds.height - row);
+                    regions.add(new Region(x, y, tileBounds, new Rectangle(tileBounds.x, row,
+                            tileBounds.width, height)));
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Computes the histogram of a region without shifting
+     * 
+     * @return The partial histogram, or null if the region alone has too many colors
+     */
+    Partial computePartial(RenderedImage image, Region region, int stepX, int stepY) {
+        ColorMap partial = new ColorMap();
+        long[] firsts = new long[1024];
+        int newColors = 0;
+
+        Raster tile = image.getTile(region.tileX, region.tileY);
+        final Rectangle bounds = region.bounds;
+        final Rectangle tileBounds = region.tileBounds;
+        int bands = tile.getNumBands();
+        int[] pixel = new int[bands];
+        for (int x = bounds.x; x < bounds.x + bounds.width; x += stepX) {
+            for (int y = bounds.y; y < bounds.y + bounds.height; y += stepY) {
+                tile.getPixel(x, y, pixel);
+                int color = getPixelColor(pixel, bands);
+                int size = partial.size();
+                partial.increment(red(color), green(color), blue(color), alpha(color));
+                if (partial.size() > size) {
+                    if (partial.size() > Short.MAX_VALUE) {
+                        return null;
+                    }
+                    // position of the pixel in the column by column scan of the whole tile
+                    long position = (long) (x - tileBounds.x) * tileBounds.height
+                            + (y - tileBounds.y);
+                    if (newColors == firsts.length) {
+                        firsts = Arrays.copyOf(firsts, newColors * 2);
+                    }
+                    firsts[newColors++] = (position << 32) | (color & 0xffffffffL);
+                }
+            }
+        }
+        return new Partial(partial, firsts, newColors);
+    }
+
+    /**
+     * Returns the color of a pixel, normalizing the colors with very low alpha
+     */
+    static int getPixelColor(int[] pixel, int bands) {
+        int red, green, blue, alpha;
+
+        if(bands == 1 || bands == 2) {
+            red = green = blue = pixel[0];
+            alpha = bands == 2 ? pixel[1] : 255;
+        } else  {
+            red = pixel[0];
+            green = pixel[1];
+            blue = pixel[2];
+            alpha = bands == 4 ? pixel[3] : 255;
+        }
+
+        // normalize colors with very low alpha = 0 to just one
+        if (alpha <= ALPHA_THRESHOLD) {
+            red = 255;
+            green = 255;
+            blue = 255;
+            alpha = 0;
+        }
+        return color(red, green, blue, alpha);
+    }
+
     private int updateColorMap(RenderedImage image, Raster tile, ColorMap colorMap, int shift,
             int stepX, int stepY) {
         final int minX = Math.max(tile.getMinX(), image.getMinX());
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +37,8 @@ public class Quantizer {
 
     int maxColors;
 
+    ExecutorService executor;
+
     public Quantizer(int maxColors) {
         this.maxColors = maxColors;
     }
@@ -49,6 +52,16 @@ public class Quantizer {
         return this;
     }
 
+    /**
+     * Builds the image histogram in parallel, one image region per task
+     * @param executor The executor running the tasks, or null to work in the calling thread
+     * @return
+     */
+    public Quantizer executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public ColorIndexer buildColorIndexer(RenderedImage image) {
         long totalPixelCount = (long) image.getWidth() * (long) image.getHeight();
 
@@ -63,7 +76,7 @@ public class Quantizer {
             subsx = 1;
             subsy = 1;
         }
-        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy);
+        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy, executor);
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Found " + histogram.size() + " unique colors with shift "
                     + histogram.getShift());
@@ -6,10 +6,13 @@ package org.geoserver.wms;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.geoserver.data.test.MockData;
 import org.geotools.referencing.CRS;
@@ -148,4 +151,51 @@ public class DefaultWebMapServiceTest extends WMSTestSupport {
         assertEquals(512, height);
     }
 
+    @Test
+    public void testSaturatedRenderingPool() throws Exception {
+        RenderingExecutor executor = new RenderingExecutor(1, 0, 100);
+        try {
+            assertTrue(executor.isConfiguredAs(1, 0, 100));
+            assertFalse(executor.isConfiguredAs(2, 0, 100));
+            assertEquals(1, executor.getMaximumPoolSize());
+            assertFalse(executor.isUnbounded());
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // fine
+                    }
+                    done.countDown();
+                }
+            });
+            // the pool is saturated, this one runs outside of it after waiting for a slot
+            final CountDownLatch overflow = new CountDownLatch(1);
+            long start = System.currentTimeMillis();
+            executor.execute(new Runnable() {
+                public void run() {
+                    overflow.countDown();
+                }
+            });
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertTrue(overflow.await(10, TimeUnit.SECONDS));
+            assertEquals(1, executor.getRejectedCount());
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        
+        RenderingExecutor unbounded = new RenderingExecutor(0, 0, 0);
+        try {
+            assertTrue(unbounded.isUnbounded());
+        } finally {
+            unbounded.shutdown();
+        }
+    }
+
 }
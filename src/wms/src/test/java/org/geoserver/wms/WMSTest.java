@@ -4,6 +4,7 @@
  */
 package org.geoserver.wms;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.Date;
@@ -12,15 +13,28 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.DimensionPresentation;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.impl.DimensionInfoImpl;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.security.CatalogMode;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.request.TransactionRequest;
 import org.geotools.data.FeatureSource;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -141,5 +155,81 @@ public class WMSTest extends WMSTestSupport {
         assertTrue("expected " + Arrays.toString(expectedIds) + " but got " + results,
                 results.containsAll(Arrays.asList(expectedIds)));
     }
-    
+
+    @Test
+    public void testDimensionDomainCache() throws Exception {
+        setupStartEndTimeDimension(TIME_WITH_START_END.getLocalPart(), "time", "startTime", "endTime");
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(TIME_WITH_START_END.getLocalPart());
+        DimensionInfo time = info.getMetadata().get(ResourceInfo.TIME, DimensionInfo.class);
+
+        // a daily series with a gap, and a stray value
+        final TreeSet<java.util.Date> domain = new TreeSet<java.util.Date>();
+        for (int i = 1; i <= 5; i++) {
+            domain.add(Date.valueOf("2012-02-0" + i));
+        }
+        for (int i = 10; i <= 20; i += 2) {
+            domain.add(Date.valueOf("2012-02-" + i));
+        }
+        domain.add(Date.valueOf("2012-03-15"));
+        final AtomicInteger loads = new AtomicInteger();
+        DimensionDomainCache.Loader<java.util.Date> loader = new DimensionDomainCache.Loader<java.util.Date>() {
+            public TreeSet<java.util.Date> load() {
+                loads.incrementAndGet();
+                return domain;
+            }
+        };
+
+        DimensionDomainCache cache = new DimensionDomainCache(getCatalog(), 60000);
+        try {
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(1, loads.get());
+            assertEquals(3, ((DimensionDomainCache.TimeRun[]) DimensionDomainCache.encode(domain)).length);
+
+            // catalog changes drop the domain
+            getCatalog().save(info);
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(2, loads.get());
+
+            // transactions drop the domain only once committed
+            TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+            cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_UPDATE,
+                    new TransactionRequest.WFS11(tx), TIME_WITH_START_END, null));
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(2, loads.get());
+            cache.afterTransaction(tx, null, false);
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(2, loads.get());
+
+            cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_UPDATE,
+                    new TransactionRequest.WFS11(tx), TIME_WITH_START_END, null));
+            cache.afterTransaction(tx, null, true);
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(3, loads.get());
+
+            // users with access limits do not share the domains of the others
+            final TreeSet<java.util.Date> limitedDomain = new TreeSet<java.util.Date>(
+                    domain.headSet(Date.valueOf("2012-02-10")));
+            DimensionDomainCache.Loader<java.util.Date> limitedLoader = new DimensionDomainCache.Loader<java.util.Date>() {
+                public TreeSet<java.util.Date> load() {
+                    loads.incrementAndGet();
+                    return limitedDomain;
+                }
+            };
+            FeatureTypeInfo limited = new SecuredFeatureTypeInfo(info, WrapperPolicy.readOnlyHide(
+                    new VectorAccessLimits(CatalogMode.HIDE, null, Filter.EXCLUDE, null, null)));
+            assertEquals(limitedDomain, cache.getDomain(limited, ResourceInfo.TIME, time, limitedLoader));
+            assertEquals(limitedDomain, cache.getDomain(limited, ResourceInfo.TIME, time, limitedLoader));
+            assertEquals(4, loads.get());
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(4, loads.get());
+
+            // a per layer setting disables caching
+            info.getMetadata().put(DimensionDomainCache.TTL_KEY, "0");
+            assertEquals(domain, cache.getDomain(info, ResourceInfo.TIME, time, loader));
+            assertEquals(5, loads.get());
+        } finally {
+            cache.destroy();
+        }
+    }
 }
@@ -6,9 +6,13 @@ package org.geoserver.wms.animate;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.List;
@@ -16,12 +20,16 @@ import java.util.List;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.RenderedImageList;
 import javax.xml.namespace.QName;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.RenderedImageMap;
@@ -110,6 +118,119 @@ public class AnimatorTest extends WMSTestSupport {
     	assertEquals(4, frames.size());
     }
     
+    /**
+     * Frames are rendered in parallel and handed over in order
+     */
+    @org.junit.Test
+    public void testFramesInOrder() throws Exception {
+        final WebMapService wms = (WebMapService) applicationContext.getBean("wmsService2");
+        final String layerName = MockData.BASIC_POLYGONS.getPrefix() + ":" +
+            MockData.BASIC_POLYGONS.getLocalPart();
+
+        GetMapRequest getMapRequest = createGetMapRequest(new QName(layerName));
+        getMapRequest.getRawKvp().put("aparam", "env:color");
+        getMapRequest.getRawKvp().put("avalues", "FF0000,00FF00,0000FF,FFFF00,00FFFF,FF00FF");
+        getMapRequest.getRawKvp().put("format", GIF_ANIMATED_FORMAT);
+        getMapRequest.getRawKvp().put("LAYERS", layerName);
+
+        FrameCatalog catalog = new FrameCatalog(getMapRequest, wms, getWMS());
+        FrameCatalogVisitor visitor = new FrameCatalogVisitor();
+        catalog.getFrames(visitor);
+
+        RenderedImageList frames = visitor.produce(getWMS());
+        assertEquals(6, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            RenderedImage frame = (RenderedImage) frames.get(i);
+            assertNotNull(frame);
+            assertEquals(getMapRequest.getWidth(), frame.getWidth());
+        }
+        // the first frame is kept around to describe the list
+        assertSame(frames.get(0), frames.get(0));
+        // the others are released once handed over
+        try {
+            frames.get(1);
+            fail("Should have failed, the frame was released already");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+    }
+
+    /**
+     * The animation fails before being handed over if the frames exceed the max rendering size
+     */
+    @org.junit.Test
+    public void testMaxRenderingSize() throws Exception {
+        final WebMapService wms = (WebMapService) applicationContext.getBean("wmsService2");
+        final String layerName = MockData.BASIC_POLYGONS.getPrefix() + ":" +
+            MockData.BASIC_POLYGONS.getLocalPart();
+
+        GetMapRequest getMapRequest = createGetMapRequest(new QName(layerName));
+        getMapRequest.getRawKvp().put("aparam", "fake_param");
+        getMapRequest.getRawKvp().put("avalues", "val0,val1,val2,val3");
+        getMapRequest.getRawKvp().put("format", GIF_ANIMATED_FORMAT);
+        getMapRequest.getRawKvp().put("LAYERS", layerName);
+
+        WMSInfo wmsInfo = getGeoServer().getService(WMSInfo.class);
+        wmsInfo.getMetadata().put(WMS.MAX_RENDERING_SIZE, 10l);
+        getGeoServer().save(wmsInfo);
+        try {
+            FrameCatalog catalog = new FrameCatalog(getMapRequest, wms, getWMS());
+            FrameCatalogVisitor visitor = new FrameCatalogVisitor();
+            catalog.getFrames(visitor);
+            try {
+                visitor.produce(getWMS());
+                fail("Should have failed, the frames are too large");
+            } catch (ServiceException e) {
+                assertTrue(e.getMessage().contains("Max rendering size"));
+            }
+        } finally {
+            wmsInfo.getMetadata().remove(WMS.MAX_RENDERING_SIZE);
+            getGeoServer().save(wmsInfo);
+        }
+    }
+
+    /**
+     * The animation fails if the frames take longer than the max animator rendering time
+     */
+    @org.junit.Test
+    public void testMaxRenderingTime() throws Exception {
+        final WebMapService wms = (WebMapService) applicationContext.getBean("wmsService2");
+        final String layerName = MockData.BASIC_POLYGONS.getPrefix() + ":" +
+            MockData.BASIC_POLYGONS.getLocalPart();
+
+        GetMapRequest getMapRequest = createGetMapRequest(new QName(layerName));
+        // enough frames that they cannot be all rendered within the limit
+        StringBuilder values = new StringBuilder("val0");
+        for (int i = 1; i < 50; i++) {
+            values.append(",val").append(i);
+        }
+        getMapRequest.getRawKvp().put("aparam", "fake_param");
+        getMapRequest.getRawKvp().put("avalues", values.toString());
+        getMapRequest.getRawKvp().put("format", GIF_ANIMATED_FORMAT);
+        getMapRequest.getRawKvp().put("LAYERS", layerName);
+
+        WMSInfo wmsInfo = getGeoServer().getService(WMSInfo.class);
+        wmsInfo.getMetadata().put(WMS.MAX_RENDERING_TIME, 1l);
+        getGeoServer().save(wmsInfo);
+        try {
+            FrameCatalog catalog = new FrameCatalog(getMapRequest, wms, getWMS());
+            FrameCatalogVisitor visitor = new FrameCatalogVisitor();
+            catalog.getFrames(visitor);
+            try {
+                RenderedImageList frames = visitor.produce(getWMS());
+                for (int i = 0; i < frames.size(); i++) {
+                    frames.get(i);
+                }
+                fail("Should have failed, the rendering took too long");
+            } catch (ServiceException e) {
+                assertTrue(e.getMessage().contains("maximum rendering time"));
+            }
+        } finally {
+            wmsInfo.getMetadata().remove(WMS.MAX_RENDERING_TIME);
+            getGeoServer().save(wmsInfo);
+        }
+    }
+
     /**
      * Produce animated gif through the WMS request.
      */
@@ -7,13 +7,23 @@ package org.geoserver.wms.capabilities;
 import static junit.framework.Assert.*;
 import static org.custommonkey.xmlunit.XMLAssert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.custommonkey.xmlunit.SimpleNamespaceContext;
 import org.custommonkey.xmlunit.XMLUnit;
@@ -298,4 +308,119 @@ public class GetCapabilitiesTransformerTest {
                         dom);
         assertEquals(1, list.getLength());
     }
+
+    @Test
+    public void testCapabilitiesCache() throws Exception {
+        final GetCapabilitiesTransformer tr = new GetCapabilitiesTransformer(wmsConfig, baseUrl,
+                mapFormats, legendFormats, null);
+        final AtomicInteger builds = new AtomicInteger();
+        CapabilitiesCache.DocumentWriter writer = new CapabilitiesCache.DocumentWriter() {
+            public void write(OutputStream output) throws IOException {
+                builds.incrementAndGet();
+                try {
+                    tr.transform(req, output);
+                } catch (Exception e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+        };
+        req.setVersion("1.1.1");
+        CapabilitiesCache cache = new CapabilitiesCache(geosConfig, 60000);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        cache.write(req, writer, first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        cache.write(req, writer, second);
+        assertEquals(1, builds.get());
+        assertEquals(first.toString("UTF-8"), second.toString("UTF-8"));
+        assertTrue(first.toString("UTF-8").contains("WMT_MS_Capabilities"));
+
+        // a different request gets its own document
+        req.setBaseUrl("http://example.com/geoserver");
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(2, builds.get());
+        req.setBaseUrl(baseUrl);
+
+        // parameters not affecting the document, such as cache busters, share it
+        Map<String, String> kvp = new HashMap<String, String>();
+        kvp.put("SERVICE", "WMS");
+        kvp.put("REQUEST", "GetCapabilities");
+        kvp.put("_", "1234");
+        req.setRawKvp(kvp);
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(2, builds.get());
+        kvp.put("TILED", "true");
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(3, builds.get());
+        req.setRawKvp(null);
+
+        // update sequence and configuration changes make the document stale
+        geosInfo.setUpdateSequence(geosInfo.getUpdateSequence() + 1);
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(4, builds.get());
+        cache.invalidate();
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(5, builds.get());
+        cache.write(req, writer, new ByteArrayOutputStream());
+        assertEquals(5, builds.get());
+
+        // each encoding has its own tag
+        CapabilitiesCache.Entry entry = cache.entries.get(cache.key(req));
+        assertFalse(entry.etag.equals(entry.getGzippedETag()));
+        assertTrue(entry.getGzipped().length < entry.document.length);
+    }
+
+    @Test
+    public void testCapabilitiesCacheConcurrentMisses() throws Exception {
+        final AtomicInteger builds = new AtomicInteger();
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CapabilitiesCache.DocumentWriter writer = new CapabilitiesCache.DocumentWriter() {
+            public void write(OutputStream output) throws IOException {
+                builds.incrementAndGet();
+                building.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                output.write("<WMT_MS_Capabilities/>".getBytes("UTF-8"));
+            }
+        };
+        req.setVersion("1.1.1");
+        final CapabilitiesCache cache = new CapabilitiesCache(geosConfig, 60000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        cache.write(req, writer, output);
+                        return output.toString("UTF-8");
+                    }
+                }));
+                if (i == 0) {
+                    assertTrue(building.await(10, TimeUnit.SECONDS));
+                }
+            }
+            // wait for the second request to join the build in progress
+            long start = System.currentTimeMillis();
+            while (cache.getHits() == 0 && System.currentTimeMillis() - start < 10000) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<String> future : futures) {
+                assertEquals("<WMT_MS_Capabilities/>", future.get());
+            }
+            assertEquals(1, builds.get());
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
 }
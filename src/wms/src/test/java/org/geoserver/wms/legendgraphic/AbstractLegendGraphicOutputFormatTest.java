@@ -16,7 +16,9 @@ import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +32,7 @@ import javax.xml.namespace.QName;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.wms.GetLegendGraphic;
@@ -155,6 +158,72 @@ public class AbstractLegendGraphicOutputFormatTest extends WMSTestSupport {
         assertEquals(errMsg, 1, resultLegendCount);
     }
 
+    @org.junit.Test
+    public void testLegendCache() throws Exception {
+        StyleInfo styleInfo = getCatalog().getStyleByName(MockData.ROAD_SEGMENTS.getLocalPart());
+        Style style = styleInfo.getStyle();
+        FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
+                MockData.ROAD_SEGMENTS.getNamespaceURI(), MockData.ROAD_SEGMENTS.getLocalPart());
+        GetLegendGraphicRequest req = new GetLegendGraphicRequest();
+        req.setLayer(ftInfo.getFeatureType());
+        req.setStyle(style);
+        req.setFormat("image/png");
+        req.setLegendOptions(new HashMap());
+
+        File directory = new File(getTestData().getDataDirectoryRoot(), "legendcache");
+        LegendCache cache = new LegendCache(getCatalog(), 10, directory);
+        assertTrue(directory.mkdirs() || directory.isDirectory());
+
+        BufferedImageLegendGraphic legend = cache.getLegendGraphic(req, legendProducer);
+        assertNotNull(legend.getPNG());
+        assertEquals(1, cache.getMisses());
+
+        // same request, served pre-encoded from memory
+        BufferedImageLegendGraphic cached = cache.getLegendGraphic(req, legendProducer);
+        assertEquals(1, cache.getHits());
+        assertTrue(Arrays.equals(legend.getPNG(), cached.getPNG()));
+        assertEquals(legend.getLegend().getWidth(), cached.getLegend().getWidth());
+        assertEquals(legend.getLegend().getHeight(), cached.getLegend().getHeight());
+
+        // a different legend option is a different legend
+        req.getLegendOptions().put("fontSize", "20");
+        cache.getLegendGraphic(req, legendProducer);
+        assertEquals(2, cache.getMisses());
+        req.getLegendOptions().remove("fontSize");
+
+        // the disk tier survives the memory one
+        LegendCache other = new LegendCache(getCatalog(), 10, directory);
+        other.getLegendGraphic(req, legendProducer);
+        assertEquals(1, other.getDiskHits());
+        assertEquals(0, other.getMisses());
+
+        // style changes drop the cached legends
+        getCatalog().save(styleInfo);
+        cache.getLegendGraphic(req, legendProducer);
+        assertEquals(3, cache.getMisses());
+
+        // changes to other feature types do not
+        long hits = cache.getHits();
+        getCatalog().save(getCatalog().getFeatureTypeByName(
+                MockData.BASIC_POLYGONS.getNamespaceURI(), MockData.BASIC_POLYGONS.getLocalPart()));
+        cache.getLegendGraphic(req, legendProducer);
+        assertEquals(3, cache.getMisses());
+        assertEquals(hits + 1, cache.getHits());
+        getCatalog().save(ftInfo);
+        cache.getLegendGraphic(req, legendProducer);
+        assertEquals(4, cache.getMisses());
+
+        // the disk tier is bounded too
+        LegendCache bounded = new LegendCache(getCatalog(), 10, directory, 2);
+        bounded.invalidate();
+        for (int i = 0; i < 5; i++) {
+            req.getLegendOptions().put("fontSize", String.valueOf(10 + i));
+            bounded.getLegendGraphic(req, legendProducer);
+        }
+        req.getLegendOptions().remove("fontSize");
+        assertTrue(bounded.diskFiles().size() <= 2);
+    }
+
     /**
      * Tests that a legend is produced for the explicitly specified rule, when the FeatureTypeStyle
      * has more than one rule, and one of them is requested by the RULE parameter.
@@ -81,6 +81,20 @@ public class GetMapIntegrationTest extends WMSTestSupport {
                 "src/test/resources/org/geoserver/wms/map/indexed-expected.png"), image, 0);
     }
 
+    @Test
+    public void testIndexedStreamingEncoder() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse("wms?LAYERS=sf:indexed&STYLES=&FORMAT=image/png&SERVICE=WMS&VERSION=1.1.1"
+                + "&REQUEST=GetMap&SRS=EPSG:4326&BBOX=100,78,104,80&WIDTH=300&HEIGHT=150"
+                + "&format_options=png_encoder:streaming;png_filter:paeth;png_compression:90");
+
+        assertEquals("image/png", response.getContentType());
+
+        RenderedImage image = ImageIO.read(getBinaryInputStream(response));
+        image = new ImageWorker(image).forceComponentColorModel().getRenderedImage();
+        ImageAssert.assertEquals(new File(
+                "src/test/resources/org/geoserver/wms/map/indexed-expected.png"), image, 0);
+    }
+
     @Test
     public void testIndexedBlackBG() throws Exception {
         MockHttpServletResponse response = getAsServletResponse("wms?bgcolor=0x000000&LAYERS=sf:indexed&STYLES=&FORMAT=image/png&SERVICE=WMS&VERSION=1.1.1"
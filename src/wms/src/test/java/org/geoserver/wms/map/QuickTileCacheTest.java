@@ -8,7 +8,19 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.wms.map.QuickTileCache.CacheElement;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -57,4 +69,103 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    MetaTileKey key(int x) {
+        MapKey mapKey = new MapKey("LAYERS=test", 1, new Point2D.Double(0, 0));
+        return new MetaTileKey(mapKey, new Point(x, 0), null);
+    }
+
+    CacheElement tiles(int size) {
+        byte[][] tiles = new byte[9][];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new byte[size];
+        }
+        return new CacheElement(tiles, "image/png");
+    }
+
+    @Test
+    public void testSizeBound() {
+        QuickTileCache cache = new QuickTileCache(9 * 300);
+        cache.storeTiles(key(0), tiles(100));
+        cache.storeTiles(key(3), tiles(100));
+        assertEquals(9 * 200, cache.getSize());
+
+        // touch the first one, the second is evicted
+        assertNotNull(cache.getTiles(key(0)));
+        cache.storeTiles(key(6), tiles(150));
+        assertNotNull(cache.getTiles(key(0)));
+        assertNull(cache.getTiles(key(3)));
+        assertNotNull(cache.getTiles(key(6)));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(9 * 250, cache.getSize());
+
+        // too big to be cached at all
+        cache.storeTiles(key(9), tiles(400));
+        assertNull(cache.getTiles(key(9)));
+        assertNotNull(cache.getTiles(key(0)));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.getTiles(key(0)));
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        final QuickTileCache cache = new QuickTileCache(1024 * 1024);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final QuickTileCache.Loader loader = new QuickTileCache.Loader() {
+            public CacheElement load() throws IOException {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return tiles(10);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CacheElement>> futures = new ArrayList<Future<CacheElement>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<CacheElement>() {
+                    public CacheElement call() throws Exception {
+                        return cache.getTiles(key(0), loader);
+                    }
+                }));
+            }
+            started.await();
+            // give the other threads time to queue up on the loading meta tile
+            Thread.sleep(100);
+            release.countDown();
+
+            CacheElement first = futures.get(0).get();
+            for (Future<CacheElement> future : futures) {
+                assertSame(first, future.get());
+            }
+            assertEquals(1, loads.get());
+            assertEquals(1, cache.getMisses());
+            assertEquals(3, cache.getHits());
+            assertSame(first, cache.getTiles(key(0)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInvalidatedWhileLoading() throws Exception {
+        final QuickTileCache cache = new QuickTileCache(1024 * 1024);
+        CacheElement tiles = cache.getTiles(key(0), new QuickTileCache.Loader() {
+            public CacheElement load() throws IOException {
+                cache.clear();
+                return tiles(10);
+            }
+        });
+        assertNotNull(tiles);
+        assertNull(cache.getTiles(key(0)));
+    }
 }
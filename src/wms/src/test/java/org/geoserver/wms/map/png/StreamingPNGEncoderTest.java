@@ -0,0 +1,106 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class StreamingPNGEncoderTest {
+
+    @Test
+    public void testTrueColor() throws Exception {
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_BYTE_GRAY };
+        for (int type : types) {
+            BufferedImage image = buildImage(new BufferedImage(257, 131, type));
+            for (PNGFilterType filter : PNGFilterType.values()) {
+                assertRoundTrip(image, filter);
+            }
+        }
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        BufferedImage image = buildImage(new BufferedImage(257, 131,
+                BufferedImage.TYPE_BYTE_INDEXED));
+        for (PNGFilterType filter : PNGFilterType.values()) {
+            assertRoundTrip(image, filter);
+        }
+    }
+
+    @Test
+    public void testFourBitsSubImage() throws Exception {
+        byte[] r = new byte[16];
+        byte[] g = new byte[16];
+        byte[] b = new byte[16];
+        byte[] a = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = (byte) (i * 16);
+            g[i] = (byte) (255 - i * 16);
+            b[i] = (byte) i;
+            a[i] = (byte) (i == 0 ? 0 : 255);
+        }
+        IndexColorModel icm = new IndexColorModel(4, 16, r, g, b, a);
+        BufferedImage image = new BufferedImage(101, 50, BufferedImage.TYPE_BYTE_BINARY, icm);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRaster().setSample(x, y, 0, (x * y) % 16);
+            }
+        }
+
+        // odd offsets, the rows cannot be copied as is
+        assertRoundTrip(image.getSubimage(3, 5, 77, 40), PNGFilterType.NONE);
+        // byte aligned offsets, fast path
+        assertRoundTrip(image.getSubimage(4, 5, 77, 40), PNGFilterType.NONE);
+    }
+
+    @Test
+    public void testAccepts() {
+        assertTrue(StreamingPNGEncoder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(StreamingPNGEncoder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(StreamingPNGEncoder.accepts(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    BufferedImage buildImage(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setColor(new Color(200, 30, 40, 120));
+        graphics.fillOval(10, 10, 200, 100);
+        graphics.setColor(Color.BLUE);
+        graphics.drawLine(0, 0, 256, 130);
+        graphics.dispose();
+        return image;
+    }
+
+    void assertRoundTrip(BufferedImage image, PNGFilterType filter) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new StreamingPNGEncoder(6, filter).encode(image, bos);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                assertEquals("Pixel " + x + "," + y + " with filter " + filter,
+                        image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+}
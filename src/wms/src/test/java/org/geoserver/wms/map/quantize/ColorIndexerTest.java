@@ -12,6 +12,13 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.jai.TiledImage;
 
@@ -133,4 +140,51 @@ public class ColorIndexerTest {
         // make sure we have 4 colors + transparent one
         assertEquals(5, icm.getMapSize());
     }
+
+    @Test
+    public void testConcurrentIndexer() throws Exception {
+        // a palette with a few grays and reds
+        byte[][] colors = new byte[4][16];
+        for (int i = 0; i < 16; i++) {
+            colors[0][i] = (byte) (i * 16);
+            colors[1][i] = (byte) (i < 8 ? i * 32 : 0);
+            colors[2][i] = (byte) (i < 8 ? i * 32 : 0);
+            colors[3][i] = (byte) 255;
+        }
+        final SimpleColorIndexer reference = new SimpleColorIndexer(colors);
+        // a small cache forces plenty of collisions
+        final ConcurrentColorIndexer indexer = new ConcurrentColorIndexer(
+                reference.toIndexColorModel(), 64);
+        assertSame(indexer.toIndexColorModel(), indexer.toIndexColorModel());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        Random random = new Random(seed);
+                        int mismatches = 0;
+                        for (int i = 0; i < 20000; i++) {
+                            int r = random.nextInt(256);
+                            int g = random.nextInt(4) * 64;
+                            int b = random.nextInt(256);
+                            int a = 255;
+                            if (indexer.getClosestIndex(r, g, b, a) != reference
+                                    .getClosestIndex(r, g, b, a)) {
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -12,9 +12,16 @@ import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
 
 import org.geotools.image.test.ImageAssert;
 import org.junit.Test;
@@ -169,6 +176,149 @@ public class QuantizerTest {
         assertImagesSimilar(bi, indexed, 250);
     }
 
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        // enough random colors to force the histogram to shift bits
+        BufferedImage bi = new BufferedImage(600, 1000, BufferedImage.TYPE_4BYTE_ABGR);
+        Random random = new Random(0);
+        for (int x = 0; x < bi.getWidth(); x++) {
+            for (int y = 0; y < bi.getHeight(); y++) {
+                bi.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ColorIndexer serial = new Quantizer(256).buildColorIndexer(bi);
+            ColorIndexer parallel = new Quantizer(256).executor(executor).buildColorIndexer(bi);
+            IndexColorModel icm = serial.toIndexColorModel();
+            IndexColorModel picm = parallel.toIndexColorModel();
+            assertEquals(icm.getMapSize(), picm.getMapSize());
+            int[] rgbs = new int[icm.getMapSize()];
+            int[] prgbs = new int[picm.getMapSize()];
+            icm.getRGBs(rgbs);
+            picm.getRGBs(prgbs);
+            assertArrayEquals(rgbs, prgbs);
+
+            RenderedImage indexed = ColorIndexerDescriptor.create(bi, serial, null);
+            RenderedImage pindexed = ColorIndexerDescriptor.remap(bi, parallel, executor);
+            assertTrue(pindexed instanceof BufferedImage);
+            int[] samples = indexed.getData().getSamples(0, 0, bi.getWidth(), bi.getHeight(), 0,
+                    (int[]) null);
+            int[] psamples = pindexed.getData().getSamples(0, 0, bi.getWidth(), bi.getHeight(),
+                    0, (int[]) null);
+            assertArrayEquals(samples, psamples);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHistogramMatchesBaseline() throws Exception {
+        // a few thousand colors, no bit shifting needed
+        BufferedImage gradient = new BufferedImage(300, 700, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int x = 0; x < gradient.getWidth(); x++) {
+            for (int y = 0; y < gradient.getHeight(); y++) {
+                gradient.setRGB(x, y, new Color(x % 64, y % 200, (x * y) % 5, 128 + x % 128)
+                        .getRGB());
+            }
+        }
+        // enough random colors to force the histogram to shift bits
+        BufferedImage random = new BufferedImage(300, 300, BufferedImage.TYPE_4BYTE_ABGR);
+        Random r = new Random(0);
+        for (int x = 0; x < random.getWidth(); x++) {
+            for (int y = 0; y < random.getHeight(); y++) {
+                random.setRGB(x, y, r.nextInt());
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (RenderedImage image : new RenderedImage[] { gradient,
+                    new TiledImage(gradient, 128, 128), random }) {
+                for (int step = 1; step <= 2; step++) {
+                    // the rest of the quantizer is unchanged, an identical histogram (bin order
+                    // included) gives an identical palette
+                    assertSameHistogram(baselineHistogram(image, step, step), new PackedHistogram(
+                            image, step, step));
+                    assertSameHistogram(baselineHistogram(image, step, step), new PackedHistogram(
+                            image, step, step, executor));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void assertSameHistogram(BaselineHistogram expected, PackedHistogram histogram) {
+        assertEquals(expected.shift, histogram.getShift());
+        assertEquals(expected.colors.size(), histogram.size());
+        for (int i = 0; i < histogram.size(); i++) {
+            assertEquals(expected.colors.get(i).intValue(), histogram.getPackedColor(i));
+            assertEquals(expected.counts.get(i).longValue(), histogram.getCount(i));
+        }
+    }
+
+    static class BaselineHistogram {
+        int shift;
+
+        List<Integer> colors = new ArrayList<Integer>();
+
+        List<Integer> counts = new ArrayList<Integer>();
+    }
+
+    /**
+     * The histogram as computed by the original, serial only, PackedHistogram
+     */
+    BaselineHistogram baselineHistogram(RenderedImage image, int stepX, int stepY) {
+        BaselineHistogram result = new BaselineHistogram();
+        ColorMap colorMap = new ColorMap();
+        for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++) {
+            for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+                Raster tile = image.getTile(tx, ty);
+                int minX = Math.max(tile.getMinX(), image.getMinX());
+                int maxX = Math.min(tile.getWidth() + tile.getMinX(), image.getMinX()
+                        + image.getWidth());
+                int minY = Math.max(tile.getMinY(), image.getMinY());
+                int maxY = Math.min(tile.getHeight() + tile.getMinY(), image.getMinY()
+                        + image.getHeight());
+                int bands = tile.getNumBands();
+                int[] pixel = new int[bands];
+                for (int x = minX; x < maxX; x += stepX) {
+                    for (int y = minY; y < maxY; y += stepY) {
+                        tile.getPixel(x, y, pixel);
+                        int red = pixel[0], green = pixel[1], blue = pixel[2];
+                        int alpha = bands == 4 ? pixel[3] : 255;
+                        if (alpha <= PackedHistogram.ALPHA_THRESHOLD) {
+                            red = green = blue = 255;
+                            alpha = 0;
+                        }
+                        int shift = result.shift;
+                        colorMap.increment(ColorUtils.shift(red, shift), ColorUtils.shift(green,
+                                shift), ColorUtils.shift(blue, shift), ColorUtils.shift(alpha,
+                                shift));
+                        if (colorMap.size() > Short.MAX_VALUE) {
+                            result.shift++;
+                            ColorMap shifted = new ColorMap();
+                            for (ColorMap.ColorEntry e : colorMap) {
+                                shifted.increment(ColorUtils.shift(ColorUtils.red(e.color), 1),
+                                        ColorUtils.shift(ColorUtils.green(e.color), 1),
+                                        ColorUtils.shift(ColorUtils.blue(e.color), 1),
+                                        ColorUtils.shift(ColorUtils.alpha(e.color), 1), e.value);
+                            }
+                            colorMap.reset(shifted);
+                        }
+                    }
+                }
+            }
+        }
+        for (ColorMap.ColorEntry e : colorMap) {
+            result.colors.add(e.color);
+            result.counts.add(e.value);
+        }
+        return result;
+    }
+
     /**
      * Checks two images are visually equal given a certain maximum color distance. For a
      * better tool you might want to check out {@link ImageAssert}, but that works only with RGB
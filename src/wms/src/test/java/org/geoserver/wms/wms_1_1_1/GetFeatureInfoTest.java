@@ -9,9 +9,12 @@ import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
@@ -31,6 +34,8 @@ import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wms.GetFeatureInfo;
+import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geotools.factory.CommonFactoryFinder;
@@ -43,6 +48,8 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.w3c.dom.Document;
 
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
 public class GetFeatureInfoTest extends WMSTestSupport {
     
     public static String WCS_PREFIX = "wcs";
@@ -668,4 +675,84 @@ public class GetFeatureInfoTest extends WMSTestSupport {
        Document dom = getAsDOM(request);
        assertEquals("wfs:FeatureCollection", dom.getDocumentElement().getNodeName());
    }
+
+    /**
+     * Identifies the query layers in parallel on a pool of the specified size
+     */
+    ExecutorService enableParallelIdentify(int threads) {
+        System.setProperty("WMS_FEATURE_INFO_THREADS", String.valueOf(threads));
+        GetFeatureInfo.disposeLayerPool();
+        ExecutorService pool = GetFeatureInfo.getLayerPool();
+        assertNotNull(pool);
+        return pool;
+    }
+
+    void disableParallelIdentify() {
+        System.clearProperty("WMS_FEATURE_INFO_THREADS");
+        GetFeatureInfo.disposeLayerPool();
+    }
+
+    @Test
+    public void testParallelGetFeatureInfo() throws Exception {
+        enableParallelIdentify(2);
+        try {
+            // this request hits on two overlapping features, a lake and a forest
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request = "wms?REQUEST=GetFeatureInfo&SERVICE=WMS&VERSION=1.1.0"
+                    + "&BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&X=267&Y=325"
+                    + "&INFO_FORMAT=application/vnd.ogc.gml&QUERY_LAYERS=" + layer
+                    + "&Layers=" + layer + "&Styles=&WIDTH=426&HEIGHT=512"
+                    + "&format=image%2Fpng&srs=EPSG%3A4326";
+
+            // FEATURE_COUNT still applies across layers, in layer order
+            Document dom = getAsDOM(request);
+            assertXpathEvaluatesTo("1", "count(//gml:featureMember)", dom);
+            assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+
+            dom = getAsDOM(request + "&FEATURE_COUNT=2");
+            assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+            assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+            assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
+        } finally {
+            disableParallelIdentify();
+        }
+    }
+
+    @Test
+    public void testParallelGetFeatureInfoTimeout() throws Exception {
+        ExecutorService pool = enableParallelIdentify(1);
+        WMSInfo wmsInfo = getGeoServer().getService(WMSInfo.class);
+        wmsInfo.getMetadata().put(WMS.FEATURE_INFO_LAYER_TIMEOUT, 100l);
+        getGeoServer().save(wmsInfo);
+        // keep the only pool thread busy, the layers won't answer in time
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // fine
+                }
+            }
+        });
+        try {
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request = "wms?REQUEST=GetFeatureInfo&SERVICE=WMS&VERSION=1.1.0"
+                    + "&BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&X=267&Y=325"
+                    + "&INFO_FORMAT=application/vnd.ogc.gml&QUERY_LAYERS=" + layer
+                    + "&Layers=" + layer + "&Styles=&WIDTH=426&HEIGHT=512"
+                    + "&format=image%2Fpng&srs=EPSG%3A4326&FEATURE_COUNT=2";
+
+            MockHttpServletResponse response = getAsServletResponse(request);
+            assertTrue(response.getHeader("Warning").contains("skipped"));
+            Document dom = dom(new ByteArrayInputStream(response.getOutputStreamContent()
+                    .getBytes()));
+            assertXpathEvaluatesTo("0", "count(//gml:featureMember)", dom);
+        } finally {
+            release.countDown();
+            wmsInfo.getMetadata().remove(WMS.FEATURE_INFO_LAYER_TIMEOUT);
+            getGeoServer().save(wmsInfo);
+            disableParallelIdentify();
+        }
+    }
 }